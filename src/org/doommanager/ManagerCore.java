@@ -19,12 +19,14 @@
 package org.doommanager;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
+import org.doommanager.editor.file.SaveJournal;
 import org.doommanager.util.RuntimeArgsContainer;
 import org.doommanager.view.MainViewController;
 
@@ -155,6 +157,16 @@ public class ManagerCore extends Application {
 		}
 	}
 	
+	/**
+	 * Removes the temporary files of saves that were cut off by a crash. The
+	 * files that were being saved still have their contents from before.
+	 */
+	private static void recoverSaves() {
+		List<String> interrupted = SaveJournal.getDefault().recover();
+		if (!interrupted.isEmpty())
+			log.log(Level.WARNING, "Changes to " + interrupted.size() + " file(s) were not saved when the program last stopped: " + interrupted);
+	}
+	
 	/**
 	 * Main method.
 	 * 
@@ -168,6 +180,9 @@ public class ManagerCore extends Application {
 		// Set up logging and file generation.
 		setupLogging();
 		
+		// Clean up after any save that was cut off the last time.
+		recoverSaves();
+		
 		// Launch the GUI.
 		launch(args);
 	}
@@ -22,7 +22,12 @@ package org.doommanager.editor;
  * Encapsulation of corruption types.
  */
 public enum CorruptionType {
-	NOT_CORRUPT("Not corrupt");
+	NOT_CORRUPT("Not corrupt"),
+	BAD_HEADER("The file header is missing or has an unknown identifier"),
+	DIRECTORY_OUT_OF_BOUNDS("The directory runs past the end of the file"),
+	LUMP_OUT_OF_BOUNDS("A lump points to data outside of the file"),
+	BAD_CENTRAL_DIRECTORY("The zip central directory is missing or damaged"),
+	UNSUPPORTED_COMPRESSION("An entry uses a compression method that is not supported");
 	
 	/**
 	 * The reason for the corruption (debuggable message).
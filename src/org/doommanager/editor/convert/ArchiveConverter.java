@@ -0,0 +1,649 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.convert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import org.doommanager.editor.file.ArchiveOutput;
+import org.doommanager.editor.file.AtomicSave;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.editor.file.PK3Output;
+import org.doommanager.editor.file.SaveJournal;
+import org.doommanager.editor.file.WadFile;
+import org.doommanager.editor.file.WadOutput;
+import org.doommanager.editor.file.WadWriter;
+import org.doommanager.editor.map.MapReference;
+
+/**
+ * Converts a wad to a PK3 or a PK3 to a wad. Namespace markers become
+ * folders and back, and maps are stored as embedded wads in maps/ of a PK3.
+ * 
+ * The conversion runs as a pipeline of three stages connected by bounded
+ * queues: a reader thread pulls (and for PK3s inflates) lump data, a
+ * converter thread renames lumps and builds or expands map wads, and the
+ * calling thread hands the result to an ArchiveOutput, which writes it out
+ * as it arrives. Only the lumps in the queues are held in memory at once.
+ */
+public class ArchiveConverter {
+
+	/**
+	 * The default number of lumps each queue between stages can hold.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	/**
+	 * The item that tells the next stage there is nothing more to come.
+	 */
+	private static final Object END = new Object();
+
+	/**
+	 * The file to convert.
+	 */
+	private final DoomFile source;
+
+	/**
+	 * The number of lumps each queue between stages can hold.
+	 */
+	private int queueSize;
+
+	/**
+	 * The deflate level for PK3 output.
+	 */
+	private int compressionLevel;
+
+	/**
+	 * The number of compression threads for PK3 output.
+	 */
+	private int threadCount;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ArchiveConverter.class.getName());
+
+	/**
+	 * Creates a converter for a wad or PK3.
+	 * 
+	 * @param source
+	 * 		The file to convert. It must stay open until the conversion is
+	 * 		done.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the source is null.
+	 */
+	public ArchiveConverter(DoomFile source) {
+		if (source == null) {
+			NullPointerException e = new NullPointerException("Provided a null source to ArchiveConverter.");
+			log.log(Level.SEVERE, "ArchiveConverter source is null", e);
+			throw e;
+		}
+		this.source = source;
+		this.queueSize = DEFAULT_QUEUE_SIZE;
+		this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		this.threadCount = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets how many lumps can wait between two stages. This bounds the memory
+	 * the conversion uses.
+	 * 
+	 * @param queueSize
+	 * 		The queue size, at least 1.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the size is less than 1.
+	 */
+	public void setQueueSize(int queueSize) {
+		if (queueSize < 1)
+			throw new IllegalArgumentException("ArchiveConverter queues must hold at least one lump.");
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Sets the deflate level used when converting to a PK3.
+	 * 
+	 * @param compressionLevel
+	 * 		0 to store everything up to 9 for the smallest output, or -1 for
+	 * 		the deflate default.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the level is out of range.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Sets how many threads compress entries when converting to a PK3.
+	 * 
+	 * @param threadCount
+	 * 		The number of threads, at least 1.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the count is less than 1.
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("ArchiveConverter needs at least one thread.");
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Converts the source to a PK3. A PK3 source is copied as is.
+	 * 
+	 * @param filePath
+	 * 		The PK3 to write, which is replaced once the conversion is
+	 * 		complete. It may be the source itself.
+	 * 
+	 * @return
+	 * 		The size of the written PK3 in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If reading, converting or writing fails.
+	 */
+	public long toPK3(String filePath) throws IOException {
+		List<Transfer> plan = this.source instanceof PK3File ? planCopy() : planWadToPK3();
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath);
+				PK3Output output = new PK3Output(save.getChannel(), this.compressionLevel, this.threadCount)) {
+			long size = run(plan, output, filePath);
+			save.commit();
+			return size;
+		}
+	}
+
+	/**
+	 * Converts the source to a PWAD. A wad source is copied as is.
+	 * 
+	 * @param filePath
+	 * 		The wad to write, which is replaced once the conversion is
+	 * 		complete. It may be the source itself.
+	 * 
+	 * @return
+	 * 		The size of the written wad in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If reading, converting or writing fails.
+	 */
+	public long toWad(String filePath) throws IOException {
+		List<Transfer> plan = this.source instanceof PK3File ? planPK3ToWad() : planCopy();
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath);
+				WadOutput output = new WadOutput(save.getChannel(), false, false)) {
+			long size = run(plan, output, filePath);
+			save.commit();
+			return size;
+		}
+	}
+
+	/**
+	 * Plans copying every lump under its own name.
+	 * 
+	 * @return
+	 * 		The transfers in output order.
+	 */
+	private List<Transfer> planCopy() {
+		List<Transfer> plan = new ArrayList<>();
+		for (Lump lump : this.source.getLumps())
+			plan.add(new Transfer(TransferType.COPY, lump.getName(), Collections.singletonList(lump)));
+		return plan;
+	}
+
+	/**
+	 * Plans a wad to PK3 conversion. Lumps between namespace markers go into
+	 * the namespace folder, every map becomes maps/NAME.wad and the markers
+	 * themselves are dropped. When two lumps end up with the same path only
+	 * the last is kept, since that is the one the engine would have used.
+	 * 
+	 * @return
+	 * 		The transfers in output order.
+	 */
+	private List<Transfer> planWadToPK3() {
+		Map<Lump, MapReference> mapsByHeader = new HashMap<>();
+		for (MapReference map : MapReference.findMaps(this.source))
+			mapsByHeader.put(map.getHeader(), map);
+
+		List<Lump> lumps = this.source.getLumps();
+		List<Transfer> plan = new ArrayList<>();
+		Namespace namespace = null;
+		for (int i = 0; i < lumps.size(); i++) {
+			Lump lump = lumps.get(i);
+			String name = lump.getName();
+			MapReference map = mapsByHeader.get(lump);
+			if (map != null) {
+				List<Lump> sources = new ArrayList<>();
+				sources.add(lump);
+				sources.addAll(map.getLumps());
+				plan.add(new Transfer(TransferType.BUILD_MAP_WAD, "maps/" + Namespace.toPath(null, name) + ".wad", sources));
+				i += map.getLumps().size();
+				continue;
+			}
+			Namespace opened = Namespace.fromStartMarker(name);
+			if (opened != null) {
+				namespace = opened;
+				continue;
+			}
+			if (namespace != null && namespace.isEndMarker(name)) {
+				namespace = null;
+				continue;
+			}
+			if (Namespace.isSubMarker(name))
+				continue;
+			plan.add(new Transfer(TransferType.COPY, Namespace.toPath(namespace, name), Collections.singletonList(lump)));
+		}
+
+		Map<String, Integer> lastByPath = new HashMap<>();
+		for (int i = 0; i < plan.size(); i++)
+			lastByPath.put(plan.get(i).target, i);
+		List<Transfer> unique = new ArrayList<>(lastByPath.size());
+		for (int i = 0; i < plan.size(); i++) {
+			if (lastByPath.get(plan.get(i).target) == i)
+				unique.add(plan.get(i));
+			else
+				log.log(Level.FINE, "Dropping " + plan.get(i).target + " since a later lump has the same path.");
+		}
+		return unique;
+	}
+
+	/**
+	 * Plans a PK3 to wad conversion. The directory is laid out from the
+	 * entry names alone, before any data is read: root lumps first, then the
+	 * expanded map wads, then each namespace between its markers. Entries in
+	 * folders that are not namespaces go to the root.
+	 * 
+	 * @return
+	 * 		The transfers in output order.
+	 */
+	private List<Transfer> planPK3ToWad() {
+		List<Transfer> root = new ArrayList<>();
+		List<Transfer> maps = new ArrayList<>();
+		Map<Namespace, List<Transfer>> namespaces = new EnumMap<>(Namespace.class);
+		for (Lump lump : this.source.getLumps()) {
+			String path = lump.getName();
+			Transfer transfer = new Transfer(TransferType.COPY, Namespace.toLumpName(path), Collections.singletonList(lump));
+			String lowerPath = path.toLowerCase(Locale.ROOT);
+			if (lowerPath.startsWith("maps/") && lowerPath.endsWith(".wad")) {
+				maps.add(new Transfer(TransferType.EXPAND_MAP_WAD, transfer.target, transfer.sources));
+				continue;
+			}
+			Namespace namespace = Namespace.fromPath(path);
+			if (namespace == null)
+				root.add(transfer);
+			else
+				namespaces.computeIfAbsent(namespace, n -> new ArrayList<>()).add(transfer);
+		}
+
+		List<Transfer> plan = new ArrayList<>(root);
+		plan.addAll(maps);
+		for (Map.Entry<Namespace, List<Transfer>> entry : namespaces.entrySet()) {
+			List<Lump> none = Collections.emptyList();
+			plan.add(new Transfer(TransferType.MARKER, entry.getKey().getStartMarker(), none));
+			plan.addAll(entry.getValue());
+			plan.add(new Transfer(TransferType.MARKER, entry.getKey().getEndMarker(), none));
+		}
+		return plan;
+	}
+
+	/**
+	 * Runs the pipeline. The reader and converter stages run on their own
+	 * threads while the calling thread writes. If any stage fails the others
+	 * are stopped and the failure is thrown here.
+	 * 
+	 * @param plan
+	 * 		The transfers in output order.
+	 * 
+	 * @param output
+	 * 		The archive to write to.
+	 * 
+	 * @param filePath
+	 * 		The path being written, for messages.
+	 * 
+	 * @return
+	 * 		The size of the written archive.
+	 * 
+	 * @throws IOException
+	 * 		If any stage fails.
+	 */
+	private long run(List<Transfer> plan, ArchiveOutput output, String filePath) throws IOException {
+		long startTime = System.nanoTime();
+		BlockingQueue<Object> loaded = new ArrayBlockingQueue<>(this.queueSize);
+		BlockingQueue<Object> converted = new ArrayBlockingQueue<>(this.queueSize);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		Thread reader = startStage("read", loaded, failure, () -> {
+			for (Transfer transfer : plan)
+				loaded.put(load(transfer));
+		});
+		Thread converter = startStage("convert", converted, failure, () -> {
+			for (Object item = loaded.take(); item != END; item = loaded.take())
+				for (Converted lump : convert((Loaded)item))
+					converted.put(lump);
+		});
+
+		boolean finished = false;
+		try {
+			int count = 0;
+			for (Object item = converted.take(); item != END; item = converted.take()) {
+				Converted lump = (Converted)item;
+				output.add(lump.name, lump.data);
+				count++;
+			}
+			Throwable cause = failure.get();
+			if (cause != null)
+				throw new IOException("Unable to convert " + this.source.getFilePath() + " to " + filePath, cause);
+			long size = output.finish();
+			finished = true;
+			log.log(Level.FINE, "Converted " + this.source.getFilePath() + " to " + count + " lumps in " + filePath
+					+ " in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+			return size;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while converting " + this.source.getFilePath(), e);
+		} finally {
+			if (!finished) {
+				reader.interrupt();
+				converter.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Starts a pipeline stage on a daemon thread. When the stage ends, either
+	 * normally or by failing, the end item is passed on so the next stage
+	 * stops too. A stage that is interrupted just exits, since that only
+	 * happens once the writer has given up.
+	 * 
+	 * @param name
+	 * 		The name of the stage.
+	 * 
+	 * @param next
+	 * 		The queue of the next stage.
+	 * 
+	 * @param failure
+	 * 		Where the first failure of any stage is stored.
+	 * 
+	 * @param stage
+	 * 		The work of the stage.
+	 * 
+	 * @return
+	 * 		The started thread.
+	 */
+	private static Thread startStage(String name, BlockingQueue<Object> next, AtomicReference<Throwable> failure, Stage stage) {
+		Thread thread = new Thread(() -> {
+			try {
+				stage.run();
+			} catch (InterruptedException e) {
+				return;
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+			try {
+				next.put(END);
+			} catch (InterruptedException e) {
+				// The writer has already stopped.
+			}
+		}, "ArchiveConverter-" + name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Reads the data of a transfer. PK3 entries are inflated here.
+	 * 
+	 * @param transfer
+	 * 		The transfer to read.
+	 * 
+	 * @return
+	 * 		The transfer with its data.
+	 */
+	private Loaded load(Transfer transfer) {
+		List<ByteBuffer> data = new ArrayList<>(transfer.sources.size());
+		for (Lump lump : transfer.sources)
+			data.add(this.source.getLumpData(lump));
+		return new Loaded(transfer, data);
+	}
+
+	/**
+	 * Turns a loaded transfer into the lumps that are written.
+	 * 
+	 * @param loaded
+	 * 		The transfer and its data.
+	 * 
+	 * @return
+	 * 		The lumps to write, in order.
+	 * 
+	 * @throws IOException
+	 * 		If an embedded map wad is damaged.
+	 */
+	private static List<Converted> convert(Loaded loaded) throws IOException {
+		Transfer transfer = loaded.transfer;
+		switch (transfer.type) {
+		case MARKER:
+			return Collections.singletonList(new Converted(transfer.target, ByteBuffer.allocate(0)));
+		case BUILD_MAP_WAD:
+			WadWriter writer = new WadWriter();
+			for (int i = 0; i < transfer.sources.size(); i++)
+				writer.addLump(transfer.sources.get(i).getName().toUpperCase(Locale.ROOT), loaded.data.get(i));
+			return Collections.singletonList(new Converted(transfer.target, writer.toByteBuffer()));
+		case EXPAND_MAP_WAD:
+			return expandMapWad(transfer.target, transfer.sources.get(0).getName(), loaded.data.get(0));
+		default:
+			return Collections.singletonList(new Converted(transfer.target, loaded.data.get(0)));
+		}
+	}
+
+	/**
+	 * Reads the lumps out of a map wad that was embedded in a PK3. The first
+	 * lump is renamed to the map name, since the engine names the map after
+	 * the file and not after the marker inside it.
+	 * 
+	 * @param mapName
+	 * 		The lump name of the map.
+	 * 
+	 * @param path
+	 * 		The path of the embedded wad, for messages.
+	 * 
+	 * @param wad
+	 * 		The embedded wad data.
+	 * 
+	 * @return
+	 * 		The lumps of the map.
+	 * 
+	 * @throws IOException
+	 * 		If the embedded wad is damaged.
+	 */
+	private static List<Converted> expandMapWad(String mapName, String path, ByteBuffer wad) throws IOException {
+		ByteBuffer data = wad.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (data.remaining() < WadFile.HEADER_SIZE)
+			throw new IOException("Embedded map wad has no header: " + path);
+		byte[] magic = new byte[4];
+		data.get(magic);
+		String identifier = new String(magic, StandardCharsets.US_ASCII);
+		if (!identifier.equals("PWAD") && !identifier.equals("IWAD"))
+			throw new IOException("Embedded map wad has an unknown identifier: " + path);
+		long numLumps = data.getInt(4) & 0xFFFFFFFFL;
+		long directoryOffset = data.getInt(8) & 0xFFFFFFFFL;
+		if (directoryOffset + numLumps * WadFile.DIRECTORY_ENTRY_SIZE > data.limit())
+			throw new IOException("Embedded map wad directory is out of bounds: " + path);
+
+		List<Converted> lumps = new ArrayList<>((int)numLumps);
+		byte[] name = new byte[8];
+		for (int i = 0; i < numLumps; i++) {
+			int entry = (int)directoryOffset + i * WadFile.DIRECTORY_ENTRY_SIZE;
+			long offset = data.getInt(entry) & 0xFFFFFFFFL;
+			long size = data.getInt(entry + 4) & 0xFFFFFFFFL;
+			if (offset + size > data.limit())
+				throw new IOException("Embedded map wad lump is out of bounds: " + path);
+			data.position(entry + 8);
+			data.get(name);
+			int length = 0;
+			while (length < name.length && name[length] != 0)
+				length++;
+			String lumpName = i == 0 ? mapName : new String(name, 0, length, StandardCharsets.US_ASCII);
+
+			ByteBuffer lumpData = data.duplicate();
+			lumpData.position((int)offset);
+			lumpData.limit((int)(offset + size));
+			lumps.add(new Converted(lumpName, lumpData.slice()));
+		}
+		return lumps;
+	}
+
+	/**
+	 * The work done by a pipeline stage.
+	 */
+	private interface Stage {
+
+		/**
+		 * Runs the stage until its input is used up.
+		 * 
+		 * @throws Exception
+		 * 		If the stage fails.
+		 */
+		void run() throws Exception;
+	}
+
+	/**
+	 * What a planned transfer does with its source lumps.
+	 */
+	private enum TransferType {
+		COPY,
+		MARKER,
+		BUILD_MAP_WAD,
+		EXPAND_MAP_WAD
+	}
+
+	/**
+	 * A planned step of the conversion.
+	 */
+	private static class Transfer {
+
+		/**
+		 * What to do with the sources.
+		 */
+		private final TransferType type;
+
+		/**
+		 * The name or path to write.
+		 */
+		private final String target;
+
+		/**
+		 * The source lumps.
+		 */
+		private final List<Lump> sources;
+
+		/**
+		 * Creates a transfer.
+		 * 
+		 * @param type
+		 * 		What to do with the sources.
+		 * 
+		 * @param target
+		 * 		The name or path to write.
+		 * 
+		 * @param sources
+		 * 		The source lumps.
+		 */
+		private Transfer(TransferType type, String target, List<Lump> sources) {
+			this.type = type;
+			this.target = target;
+			this.sources = sources;
+		}
+	}
+
+	/**
+	 * A transfer whose data has been read.
+	 */
+	private static class Loaded {
+
+		/**
+		 * The transfer.
+		 */
+		private final Transfer transfer;
+
+		/**
+		 * The data of each source lump.
+		 */
+		private final List<ByteBuffer> data;
+
+		/**
+		 * Creates a loaded transfer.
+		 * 
+		 * @param transfer
+		 * 		The transfer.
+		 * 
+		 * @param data
+		 * 		The data of each source lump.
+		 */
+		private Loaded(Transfer transfer, List<ByteBuffer> data) {
+			this.transfer = transfer;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * A lump that is ready to be written.
+	 */
+	private static class Converted {
+
+		/**
+		 * The name or path to write.
+		 */
+		private final String name;
+
+		/**
+		 * The data to write.
+		 */
+		private final ByteBuffer data;
+
+		/**
+		 * Creates a converted lump.
+		 * 
+		 * @param name
+		 * 		The name or path to write.
+		 * 
+		 * @param data
+		 * 		The data to write.
+		 */
+		private Converted(String name, ByteBuffer data) {
+			this.name = name;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.convert;
+
+/**
+ * Encapsulation of the ways to resolve lumps that end up with the same name
+ * when archives are merged or extracted.
+ */
+public enum DuplicatePolicy {
+	KEEP_LAST("Keep the last one, which is the one the engine uses"),
+	KEEP_FIRST("Keep the first one"),
+	KEEP_ALL("Keep all of them");
+	
+	/**
+	 * The human readable description of the policy.
+	 */
+	private String description;
+	
+	/**
+	 * Creates a duplicate policy.
+	 * 
+	 * @param description
+	 * 		The description of the policy.
+	 */
+	private DuplicatePolicy(String description) {
+		this.description = description;
+	}
+	
+	/**
+	 * Gets a human printable description of the policy.
+	 * 
+	 * @return
+	 * 		The description.
+	 */
+	public String getDescription() {
+		return description;
+	}
+}
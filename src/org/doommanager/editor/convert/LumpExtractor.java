@@ -0,0 +1,447 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.convert;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.editor.file.WadOutput;
+import org.doommanager.editor.map.MapReference;
+
+/**
+ * Extracts every lump of an archive to its own file, like DeuTex's extract.
+ * Wad lumps are sorted into the folders a PK3 would use for their namespace,
+ * lumps outside of a namespace go to lumps/ and every map is written as a wad
+ * of its own to maps/. PK3 entries keep their path.
+ * 
+ * The lumps are written in parallel and their data is moved with transferTo
+ * where it is stored as it is, so it never passes through the Java heap. The
+ * number of target files that are open at the same time is bounded, so that
+ * a large extraction cannot run out of file handles.
+ */
+public class LumpExtractor {
+
+	/**
+	 * The default number of target files that may be open at the same time.
+	 */
+	public static final int DEFAULT_MAX_OPEN_FILES = 32;
+
+	/**
+	 * How lumps that end up at the same path are resolved.
+	 */
+	private final DuplicatePolicy policy;
+
+	/**
+	 * The permits for open target files.
+	 */
+	private final Semaphore openFiles;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(LumpExtractor.class.getName());
+
+	/**
+	 * Creates an extractor.
+	 * 
+	 * @param policy
+	 * 		How lumps that end up at the same path are resolved. When all are
+	 * 		kept, the later ones get a numbered suffix.
+	 * 
+	 * @param maxOpenFiles
+	 * 		The number of target files that may be open at the same time.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the policy is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the number of open files is less than one.
+	 */
+	public LumpExtractor(DuplicatePolicy policy, int maxOpenFiles) {
+		if (policy == null)
+			throw new NullPointerException("Provided a null duplicate policy to LumpExtractor.");
+		if (maxOpenFiles < 1)
+			throw new IllegalArgumentException("LumpExtractor needs at least one open file, got " + maxOpenFiles + ".");
+		this.policy = policy;
+		this.openFiles = new Semaphore(maxOpenFiles);
+	}
+
+	/**
+	 * Extracts several archives, each into a folder named after it.
+	 * 
+	 * @param files
+	 * 		The archives to extract.
+	 * 
+	 * @param directory
+	 * 		The folder to create the archive folders in.
+	 * 
+	 * @return
+	 * 		The number of files that were written.
+	 * 
+	 * @throws NullPointerException
+	 * 		If an argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If a folder cannot be created.
+	 */
+	public int extractAll(Collection<? extends DoomFile> files, String directory) throws IOException {
+		if (files == null || directory == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to LumpExtractor.");
+			log.log(Level.SEVERE, "LumpExtractor argument is null", e);
+			throw e;
+		}
+		Set<String> usedFolders = new HashSet<>();
+		int written = 0;
+		for (DoomFile file : files) {
+			String name = Paths.get(file.getFilePath()).getFileName().toString();
+			int dot = name.lastIndexOf('.');
+			String folder = sanitize(dot > 0 ? name.substring(0, dot) : name);
+			folder = makeUnique(folder, usedFolders);
+			written += extract(file, Paths.get(directory, folder).toString());
+		}
+		return written;
+	}
+
+	/**
+	 * Extracts an archive. Files that cannot be written are logged and
+	 * skipped.
+	 * 
+	 * @param file
+	 * 		The archive to extract.
+	 * 
+	 * @param directory
+	 * 		The folder to extract to.
+	 * 
+	 * @return
+	 * 		The number of files that were written.
+	 * 
+	 * @throws NullPointerException
+	 * 		If an argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If the archive cannot be read or a folder cannot be created.
+	 */
+	public int extract(DoomFile file, String directory) throws IOException {
+		if (file == null || directory == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to LumpExtractor.");
+			log.log(Level.SEVERE, "LumpExtractor argument is null", e);
+			throw e;
+		}
+		Path root = Paths.get(directory).toAbsolutePath().normalize();
+		List<Target> targets = resolveTargets(file instanceof PK3File ? planPK3(file, root) : planWad(file, root));
+
+		Set<Path> folders = new HashSet<>();
+		for (Target target : targets)
+			folders.add(target.path.getParent());
+		for (Path folder : folders)
+			Files.createDirectories(folder);
+
+		long start = System.nanoTime();
+		AtomicInteger written = new AtomicInteger();
+		try (FileChannel source = LumpTransfer.open(file)) {
+			IntStream.range(0, targets.size()).parallel().forEach(i -> {
+				if (write(file, source, targets.get(i)))
+					written.incrementAndGet();
+			});
+		}
+		log.log(Level.INFO, String.format("Extracted %d of %d files from %s in %.2fs", written.get(), targets.size(), file.getFilePath(),
+				(System.nanoTime() - start) / 1e9));
+		return written.get();
+	}
+
+	/**
+	 * Writes one target file while holding an open file permit. The source
+	 * channel is shared, which is safe since transferTo with a position does
+	 * not move the channel.
+	 * 
+	 * @param file
+	 * 		The archive.
+	 * 
+	 * @param source
+	 * 		A channel to the archive.
+	 * 
+	 * @param target
+	 * 		The file to write.
+	 * 
+	 * @return
+	 * 		True if the file was written.
+	 */
+	private boolean write(DoomFile file, FileChannel source, Target target) {
+		try {
+			this.openFiles.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(target.path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			if (target.map) {
+				try (WadOutput output = new WadOutput(channel, false, false)) {
+					for (Lump lump : target.lumps) {
+						long offset = LumpTransfer.getRawOffset(file, lump);
+						if (offset >= 0)
+							output.addFrom(lump.getName(), source, offset, lump.getSize());
+						else
+							output.add(lump.getName(), file.getLumpData(lump));
+					}
+					output.finish();
+				}
+			} else {
+				LumpTransfer.copy(file, source, target.lumps.get(0), channel);
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.WARNING, "Unable to extract " + target.path, e);
+			return false;
+		} finally {
+			this.openFiles.release();
+		}
+	}
+
+	/**
+	 * Plans the files of a wad.
+	 * 
+	 * @param file
+	 * 		The wad.
+	 * 
+	 * @param root
+	 * 		The folder to extract to.
+	 * 
+	 * @return
+	 * 		The files to write, in lump order.
+	 */
+	private static List<Target> planWad(DoomFile file, Path root) {
+		Set<Lump> mapHeaders = new HashSet<>();
+		List<MapReference> maps = MapReference.findMaps(file);
+		for (MapReference map : maps)
+			mapHeaders.add(map.getHeader());
+
+		List<Target> targets = new ArrayList<>();
+		List<Lump> lumps = file.getLumps();
+		Namespace namespace = null;
+		int mapIndex = 0;
+		for (int i = 0; i < lumps.size(); i++) {
+			Lump lump = lumps.get(i);
+			String name = lump.getName();
+			if (mapHeaders.contains(lump)) {
+				MapReference map = maps.get(mapIndex++);
+				List<Lump> mapLumps = new ArrayList<>();
+				mapLumps.add(lump);
+				mapLumps.addAll(map.getLumps());
+				targets.add(new Target(root.resolve("maps").resolve(sanitize(Namespace.toPath(null, name)) + ".wad"), mapLumps, true));
+				i += map.getLumps().size();
+				continue;
+			}
+			Namespace opened = Namespace.fromStartMarker(name);
+			if (opened != null) {
+				namespace = opened;
+				continue;
+			}
+			if (namespace != null && namespace.isEndMarker(name)) {
+				namespace = null;
+				continue;
+			}
+			if (Namespace.isSubMarker(name))
+				continue;
+			String folder = namespace == null ? "lumps" : namespace.getFolder();
+			targets.add(new Target(root.resolve(folder).resolve(sanitize(Namespace.toPath(null, name)) + ".lmp"), lumps.subList(i, i + 1), false));
+		}
+		return targets;
+	}
+
+	/**
+	 * Plans the files of a PK3. Entries whose path would leave the target
+	 * folder are logged and skipped.
+	 * 
+	 * @param file
+	 * 		The PK3.
+	 * 
+	 * @param root
+	 * 		The folder to extract to.
+	 * 
+	 * @return
+	 * 		The files to write, in entry order.
+	 */
+	private static List<Target> planPK3(DoomFile file, Path root) {
+		List<Target> targets = new ArrayList<>();
+		List<Lump> lumps = file.getLumps();
+		for (int i = 0; i < lumps.size(); i++) {
+			String entryPath = lumps.get(i).getName();
+			Path path;
+			try {
+				path = root.resolve(entryPath).normalize();
+			} catch (RuntimeException e) {
+				path = null;
+			}
+			if (path == null || !path.startsWith(root) || path.equals(root)) {
+				log.log(Level.WARNING, "Skipping " + entryPath + " in " + file.getFilePath() + ", its path leaves the target folder.");
+				continue;
+			}
+			targets.add(new Target(path, lumps.subList(i, i + 1), false));
+		}
+		return targets;
+	}
+
+	/**
+	 * Resolves targets that have the same path by the duplicate policy. When
+	 * all are kept, the later ones are renamed with a numbered suffix.
+	 * 
+	 * @param targets
+	 * 		The planned files.
+	 * 
+	 * @return
+	 * 		The files to write.
+	 */
+	private List<Target> resolveTargets(List<Target> targets) {
+		if (this.policy != DuplicatePolicy.KEEP_ALL)
+			return LumpTransfer.resolve(targets, this.policy, target -> target.path.toString());
+
+		Set<String> used = new HashSet<>();
+		List<Target> renamed = new ArrayList<>(targets.size());
+		for (Target target : targets) {
+			String fileName = target.path.getFileName().toString();
+			int dot = fileName.lastIndexOf('.');
+			String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+			String extension = dot > 0 ? fileName.substring(dot) : "";
+			String folder = target.path.getParent().toString() + "/";
+			String unique = makeUnique(folder + base, extension, used);
+			if (unique.equals(folder + base))
+				renamed.add(target);
+			else
+				renamed.add(new Target(Paths.get(unique + extension), target.lumps, target.map));
+		}
+		return renamed;
+	}
+
+	/**
+	 * Makes a name unique by adding a numbered suffix. Names are compared
+	 * without case, since many file systems do so.
+	 * 
+	 * @param name
+	 * 		The name.
+	 * 
+	 * @param used
+	 * 		The names that were handed out before. The result is added.
+	 * 
+	 * @return
+	 * 		The name, or the name with a suffix if it was used before.
+	 */
+	private static String makeUnique(String name, Set<String> used) {
+		return makeUnique(name, "", used);
+	}
+
+	/**
+	 * Makes a name unique by adding a numbered suffix before its extension.
+	 * Names are compared without case, since many file systems do so.
+	 * 
+	 * @param name
+	 * 		The name without its extension.
+	 * 
+	 * @param extension
+	 * 		The extension, which is compared but not returned.
+	 * 
+	 * @param used
+	 * 		The names that were handed out before. The result is added.
+	 * 
+	 * @return
+	 * 		The name, or the name with a suffix if it was used before.
+	 */
+	private static String makeUnique(String name, String extension, Set<String> used) {
+		String unique = name;
+		for (int suffix = 1; !used.add((unique + extension).toLowerCase(Locale.ROOT)); suffix++)
+			unique = name + "_" + suffix;
+		return unique;
+	}
+
+	/**
+	 * Replaces characters that are not allowed in file names.
+	 * 
+	 * @param name
+	 * 		The name.
+	 * 
+	 * @return
+	 * 		A name that is safe to use as a file name.
+	 */
+	private static String sanitize(String name) {
+		StringBuilder builder = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			builder.append(c < 0x20 || "<>:\"/\\|?*".indexOf(c) >= 0 ? '_' : c);
+		}
+		String sanitized = builder.toString();
+		return sanitized.isEmpty() || sanitized.equals(".") || sanitized.equals("..") ? "_" + sanitized : sanitized;
+	}
+
+	/**
+	 * One file to write.
+	 */
+	private static final class Target {
+
+		/**
+		 * The file path.
+		 */
+		private final Path path;
+
+		/**
+		 * The lumps to write, which is a single lump unless this is a map.
+		 */
+		private final List<Lump> lumps;
+
+		/**
+		 * True if the lumps are written as a wad.
+		 */
+		private final boolean map;
+
+		/**
+		 * Creates a target.
+		 * 
+		 * @param path
+		 * 		The file path.
+		 * 
+		 * @param lumps
+		 * 		The lumps to write.
+		 * 
+		 * @param map
+		 * 		True if the lumps are written as a wad.
+		 */
+		private Target(Path path, List<Lump> lumps, boolean map) {
+			this.path = path;
+			this.lumps = lumps;
+			this.map = map;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.convert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3Entry;
+import org.doommanager.editor.file.WadFile;
+
+/**
+ * Helpers shared by merging and extracting for moving lump bytes between
+ * files without reading them onto the heap.
+ */
+final class LumpTransfer {
+
+	/**
+	 * This class only has static methods.
+	 */
+	private LumpTransfer() {
+	}
+
+	/**
+	 * Finds where the bytes of a lump are in its file, if they are stored
+	 * there as they are.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		The offset of the lump data, or -1 if the data has to be decoded,
+	 * 		like a deflated PK3 entry.
+	 */
+	static long getRawOffset(DoomFile file, Lump lump) {
+		if (file instanceof WadFile)
+			return lump.getOffset();
+		if (lump instanceof PK3Entry && ((PK3Entry)lump).getMethod() == PK3Entry.METHOD_STORED)
+			return lump.getOffset();
+		return -1;
+	}
+
+	/**
+	 * Opens a channel for reading the file of an archive.
+	 * 
+	 * @param file
+	 * 		The archive.
+	 * 
+	 * @return
+	 * 		The channel, which the caller has to close.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened.
+	 */
+	static FileChannel open(DoomFile file) throws IOException {
+		return FileChannel.open(Paths.get(file.getFilePath()), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Copies a lump into a channel at its position. Stored data goes through
+	 * transferTo, anything else is decoded and written.
+	 * 
+	 * @param file
+	 * 		The file of the lump.
+	 * 
+	 * @param source
+	 * 		A channel of the file. Its position is not changed.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @param target
+	 * 		The channel to write to.
+	 * 
+	 * @throws IOException
+	 * 		If the source ends early or writing fails.
+	 */
+	static void copy(DoomFile file, FileChannel source, Lump lump, FileChannel target) throws IOException {
+		long offset = getRawOffset(file, lump);
+		if (offset < 0) {
+			ByteBuffer data = file.getLumpData(lump).duplicate();
+			while (data.hasRemaining())
+				target.write(data);
+			return;
+		}
+		long copied = 0;
+		while (copied < lump.getSize()) {
+			long transferred = source.transferTo(offset + copied, lump.getSize() - copied, target);
+			if (transferred <= 0)
+				throw new IOException("Source ended before all of " + lump.getName() + " was copied.");
+			copied += transferred;
+		}
+	}
+
+	/**
+	 * Applies a duplicate policy to a list of items.
+	 * 
+	 * @param items
+	 * 		The items in order.
+	 * 
+	 * @param policy
+	 * 		The policy.
+	 * 
+	 * @param key
+	 * 		Gives the name that makes two items duplicates. It is compared
+	 * 		without case.
+	 * 
+	 * @return
+	 * 		The items that are kept, in order.
+	 */
+	static <T> List<T> resolve(List<T> items, DuplicatePolicy policy, Function<T, String> key) {
+		if (policy == DuplicatePolicy.KEEP_ALL)
+			return items;
+		List<T> kept = new ArrayList<>(items.size());
+		if (policy == DuplicatePolicy.KEEP_FIRST) {
+			Set<String> seen = new HashSet<>();
+			for (T item : items)
+				if (seen.add(key.apply(item).toUpperCase(Locale.ROOT)))
+					kept.add(item);
+			return kept;
+		}
+		Map<String, Integer> last = new HashMap<>();
+		for (int i = 0; i < items.size(); i++)
+			last.put(key.apply(items.get(i)).toUpperCase(Locale.ROOT), i);
+		for (int i = 0; i < items.size(); i++)
+			if (last.get(key.apply(items.get(i)).toUpperCase(Locale.ROOT)) == i)
+				kept.add(items.get(i));
+		return kept;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.convert;
+
+import java.util.Locale;
+
+/**
+ * The namespaces that a wad marks with start and end markers, and the PK3
+ * folders they correspond to.
+ */
+public enum Namespace {
+	SPRITES("sprites", "S", "SS"),
+	FLATS("flats", "F", "FF"),
+	PATCHES("patches", "P", "PP"),
+	TEXTURES("textures", "TX"),
+	COLORMAPS("colormaps", "C"),
+	ACS("acs", "A"),
+	VOXELS("voxels", "VX"),
+	HIRES("hires", "HI");
+
+	/**
+	 * The PK3 folder of the namespace.
+	 */
+	private final String folder;
+
+	/**
+	 * The marker prefixes, the first of which is written to wads.
+	 */
+	private final String[] prefixes;
+
+	/**
+	 * Creates a namespace.
+	 * 
+	 * @param folder
+	 * 		The PK3 folder.
+	 * 
+	 * @param prefixes
+	 * 		The marker prefixes before _START and _END.
+	 */
+	private Namespace(String folder, String... prefixes) {
+		this.folder = folder;
+		this.prefixes = prefixes;
+	}
+
+	/**
+	 * Gets the PK3 folder of the namespace.
+	 * 
+	 * @return
+	 * 		The folder name, without a slash.
+	 */
+	public String getFolder() {
+		return this.folder;
+	}
+
+	/**
+	 * Gets the marker that opens the namespace in a wad.
+	 * 
+	 * @return
+	 * 		The start marker name.
+	 */
+	public String getStartMarker() {
+		return this.prefixes[0] + "_START";
+	}
+
+	/**
+	 * Gets the marker that closes the namespace in a wad.
+	 * 
+	 * @return
+	 * 		The end marker name.
+	 */
+	public String getEndMarker() {
+		return this.prefixes[0] + "_END";
+	}
+
+	/**
+	 * Checks if a lump name is one of the end markers of the namespace.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		True if the lump closes this namespace.
+	 */
+	public boolean isEndMarker(String name) {
+		for (String prefix : this.prefixes)
+			if (name.equalsIgnoreCase(prefix + "_END"))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Finds the namespace that a lump name opens.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		The namespace, or null if the lump is not a start marker.
+	 */
+	public static Namespace fromStartMarker(String name) {
+		for (Namespace namespace : values())
+			for (String prefix : namespace.prefixes)
+				if (name.equalsIgnoreCase(prefix + "_START"))
+					return namespace;
+		return null;
+	}
+
+	/**
+	 * Finds the namespace of a PK3 path from its top folder.
+	 * 
+	 * @param path
+	 * 		The full path in the PK3.
+	 * 
+	 * @return
+	 * 		The namespace, or null if the path is not in a namespace folder.
+	 */
+	public static Namespace fromPath(String path) {
+		int slash = path.indexOf('/');
+		if (slash < 0)
+			return null;
+		String top = path.substring(0, slash);
+		for (Namespace namespace : values())
+			if (top.equalsIgnoreCase(namespace.folder))
+				return namespace;
+		return null;
+	}
+
+	/**
+	 * Checks if a lump is one of the numbered sub-markers like F1_START that
+	 * only exist for old engines. They have no meaning in a PK3.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		True if the lump is a numbered sub-marker.
+	 */
+	public static boolean isSubMarker(String name) {
+		return name.toUpperCase(Locale.ROOT).matches("[FP][1-3]_(START|END)");
+	}
+
+	/**
+	 * Converts a wad lump name to a PK3 path. Names are lower cased and a
+	 * backslash, which is valid in lump names but not in paths, becomes a
+	 * caret as ZDoom expects.
+	 * 
+	 * @param namespace
+	 * 		The namespace of the lump, or null for the root.
+	 * 
+	 * @param lumpName
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		The path in the PK3.
+	 */
+	public static String toPath(Namespace namespace, String lumpName) {
+		String fileName = lumpName.toLowerCase(Locale.ROOT).replace('\\', '^');
+		return namespace == null ? fileName : namespace.folder + "/" + fileName;
+	}
+
+	/**
+	 * Converts a PK3 path to a wad lump name. The folders and extension are
+	 * dropped, and the name is upper cased and cut to eight characters.
+	 * 
+	 * @param path
+	 * 		The full path in the PK3.
+	 * 
+	 * @return
+	 * 		The lump name.
+	 */
+	public static String toLumpName(String path) {
+		String fileName = path.substring(path.lastIndexOf('/') + 1);
+		int dot = fileName.indexOf('.');
+		if (dot > 0)
+			fileName = fileName.substring(0, dot);
+		fileName = fileName.toUpperCase(Locale.ROOT).replace('^', '\\');
+		return fileName.length() > 8 ? fileName.substring(0, 8) : fileName;
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.convert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.file.AtomicSave;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.editor.file.SaveJournal;
+import org.doommanager.editor.file.WadOutput;
+import org.doommanager.editor.map.MapReference;
+
+/**
+ * Merges archives into one PWAD, like DeuTex's merge. The lumps of every
+ * source are sorted into the same layout ArchiveConverter writes: root lumps
+ * first, then the maps, then each namespace between one pair of markers, so
+ * the sprites of every source end up between a single S_START and S_END.
+ * Lumps that end up with the same name in the same place are resolved by a
+ * DuplicatePolicy, and a map is always kept or dropped as a whole.
+ * 
+ * Lump data that is stored as it is in its source is moved with transferTo,
+ * so it never passes through the Java heap.
+ */
+public class WadMerger {
+
+	/**
+	 * How lumps with the same name are resolved.
+	 */
+	private final DuplicatePolicy policy;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(WadMerger.class.getName());
+
+	/**
+	 * Creates a merger.
+	 * 
+	 * @param policy
+	 * 		How lumps with the same name are resolved.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the policy is null.
+	 */
+	public WadMerger(DuplicatePolicy policy) {
+		if (policy == null)
+			throw new NullPointerException("Provided a null duplicate policy to WadMerger.");
+		this.policy = policy;
+	}
+
+	/**
+	 * Merges archives into a PWAD. Maps inside PK3s are skipped, since they
+	 * are wads of their own.
+	 * 
+	 * @param sources
+	 * 		The archives in load order.
+	 * 
+	 * @param filePath
+	 * 		The PWAD to write, which is replaced once the merge is complete.
+	 * 		It may be one of the sources.
+	 * 
+	 * @return
+	 * 		The size of the written PWAD in bytes.
+	 * 
+	 * @throws NullPointerException
+	 * 		If an argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If reading or writing fails.
+	 */
+	public long merge(List<? extends DoomFile> sources, String filePath) throws IOException {
+		if (sources == null || filePath == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to WadMerger.");
+			log.log(Level.SEVERE, "WadMerger argument is null", e);
+			throw e;
+		}
+		List<Part> root = new ArrayList<>();
+		List<Part> maps = new ArrayList<>();
+		Map<Namespace, List<Part>> namespaces = new EnumMap<>(Namespace.class);
+		for (int i = 0; i < sources.size(); i++) {
+			if (sources.get(i) instanceof PK3File)
+				planPK3(i, (PK3File)sources.get(i), root, namespaces);
+			else
+				planWad(i, sources.get(i), root, maps, namespaces);
+		}
+
+		List<Part> plan = new ArrayList<>(LumpTransfer.resolve(root, this.policy, part -> part.name));
+		plan.addAll(LumpTransfer.resolve(maps, this.policy, part -> part.name));
+		for (Map.Entry<Namespace, List<Part>> entry : namespaces.entrySet()) {
+			plan.add(new Part(-1, entry.getKey().getStartMarker(), Collections.emptyList()));
+			plan.addAll(LumpTransfer.resolve(entry.getValue(), this.policy, part -> part.name));
+			plan.add(new Part(-1, entry.getKey().getEndMarker(), Collections.emptyList()));
+		}
+
+		FileChannel[] channels = new FileChannel[sources.size()];
+		long start = System.nanoTime();
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath);
+				WadOutput output = new WadOutput(save.getChannel(), false, false)) {
+			int lumpCount = 0;
+			for (Part part : plan) {
+				if (part.source < 0) {
+					output.add(part.name, ByteBuffer.allocate(0));
+					lumpCount++;
+					continue;
+				}
+				DoomFile file = sources.get(part.source);
+				if (channels[part.source] == null)
+					channels[part.source] = LumpTransfer.open(file);
+				for (Lump lump : part.lumps) {
+					String name = lump == part.lumps.get(0) ? part.name : lump.getName();
+					long offset = LumpTransfer.getRawOffset(file, lump);
+					if (offset >= 0)
+						output.addFrom(name, channels[part.source], offset, lump.getSize());
+					else
+						output.add(name, file.getLumpData(lump));
+					lumpCount++;
+				}
+			}
+			long size = output.finish();
+			save.commit();
+			log.log(Level.INFO, String.format("Merged %d archives into %s: %d lumps, %d bytes in %.2fs", sources.size(), filePath, lumpCount, size,
+					(System.nanoTime() - start) / 1e9));
+			return size;
+		} finally {
+			for (FileChannel channel : channels) {
+				if (channel == null)
+					continue;
+				try {
+					channel.close();
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Unable to close a merge source", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sorts the lumps of a wad into the plan.
+	 * 
+	 * @param source
+	 * 		The index of the source.
+	 * 
+	 * @param file
+	 * 		The wad.
+	 * 
+	 * @param root
+	 * 		Where root lumps go.
+	 * 
+	 * @param maps
+	 * 		Where maps go.
+	 * 
+	 * @param namespaces
+	 * 		Where namespace lumps go.
+	 */
+	private static void planWad(int source, DoomFile file, List<Part> root, List<Part> maps, Map<Namespace, List<Part>> namespaces) {
+		Map<Lump, MapReference> mapsByHeader = new HashMap<>();
+		for (MapReference map : MapReference.findMaps(file))
+			mapsByHeader.put(map.getHeader(), map);
+
+		List<Lump> lumps = file.getLumps();
+		Namespace namespace = null;
+		for (int i = 0; i < lumps.size(); i++) {
+			Lump lump = lumps.get(i);
+			String name = lump.getName();
+			MapReference map = mapsByHeader.get(lump);
+			if (map != null) {
+				List<Lump> mapLumps = new ArrayList<>();
+				mapLumps.add(lump);
+				mapLumps.addAll(map.getLumps());
+				maps.add(new Part(source, name, mapLumps));
+				i += map.getLumps().size();
+				continue;
+			}
+			Namespace opened = Namespace.fromStartMarker(name);
+			if (opened != null) {
+				namespace = opened;
+				continue;
+			}
+			if (namespace != null && namespace.isEndMarker(name)) {
+				namespace = null;
+				continue;
+			}
+			if (Namespace.isSubMarker(name))
+				continue;
+			Part part = new Part(source, name, Collections.singletonList(lump));
+			if (namespace == null)
+				root.add(part);
+			else
+				namespaces.computeIfAbsent(namespace, n -> new ArrayList<>()).add(part);
+		}
+	}
+
+	/**
+	 * Sorts the entries of a PK3 into the plan, using the names a conversion
+	 * to a wad would give them.
+	 * 
+	 * @param source
+	 * 		The index of the source.
+	 * 
+	 * @param file
+	 * 		The PK3.
+	 * 
+	 * @param root
+	 * 		Where root lumps go.
+	 * 
+	 * @param namespaces
+	 * 		Where namespace lumps go.
+	 */
+	private static void planPK3(int source, PK3File file, List<Part> root, Map<Namespace, List<Part>> namespaces) {
+		for (Lump lump : file.getLumps()) {
+			String path = lump.getName();
+			String lowerPath = path.toLowerCase(Locale.ROOT);
+			if (lowerPath.startsWith("maps/") && lowerPath.endsWith(".wad")) {
+				log.log(Level.WARNING, "Skipping " + path + " in " + file.getFilePath() + ", maps in a PK3 are not merged.");
+				continue;
+			}
+			Part part = new Part(source, Namespace.toLumpName(path), Collections.singletonList(lump));
+			Namespace namespace = Namespace.fromPath(path);
+			if (namespace == null)
+				root.add(part);
+			else
+				namespaces.computeIfAbsent(namespace, n -> new ArrayList<>()).add(part);
+		}
+	}
+
+	/**
+	 * One lump, map or marker of the merged wad.
+	 */
+	private static final class Part {
+
+		/**
+		 * The index of the source, or -1 for a marker.
+		 */
+		private final int source;
+
+		/**
+		 * The name in the merged wad.
+		 */
+		private final String name;
+
+		/**
+		 * The lumps to copy, starting with the one that gets the name.
+		 */
+		private final List<Lump> lumps;
+
+		/**
+		 * Creates a part.
+		 * 
+		 * @param source
+		 * 		The index of the source, or -1 for a marker.
+		 * 
+		 * @param name
+		 * 		The name in the merged wad.
+		 * 
+		 * @param lumps
+		 * 		The lumps to copy.
+		 */
+		private Part(int source, String name, List<Lump> lumps) {
+			this.source = source;
+			this.name = name;
+			this.lumps = lumps;
+		}
+	}
+}
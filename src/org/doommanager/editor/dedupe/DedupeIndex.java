@@ -0,0 +1,237 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.dedupe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.LumpHasher;
+import org.doommanager.editor.file.LumpReference;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.editor.file.WadWriter;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * Finds lumps with identical contents across any number of files. Every lump
+ * is hashed in parallel straight from its file, and lumps that share a hash
+ * are compared byte for byte so that a hash collision never reports a false
+ * duplicate.
+ */
+public class DedupeIndex {
+
+	/**
+	 * All the duplicate groups, largest waste first.
+	 */
+	private final List<DuplicateGroup> duplicates;
+
+	/**
+	 * The total number of lumps that were hashed.
+	 */
+	private final int lumpCount;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(DedupeIndex.class.getName());
+
+	/**
+	 * Creates an index from already found groups.
+	 * 
+	 * @param duplicates
+	 * 		The groups found.
+	 * 
+	 * @param lumpCount
+	 * 		The number of lumps that were looked at.
+	 */
+	private DedupeIndex(List<DuplicateGroup> duplicates, int lumpCount) {
+		this.duplicates = Collections.unmodifiableList(duplicates);
+		this.lumpCount = lumpCount;
+	}
+
+	/**
+	 * Builds the index over a set of files. Empty lumps are ignored since
+	 * markers are never considered duplicates.
+	 * 
+	 * @param files
+	 * 		The files to look through.
+	 * 
+	 * @return
+	 * 		The index of all duplicates.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the collection is null.
+	 */
+	public static DedupeIndex build(Collection<? extends DoomFile> files) {
+		if (files == null)
+			throw new NullPointerException("Provided a null file collection to DedupeIndex.");
+
+		List<LumpReference> references = new ArrayList<>();
+		for (DoomFile file : files)
+			for (Lump lump : file.getLumps())
+				if (!lump.isMarker())
+					references.add(new LumpReference(file, lump));
+
+		long[] hashes = new long[references.size()];
+		IntStream.range(0, hashes.length).parallel().forEach(i -> hashes[i] = LumpHasher.hash(references.get(i).getFile(), references.get(i).getLump()));
+
+		Map<Long, List<LumpReference>> buckets = new HashMap<>();
+		for (int i = 0; i < hashes.length; i++)
+			buckets.computeIfAbsent(hashes[i], k -> new ArrayList<>(2)).add(references.get(i));
+
+		List<DuplicateGroup> groups = new ArrayList<>();
+		for (Map.Entry<Long, List<LumpReference>> bucket : buckets.entrySet())
+			if (bucket.getValue().size() > 1)
+				splitIdentical(bucket.getKey(), bucket.getValue(), groups);
+		groups.sort((a, b) -> Long.compare(b.getWastedBytes(), a.getWastedBytes()));
+
+		DedupeIndex index = new DedupeIndex(groups, references.size());
+		log.log(Level.FINE, "Hashed " + references.size() + " lumps in " + files.size() + " files, found "
+				+ groups.size() + " duplicate groups wasting " + index.getWastedBytes() + " bytes");
+		return index;
+	}
+
+	/**
+	 * Splits lumps that share a hash into groups of truly identical data.
+	 * 
+	 * @param hash
+	 * 		The shared hash.
+	 * 
+	 * @param candidates
+	 * 		The lumps with the hash.
+	 * 
+	 * @param groups
+	 * 		The list to add any group of two or more lumps to.
+	 */
+	private static void splitIdentical(long hash, List<LumpReference> candidates, List<DuplicateGroup> groups) {
+		BufferPool pool = BufferPool.getShared();
+		List<LumpReference> remaining = new ArrayList<>(candidates);
+		while (remaining.size() > 1) {
+			LumpReference first = remaining.get(0);
+			List<LumpReference> same = new ArrayList<>();
+			List<LumpReference> different = new ArrayList<>();
+			same.add(first);
+			BufferLease firstData = first.getFile().getLumpData(first.getLump(), pool);
+			try {
+				for (int i = 1; i < remaining.size(); i++) {
+					LumpReference other = remaining.get(i);
+					BufferLease otherData = other.getFile().getLumpData(other.getLump(), pool);
+					try {
+						if (firstData.getBuffer().equals(otherData.getBuffer()))
+							same.add(other);
+						else
+							different.add(other);
+					} finally {
+						otherData.dispose();
+					}
+				}
+			} finally {
+				firstData.dispose();
+			}
+			if (same.size() > 1)
+				groups.add(new DuplicateGroup(hash, same));
+			remaining = different;
+		}
+	}
+
+	/**
+	 * Gets all the duplicate groups.
+	 * 
+	 * @return
+	 * 		An unmodifiable list of groups sorted by wasted bytes, largest
+	 * 		first.
+	 */
+	public List<DuplicateGroup> getDuplicates() {
+		return this.duplicates;
+	}
+
+	/**
+	 * Gets how many lumps were hashed to build this index.
+	 * 
+	 * @return
+	 * 		The number of non-empty lumps in all the files.
+	 */
+	public int getLumpCount() {
+		return this.lumpCount;
+	}
+
+	/**
+	 * Gets how many stored copies of lump data are redundant. Lumps that
+	 * already share their data with another lump are not counted.
+	 * 
+	 * @return
+	 * 		The number of copies that could be removed.
+	 */
+	public int getRedundantLumpCount() {
+		int count = 0;
+		for (DuplicateGroup group : this.duplicates)
+			count += group.getCopyCount() - 1;
+		return count;
+	}
+
+	/**
+	 * Gets the total bytes taken by redundant copies.
+	 * 
+	 * @return
+	 * 		The number of bytes that deduplication would save.
+	 */
+	public long getWastedBytes() {
+		long wasted = 0;
+		for (DuplicateGroup group : this.duplicates)
+			wasted += group.getWastedBytes();
+		return wasted;
+	}
+
+	/**
+	 * Writes a copy of a file as a wad where every set of identical lumps
+	 * shares one data offset.
+	 * 
+	 * @param file
+	 * 		The file to write a deduplicated copy of.
+	 * 
+	 * @param filePath
+	 * 		The path of the new wad.
+	 * 
+	 * @return
+	 * 		The size of the new wad in bytes.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the file is a PK3, whose entry names do not fit in a wad.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	public static long writeDeduplicated(DoomFile file, String filePath) throws IOException {
+		if (file instanceof PK3File)
+			throw new IllegalArgumentException("Only wads can be written deduplicated, " + file.getFilePath() + " is a PK3.");
+		WadWriter writer = WadWriter.fromFile(file);
+		writer.setShareIdenticalData(true);
+		return writer.write(filePath);
+	}
+}
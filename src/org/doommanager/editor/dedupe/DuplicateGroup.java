@@ -0,0 +1,125 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.dedupe;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.doommanager.editor.file.DoomFile;
+
+import org.doommanager.editor.file.LumpReference;
+
+/**
+ * A set of lumps that all have byte for byte identical contents.
+ */
+public class DuplicateGroup {
+
+	/**
+	 * The content hash shared by every lump in the group.
+	 */
+	private final long hash;
+
+	/**
+	 * The lumps with the identical data. There are always at least two.
+	 */
+	private final List<LumpReference> lumps;
+
+	/**
+	 * The number of copies of the data actually stored, counting lumps of one
+	 * file that already share an offset once.
+	 */
+	private final int copyCount;
+
+	/**
+	 * Creates a group of identical lumps.
+	 * 
+	 * @param hash
+	 * 		The content hash of the lumps.
+	 * 
+	 * @param lumps
+	 * 		The identical lumps.
+	 */
+	DuplicateGroup(long hash, List<LumpReference> lumps) {
+		this.hash = hash;
+		this.lumps = Collections.unmodifiableList(lumps);
+		Map<DoomFile, Set<Long>> offsets = new IdentityHashMap<>();
+		int copies = 0;
+		for (LumpReference reference : lumps)
+			if (offsets.computeIfAbsent(reference.getFile(), f -> new HashSet<>()).add(reference.getLump().getOffset()))
+				copies++;
+		this.copyCount = copies;
+	}
+
+	/**
+	 * Gets the content hash of the group.
+	 * 
+	 * @return
+	 * 		The hash from LumpHasher.
+	 */
+	public long getHash() {
+		return this.hash;
+	}
+
+	/**
+	 * Gets the lumps in this group.
+	 * 
+	 * @return
+	 * 		An unmodifiable list of the identical lumps.
+	 */
+	public List<LumpReference> getLumps() {
+		return this.lumps;
+	}
+
+	/**
+	 * Gets the size of one copy of the data.
+	 * 
+	 * @return
+	 * 		The lump size in bytes.
+	 */
+	public int getLumpSize() {
+		return this.lumps.get(0).getLump().getSize();
+	}
+
+	/**
+	 * Gets how many copies of the data are stored. Lumps of one file that
+	 * already point at the same offset are one copy.
+	 * 
+	 * @return
+	 * 		The number of distinct file and offset pairs in the group.
+	 */
+	public int getCopyCount() {
+		return this.copyCount;
+	}
+
+	/**
+	 * Gets the number of bytes that would be saved if only one copy of the
+	 * data was kept. Lumps that already share their data are not counted, so
+	 * a deduplicated wad wastes nothing.
+	 * 
+	 * @return
+	 * 		The wasted bytes of this group.
+	 */
+	public long getWastedBytes() {
+		return (long)getLumpSize() * (this.copyCount - 1);
+	}
+}
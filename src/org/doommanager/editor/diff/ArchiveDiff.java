@@ -0,0 +1,522 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.LumpHasher;
+import org.doommanager.editor.map.MapReference;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * The structural differences between two versions of a file.
+ * <p>
+ * Lumps are matched by their qualified name: map lumps are qualified by their
+ * map (MAP01/THINGS) and repeated names by their occurrence. Matched lumps
+ * are first compared by size, and only hashed if the sizes are the same.
+ * Content hashes can also be passed in (for example from the index cache), in
+ * which case no lump is read just to hash it. PK3 entries are always hashed
+ * from their central directory CRC. A hash is only a CRC32 and the size, so
+ * lumps with equal hashes are compared byte for byte before they count as
+ * unchanged or moved, and a collision shows up as a modification.
+ */
+public class ArchiveDiff {
+
+	/**
+	 * Every change found, in directory order of the new file.
+	 */
+	private final List<LumpChange> changes;
+
+	/**
+	 * The number of matched lumps that did not change.
+	 */
+	private final int unchangedCount;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ArchiveDiff.class.getName());
+
+	/**
+	 * Creates a diff result.
+	 * 
+	 * @param changes
+	 * 		The changes found.
+	 * 
+	 * @param unchangedCount
+	 * 		The number of unchanged lumps.
+	 */
+	private ArchiveDiff(List<LumpChange> changes, int unchangedCount) {
+		this.changes = Collections.unmodifiableList(changes);
+		this.unchangedCount = unchangedCount;
+	}
+
+	/**
+	 * Compares two files, hashing lumps only where needed.
+	 * 
+	 * @param oldFile
+	 * 		The old version.
+	 * 
+	 * @param newFile
+	 * 		The new version.
+	 * 
+	 * @return
+	 * 		The differences.
+	 */
+	public static ArchiveDiff compare(DoomFile oldFile, DoomFile newFile) {
+		return compare(oldFile, null, newFile, null);
+	}
+
+	/**
+	 * Compares two files using known content hashes.
+	 * 
+	 * @param oldFile
+	 * 		The old version.
+	 * 
+	 * @param oldHashes
+	 * 		The content hashes of the old file by lump index, or null to hash
+	 * 		lumps when needed.
+	 * 
+	 * @param newFile
+	 * 		The new version.
+	 * 
+	 * @param newHashes
+	 * 		The content hashes of the new file by lump index, or null to hash
+	 * 		lumps when needed.
+	 * 
+	 * @return
+	 * 		The differences.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either file is null.
+	 */
+	public static ArchiveDiff compare(DoomFile oldFile, long[] oldHashes, DoomFile newFile, long[] newHashes) {
+		if (oldFile == null || newFile == null)
+			throw new NullPointerException("Provided a null file to ArchiveDiff.");
+		return compare(oldFile, oldHashes, newFile, newHashes, true);
+	}
+
+	/**
+	 * Compares a file to an older version of itself without reading any data
+	 * from the old file. This is needed when the old file was changed on disk
+	 * underneath its mapping, since its lump data then shows the new contents.
+	 * Only the old directory and the old hashes are used, so equal hashes
+	 * cannot be confirmed by their bytes, and modified map lumps get no
+	 * record differences.
+	 * 
+	 * @param oldFile
+	 * 		The old version, of which only the directory is used.
+	 * 
+	 * @param oldHashes
+	 * 		The content hashes of every lump of the old version, taken before
+	 * 		it changed.
+	 * 
+	 * @param newFile
+	 * 		The new version.
+	 * 
+	 * @param newHashes
+	 * 		The content hashes of the new file by lump index, or null to hash
+	 * 		lumps when needed.
+	 * 
+	 * @return
+	 * 		The differences.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either file or the old hashes are null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the old hashes do not cover every lump of the old file.
+	 */
+	public static ArchiveDiff compareDirectories(DoomFile oldFile, long[] oldHashes, DoomFile newFile, long[] newHashes) {
+		if (oldFile == null || newFile == null || oldHashes == null)
+			throw new NullPointerException("Provided a null file or null old hashes to ArchiveDiff.");
+		if (oldHashes.length != oldFile.getLumps().size())
+			throw new IllegalArgumentException("The old hashes do not match the lumps of " + oldFile.getFilePath());
+		return compare(oldFile, oldHashes, newFile, newHashes, false);
+	}
+
+	/**
+	 * Compares two files.
+	 * 
+	 * @param oldFile
+	 * 		The old version.
+	 * 
+	 * @param oldHashes
+	 * 		The content hashes of the old file, or null.
+	 * 
+	 * @param newFile
+	 * 		The new version.
+	 * 
+	 * @param newHashes
+	 * 		The content hashes of the new file, or null.
+	 * 
+	 * @param readOld
+	 * 		If the data of the old file can be read. Lumps with equal hashes
+	 * 		are then confirmed byte for byte, and modified map lumps are
+	 * 		compared record by record. Otherwise equal hashes are trusted.
+	 * 
+	 * @return
+	 * 		The differences.
+	 */
+	private static ArchiveDiff compare(DoomFile oldFile, long[] oldHashes, DoomFile newFile, long[] newHashes, boolean readOld) {
+		List<Lump> oldLumps = oldFile.getLumps();
+		List<Lump> newLumps = newFile.getLumps();
+		String[] oldKeys = qualifiedNames(oldFile);
+		String[] newKeys = qualifiedNames(newFile);
+
+		Map<String, Integer> newByKey = new HashMap<>();
+		for (int i = 0; i < newKeys.length; i++)
+			newByKey.put(newKeys[i], i);
+
+		// Pair up lumps by qualified name, everything else is added or removed.
+		int[] pairOf = new int[oldKeys.length];
+		boolean[] newMatched = new boolean[newKeys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			Integer match = newByKey.get(oldKeys[i]);
+			pairOf[i] = match != null ? match : -1;
+			if (match != null)
+				newMatched[match] = true;
+		}
+
+		// Work out which lumps need a hash and compute only those, in parallel.
+		Map<Integer, Integer> removedSizes = new HashMap<>();
+		for (int i = 0; i < oldKeys.length; i++)
+			if (pairOf[i] < 0)
+				removedSizes.merge(oldLumps.get(i).getSize(), 1, Integer::sum);
+		boolean[] needOld = new boolean[oldKeys.length];
+		boolean[] needNew = new boolean[newKeys.length];
+		for (int i = 0; i < oldKeys.length; i++)
+			if (pairOf[i] >= 0 && oldLumps.get(i).getSize() == newLumps.get(pairOf[i]).getSize())
+				needOld[i] = needNew[pairOf[i]] = true;
+		Map<Integer, Integer> addedSizes = new HashMap<>();
+		for (int j = 0; j < newKeys.length; j++) {
+			if (!newMatched[j] && removedSizes.containsKey(newLumps.get(j).getSize())) {
+				needNew[j] = true;
+				addedSizes.merge(newLumps.get(j).getSize(), 1, Integer::sum);
+			}
+		}
+		for (int i = 0; i < oldKeys.length; i++)
+			if (pairOf[i] < 0 && addedSizes.containsKey(oldLumps.get(i).getSize()))
+				needOld[i] = true;
+		long[] oldHash = hashNeeded(oldFile, oldHashes, needOld);
+		long[] newHash = hashNeeded(newFile, newHashes, needNew);
+
+		// Matched lumps with equal hashes are confirmed by their bytes, in parallel.
+		boolean[] same = new boolean[oldKeys.length];
+		IntStream.range(0, oldKeys.length).parallel().forEach(i -> {
+			int j = pairOf[i];
+			if (j >= 0 && oldLumps.get(i).getSize() == newLumps.get(j).getSize() && oldHash[i] == newHash[j])
+				same[i] = !readOld || sameData(oldFile, oldLumps.get(i), newFile, newLumps.get(j));
+		});
+
+		List<LumpChange> changes = new ArrayList<>();
+		int unchanged = 0;
+
+		// Matched lumps are modified if their content differs, otherwise they
+		// are moved if they are not part of the longest run kept in order.
+		int[] sequence = new int[oldKeys.length];
+		int[] sequenceOld = new int[oldKeys.length];
+		int sequenceLength = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			int j = pairOf[i];
+			if (j < 0)
+				continue;
+			if (!same[i]) {
+				changes.add(new LumpChange(LumpChangeType.MODIFIED, oldLumps.get(i), newLumps.get(j)));
+			} else {
+				sequence[sequenceLength] = j;
+				sequenceOld[sequenceLength++] = i;
+			}
+		}
+		boolean[] inOrder = longestIncreasing(sequence, sequenceLength);
+		for (int k = 0; k < sequenceLength; k++) {
+			if (inOrder[k])
+				unchanged++;
+			else
+				changes.add(new LumpChange(LumpChangeType.MOVED, oldLumps.get(sequenceOld[k]), newLumps.get(sequence[k])));
+		}
+
+		// Identical data that shows up under another name was moved (or renamed).
+		Map<Long, List<Integer>> removedByHash = new HashMap<>();
+		for (int i = 0; i < oldKeys.length; i++)
+			if (pairOf[i] < 0 && needOld[i])
+				removedByHash.computeIfAbsent(oldHash[i], k -> new ArrayList<>(1)).add(i);
+		boolean[] oldMoved = new boolean[oldKeys.length];
+		for (int j = 0; j < newKeys.length; j++) {
+			if (newMatched[j])
+				continue;
+			List<Integer> sources = needNew[j] ? removedByHash.get(newHash[j]) : null;
+			int source = -1;
+			if (sources != null) {
+				for (int k = 0; k < sources.size() && source < 0; k++) {
+					int i = sources.get(k);
+					if (!readOld || sameData(oldFile, oldLumps.get(i), newFile, newLumps.get(j))) {
+						source = i;
+						sources.remove(k);
+					}
+				}
+			}
+			if (source >= 0) {
+				oldMoved[source] = true;
+				changes.add(new LumpChange(LumpChangeType.MOVED, oldLumps.get(source), newLumps.get(j)));
+			} else {
+				changes.add(new LumpChange(LumpChangeType.ADDED, null, newLumps.get(j)));
+			}
+		}
+		for (int i = 0; i < oldKeys.length; i++)
+			if (pairOf[i] < 0 && !oldMoved[i])
+				changes.add(new LumpChange(LumpChangeType.REMOVED, oldLumps.get(i), null));
+
+		if (readOld)
+			addRecordDiffs(oldFile, oldKeys, newFile, changes);
+		changes.sort((a, b) -> Integer.compare(sortIndex(a), sortIndex(b)));
+		log.log(Level.FINE, "Compared " + oldFile.getFilePath() + " to " + newFile.getFilePath() + ": "
+				+ changes.size() + " changes, " + unchanged + " unchanged");
+		return new ArchiveDiff(changes, unchanged);
+	}
+
+	/**
+	 * Checks if two lumps hold the same bytes.
+	 * 
+	 * @param oldFile
+	 * 		The file of the first lump.
+	 * 
+	 * @param oldLump
+	 * 		The first lump.
+	 * 
+	 * @param newFile
+	 * 		The file of the second lump.
+	 * 
+	 * @param newLump
+	 * 		The second lump.
+	 * 
+	 * @return
+	 * 		True if the data is identical.
+	 */
+	private static boolean sameData(DoomFile oldFile, Lump oldLump, DoomFile newFile, Lump newLump) {
+		BufferLease oldData = oldFile.getLumpData(oldLump, BufferPool.getShared());
+		try {
+			BufferLease newData = newFile.getLumpData(newLump, BufferPool.getShared());
+			try {
+				return oldData.getBuffer().equals(newData.getBuffer());
+			} finally {
+				newData.dispose();
+			}
+		} finally {
+			oldData.dispose();
+		}
+	}
+
+	/**
+	 * Builds the qualified names of every lump of a file.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @return
+	 * 		The qualified names by lump index.
+	 */
+	private static String[] qualifiedNames(DoomFile file) {
+		List<Lump> lumps = file.getLumps();
+		String[] keys = new String[lumps.size()];
+		for (MapReference map : MapReference.findMaps(file))
+			for (Lump lump : map.getLumps())
+				keys[lump.getIndex()] = map.getName().toUpperCase() + "/" + lump.getName().toUpperCase();
+		Map<String, Integer> occurrences = new HashMap<>();
+		for (int i = 0; i < keys.length; i++) {
+			String key = keys[i] != null ? keys[i] : lumps.get(i).getName().toUpperCase();
+			int occurrence = occurrences.merge(key, 1, Integer::sum) - 1;
+			keys[i] = occurrence == 0 ? key : key + "#" + occurrence;
+		}
+		return keys;
+	}
+
+	/**
+	 * Hashes the lumps that are needed and not already known.
+	 * 
+	 * @param file
+	 * 		The file to hash lumps of.
+	 * 
+	 * @param known
+	 * 		Already known hashes, or null.
+	 * 
+	 * @param needed
+	 * 		Which lumps need a hash.
+	 * 
+	 * @return
+	 * 		The hashes by lump index. Lumps that were not needed are zero.
+	 */
+	private static long[] hashNeeded(DoomFile file, long[] known, boolean[] needed) {
+		if (known != null && known.length == needed.length)
+			return known;
+		List<Lump> lumps = file.getLumps();
+		long[] hashes = new long[needed.length];
+		IntStream.range(0, needed.length).parallel().filter(i -> needed[i])
+				.forEach(i -> hashes[i] = LumpHasher.hash(file, lumps.get(i)));
+		return hashes;
+	}
+
+	/**
+	 * Finds the longest strictly increasing subsequence.
+	 * 
+	 * @param values
+	 * 		The values.
+	 * 
+	 * @param length
+	 * 		How many values to use.
+	 * 
+	 * @return
+	 * 		True for every value that is part of the subsequence.
+	 */
+	private static boolean[] longestIncreasing(int[] values, int length) {
+		int[] tails = new int[length];
+		int[] previous = new int[length];
+		int tailCount = 0;
+		for (int k = 0; k < length; k++) {
+			int low = 0;
+			int high = tailCount;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (values[tails[middle]] < values[k])
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			previous[k] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = k;
+			if (low == tailCount)
+				tailCount++;
+		}
+		boolean[] result = new boolean[length];
+		for (int k = tailCount > 0 ? tails[tailCount - 1] : -1; k >= 0; k = previous[k])
+			result[k] = true;
+		return result;
+	}
+
+	/**
+	 * Computes the record differences of every modified map lump in parallel.
+	 * 
+	 * @param oldFile
+	 * 		The old file.
+	 * 
+	 * @param oldKeys
+	 * 		The qualified names of the old file.
+	 * 
+	 * @param newFile
+	 * 		The new file.
+	 * 
+	 * @param changes
+	 * 		The changes found so far.
+	 */
+	private static void addRecordDiffs(DoomFile oldFile, String[] oldKeys, DoomFile newFile, List<LumpChange> changes) {
+		Map<String, Boolean> hexenMaps = new HashMap<>();
+		for (MapReference map : MapReference.findMaps(oldFile))
+			hexenMaps.put(map.getName().toUpperCase(), map.isHexen());
+		changes.parallelStream().filter(change -> change.getType() == LumpChangeType.MODIFIED).forEach(change -> {
+			String key = oldKeys[change.getOldLump().getIndex()];
+			int slash = key.indexOf('/');
+			if (slash < 0)
+				return;
+			Boolean hexen = hexenMaps.get(key.substring(0, slash));
+			int recordSize = MapReference.getRecordSize(change.getOldLump().getName(), hexen != null && hexen);
+			if (recordSize <= 0)
+				return;
+			BufferLease oldData = oldFile.getLumpData(change.getOldLump(), BufferPool.getShared());
+			BufferLease newData = null;
+			try {
+				newData = newFile.getLumpData(change.getNewLump(), BufferPool.getShared());
+				change.setRecordDiff(RecordDiff.compare(oldData.getBuffer(), newData.getBuffer(), recordSize));
+			} finally {
+				oldData.dispose();
+				if (newData != null)
+					newData.dispose();
+			}
+		});
+	}
+
+	/**
+	 * Gets the position a change is sorted by.
+	 * 
+	 * @param change
+	 * 		The change.
+	 * 
+	 * @return
+	 * 		The new lump index, or the old one for removed lumps.
+	 */
+	private static int sortIndex(LumpChange change) {
+		return change.getNewLump() != null ? change.getNewLump().getIndex() : change.getOldLump().getIndex();
+	}
+
+	/**
+	 * Gets every change.
+	 * 
+	 * @return
+	 * 		An unmodifiable list of changes in directory order.
+	 */
+	public List<LumpChange> getChanges() {
+		return this.changes;
+	}
+
+	/**
+	 * Gets the changes of one type.
+	 * 
+	 * @param type
+	 * 		The type of change.
+	 * 
+	 * @return
+	 * 		The matching changes in directory order.
+	 */
+	public List<LumpChange> getChanges(LumpChangeType type) {
+		List<LumpChange> matching = new ArrayList<>();
+		for (LumpChange change : this.changes)
+			if (change.getType() == type)
+				matching.add(change);
+		return matching;
+	}
+
+	/**
+	 * Gets the number of lumps that are the same in both files.
+	 * 
+	 * @return
+	 * 		The unchanged lump count.
+	 */
+	public int getUnchangedCount() {
+		return this.unchangedCount;
+	}
+
+	/**
+	 * Checks if the files have the same structure and contents.
+	 * 
+	 * @return
+	 * 		True if there are no changes.
+	 */
+	public boolean isIdentical() {
+		return this.changes.isEmpty();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.diff;
+
+import org.doommanager.editor.file.Lump;
+
+/**
+ * A single difference between two files.
+ */
+public class LumpChange {
+
+	/**
+	 * The kind of change.
+	 */
+	private final LumpChangeType type;
+
+	/**
+	 * The lump in the old file, or null if it was added.
+	 */
+	private final Lump oldLump;
+
+	/**
+	 * The lump in the new file, or null if it was removed.
+	 */
+	private final Lump newLump;
+
+	/**
+	 * The record differences of a modified map lump, or null.
+	 */
+	private RecordDiff recordDiff;
+
+	/**
+	 * Creates a change.
+	 * 
+	 * @param type
+	 * 		The kind of change.
+	 * 
+	 * @param oldLump
+	 * 		The old lump, or null if it was added.
+	 * 
+	 * @param newLump
+	 * 		The new lump, or null if it was removed.
+	 */
+	LumpChange(LumpChangeType type, Lump oldLump, Lump newLump) {
+		this.type = type;
+		this.oldLump = oldLump;
+		this.newLump = newLump;
+	}
+
+	/**
+	 * Gets the kind of change.
+	 * 
+	 * @return
+	 * 		The change type.
+	 */
+	public LumpChangeType getType() {
+		return this.type;
+	}
+
+	/**
+	 * Gets the lump in the old file.
+	 * 
+	 * @return
+	 * 		The old lump, or null for added lumps.
+	 */
+	public Lump getOldLump() {
+		return this.oldLump;
+	}
+
+	/**
+	 * Gets the lump in the new file.
+	 * 
+	 * @return
+	 * 		The new lump, or null for removed lumps.
+	 */
+	public Lump getNewLump() {
+		return this.newLump;
+	}
+
+	/**
+	 * Gets the record level differences. These only exist for modified map
+	 * lumps that are made of fixed size records.
+	 * 
+	 * @return
+	 * 		The record differences, or null if there are none.
+	 */
+	public RecordDiff getRecordDiff() {
+		return this.recordDiff;
+	}
+
+	/**
+	 * Sets the record level differences.
+	 * 
+	 * @param recordDiff
+	 * 		The record differences.
+	 */
+	void setRecordDiff(RecordDiff recordDiff) {
+		this.recordDiff = recordDiff;
+	}
+
+	@Override
+	public String toString() {
+		Lump lump = this.newLump != null ? this.newLump : this.oldLump;
+		return this.type.getDescription() + " " + lump.getName() + (this.recordDiff != null ? " (" + this.recordDiff + ")" : "");
+	}
+}
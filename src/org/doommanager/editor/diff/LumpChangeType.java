@@ -0,0 +1,54 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.diff;
+
+/**
+ * Encapsulation of the ways a lump can differ between two files.
+ */
+public enum LumpChangeType {
+	ADDED("Added"),
+	REMOVED("Removed"),
+	MOVED("Moved"),
+	MODIFIED("Modified");
+	
+	/**
+	 * The human readable description of the change.
+	 */
+	private String description;
+	
+	/**
+	 * Creates a change type.
+	 * 
+	 * @param description
+	 * 		The description of the change.
+	 */
+	private LumpChangeType(String description) {
+		this.description = description;
+	}
+	
+	/**
+	 * Gets a human printable description of the change.
+	 * 
+	 * @return
+	 * 		The description.
+	 */
+	public String getDescription() {
+		return description;
+	}
+}
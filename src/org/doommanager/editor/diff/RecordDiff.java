@@ -0,0 +1,177 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.diff;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The record level differences of a map lump that is made of fixed size
+ * records (like THINGS or LINEDEFS). Records are matched by their index since
+ * that is how the rest of the map refers to them.
+ */
+public class RecordDiff {
+
+	/**
+	 * The size of one record in bytes.
+	 */
+	private final int recordSize;
+
+	/**
+	 * The number of records in the old lump.
+	 */
+	private final int oldCount;
+
+	/**
+	 * The number of records in the new lump.
+	 */
+	private final int newCount;
+
+	/**
+	 * The indices of records that exist in both lumps but differ.
+	 */
+	private final int[] modifiedRecords;
+
+	/**
+	 * Creates a record diff.
+	 * 
+	 * @param recordSize
+	 * 		The record size.
+	 * 
+	 * @param oldCount
+	 * 		The old record count.
+	 * 
+	 * @param newCount
+	 * 		The new record count.
+	 * 
+	 * @param modifiedRecords
+	 * 		The modified record indices.
+	 */
+	private RecordDiff(int recordSize, int oldCount, int newCount, int[] modifiedRecords) {
+		this.recordSize = recordSize;
+		this.oldCount = oldCount;
+		this.newCount = newCount;
+		this.modifiedRecords = modifiedRecords;
+	}
+
+	/**
+	 * Compares two lumps record by record.
+	 * 
+	 * @param oldData
+	 * 		The old lump data.
+	 * 
+	 * @param newData
+	 * 		The new lump data.
+	 * 
+	 * @param recordSize
+	 * 		The size of a record.
+	 * 
+	 * @return
+	 * 		The differences. Any trailing bytes that do not make up a whole
+	 * 		record are ignored.
+	 */
+	public static RecordDiff compare(ByteBuffer oldData, ByteBuffer newData, int recordSize) {
+		int oldCount = oldData.remaining() / recordSize;
+		int newCount = newData.remaining() / recordSize;
+		int common = Math.min(oldCount, newCount);
+		int[] modified = new int[16];
+		int modifiedCount = 0;
+		int oldStart = oldData.position();
+		int newStart = newData.position();
+		for (int record = 0; record < common; record++) {
+			int oldOffset = oldStart + record * recordSize;
+			int newOffset = newStart + record * recordSize;
+			for (int i = 0; i < recordSize; i++) {
+				if (oldData.get(oldOffset + i) != newData.get(newOffset + i)) {
+					if (modifiedCount == modified.length)
+						modified = Arrays.copyOf(modified, modifiedCount * 2);
+					modified[modifiedCount++] = record;
+					break;
+				}
+			}
+		}
+		return new RecordDiff(recordSize, oldCount, newCount, Arrays.copyOf(modified, modifiedCount));
+	}
+
+	/**
+	 * Gets the record size.
+	 * 
+	 * @return
+	 * 		The size of one record in bytes.
+	 */
+	public int getRecordSize() {
+		return this.recordSize;
+	}
+
+	/**
+	 * Gets the number of records in the old lump.
+	 * 
+	 * @return
+	 * 		The old record count.
+	 */
+	public int getOldCount() {
+		return this.oldCount;
+	}
+
+	/**
+	 * Gets the number of records in the new lump.
+	 * 
+	 * @return
+	 * 		The new record count.
+	 */
+	public int getNewCount() {
+		return this.newCount;
+	}
+
+	/**
+	 * Gets the records that were changed.
+	 * 
+	 * @return
+	 * 		The indices of changed records in ascending order. This must not be
+	 * 		modified.
+	 */
+	public int[] getModifiedRecords() {
+		return this.modifiedRecords;
+	}
+
+	/**
+	 * Gets how many records were added at the end.
+	 * 
+	 * @return
+	 * 		The number of added records.
+	 */
+	public int getAddedCount() {
+		return Math.max(0, this.newCount - this.oldCount);
+	}
+
+	/**
+	 * Gets how many records were removed from the end.
+	 * 
+	 * @return
+	 * 		The number of removed records.
+	 */
+	public int getRemovedCount() {
+		return Math.max(0, this.oldCount - this.newCount);
+	}
+
+	@Override
+	public String toString() {
+		return this.modifiedRecords.length + " modified, " + getAddedCount() + " added, " + getRemovedCount() + " removed";
+	}
+}
@@ -0,0 +1,420 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import org.doommanager.editor.Disposable;
+import org.doommanager.editor.file.ArchiveOutput;
+import org.doommanager.editor.file.AtomicSave;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3Output;
+import org.doommanager.editor.file.SaveJournal;
+import org.doommanager.editor.file.WadOutput;
+
+/**
+ * An editable list of lumps with undo and redo. A document starts out
+ * pointing at the lumps of an open file, so nothing is copied until a lump is
+ * edited, and every change goes through the journal as a delta.
+ * 
+ * A document is not thread safe and should only be changed from one thread,
+ * usually the GUI thread.
+ */
+public class ArchiveDocument implements Disposable {
+
+	/**
+	 * The lumps in directory order.
+	 */
+	private final List<LumpEntry> entries;
+
+	/**
+	 * How often every chunk that is not read from a file is used by the
+	 * entries, so the journal knows which chunks it must not spill.
+	 */
+	private final Map<Chunk, Integer> chunkUses;
+
+	/**
+	 * The undo history.
+	 */
+	private final EditJournal journal;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ArchiveDocument.class.getName());
+
+	/**
+	 * Creates an empty document.
+	 */
+	public ArchiveDocument() {
+		this.entries = new ArrayList<>();
+		this.chunkUses = new IdentityHashMap<>();
+		this.journal = new EditJournal(this);
+	}
+
+	/**
+	 * Creates a document with the lumps of a file. The lump data is read from
+	 * the file when needed, so the file must stay open while it is used.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the file is null.
+	 */
+	public ArchiveDocument(DoomFile file) {
+		this();
+		if (file == null) {
+			NullPointerException e = new NullPointerException("Provided a null file to ArchiveDocument.");
+			log.log(Level.SEVERE, "ArchiveDocument file is null", e);
+			throw e;
+		}
+		for (Lump lump : file.getLumps())
+			this.entries.add(new LumpEntry(lump.getName(), LumpData.of(file, lump)));
+	}
+
+	/**
+	 * Gets the undo history of the document.
+	 * 
+	 * @return
+	 * 		The journal.
+	 */
+	public EditJournal getJournal() {
+		return this.journal;
+	}
+
+	/**
+	 * Gets the number of lumps.
+	 * 
+	 * @return
+	 * 		The lump count.
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Gets a lump.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 * 
+	 * @return
+	 * 		The entry.
+	 */
+	public LumpEntry getEntry(int index) {
+		return this.entries.get(index);
+	}
+
+	/**
+	 * Gets all lumps.
+	 * 
+	 * @return
+	 * 		An unmodifiable view of the entries in directory order.
+	 */
+	public List<LumpEntry> getEntries() {
+		return Collections.unmodifiableList(this.entries);
+	}
+
+	/**
+	 * Finds the last lump with a name, like the engine does.
+	 * 
+	 * @param name
+	 * 		The name in any case.
+	 * 
+	 * @return
+	 * 		The index of the lump, or -1 if there is none.
+	 */
+	public int indexOf(String name) {
+		for (int i = this.entries.size() - 1; i >= 0; i--)
+			if (this.entries.get(i).getName().equalsIgnoreCase(name))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Renames a lump.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 * 
+	 * @param name
+	 * 		The new name.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the name is null.
+	 */
+	public void rename(int index, String name) {
+		set(index, this.entries.get(index).withName(name), "Rename");
+	}
+
+	/**
+	 * Replaces the contents of a lump.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 * 
+	 * @param data
+	 * 		The new contents.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the data is null.
+	 */
+	public void setData(int index, LumpData data) {
+		set(index, this.entries.get(index).withData(data), "Edit");
+	}
+
+	/**
+	 * Replaces a lump.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 * 
+	 * @param entry
+	 * 		The new entry.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the entry is null.
+	 */
+	public void set(int index, LumpEntry entry) {
+		set(index, entry, "Replace");
+	}
+
+	/**
+	 * Replaces a lump and records it.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 * 
+	 * @param entry
+	 * 		The new entry.
+	 * 
+	 * @param name
+	 * 		The name of the operation if it is not part of a larger one.
+	 */
+	private void set(int index, LumpEntry entry, String name) {
+		if (entry == null)
+			throw new NullPointerException("Provided a null entry to ArchiveDocument.");
+		LumpEntry before = setEntry(index, entry);
+		if (!before.getName().equals(entry.getName()) || before.getData() != entry.getData())
+			this.journal.record(name, new EditOperation.Delta(EditOperation.DeltaType.SET, index, before, entry));
+	}
+
+	/**
+	 * Inserts a lump.
+	 * 
+	 * @param index
+	 * 		Where to insert the lump, from zero to the size.
+	 * 
+	 * @param entry
+	 * 		The new entry.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the entry is null.
+	 */
+	public void insert(int index, LumpEntry entry) {
+		if (entry == null)
+			throw new NullPointerException("Provided a null entry to ArchiveDocument.");
+		insertEntry(index, entry);
+		this.journal.record("Insert", new EditOperation.Delta(EditOperation.DeltaType.INSERT, index, null, entry));
+	}
+
+	/**
+	 * Adds a lump at the end.
+	 * 
+	 * @param entry
+	 * 		The new entry.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the entry is null.
+	 */
+	public void add(LumpEntry entry) {
+		insert(this.entries.size(), entry);
+	}
+
+	/**
+	 * Removes a lump.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 */
+	public void remove(int index) {
+		LumpEntry before = removeEntry(index);
+		this.journal.record("Delete", new EditOperation.Delta(EditOperation.DeltaType.REMOVE, index, before, null));
+	}
+
+	/**
+	 * Replaces an entry without recording it.
+	 * 
+	 * @param index
+	 * 		The index of the entry.
+	 * 
+	 * @param entry
+	 * 		The new entry.
+	 * 
+	 * @return
+	 * 		The old entry.
+	 */
+	LumpEntry setEntry(int index, LumpEntry entry) {
+		LumpEntry before = this.entries.set(index, entry);
+		if (before.getData() != entry.getData()) {
+			EditOperation.forEachOwnedChunk(entry, chunk -> this.chunkUses.merge(chunk, 1, Integer::sum));
+			EditOperation.forEachOwnedChunk(before, this::release);
+		}
+		return before;
+	}
+
+	/**
+	 * Inserts an entry without recording it.
+	 * 
+	 * @param index
+	 * 		Where to insert the entry.
+	 * 
+	 * @param entry
+	 * 		The new entry.
+	 */
+	void insertEntry(int index, LumpEntry entry) {
+		this.entries.add(index, entry);
+		EditOperation.forEachOwnedChunk(entry, chunk -> this.chunkUses.merge(chunk, 1, Integer::sum));
+	}
+
+	/**
+	 * Removes an entry without recording it.
+	 * 
+	 * @param index
+	 * 		The index of the entry.
+	 * 
+	 * @return
+	 * 		The removed entry.
+	 */
+	LumpEntry removeEntry(int index) {
+		LumpEntry before = this.entries.remove(index);
+		EditOperation.forEachOwnedChunk(before, this::release);
+		return before;
+	}
+
+	/**
+	 * Lowers the use count of a chunk.
+	 * 
+	 * @param chunk
+	 * 		The chunk that is used once less.
+	 */
+	private void release(Chunk chunk) {
+		this.chunkUses.computeIfPresent(chunk, (key, uses) -> uses > 1 ? uses - 1 : null);
+	}
+
+	/**
+	 * Checks if a chunk is part of the current lumps.
+	 * 
+	 * @param chunk
+	 * 		The chunk.
+	 * 
+	 * @return
+	 * 		True if an entry uses the chunk.
+	 */
+	boolean isInUse(Chunk chunk) {
+		return this.chunkUses.containsKey(chunk);
+	}
+
+	/**
+	 * Saves the lumps as a wad. The file is only replaced once the whole wad
+	 * is written and forced to disk, so the lumps may still be read from the
+	 * file being replaced.
+	 * 
+	 * @param filePath
+	 * 		The wad to write.
+	 * 
+	 * @param iwad
+	 * 		If the wad should be an IWAD.
+	 * 
+	 * @return
+	 * 		The size of the saved wad in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails, in which case the file is left as it was.
+	 */
+	public long saveAsWad(String filePath, boolean iwad) throws IOException {
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath);
+				WadOutput output = new WadOutput(save.getChannel(), iwad, true)) {
+			return save(save, output);
+		}
+	}
+
+	/**
+	 * Saves the lumps as a PK3, with the lump names as the entry paths. The
+	 * file is only replaced once the whole PK3 is written and forced to disk.
+	 * 
+	 * @param filePath
+	 * 		The PK3 to write.
+	 * 
+	 * @return
+	 * 		The size of the saved PK3 in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails, in which case the file is left as it was.
+	 */
+	public long saveAsPK3(String filePath) throws IOException {
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath);
+				PK3Output output = new PK3Output(save.getChannel(), Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors())) {
+			return save(save, output);
+		}
+	}
+
+	/**
+	 * Writes every lump and commits the save.
+	 * 
+	 * @param save
+	 * 		The save in progress.
+	 * 
+	 * @param output
+	 * 		The archive to write to.
+	 * 
+	 * @return
+	 * 		The size of the archive in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	private long save(AtomicSave save, ArchiveOutput output) throws IOException {
+		for (LumpEntry entry : this.entries)
+			output.add(entry.getName(), entry.getData().getData());
+		long size = output.finish();
+		save.commit();
+		log.log(Level.INFO, "Saved " + this.entries.size() + " lumps to " + save.getTarget());
+		return size;
+	}
+
+	/**
+	 * Frees the history and its spill file. The document should not be used
+	 * after this, since lumps brought back by undo may be in the spill file.
+	 */
+	@Override
+	public void dispose() {
+		this.journal.dispose();
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+
+/**
+ * An immutable piece of lump data. The contents never change, but where they
+ * are kept can: a chunk either points into the lump of an open file, holds its
+ * bytes on the heap, or was moved from the heap into a spill file. Chunks are
+ * shared by every version of a lump that contains them.
+ */
+final class Chunk {
+
+	/**
+	 * The number of bytes in the chunk.
+	 */
+	private final int length;
+
+	/**
+	 * The file the data is read from, or null if it is not from a file.
+	 */
+	private final DoomFile file;
+
+	/**
+	 * The lump the data is read from, or null if it is not from a file.
+	 */
+	private final Lump lump;
+
+	/**
+	 * Where the chunk starts in the lump.
+	 */
+	private final int lumpOffset;
+
+	/**
+	 * The data when it is on the heap, otherwise null.
+	 */
+	private ByteBuffer heap;
+
+	/**
+	 * The spill file the data was moved to, otherwise null.
+	 */
+	private SpillFile spillFile;
+
+	/**
+	 * Where the data is in the spill file.
+	 */
+	private long spillPosition;
+
+	/**
+	 * Creates a chunk.
+	 * 
+	 * @param length
+	 * 		The number of bytes.
+	 * 
+	 * @param file
+	 * 		The file with the data, or null.
+	 * 
+	 * @param lump
+	 * 		The lump with the data, or null.
+	 * 
+	 * @param lumpOffset
+	 * 		The start of the data in the lump.
+	 * 
+	 * @param heap
+	 * 		The data on the heap, or null.
+	 * 
+	 * @param spillFile
+	 * 		The spill file with the data, or null.
+	 * 
+	 * @param spillPosition
+	 * 		The start of the data in the spill file.
+	 */
+	private Chunk(int length, DoomFile file, Lump lump, int lumpOffset, ByteBuffer heap, SpillFile spillFile, long spillPosition) {
+		this.length = length;
+		this.file = file;
+		this.lump = lump;
+		this.lumpOffset = lumpOffset;
+		this.heap = heap;
+		this.spillFile = spillFile;
+		this.spillPosition = spillPosition;
+	}
+
+	/**
+	 * Creates a chunk that reads its data from a lump of a file.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @param offset
+	 * 		The start of the chunk in the lump.
+	 * 
+	 * @param length
+	 * 		The number of bytes.
+	 * 
+	 * @return
+	 * 		The new chunk.
+	 */
+	static Chunk ofLump(DoomFile file, Lump lump, int offset, int length) {
+		return new Chunk(length, file, lump, offset, null, null, 0);
+	}
+
+	/**
+	 * Creates a chunk from a copy of bytes.
+	 * 
+	 * @param bytes
+	 * 		The bytes.
+	 * 
+	 * @param offset
+	 * 		The first byte to copy.
+	 * 
+	 * @param length
+	 * 		The number of bytes to copy.
+	 * 
+	 * @return
+	 * 		The new chunk.
+	 */
+	static Chunk ofBytes(byte[] bytes, int offset, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(bytes, offset, copy, 0, length);
+		return new Chunk(length, null, null, 0, ByteBuffer.wrap(copy).asReadOnlyBuffer(), null, 0);
+	}
+
+	/**
+	 * Gets the number of bytes in the chunk.
+	 * 
+	 * @return
+	 * 		The length of the chunk.
+	 */
+	int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Checks if the data is read from a lump of an open file. Those chunks
+	 * cost no memory and are never spilled.
+	 * 
+	 * @return
+	 * 		True if the chunk points into a lump.
+	 */
+	boolean isFromLump() {
+		return this.file != null;
+	}
+
+	/**
+	 * Gets how much heap memory the data uses.
+	 * 
+	 * @return
+	 * 		The length if the data is on the heap, otherwise zero.
+	 */
+	synchronized int getHeapSize() {
+		return this.heap != null ? this.length : 0;
+	}
+
+	/**
+	 * Reads the data of the chunk.
+	 * 
+	 * @return
+	 * 		A little endian read-only buffer positioned at zero.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the data was spilled and cannot be read back.
+	 */
+	synchronized ByteBuffer read() {
+		ByteBuffer data;
+		if (this.heap != null) {
+			data = this.heap.duplicate();
+		} else if (this.file != null) {
+			ByteBuffer lumpData = this.file.getLumpData(this.lump).duplicate();
+			lumpData.position(this.lumpOffset);
+			lumpData.limit(this.lumpOffset + this.length);
+			data = lumpData.slice().asReadOnlyBuffer();
+		} else {
+			try {
+				data = this.spillFile.read(this.spillPosition, this.length).asReadOnlyBuffer();
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read undo history back from its spill file.", e);
+			}
+		}
+		return data.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Creates a chunk with part of the data. Chunks of a lump or a spill file
+	 * point at the same place, chunks on the heap are copied.
+	 * 
+	 * @param offset
+	 * 		The start of the part.
+	 * 
+	 * @param length
+	 * 		The length of the part.
+	 * 
+	 * @return
+	 * 		The new chunk.
+	 */
+	synchronized Chunk slice(int offset, int length) {
+		if (this.file != null)
+			return ofLump(this.file, this.lump, this.lumpOffset + offset, length);
+		if (this.heap == null)
+			return new Chunk(length, null, null, 0, null, this.spillFile, this.spillPosition + offset);
+		byte[] bytes = new byte[length];
+		ByteBuffer data = this.heap.duplicate();
+		data.position(offset);
+		data.get(bytes);
+		return new Chunk(length, null, null, 0, ByteBuffer.wrap(bytes).asReadOnlyBuffer(), null, 0);
+	}
+
+	/**
+	 * Moves the data from the heap into a spill file. Nothing happens if the
+	 * data is not on the heap.
+	 * 
+	 * @param file
+	 * 		The spill file.
+	 * 
+	 * @return
+	 * 		The number of heap bytes freed.
+	 * 
+	 * @throws IOException
+	 * 		If the data cannot be written. The data stays on the heap.
+	 */
+	synchronized int spill(SpillFile file) throws IOException {
+		if (this.heap == null)
+			return 0;
+		this.spillPosition = file.write(this.heap.duplicate());
+		this.spillFile = file;
+		this.heap = null;
+		return this.length;
+	}
+}
@@ -0,0 +1,442 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.Disposable;
+
+/**
+ * The undo and redo history of an ArchiveDocument. Every change is recorded
+ * as a delta of the directory slot it touched, and the lump data in the deltas
+ * is shared with the document, so the history only costs memory for bytes that
+ * are no longer in the document.
+ * 
+ * That memory is bounded. When the history holds more heap data than the
+ * limit, the chunks of the oldest operations that the document does not use
+ * are moved to a temporary file, and when there are more operations than the
+ * limit the oldest are dropped.
+ * 
+ * Changes made between begin() and end() are undone as one operation.
+ * Changes made outside of them each become their own operation.
+ */
+public class EditJournal implements Disposable {
+
+	/**
+	 * The default heap memory the history may use before it is spilled, in
+	 * bytes.
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+	/**
+	 * The default number of operations that can be undone.
+	 */
+	public static final int DEFAULT_MAX_OPERATIONS = 1000;
+
+	/**
+	 * The document the history is for.
+	 */
+	private final ArchiveDocument document;
+
+	/**
+	 * The operations that can be undone, oldest first.
+	 */
+	private final Deque<EditOperation> undoStack;
+
+	/**
+	 * The operations that can be redone, the next one last.
+	 */
+	private final Deque<EditOperation> redoStack;
+
+	/**
+	 * How often every chunk that is not read from a file is referred to by
+	 * the history.
+	 */
+	private final Map<Chunk, Integer> chunkUses;
+
+	/**
+	 * The chunks on the heap in the order the history took them, which is the
+	 * order they are spilled in. Chunks leave it when the history lets go of
+	 * them, so that dropped data is not kept reachable. Chunks do not
+	 * override equals, so this compares them by identity.
+	 */
+	private final Set<Chunk> spillOrder;
+
+	/**
+	 * The heap bytes of the chunks the history refers to.
+	 */
+	private long heapBytes;
+
+	/**
+	 * The heap bytes allowed before chunks are spilled.
+	 */
+	private long memoryLimit;
+
+	/**
+	 * The number of operations kept.
+	 */
+	private int maxOperations;
+
+	/**
+	 * The file chunks are spilled to, created when first needed.
+	 */
+	private SpillFile spillFile;
+
+	/**
+	 * The operation between begin() and end(), or null.
+	 */
+	private EditOperation current;
+
+	/**
+	 * How many begin() calls have not been ended yet.
+	 */
+	private int depth;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(EditJournal.class.getName());
+
+	/**
+	 * Creates an empty history.
+	 * 
+	 * @param document
+	 * 		The document the history is for.
+	 */
+	EditJournal(ArchiveDocument document) {
+		this.document = document;
+		this.undoStack = new ArrayDeque<>();
+		this.redoStack = new ArrayDeque<>();
+		this.chunkUses = new IdentityHashMap<>();
+		this.spillOrder = new LinkedHashSet<>();
+		this.memoryLimit = DEFAULT_MEMORY_LIMIT;
+		this.maxOperations = DEFAULT_MAX_OPERATIONS;
+	}
+
+	/**
+	 * Starts an operation that groups every change until the matching end()
+	 * into one undo step. Calls can be nested, in which case the outermost
+	 * name is used.
+	 * 
+	 * @param name
+	 * 		The name shown for the operation.
+	 */
+	public void begin(String name) {
+		if (this.depth++ == 0)
+			this.current = new EditOperation(name);
+	}
+
+	/**
+	 * Ends an operation started with begin().
+	 * 
+	 * @throws IllegalStateException
+	 * 		If no operation was started.
+	 */
+	public void end() {
+		if (this.depth == 0)
+			throw new IllegalStateException("EditJournal end() was called without begin().");
+		if (--this.depth == 0) {
+			EditOperation operation = this.current;
+			this.current = null;
+			commit(operation);
+		}
+	}
+
+	/**
+	 * Records a change the document made.
+	 * 
+	 * @param name
+	 * 		The name of the operation if the change is not part of one.
+	 * 
+	 * @param delta
+	 * 		The change.
+	 */
+	void record(String name, EditOperation.Delta delta) {
+		if (this.current != null) {
+			this.current.add(delta);
+			return;
+		}
+		EditOperation operation = new EditOperation(name);
+		operation.add(delta);
+		commit(operation);
+	}
+
+	/**
+	 * Adds a finished operation to the history, which drops everything that
+	 * could be redone.
+	 * 
+	 * @param operation
+	 * 		The operation.
+	 */
+	private void commit(EditOperation operation) {
+		if (operation.isEmpty())
+			return;
+		while (!this.redoStack.isEmpty())
+			release(this.redoStack.removeLast());
+		this.undoStack.addLast(operation);
+		operation.forEachOwnedChunk(this::hold);
+		while (this.undoStack.size() > this.maxOperations)
+			release(this.undoStack.removeFirst());
+		spill();
+	}
+
+	/**
+	 * Checks if there is anything to undo.
+	 * 
+	 * @return
+	 * 		True if undo() would change the document.
+	 */
+	public boolean canUndo() {
+		return !this.undoStack.isEmpty();
+	}
+
+	/**
+	 * Checks if there is anything to redo.
+	 * 
+	 * @return
+	 * 		True if redo() would change the document.
+	 */
+	public boolean canRedo() {
+		return !this.redoStack.isEmpty();
+	}
+
+	/**
+	 * Gets the name of the operation undo() would take back.
+	 * 
+	 * @return
+	 * 		The name, or null if there is nothing to undo.
+	 */
+	public String getUndoName() {
+		return this.undoStack.isEmpty() ? null : this.undoStack.getLast().getName();
+	}
+
+	/**
+	 * Gets the name of the operation redo() would do again.
+	 * 
+	 * @return
+	 * 		The name, or null if there is nothing to redo.
+	 */
+	public String getRedoName() {
+		return this.redoStack.isEmpty() ? null : this.redoStack.getLast().getName();
+	}
+
+	/**
+	 * Takes back the last operation. This costs as much as the number of
+	 * lumps the operation changed.
+	 * 
+	 * @return
+	 * 		True if there was an operation to undo.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If an operation was started with begin() and not ended.
+	 */
+	public boolean undo() {
+		checkNotRecording();
+		EditOperation operation = this.undoStack.pollLast();
+		if (operation == null)
+			return false;
+		operation.revert(this.document);
+		this.redoStack.addLast(operation);
+		return true;
+	}
+
+	/**
+	 * Does the last undone operation again.
+	 * 
+	 * @return
+	 * 		True if there was an operation to redo.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If an operation was started with begin() and not ended.
+	 */
+	public boolean redo() {
+		checkNotRecording();
+		EditOperation operation = this.redoStack.pollLast();
+		if (operation == null)
+			return false;
+		operation.apply(this.document);
+		this.undoStack.addLast(operation);
+		return true;
+	}
+
+	/**
+	 * Makes sure no operation is being recorded.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If an operation was started with begin() and not ended.
+	 */
+	private void checkNotRecording() {
+		if (this.depth > 0)
+			throw new IllegalStateException("Cannot undo or redo while an operation is being recorded.");
+	}
+
+	/**
+	 * Drops the whole history.
+	 */
+	public void clear() {
+		while (!this.undoStack.isEmpty())
+			release(this.undoStack.removeLast());
+		while (!this.redoStack.isEmpty())
+			release(this.redoStack.removeLast());
+		this.spillOrder.clear();
+	}
+
+	/**
+	 * Sets how much heap memory the history may use before its oldest data
+	 * is moved to a temporary file. Data the document still uses is never
+	 * spilled.
+	 * 
+	 * @param memoryLimit
+	 * 		The limit in bytes.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the limit is negative.
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		if (memoryLimit < 0)
+			throw new IllegalArgumentException("The memory limit cannot be negative.");
+		this.memoryLimit = memoryLimit;
+		spill();
+	}
+
+	/**
+	 * Sets how many operations can be undone. Older operations are dropped.
+	 * 
+	 * @param maxOperations
+	 * 		The number of operations.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the number is negative.
+	 */
+	public void setMaxOperations(int maxOperations) {
+		if (maxOperations < 0)
+			throw new IllegalArgumentException("The number of operations cannot be negative.");
+		this.maxOperations = maxOperations;
+		while (this.undoStack.size() > maxOperations)
+			release(this.undoStack.removeFirst());
+	}
+
+	/**
+	 * Gets the heap memory used by data the history refers to, including
+	 * data the document uses too.
+	 * 
+	 * @return
+	 * 		The size in bytes.
+	 */
+	public long getHeapBytes() {
+		return this.heapBytes;
+	}
+
+	/**
+	 * Gets the amount of data moved to the temporary file.
+	 * 
+	 * @return
+	 * 		The size of the spill file in bytes.
+	 */
+	public long getSpilledBytes() {
+		return this.spillFile != null ? this.spillFile.getSize() : 0;
+	}
+
+	/**
+	 * Takes a reference to a chunk.
+	 * 
+	 * @param chunk
+	 * 		The chunk.
+	 */
+	private void hold(Chunk chunk) {
+		if (this.chunkUses.merge(chunk, 1, Integer::sum) == 1) {
+			this.heapBytes += chunk.getHeapSize();
+			this.spillOrder.add(chunk);
+		}
+	}
+
+	/**
+	 * Drops the references of an operation that left the history.
+	 * 
+	 * @param operation
+	 * 		The operation.
+	 */
+	private void release(EditOperation operation) {
+		operation.forEachOwnedChunk(chunk -> {
+			Integer uses = this.chunkUses.get(chunk);
+			if (uses == null)
+				return;
+			if (uses > 1) {
+				this.chunkUses.put(chunk, uses - 1);
+			} else {
+				this.chunkUses.remove(chunk);
+				this.spillOrder.remove(chunk);
+				this.heapBytes -= chunk.getHeapSize();
+			}
+		});
+	}
+
+	/**
+	 * Moves the oldest chunks the document does not use to the spill file
+	 * until the history is under its memory limit.
+	 */
+	private void spill() {
+		if (this.heapBytes <= this.memoryLimit)
+			return;
+		int checked = 0;
+		int count = this.spillOrder.size();
+		Iterator<Chunk> iterator = this.spillOrder.iterator();
+		while (this.heapBytes > this.memoryLimit && checked++ < count) {
+			Chunk chunk = iterator.next();
+			if (chunk.getHeapSize() == 0) {
+				iterator.remove();
+				continue;
+			}
+			if (this.document.isInUse(chunk))
+				continue;
+			try {
+				if (this.spillFile == null)
+					this.spillFile = new SpillFile();
+				this.heapBytes -= chunk.spill(this.spillFile);
+				iterator.remove();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Unable to spill undo history, keeping it in memory", e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Drops the history and deletes the spill file.
+	 */
+	@Override
+	public void dispose() {
+		this.current = null;
+		this.depth = 0;
+		clear();
+		if (this.spillFile != null) {
+			this.spillFile.dispose();
+			this.spillFile = null;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * One undoable step, made of the changes it did to single directory slots.
+ * Only the entries that changed are kept, so undoing or redoing it costs as
+ * much as the number of lumps it touched.
+ */
+class EditOperation {
+
+	/**
+	 * What a delta did to its slot.
+	 */
+	enum DeltaType {
+		SET, INSERT, REMOVE
+	}
+
+	/**
+	 * The change to a single slot of the directory.
+	 */
+	static final class Delta {
+
+		/**
+		 * What was done.
+		 */
+		final DeltaType type;
+
+		/**
+		 * The index of the slot.
+		 */
+		final int index;
+
+		/**
+		 * The entry before the change, or null for an insert.
+		 */
+		final LumpEntry before;
+
+		/**
+		 * The entry after the change, or null for a remove.
+		 */
+		final LumpEntry after;
+
+		/**
+		 * Creates a delta.
+		 * 
+		 * @param type
+		 * 		What was done.
+		 * 
+		 * @param index
+		 * 		The index of the slot.
+		 * 
+		 * @param before
+		 * 		The entry before the change.
+		 * 
+		 * @param after
+		 * 		The entry after the change.
+		 */
+		Delta(DeltaType type, int index, LumpEntry before, LumpEntry after) {
+			this.type = type;
+			this.index = index;
+			this.before = before;
+			this.after = after;
+		}
+	}
+
+	/**
+	 * The name shown for the operation.
+	 */
+	private final String name;
+
+	/**
+	 * The deltas in the order they were done.
+	 */
+	private final List<Delta> deltas;
+
+	/**
+	 * Creates an empty operation.
+	 * 
+	 * @param name
+	 * 		The name shown for the operation.
+	 */
+	EditOperation(String name) {
+		this.name = name;
+		this.deltas = new ArrayList<>();
+	}
+
+	/**
+	 * Gets the name shown for the operation.
+	 * 
+	 * @return
+	 * 		The name.
+	 */
+	String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Adds a delta that was just done.
+	 * 
+	 * @param delta
+	 * 		The delta.
+	 */
+	void add(Delta delta) {
+		this.deltas.add(delta);
+	}
+
+	/**
+	 * Checks if the operation changed anything.
+	 * 
+	 * @return
+	 * 		True if there are no deltas.
+	 */
+	boolean isEmpty() {
+		return this.deltas.isEmpty();
+	}
+
+	/**
+	 * Does the operation again.
+	 * 
+	 * @param document
+	 * 		The document to change.
+	 */
+	void apply(ArchiveDocument document) {
+		for (Delta delta : this.deltas) {
+			switch (delta.type) {
+			case SET:
+				document.setEntry(delta.index, delta.after);
+				break;
+			case INSERT:
+				document.insertEntry(delta.index, delta.after);
+				break;
+			case REMOVE:
+				document.removeEntry(delta.index);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Takes the operation back by doing the opposite of every delta in
+	 * reverse order.
+	 * 
+	 * @param document
+	 * 		The document to change.
+	 */
+	void revert(ArchiveDocument document) {
+		for (int i = this.deltas.size() - 1; i >= 0; i--) {
+			Delta delta = this.deltas.get(i);
+			switch (delta.type) {
+			case SET:
+				document.setEntry(delta.index, delta.before);
+				break;
+			case INSERT:
+				document.removeEntry(delta.index);
+				break;
+			case REMOVE:
+				document.insertEntry(delta.index, delta.before);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Passes every chunk the operation refers to that is not read from a
+	 * file, which are the ones that cost memory.
+	 * 
+	 * @param action
+	 * 		What to do with each chunk. A chunk is passed once for every
+	 * 		time it is referred to.
+	 */
+	void forEachOwnedChunk(Consumer<Chunk> action) {
+		for (Delta delta : this.deltas) {
+			forEachOwnedChunk(delta.before, action);
+			forEachOwnedChunk(delta.after, action);
+		}
+	}
+
+	/**
+	 * Passes the chunks of an entry that are not read from a file.
+	 * 
+	 * @param entry
+	 * 		The entry, or null.
+	 * 
+	 * @param action
+	 * 		What to do with each chunk.
+	 */
+	static void forEachOwnedChunk(LumpEntry entry, Consumer<Chunk> action) {
+		if (entry == null)
+			return;
+		LumpData data = entry.getData();
+		for (int i = 0; i < data.getChunkCount(); i++)
+			if (!data.getChunk(i).isFromLump())
+				action.accept(data.getChunk(i));
+	}
+}
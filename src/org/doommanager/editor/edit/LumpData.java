@@ -0,0 +1,302 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+
+/**
+ * The immutable contents of a lump, kept as a list of chunks. An edit makes
+ * a new LumpData that shares every chunk the edit did not touch with the old
+ * one, so keeping both versions around for undo only costs the bytes that
+ * changed. Data that comes from an open file is not copied at all until it is
+ * edited, and even then only the edited part is.
+ */
+public class LumpData {
+
+	/**
+	 * The largest chunk created from new bytes.
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Data with no bytes.
+	 */
+	public static final LumpData EMPTY = new LumpData(new Chunk[0]);
+
+	/**
+	 * The chunks in order.
+	 */
+	private final Chunk[] chunks;
+
+	/**
+	 * The offset of every chunk in the data.
+	 */
+	private final int[] starts;
+
+	/**
+	 * The total number of bytes.
+	 */
+	private final int size;
+
+	/**
+	 * Creates data from chunks.
+	 * 
+	 * @param chunks
+	 * 		The chunks in order, none of them empty.
+	 */
+	private LumpData(Chunk[] chunks) {
+		this.chunks = chunks;
+		this.starts = new int[chunks.length];
+		int offset = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			this.starts[i] = offset;
+			offset += chunks[i].getLength();
+		}
+		this.size = offset;
+	}
+
+	/**
+	 * Creates data that reads from a lump of an open file. Nothing is read
+	 * until the data is needed.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @param lump
+	 * 		The lump in the file.
+	 * 
+	 * @return
+	 * 		The data of the lump.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either argument is null.
+	 */
+	public static LumpData of(DoomFile file, Lump lump) {
+		if (file == null || lump == null)
+			throw new NullPointerException("Provided a null file or lump to LumpData.");
+		if (lump.getSize() == 0)
+			return EMPTY;
+		return new LumpData(new Chunk[] { Chunk.ofLump(file, lump, 0, lump.getSize()) });
+	}
+
+	/**
+	 * Creates data from a copy of bytes.
+	 * 
+	 * @param bytes
+	 * 		The bytes.
+	 * 
+	 * @return
+	 * 		The new data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the bytes are null.
+	 */
+	public static LumpData of(byte[] bytes) {
+		if (bytes == null)
+			throw new NullPointerException("Provided null bytes to LumpData.");
+		List<Chunk> chunks = new ArrayList<>();
+		addChunks(chunks, bytes, bytes.length);
+		return new LumpData(chunks.toArray(new Chunk[chunks.size()]));
+	}
+
+	/**
+	 * Creates data from a copy of the remaining bytes of a buffer.
+	 * 
+	 * @param buffer
+	 * 		The buffer, which is left unchanged.
+	 * 
+	 * @return
+	 * 		The new data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the buffer is null.
+	 */
+	public static LumpData of(ByteBuffer buffer) {
+		if (buffer == null)
+			throw new NullPointerException("Provided a null buffer to LumpData.");
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return of(bytes);
+	}
+
+	/**
+	 * Splits bytes into new chunks.
+	 * 
+	 * @param chunks
+	 * 		The list to add the chunks to.
+	 * 
+	 * @param bytes
+	 * 		The bytes.
+	 * 
+	 * @param length
+	 * 		How many of the bytes to use.
+	 */
+	private static void addChunks(List<Chunk> chunks, byte[] bytes, int length) {
+		for (int offset = 0; offset < length; offset += CHUNK_SIZE)
+			chunks.add(Chunk.ofBytes(bytes, offset, Math.min(CHUNK_SIZE, length - offset)));
+	}
+
+	/**
+	 * Gets the number of bytes.
+	 * 
+	 * @return
+	 * 		The size of the data.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the data. Data in a single chunk is not copied.
+	 * 
+	 * @return
+	 * 		A little endian read-only buffer positioned at zero.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If spilled data cannot be read back.
+	 */
+	public ByteBuffer getData() {
+		if (this.chunks.length == 1)
+			return this.chunks[0].read();
+		ByteBuffer data = ByteBuffer.allocate(this.size);
+		for (Chunk chunk : this.chunks)
+			data.put(chunk.read());
+		data.flip();
+		return data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Creates a copy of this data with a range of bytes replaced. Chunks
+	 * outside of the range are shared with this data, so the cost is the
+	 * size of the inserted bytes plus at most two chunks.
+	 * 
+	 * @param offset
+	 * 		The start of the range.
+	 * 
+	 * @param removeLength
+	 * 		The number of bytes to remove.
+	 * 
+	 * @param insert
+	 * 		The bytes to put in their place.
+	 * 
+	 * @return
+	 * 		The new data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the inserted bytes are null.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the range is not inside the data.
+	 */
+	public LumpData replace(int offset, int removeLength, byte[] insert) {
+		if (insert == null)
+			throw new NullPointerException("Provided null bytes to insert into LumpData.");
+		if (offset < 0 || removeLength < 0 || offset + removeLength > this.size)
+			throw new IndexOutOfBoundsException("Range " + offset + "+" + removeLength + " is outside of data with size " + this.size);
+		int end = offset + removeLength;
+		List<Chunk> result = new ArrayList<>(this.chunks.length + 2);
+		int i = 0;
+		while (i < this.chunks.length && this.starts[i] + this.chunks[i].getLength() <= offset)
+			result.add(this.chunks[i++]);
+
+		// The edited chunks on the heap are merged with the inserted bytes,
+		// while chunks of a lump are cut so they keep pointing into the file.
+		ByteArrayOutputStream middle = new ByteArrayOutputStream(insert.length);
+		if (i < this.chunks.length && this.starts[i] < offset) {
+			Chunk chunk = this.chunks[i];
+			int keep = offset - this.starts[i];
+			if (chunk.isFromLump())
+				result.add(chunk.slice(0, keep));
+			else
+				copy(chunk, 0, keep, middle);
+		}
+		middle.write(insert, 0, insert.length);
+		int j = i;
+		while (j < this.chunks.length && this.starts[j] + this.chunks[j].getLength() <= end)
+			j++;
+		Chunk tail = null;
+		if (j < this.chunks.length && this.starts[j] < end) {
+			Chunk chunk = this.chunks[j++];
+			int skip = end - this.starts[j - 1];
+			if (chunk.isFromLump())
+				tail = chunk.slice(skip, chunk.getLength() - skip);
+			else
+				copy(chunk, skip, chunk.getLength() - skip, middle);
+		}
+		addChunks(result, middle.toByteArray(), middle.size());
+		if (tail != null)
+			result.add(tail);
+		while (j < this.chunks.length)
+			result.add(this.chunks[j++]);
+		return new LumpData(result.toArray(new Chunk[result.size()]));
+	}
+
+	/**
+	 * Copies part of a chunk into a stream.
+	 * 
+	 * @param chunk
+	 * 		The chunk.
+	 * 
+	 * @param offset
+	 * 		The first byte to copy.
+	 * 
+	 * @param length
+	 * 		The number of bytes to copy.
+	 * 
+	 * @param out
+	 * 		Where the bytes go.
+	 */
+	private static void copy(Chunk chunk, int offset, int length, ByteArrayOutputStream out) {
+		ByteBuffer data = chunk.read();
+		byte[] bytes = new byte[length];
+		data.position(offset);
+		data.get(bytes);
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Gets the number of chunks the data is kept in.
+	 * 
+	 * @return
+	 * 		The chunk count.
+	 */
+	public int getChunkCount() {
+		return this.chunks.length;
+	}
+
+	/**
+	 * Gets a chunk.
+	 * 
+	 * @param index
+	 * 		The index of the chunk.
+	 * 
+	 * @return
+	 * 		The chunk.
+	 */
+	Chunk getChunk(int index) {
+		return this.chunks[index];
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+/**
+ * A named lump in an ArchiveDocument. Entries are immutable, so renaming a
+ * lump makes a new entry that shares its data with the old one.
+ */
+public class LumpEntry {
+
+	/**
+	 * The name of the lump.
+	 */
+	private final String name;
+
+	/**
+	 * The contents of the lump.
+	 */
+	private final LumpData data;
+
+	/**
+	 * Creates an entry.
+	 * 
+	 * @param name
+	 * 		The name of the lump.
+	 * 
+	 * @param data
+	 * 		The contents of the lump.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either argument is null.
+	 */
+	public LumpEntry(String name, LumpData data) {
+		if (name == null || data == null)
+			throw new NullPointerException("Provided a null name or data to LumpEntry.");
+		this.name = name;
+		this.data = data;
+	}
+
+	/**
+	 * Gets the name of the lump.
+	 * 
+	 * @return
+	 * 		The name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the contents of the lump.
+	 * 
+	 * @return
+	 * 		The data.
+	 */
+	public LumpData getData() {
+		return this.data;
+	}
+
+	/**
+	 * Creates an entry with another name and the same data.
+	 * 
+	 * @param name
+	 * 		The new name.
+	 * 
+	 * @return
+	 * 		The new entry.
+	 */
+	public LumpEntry withName(String name) {
+		return new LumpEntry(name, this.data);
+	}
+
+	/**
+	 * Creates an entry with the same name and other data.
+	 * 
+	 * @param data
+	 * 		The new data.
+	 * 
+	 * @return
+	 * 		The new entry.
+	 */
+	public LumpEntry withData(LumpData data) {
+		return new LumpEntry(this.name, data);
+	}
+
+	@Override
+	public String toString() {
+		return this.name + " (" + this.data.getSize() + " bytes)";
+	}
+}
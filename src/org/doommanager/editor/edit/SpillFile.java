@@ -0,0 +1,138 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.edit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.Disposable;
+
+/**
+ * A temporary file that old history data is moved to when the journal uses
+ * too much memory. Data is only ever appended, and the file is deleted when
+ * the journal is disposed or the program exits.
+ */
+class SpillFile implements Disposable {
+
+	/**
+	 * The path of the temporary file.
+	 */
+	private final Path path;
+
+	/**
+	 * The channel used to write and read the file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of bytes written so far.
+	 */
+	private long size;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SpillFile.class.getName());
+
+	/**
+	 * Creates a new empty temporary file.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be created.
+	 */
+	SpillFile() throws IOException {
+		this.path = Files.createTempFile("doommanager", ".undo");
+		this.path.toFile().deleteOnExit();
+		this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		log.log(Level.FINE, "Spilling undo history to " + this.path);
+	}
+
+	/**
+	 * Appends data to the file.
+	 * 
+	 * @param data
+	 * 		The data to write, from its position to its limit.
+	 * 
+	 * @return
+	 * 		The position in the file the data was written at.
+	 * 
+	 * @throws IOException
+	 * 		If the data cannot be written.
+	 */
+	synchronized long write(ByteBuffer data) throws IOException {
+		long position = this.size;
+		long offset = position;
+		while (data.hasRemaining())
+			offset += this.channel.write(data, offset);
+		this.size = offset;
+		return position;
+	}
+
+	/**
+	 * Reads data that was written before.
+	 * 
+	 * @param position
+	 * 		The position in the file.
+	 * 
+	 * @param length
+	 * 		The number of bytes to read.
+	 * 
+	 * @return
+	 * 		A new buffer with the data, positioned at zero.
+	 * 
+	 * @throws IOException
+	 * 		If the data cannot be read.
+	 */
+	ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(length);
+		while (data.hasRemaining()) {
+			int read = this.channel.read(data, position + data.position());
+			if (read < 0)
+				throw new IOException("Unexpected end of the undo file " + this.path);
+		}
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * Gets the number of bytes in the file.
+	 * 
+	 * @return
+	 * 		The size of the file.
+	 */
+	synchronized long getSize() {
+		return this.size;
+	}
+
+	@Override
+	public void dispose() {
+		try {
+			this.channel.close();
+			Files.deleteIfExists(this.path);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to remove the undo file " + this.path, e);
+		}
+	}
+}
@@ -0,0 +1,510 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.doommanager.editor.CorruptionType;
+import org.doommanager.util.RuntimeArgsContainer;
+
+/**
+ * A persistent cache of everything that is learned when a file is opened:
+ * the parsed directory, the name index, the content hashes and the
+ * corruption found. Each file gets one compact binary cache file that is
+ * memory mapped when read, so opening a file that has not changed skips
+ * parsing its directory entirely.
+ * <p>
+ * A cache file is only used if the path, size, modification time and a
+ * checksum of the start and end of the file (where the wad header, wad
+ * directory and zip central directory live) all still match.
+ */
+public class ArchiveIndexCache {
+
+	/**
+	 * The identifier at the start of every cache file ("DMIX").
+	 */
+	public static final int MAGIC = 0x58494D44;
+
+	/**
+	 * The version of the cache format. Cache files of other versions are
+	 * ignored and rewritten.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * How many bytes from each end of the file go into the header checksum.
+	 */
+	private static final int CHECKSUM_REGION_SIZE = 4096;
+
+	/**
+	 * The size of the fixed part of a cache file.
+	 */
+	private static final int HEADER_SIZE = 64;
+
+	/**
+	 * The type value for wads.
+	 */
+	private static final int TYPE_WAD = 0;
+
+	/**
+	 * The type value for PK3s.
+	 */
+	private static final int TYPE_PK3 = 1;
+
+	/**
+	 * The flag for an IWAD.
+	 */
+	private static final int FLAG_IWAD = 1;
+
+	/**
+	 * The flag for a cache file that has content hashes.
+	 */
+	private static final int FLAG_HASHES = 2;
+
+	/**
+	 * The folder the cache files are kept in.
+	 */
+	private final Path directory;
+
+	/**
+	 * The cache used by DoomFiles.open.
+	 */
+	private static ArchiveIndexCache defaultCache;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ArchiveIndexCache.class.getName());
+
+	/**
+	 * Creates a cache that keeps its files in a folder. The folder is created
+	 * when the first cache file is written.
+	 * 
+	 * @param directory
+	 * 		The cache folder.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the folder is null.
+	 */
+	public ArchiveIndexCache(String directory) {
+		if (directory == null)
+			throw new NullPointerException("Provided a null folder to ArchiveIndexCache.");
+		this.directory = Paths.get(directory);
+	}
+
+	/**
+	 * Gets the cache in the folder from the runtime arguments. This is the
+	 * cache DoomFiles.open goes through.
+	 * 
+	 * @return
+	 * 		The default cache.
+	 */
+	public static synchronized ArchiveIndexCache getDefault() {
+		if (defaultCache == null)
+			defaultCache = new ArchiveIndexCache(RuntimeArgsContainer.getIndexCacheLocation());
+		return defaultCache;
+	}
+
+	/**
+	 * Opens a file, using the cached directory if it is still valid and
+	 * writing a new cache file if it is not.
+	 * 
+	 * @param filePath
+	 * 		The file to open.
+	 * 
+	 * @return
+	 * 		The opened file.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened. Problems with the cache itself are
+	 * 		only logged.
+	 */
+	public MappedFile open(String filePath) throws IOException {
+		CacheKey key = new CacheKey(filePath);
+		CachedIndex cached = read(key);
+		if (cached != null) {
+			MappedFile file = cached.type == TYPE_PK3 ?
+					new PK3File(filePath, cached.lumps, cached.corruptionType) :
+					new WadFile(filePath, (cached.flags & FLAG_IWAD) != 0, cached.lumps, cached.corruptionType);
+			file.setNameIndex(new LumpNameIndex(file.getLumps(), cached.nameOrder));
+			log.log(Level.FINE, "Opened " + filePath + " from the index cache");
+			return file;
+		}
+
+		MappedFile file = DoomFiles.openDirectly(filePath);
+		write(key, file, null);
+		return file;
+	}
+
+	/**
+	 * Gets the content hashes of every lump of a file, from the cache if they
+	 * were stored before. Newly computed hashes are stored for next time.
+	 * 
+	 * @param file
+	 * 		The file to get the hashes of.
+	 * 
+	 * @return
+	 * 		The hashes from LumpHasher, indexed by lump index.
+	 * 
+	 * @throws IOException
+	 * 		If the file can no longer be read.
+	 */
+	public long[] getContentHashes(MappedFile file) throws IOException {
+		CacheKey key = new CacheKey(file.getFilePath());
+		CachedIndex cached = read(key);
+		if (cached != null && cached.hashes != null && cached.lumps.size() == file.getLumps().size())
+			return cached.hashes;
+		long[] hashes = LumpHasher.hashAll(file);
+		write(key, file, hashes);
+		return hashes;
+	}
+
+	/**
+	 * Removes the cache file of a file, if there is one.
+	 * 
+	 * @param filePath
+	 * 		The file whose cache should be removed.
+	 */
+	public void invalidate(String filePath) {
+		try {
+			Files.deleteIfExists(getCachePath(Paths.get(filePath).toAbsolutePath().normalize().toString()));
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to remove the index cache of " + filePath, e);
+		}
+	}
+
+	/**
+	 * Gets the cache file for a normalized path.
+	 * 
+	 * @param normalizedPath
+	 * 		The absolute normalized path of the cached file.
+	 * 
+	 * @return
+	 * 		The path of the cache file.
+	 */
+	private Path getCachePath(String normalizedPath) {
+		CRC32 crc = new CRC32();
+		crc.update(normalizedPath.getBytes(StandardCharsets.UTF_8));
+		return this.directory.resolve(String.format("%08x%08x.idx", crc.getValue(), normalizedPath.hashCode()));
+	}
+
+	/**
+	 * Reads a cache file if it exists and matches the key.
+	 * 
+	 * @param key
+	 * 		The key of the file as it is now.
+	 * 
+	 * @return
+	 * 		The cached index, or null if there is no valid one.
+	 */
+	private CachedIndex read(CacheKey key) {
+		Path cachePath = getCachePath(key.path);
+		if (!Files.isRegularFile(cachePath))
+			return null;
+		try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+			MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapping.order(ByteOrder.LITTLE_ENDIAN);
+			return decode(mapping, key);
+		} catch (IOException | RuntimeException e) {
+			log.log(Level.FINE, "Ignoring unreadable index cache " + cachePath, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes a mapped cache file.
+	 * 
+	 * @param buffer
+	 * 		The cache file data.
+	 * 
+	 * @param key
+	 * 		The key the cache must match.
+	 * 
+	 * @return
+	 * 		The cached index, or null if it is for another version or state of
+	 * 		the file.
+	 */
+	private static CachedIndex decode(ByteBuffer buffer, CacheKey key) {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			return null;
+		if (buffer.getLong(16) != key.size || buffer.getLong(24) != key.modifiedTime || buffer.getLong(32) != key.headerChecksum)
+			return null;
+
+		CachedIndex cached = new CachedIndex();
+		cached.type = buffer.getInt(8);
+		cached.flags = buffer.getInt(12);
+		int lumpCount = buffer.getInt(40);
+		int namesLength = buffer.getInt(44);
+		byte[] path = new byte[buffer.getInt(48)];
+		byte[] corruption = new byte[buffer.getInt(52)];
+		buffer.position(HEADER_SIZE);
+		buffer.get(path);
+		buffer.get(corruption);
+		if (!new String(path, StandardCharsets.UTF_8).equals(key.path))
+			return null;
+		cached.corruptionType = CorruptionType.valueOf(new String(corruption, StandardCharsets.US_ASCII));
+
+		int offsets = align(buffer.position());
+		int hashes = offsets + lumpCount * 8;
+		int sizes = hashes + lumpCount * 8;
+		int compressedSizes = sizes + lumpCount * 4;
+		int methods = compressedSizes + lumpCount * 4;
+		int crcs = methods + lumpCount * 4;
+		int nameOrder = crcs + lumpCount * 4;
+		int nameEnds = nameOrder + lumpCount * 4;
+		int names = nameEnds + lumpCount * 4;
+		if (names + namesLength > buffer.capacity())
+			return null;
+
+		byte[] nameBytes = new byte[namesLength];
+		buffer.position(names);
+		buffer.get(nameBytes);
+
+		List<Lump> lumps = new ArrayList<>(lumpCount);
+		cached.nameOrder = new int[lumpCount];
+		if ((cached.flags & FLAG_HASHES) != 0)
+			cached.hashes = new long[lumpCount];
+		int nameStart = 0;
+		for (int i = 0; i < lumpCount; i++) {
+			int nameEnd = buffer.getInt(nameEnds + i * 4);
+			String name = new String(nameBytes, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8);
+			nameStart = nameEnd;
+			long offset = buffer.getLong(offsets + i * 8);
+			int size = buffer.getInt(sizes + i * 4);
+			if (cached.type == TYPE_PK3)
+				lumps.add(new PK3Entry(i, name, offset, size, buffer.getInt(compressedSizes + i * 4), buffer.getInt(methods + i * 4), buffer.getInt(crcs + i * 4)));
+			else
+				lumps.add(new Lump(i, name, offset, size));
+			cached.nameOrder[i] = buffer.getInt(nameOrder + i * 4);
+			if (cached.hashes != null)
+				cached.hashes[i] = buffer.getLong(hashes + i * 8);
+		}
+		cached.lumps = lumps;
+		return cached;
+	}
+
+	/**
+	 * Writes the cache file of a file. The data is written to a temporary
+	 * file first and then moved over the old cache file, so a reader never
+	 * sees a half written cache.
+	 * 
+	 * @param key
+	 * 		The key of the file.
+	 * 
+	 * @param file
+	 * 		The opened file.
+	 * 
+	 * @param hashes
+	 * 		The content hashes, or null if they are not known.
+	 */
+	private void write(CacheKey key, MappedFile file, long[] hashes) {
+		List<Lump> lumps = file.getLumps();
+		int lumpCount = lumps.size();
+		byte[] path = key.path.getBytes(StandardCharsets.UTF_8);
+		byte[] corruption = file.getCorruptionType().name().getBytes(StandardCharsets.US_ASCII);
+		byte[][] names = new byte[lumpCount][];
+		int namesLength = 0;
+		for (int i = 0; i < lumpCount; i++) {
+			names[i] = lumps.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			namesLength += names[i].length;
+		}
+
+		int arrays = align(HEADER_SIZE + path.length + corruption.length);
+		ByteBuffer buffer = ByteBuffer.allocate(arrays + lumpCount * 40 + namesLength).order(ByteOrder.LITTLE_ENDIAN);
+		int flags = (hashes != null ? FLAG_HASHES : 0) | (file instanceof WadFile && ((WadFile)file).isIwad() ? FLAG_IWAD : 0);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(file instanceof PK3File ? TYPE_PK3 : TYPE_WAD).putInt(flags);
+		buffer.putLong(key.size).putLong(key.modifiedTime).putLong(key.headerChecksum);
+		buffer.putInt(lumpCount).putInt(namesLength).putInt(path.length).putInt(corruption.length);
+		buffer.position(HEADER_SIZE);
+		buffer.put(path).put(corruption);
+		buffer.position(arrays);
+
+		int[] sorted = file.getNameIndex().getSortedIndices();
+		for (Lump lump : lumps)
+			buffer.putLong(lump.getOffset());
+		for (int i = 0; i < lumpCount; i++)
+			buffer.putLong(hashes != null ? hashes[i] : 0);
+		for (Lump lump : lumps)
+			buffer.putInt(lump.getSize());
+		for (Lump lump : lumps)
+			buffer.putInt(lump instanceof PK3Entry ? ((PK3Entry)lump).getCompressedSize() : lump.getSize());
+		for (Lump lump : lumps)
+			buffer.putInt(lump instanceof PK3Entry ? ((PK3Entry)lump).getMethod() : PK3Entry.METHOD_STORED);
+		for (Lump lump : lumps)
+			buffer.putInt(lump instanceof PK3Entry ? ((PK3Entry)lump).getCrc() : 0);
+		for (int index : sorted)
+			buffer.putInt(index);
+		int nameEnd = 0;
+		for (byte[] name : names) {
+			nameEnd += name.length;
+			buffer.putInt(nameEnd);
+		}
+		for (byte[] name : names)
+			buffer.put(name);
+		buffer.flip();
+
+		Path cachePath = getCachePath(key.path);
+		Path temporary = null;
+		try {
+			Files.createDirectories(this.directory);
+			temporary = Files.createTempFile(this.directory, "index", ".tmp");
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			try {
+				Files.move(temporary, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, cachePath, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temporary = null;
+			log.log(Level.FINE, "Wrote index cache " + cachePath + " for " + key.path);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to write the index cache for " + key.path, e);
+		} finally {
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Unable to delete the temporary index cache " + temporary, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rounds an offset up to the next multiple of 8.
+	 * 
+	 * @param offset
+	 * 		The offset to align.
+	 * 
+	 * @return
+	 * 		The aligned offset.
+	 */
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	/**
+	 * Everything that identifies the state of a file on disk.
+	 */
+	private static class CacheKey {
+
+		/**
+		 * The absolute normalized path.
+		 */
+		private final String path;
+
+		/**
+		 * The file size.
+		 */
+		private final long size;
+
+		/**
+		 * The last modified time in milliseconds.
+		 */
+		private final long modifiedTime;
+
+		/**
+		 * The CRC32 of the start and the end of the file.
+		 */
+		private final long headerChecksum;
+
+		/**
+		 * Reads the key of a file.
+		 * 
+		 * @param filePath
+		 * 		The file.
+		 * 
+		 * @throws IOException
+		 * 		If the file cannot be read.
+		 */
+		private CacheKey(String filePath) throws IOException {
+			Path file = Paths.get(filePath).toAbsolutePath().normalize();
+			this.path = file.toString();
+			this.size = Files.size(file);
+			this.modifiedTime = Files.getLastModifiedTime(file).toMillis();
+
+			CRC32 crc = new CRC32();
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				ByteBuffer region = ByteBuffer.allocate((int)Math.min(CHECKSUM_REGION_SIZE, this.size));
+				channel.read(region, 0);
+				region.flip();
+				crc.update(region);
+				region.clear();
+				channel.read(region, this.size - region.capacity());
+				region.flip();
+				crc.update(region);
+			}
+			this.headerChecksum = crc.getValue();
+		}
+	}
+
+	/**
+	 * The contents of a cache file.
+	 */
+	private static class CachedIndex {
+
+		/**
+		 * The file type.
+		 */
+		private int type;
+
+		/**
+		 * The flags of the file.
+		 */
+		private int flags;
+
+		/**
+		 * The corruption found when the file was parsed.
+		 */
+		private CorruptionType corruptionType;
+
+		/**
+		 * The lumps of the file.
+		 */
+		private List<Lump> lumps;
+
+		/**
+		 * The sorted name order.
+		 */
+		private int[] nameOrder;
+
+		/**
+		 * The content hashes, or null if they were not stored.
+		 */
+		private long[] hashes;
+	}
+}
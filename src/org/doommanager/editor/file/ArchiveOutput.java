@@ -0,0 +1,58 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An archive that is being written one lump at a time. Lumps are written out
+ * as they are added (or soon after), so only the directory has to be kept
+ * until finish() is called.
+ */
+public interface ArchiveOutput extends Closeable {
+
+	/**
+	 * Adds a lump to the archive.
+	 * 
+	 * @param name
+	 * 		The lump name, or the full path for PK3s.
+	 * 
+	 * @param data
+	 * 		The data from its position to its limit. The buffer must not be
+	 * 		changed after it is added, but it may be dropped once this returns.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	void add(String name, ByteBuffer data) throws IOException;
+	
+	/**
+	 * Writes the directory and completes the archive. Nothing can be added
+	 * afterwards.
+	 * 
+	 * @return
+	 * 		The size of the archive in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	long finish() throws IOException;
+}
@@ -0,0 +1,209 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A save in progress, started by a SaveJournal. The new version of the file
+ * is written to a temporary file next to it, and commit() makes it durable
+ * with a single force of the whole file before atomically moving it over the
+ * real one. Closing a save that was not committed throws the temporary file
+ * away and leaves the real file untouched.
+ * 
+ * Since the real file is replaced instead of rewritten, mappings of the old
+ * version stay valid on systems that allow it, so lumps of an open file can
+ * be written straight into the save.
+ */
+public class AtomicSave implements Closeable {
+
+	/**
+	 * The journal the save was started by.
+	 */
+	private final SaveJournal journal;
+
+	/**
+	 * The file being saved.
+	 */
+	private final Path target;
+
+	/**
+	 * The file the new version is written to.
+	 */
+	private final Path temporary;
+
+	/**
+	 * The marker of the save in the journal, or null if there is none.
+	 */
+	private final Path marker;
+
+	/**
+	 * The channel of the temporary file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * If the save was committed.
+	 */
+	private boolean committed;
+
+	/**
+	 * How long forcing the data to disk took, in nanoseconds.
+	 */
+	private long forceTime;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(AtomicSave.class.getName());
+
+	/**
+	 * Creates the temporary file of a save.
+	 * 
+	 * @param journal
+	 * 		The journal that started the save.
+	 * 
+	 * @param target
+	 * 		The file being saved.
+	 * 
+	 * @param temporary
+	 * 		The temporary file to create.
+	 * 
+	 * @param marker
+	 * 		The marker of the save, or null.
+	 * 
+	 * @throws IOException
+	 * 		If the temporary file cannot be created.
+	 */
+	AtomicSave(SaveJournal journal, Path target, Path temporary, Path marker) throws IOException {
+		this.journal = journal;
+		this.target = target;
+		this.temporary = temporary;
+		this.marker = marker;
+		this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Gets the channel to write the new version to. It can be read as well,
+	 * and must not be closed by the caller.
+	 * 
+	 * @return
+	 * 		The channel of the temporary file.
+	 */
+	public FileChannel getChannel() {
+		return this.channel;
+	}
+
+	/**
+	 * Gets the file being saved.
+	 * 
+	 * @return
+	 * 		The absolute path of the file.
+	 */
+	public Path getTarget() {
+		return this.target;
+	}
+
+	/**
+	 * Makes the new version durable and puts it in place of the real file.
+	 * This is the only point where the save waits for the disk.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the save was already committed.
+	 * 
+	 * @throws IOException
+	 * 		If the data cannot be forced or the file cannot be replaced. The
+	 * 		real file is untouched in that case.
+	 */
+	public void commit() throws IOException {
+		if (this.committed)
+			throw new IllegalStateException("Attempted to commit a save twice.");
+		long start = System.nanoTime();
+		this.channel.force(true);
+		this.forceTime = System.nanoTime() - start;
+		this.channel.close();
+		try {
+			Files.move(this.temporary, this.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			log.log(Level.WARNING, "Atomic moves are not supported for " + this.target + ", replacing it with a plain move", e);
+			Files.move(this.temporary, this.target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		this.committed = true;
+		syncDirectory();
+		this.journal.deleteMarker(this.marker);
+		log.log(Level.FINE, String.format("Saved %s, forcing took %.1fms", this.target, this.forceTime / 1e6));
+	}
+
+	/**
+	 * Forces the folder of the file so the move itself survives a crash.
+	 * Not every system can open a folder, in which case this does nothing.
+	 */
+	private void syncDirectory() {
+		try (FileChannel directory = FileChannel.open(this.target.getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		} catch (IOException e) {
+			log.log(Level.FINE, "Unable to force the folder of " + this.target, e);
+		}
+	}
+
+	/**
+	 * Checks if the save was committed.
+	 * 
+	 * @return
+	 * 		True if the real file was replaced.
+	 */
+	public boolean isCommitted() {
+		return this.committed;
+	}
+
+	/**
+	 * Gets how long commit() waited for the data to reach the disk.
+	 * 
+	 * @return
+	 * 		The time in nanoseconds, or zero if it was not committed.
+	 */
+	public long getForceTime() {
+		return this.forceTime;
+	}
+
+	/**
+	 * Throws the temporary file away if the save was not committed.
+	 */
+	@Override
+	public void close() {
+		if (this.committed)
+			return;
+		try {
+			this.channel.close();
+			Files.deleteIfExists(this.temporary);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to remove the temporary save file " + this.temporary, e);
+		}
+		this.journal.deleteMarker(this.marker);
+	}
+}
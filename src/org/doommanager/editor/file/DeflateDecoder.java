@@ -0,0 +1,657 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A raw deflate decoder that can be stopped at a block boundary and started
+ * again from there later, given the bit position and the last 32 KB of
+ * output. The Inflater of the JDK cannot do this, since it neither reports
+ * where blocks end nor accepts a starting bit position.
+ * <p>
+ * Huffman codes of up to FAST_BITS bits are decoded with a single table
+ * lookup, longer ones a bit at a time.
+ */
+final class DeflateDecoder {
+
+	/**
+	 * The size of the deflate window.
+	 */
+	static final int WINDOW_SIZE = 32768;
+
+	/**
+	 * The number of bits decoded by a single table lookup.
+	 */
+	private static final int FAST_BITS = 9;
+
+	/**
+	 * The longest Huffman code.
+	 */
+	private static final int MAX_BITS = 15;
+
+	/**
+	 * The base lengths of length codes 257 to 285.
+	 */
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131,
+			163, 195, 227, 258 };
+
+	/**
+	 * The extra bits of length codes 257 to 285.
+	 */
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+
+	/**
+	 * The base distances of distance codes 0 to 29.
+	 */
+	private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537,
+			2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+
+	/**
+	 * The extra bits of distance codes 0 to 29.
+	 */
+	private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13,
+			13 };
+
+	/**
+	 * The order code length code lengths are stored in.
+	 */
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+	/**
+	 * The literal and length code of fixed Huffman blocks.
+	 */
+	private static final Huffman FIXED_LITERALS;
+
+	/**
+	 * The distance code of fixed Huffman blocks.
+	 */
+	private static final Huffman FIXED_DISTANCES;
+
+	static {
+		byte[] lengths = new byte[288];
+		for (int i = 0; i < 288; i++)
+			lengths[i] = (byte)(i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+		FIXED_LITERALS = new Huffman(lengths, 0, 288);
+		byte[] distances = new byte[30];
+		java.util.Arrays.fill(distances, (byte)5);
+		FIXED_DISTANCES = new Huffman(distances, 0, 30);
+	}
+
+	/**
+	 * Waiting for the header of the next block.
+	 */
+	private static final int STATE_HEADER = 0;
+
+	/**
+	 * Copying the data of a stored block.
+	 */
+	private static final int STATE_STORED = 1;
+
+	/**
+	 * Decoding a Huffman block.
+	 */
+	private static final int STATE_CODES = 2;
+
+	/**
+	 * The final block has ended.
+	 */
+	private static final int STATE_DONE = 3;
+
+	/**
+	 * The compressed data.
+	 */
+	private final ByteBuffer input;
+
+	/**
+	 * The index of the next input byte to load into the bit buffer.
+	 */
+	private int inputPosition;
+
+	/**
+	 * Input bits that have been loaded but not used, lowest first.
+	 */
+	private long bitBuffer;
+
+	/**
+	 * The number of bits in the bit buffer.
+	 */
+	private int bitCount;
+
+	/**
+	 * The last 32 KB of output as a ring.
+	 */
+	private final byte[] window = new byte[WINDOW_SIZE];
+
+	/**
+	 * Where the next output byte goes in the window.
+	 */
+	private int windowPosition;
+
+	/**
+	 * The number of valid bytes in the window.
+	 */
+	private int windowFill;
+
+	/**
+	 * What the decoder is doing.
+	 */
+	private int state;
+
+	/**
+	 * True once the header of the final block was read.
+	 */
+	private boolean finalBlock;
+
+	/**
+	 * The bytes left in the current stored block.
+	 */
+	private int storedRemaining;
+
+	/**
+	 * The codes of the current Huffman block.
+	 */
+	private Huffman literals, distances;
+
+	/**
+	 * The bytes left of a match that did not fit in the output.
+	 */
+	private int copyLength;
+
+	/**
+	 * The distance of that match.
+	 */
+	private int copyDistance;
+
+	/**
+	 * Creates a decoder at the start of a deflate stream.
+	 * 
+	 * @param input
+	 * 		The compressed data, which starts at its position and ends at its
+	 * 		limit.
+	 */
+	DeflateDecoder(ByteBuffer input) {
+		this.input = input.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Moves the decoder to a block boundary.
+	 * 
+	 * @param bitPosition
+	 * 		The bit position of the block header, counted from the start of
+	 * 		the compressed data.
+	 * 
+	 * @param history
+	 * 		The output before the boundary, of which at most the last 32 KB
+	 * 		are used.
+	 */
+	void reset(long bitPosition, byte[] history) {
+		this.inputPosition = (int)(bitPosition >>> 3);
+		this.bitBuffer = 0;
+		this.bitCount = 0;
+		this.state = STATE_HEADER;
+		this.finalBlock = false;
+		this.copyLength = 0;
+		int length = Math.min(history.length, WINDOW_SIZE);
+		System.arraycopy(history, history.length - length, this.window, 0, length);
+		this.windowPosition = length & (WINDOW_SIZE - 1);
+		this.windowFill = length;
+		if ((bitPosition & 7) != 0)
+			getBits((int)(bitPosition & 7));
+	}
+
+	/**
+	 * Checks if the decoder stopped between two blocks, where it can be
+	 * started again with reset.
+	 * 
+	 * @return
+	 * 		True at a block boundary.
+	 */
+	boolean isAtBlockBoundary() {
+		return this.state == STATE_HEADER && this.copyLength == 0;
+	}
+
+	/**
+	 * Gets the bit position of the next unread input bit.
+	 * 
+	 * @return
+	 * 		The bit position from the start of the compressed data.
+	 */
+	long getBitPosition() {
+		return (long)this.inputPosition * 8 - this.bitCount;
+	}
+
+	/**
+	 * Copies the last 32 KB of output, or all of it if there is less.
+	 * 
+	 * @return
+	 * 		The output in order.
+	 */
+	byte[] copyWindow() {
+		byte[] copy = new byte[this.windowFill];
+		int start = (this.windowPosition - this.windowFill) & (WINDOW_SIZE - 1);
+		int first = Math.min(this.windowFill, WINDOW_SIZE - start);
+		System.arraycopy(this.window, start, copy, 0, first);
+		System.arraycopy(this.window, 0, copy, first, this.windowFill - first);
+		return copy;
+	}
+
+	/**
+	 * Decodes data. This returns early at the end of each block that
+	 * produced output, so the caller can see every block boundary.
+	 * 
+	 * @param output
+	 * 		Where the data goes.
+	 * 
+	 * @param offset
+	 * 		The offset in the output.
+	 * 
+	 * @param length
+	 * 		The most bytes to decode.
+	 * 
+	 * @return
+	 * 		The number of bytes decoded, or -1 at the end of the stream.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the compressed data is damaged.
+	 */
+	int read(byte[] output, int offset, int length) {
+		int produced = 0;
+		while (produced < length) {
+			if (this.copyLength > 0) {
+				produced += copyMatch(output, offset + produced, length - produced);
+				continue;
+			}
+			switch (this.state) {
+			case STATE_HEADER:
+				if (this.finalBlock) {
+					this.state = STATE_DONE;
+					return produced == 0 ? -1 : produced;
+				}
+				readBlockHeader();
+				break;
+			case STATE_STORED:
+				produced += copyStored(output, offset + produced, length - produced);
+				if (this.storedRemaining == 0) {
+					this.state = STATE_HEADER;
+					if (produced > 0)
+						return produced;
+				}
+				break;
+			case STATE_CODES:
+				int before = produced;
+				produced += decodeCodes(output, offset + produced, length - produced);
+				if (this.state == STATE_HEADER && this.copyLength == 0 && produced > before)
+					return produced;
+				break;
+			default:
+				return produced == 0 ? -1 : produced;
+			}
+		}
+		return produced;
+	}
+
+	/**
+	 * Reads the header of a block and gets ready to decode it.
+	 */
+	private void readBlockHeader() {
+		this.finalBlock = getBits(1) == 1;
+		int type = getBits(2);
+		switch (type) {
+		case 0:
+			// Stored data starts on a byte boundary, so whole bytes that were
+			// loaded ahead are given back to the input.
+			getBits(this.bitCount & 7);
+			this.inputPosition -= this.bitCount >>> 3;
+			this.bitBuffer = 0;
+			this.bitCount = 0;
+			if (this.inputPosition + 4 > this.input.limit())
+				throw new IllegalStateException("Deflate data ends early.");
+			int length = this.input.getShort(this.inputPosition) & 0xFFFF;
+			int check = this.input.getShort(this.inputPosition + 2) & 0xFFFF;
+			if ((check ^ 0xFFFF) != length)
+				throw new IllegalStateException("A stored deflate block has a damaged length.");
+			this.inputPosition += 4;
+			this.storedRemaining = length;
+			this.state = STATE_STORED;
+			break;
+		case 1:
+			this.literals = FIXED_LITERALS;
+			this.distances = FIXED_DISTANCES;
+			this.state = STATE_CODES;
+			break;
+		case 2:
+			readDynamicCodes();
+			this.state = STATE_CODES;
+			break;
+		default:
+			throw new IllegalStateException("A deflate block has an invalid type.");
+		}
+	}
+
+	/**
+	 * Reads the code lengths of a dynamic Huffman block.
+	 */
+	private void readDynamicCodes() {
+		int literalCount = getBits(5) + 257;
+		int distanceCount = getBits(5) + 1;
+		int codeLengthCount = getBits(4) + 4;
+		if (literalCount > 286 || distanceCount > 30)
+			throw new IllegalStateException("A deflate block has too many codes.");
+		byte[] codeLengthLengths = new byte[19];
+		for (int i = 0; i < codeLengthCount; i++)
+			codeLengthLengths[CODE_LENGTH_ORDER[i]] = (byte)getBits(3);
+		Huffman codeLengths = new Huffman(codeLengthLengths, 0, 19);
+
+		byte[] lengths = new byte[literalCount + distanceCount];
+		int index = 0;
+		while (index < lengths.length) {
+			int symbol = decodeSymbol(codeLengths);
+			if (symbol < 16) {
+				lengths[index++] = (byte)symbol;
+				continue;
+			}
+			int repeat;
+			byte value = 0;
+			if (symbol == 16) {
+				if (index == 0)
+					throw new IllegalStateException("A deflate block repeats a code length before the first one.");
+				value = lengths[index - 1];
+				repeat = 3 + getBits(2);
+			} else if (symbol == 17) {
+				repeat = 3 + getBits(3);
+			} else {
+				repeat = 11 + getBits(7);
+			}
+			if (index + repeat > lengths.length)
+				throw new IllegalStateException("A deflate block has too many code lengths.");
+			while (repeat-- > 0)
+				lengths[index++] = value;
+		}
+		if (lengths[256] == 0)
+			throw new IllegalStateException("A deflate block has no end of block code.");
+		this.literals = new Huffman(lengths, 0, literalCount);
+		this.distances = new Huffman(lengths, literalCount, distanceCount);
+	}
+
+	/**
+	 * Copies the data of a stored block.
+	 * 
+	 * @param output
+	 * 		Where the data goes.
+	 * 
+	 * @param offset
+	 * 		The offset in the output.
+	 * 
+	 * @param length
+	 * 		The most bytes to copy.
+	 * 
+	 * @return
+	 * 		The number of bytes copied.
+	 */
+	private int copyStored(byte[] output, int offset, int length) {
+		int count = Math.min(length, this.storedRemaining);
+		if (this.inputPosition + count > this.input.limit())
+			throw new IllegalStateException("Deflate data ends inside of a stored block.");
+		ByteBuffer source = this.input.duplicate();
+		source.position(this.inputPosition);
+		source.get(output, offset, count);
+		this.inputPosition += count;
+		this.storedRemaining -= count;
+		for (int i = 0; i < count; i++)
+			putWindow(output[offset + i]);
+		return count;
+	}
+
+	/**
+	 * Decodes the symbols of a Huffman block until the output is full or
+	 * the block ends.
+	 * 
+	 * @param output
+	 * 		Where the data goes.
+	 * 
+	 * @param offset
+	 * 		The offset in the output.
+	 * 
+	 * @param length
+	 * 		The most bytes to decode.
+	 * 
+	 * @return
+	 * 		The number of bytes decoded.
+	 */
+	private int decodeCodes(byte[] output, int offset, int length) {
+		int produced = 0;
+		while (produced < length) {
+			int symbol = decodeSymbol(this.literals);
+			if (symbol < 256) {
+				byte value = (byte)symbol;
+				output[offset + produced++] = value;
+				putWindow(value);
+				continue;
+			}
+			if (symbol == 256) {
+				this.state = STATE_HEADER;
+				return produced;
+			}
+			symbol -= 257;
+			if (symbol >= LENGTH_BASE.length)
+				throw new IllegalStateException("A deflate block has an invalid length code.");
+			int matchLength = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+			int distanceSymbol = decodeSymbol(this.distances);
+			if (distanceSymbol >= DISTANCE_BASE.length)
+				throw new IllegalStateException("A deflate block has an invalid distance code.");
+			int distance = DISTANCE_BASE[distanceSymbol] + getBits(DISTANCE_EXTRA[distanceSymbol]);
+			if (distance > this.windowFill)
+				throw new IllegalStateException("A deflate block refers to data before the start of the stream.");
+			this.copyLength = matchLength;
+			this.copyDistance = distance;
+			produced += copyMatch(output, offset + produced, length - produced);
+		}
+		return produced;
+	}
+
+	/**
+	 * Copies as much of the pending match as fits in the output.
+	 * 
+	 * @param output
+	 * 		Where the data goes.
+	 * 
+	 * @param offset
+	 * 		The offset in the output.
+	 * 
+	 * @param length
+	 * 		The most bytes to copy.
+	 * 
+	 * @return
+	 * 		The number of bytes copied.
+	 */
+	private int copyMatch(byte[] output, int offset, int length) {
+		int count = Math.min(length, this.copyLength);
+		int from = (this.windowPosition - this.copyDistance) & (WINDOW_SIZE - 1);
+		for (int i = 0; i < count; i++) {
+			byte value = this.window[from];
+			from = (from + 1) & (WINDOW_SIZE - 1);
+			output[offset + i] = value;
+			putWindow(value);
+		}
+		this.copyLength -= count;
+		return count;
+	}
+
+	/**
+	 * Adds an output byte to the window.
+	 * 
+	 * @param value
+	 * 		The byte.
+	 */
+	private void putWindow(byte value) {
+		this.window[this.windowPosition] = value;
+		this.windowPosition = (this.windowPosition + 1) & (WINDOW_SIZE - 1);
+		if (this.windowFill < WINDOW_SIZE)
+			this.windowFill++;
+	}
+
+	/**
+	 * Decodes one Huffman symbol.
+	 * 
+	 * @param code
+	 * 		The code to decode with.
+	 * 
+	 * @return
+	 * 		The symbol.
+	 */
+	private int decodeSymbol(Huffman code) {
+		fill(MAX_BITS);
+		int entry = code.fast[(int)this.bitBuffer & ((1 << FAST_BITS) - 1)];
+		if (entry != 0) {
+			int length = entry & 0xF;
+			this.bitBuffer >>>= length;
+			this.bitCount -= length;
+			return entry >>> 4;
+		}
+		// Codes longer than FAST_BITS are decoded canonically, one bit at a time.
+		int value = 0;
+		int first = 0;
+		int index = 0;
+		for (int length = 1; length <= MAX_BITS; length++) {
+			value |= (int)(this.bitBuffer >>> (length - 1)) & 1;
+			int count = code.counts[length];
+			if (value - first < count) {
+				this.bitBuffer >>>= length;
+				this.bitCount -= length;
+				return code.symbols[index + value - first];
+			}
+			index += count;
+			first = (first + count) << 1;
+			value <<= 1;
+		}
+		throw new IllegalStateException("A deflate block has an invalid Huffman code.");
+	}
+
+	/**
+	 * Makes sure the bit buffer holds a number of bits. Past the end of the
+	 * input, zero bytes are loaded, and getting bits from those is an error.
+	 * 
+	 * @param count
+	 * 		The number of bits, at most 32.
+	 */
+	private void fill(int count) {
+		while (this.bitCount < count) {
+			int value = this.inputPosition < this.input.limit() ? this.input.get(this.inputPosition) & 0xFF : 0;
+			this.bitBuffer |= (long)value << this.bitCount;
+			this.bitCount += 8;
+			this.inputPosition++;
+		}
+	}
+
+	/**
+	 * Gets bits from the input, lowest first.
+	 * 
+	 * @param count
+	 * 		The number of bits, at most 16.
+	 * 
+	 * @return
+	 * 		The bits.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the input has ended.
+	 */
+	private int getBits(int count) {
+		fill(count);
+		int value = (int)this.bitBuffer & ((1 << count) - 1);
+		this.bitBuffer >>>= count;
+		this.bitCount -= count;
+		if (getBitPosition() > (long)this.input.limit() * 8)
+			throw new IllegalStateException("Deflate data ends early.");
+		return value;
+	}
+
+	/**
+	 * A canonical Huffman code.
+	 */
+	private static final class Huffman {
+
+		/**
+		 * The number of codes of each length.
+		 */
+		private final int[] counts = new int[MAX_BITS + 1];
+
+		/**
+		 * The symbols ordered by code.
+		 */
+		private final int[] symbols;
+
+		/**
+		 * For each FAST_BITS bit input, the symbol shifted left by 4 and
+		 * the code length, or 0 if the code is longer.
+		 */
+		private final int[] fast = new int[1 << FAST_BITS];
+
+		/**
+		 * Builds a code from its code lengths.
+		 * 
+		 * @param lengths
+		 * 		The code lengths.
+		 * 
+		 * @param offset
+		 * 		The index of the length of symbol 0.
+		 * 
+		 * @param count
+		 * 		The number of symbols.
+		 * 
+		 * @throws IllegalStateException
+		 * 		If the lengths describe more codes than can exist.
+		 */
+		private Huffman(byte[] lengths, int offset, int count) {
+			for (int i = 0; i < count; i++)
+				this.counts[lengths[offset + i]]++;
+			this.counts[0] = 0;
+			int left = 1;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				left = (left << 1) - this.counts[length];
+				if (left < 0)
+					throw new IllegalStateException("A deflate block has an over-subscribed Huffman code.");
+			}
+
+			int[] next = new int[MAX_BITS + 2];
+			for (int length = 1; length <= MAX_BITS; length++)
+				next[length + 1] = next[length] + this.counts[length];
+			this.symbols = new int[next[MAX_BITS + 1]];
+			int[] codes = new int[MAX_BITS + 1];
+			int code = 0;
+			for (int length = 1; length <= MAX_BITS; length++) {
+				code = (code + this.counts[length - 1]) << 1;
+				codes[length] = code;
+			}
+			for (int symbol = 0; symbol < count; symbol++) {
+				int length = lengths[offset + symbol];
+				if (length == 0)
+					continue;
+				this.symbols[next[length]++] = symbol;
+				int value = codes[length]++;
+				if (length > FAST_BITS)
+					continue;
+				int reversed = Integer.reverse(value) >>> (32 - length);
+				for (int fill = reversed; fill < this.fast.length; fill += 1 << length)
+					this.fast[fill] = symbol << 4 | length;
+			}
+		}
+	}
+}
@@ -18,6 +18,12 @@
 
 package org.doommanager.editor.file;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
 /**
  * The common interface between all kinds of files (like Wads, PK files...etc).
  */
@@ -27,4 +33,64 @@ public interface DoomFile {
 	 * Gets the file path for this object.
 	 */
 	String getFilePath();
+	
+	/**
+	 * Gets all the lumps in this file in directory order.
+	 * 
+	 * @return
+	 * 		An unmodifiable list of the lumps. If there are none, this will be
+	 * 		an empty list.
+	 */
+	List<Lump> getLumps();
+	
+	/**
+	 * Finds a lump by name. Like the Doom engine, if there are multiple lumps
+	 * with the name then the last one in the directory is returned.
+	 * 
+	 * @param name
+	 * 		The name of the lump, case insensitive. For PK3s this is the full
+	 * 		path.
+	 * 
+	 * @return
+	 * 		The lump, or null if there is no lump with the name.
+	 */
+	Lump getLump(String name);
+	
+	/**
+	 * Gets the data of a lump. Implementations should avoid copying where
+	 * possible and return a view into the file instead.
+	 * 
+	 * @param lump
+	 * 		The lump to get the data for. This must belong to this file.
+	 * 
+	 * @return
+	 * 		A read-only buffer positioned at zero and limited to the lump size,
+	 * 		in little endian order.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the lump does not belong to this file.
+	 */
+	ByteBuffer getLumpData(Lump lump);
+
+	/**
+	 * Gets the data of a lump for a short while. Data that has to be
+	 * produced, like an inflated PK3 entry, goes into a buffer leased from the
+	 * pool instead of a new array, and data that is already in memory is
+	 * wrapped without copying. The lease must be disposed once the data is no
+	 * longer needed.
+	 * 
+	 * @param lump
+	 * 		The lump to get the data for. This must belong to this file.
+	 * 
+	 * @param pool
+	 * 		The pool to lease from.
+	 * 
+	 * @return
+	 * 		A lease of a buffer positioned at zero and limited to the lump
+	 * 		size, in little endian order.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the lump does not belong to this file.
+	 */
+	BufferLease getLumpData(Lump lump, BufferPool pool);
 }
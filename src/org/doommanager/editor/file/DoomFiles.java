@@ -0,0 +1,96 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.doommanager.util.RuntimeArgsContainer;
+
+/**
+ * Helper methods for opening DoomFiles without knowing their type.
+ */
+public class DoomFiles {
+
+	/**
+	 * Not to be instantiated.
+	 */
+	private DoomFiles() {
+	}
+
+	/**
+	 * Checks if a file starts with the zip local header signature.
+	 * 
+	 * @param filePath
+	 * 		The file to check.
+	 * 
+	 * @return
+	 * 		True if the file looks like a PK3, false otherwise.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be read.
+	 */
+	public static boolean isPK3(String filePath) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while (magic.hasRemaining() && channel.read(magic) >= 0);
+			return magic.position() == 4 && magic.getInt(0) == PK3File.LOCAL_HEADER_SIGNATURE;
+		}
+	}
+
+	/**
+	 * Opens a wad or PK3 by looking at its contents rather than its
+	 * extension. Unless the index cache was disabled, the directory is taken
+	 * from the cache when the file has not changed since it was cached.
+	 * 
+	 * @param filePath
+	 * 		The file to open.
+	 * 
+	 * @return
+	 * 		A PK3File if it is a zip, otherwise a WadFile.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened.
+	 */
+	public static MappedFile open(String filePath) throws IOException {
+		if (RuntimeArgsContainer.isIndexCacheEnabled())
+			return ArchiveIndexCache.getDefault().open(filePath);
+		return openDirectly(filePath);
+	}
+
+	/**
+	 * Opens a wad or PK3 and parses its directory, without the index cache.
+	 * 
+	 * @param filePath
+	 * 		The file to open.
+	 * 
+	 * @return
+	 * 		A PK3File if it is a zip, otherwise a WadFile.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened.
+	 */
+	public static MappedFile openDirectly(String filePath) throws IOException {
+		return isPK3(filePath) ? new PK3File(filePath) : new WadFile(filePath);
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.util.Arrays;
+
+/**
+ * The places in a deflate stream where decoding can start again: the offset
+ * in the uncompressed data, the bit position of a block header and the 32 KB
+ * of output before it. Checkpoints are added about every span bytes, so a
+ * seek has to decode at most one span plus a block.
+ * <p>
+ * The index only holds checkpoints, not the compressed data. It is built as
+ * far as it is needed with the decoder of whoever is seeking, so one index
+ * can be shared by every reader of the same entry.
+ */
+final class InflateIndex {
+
+	/**
+	 * The bytes counted for a checkpoint besides its window.
+	 */
+	private static final int CHECKPOINT_OVERHEAD = 48;
+
+	/**
+	 * The size of the buffer decoded into while the index is built.
+	 */
+	private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The least uncompressed bytes between two checkpoints.
+	 */
+	private final int span;
+
+	/**
+	 * The uncompressed offset of each checkpoint.
+	 */
+	private int[] offsets;
+
+	/**
+	 * The bit position of each checkpoint.
+	 */
+	private long[] bitPositions;
+
+	/**
+	 * The output before each checkpoint.
+	 */
+	private byte[][] windows;
+
+	/**
+	 * The number of checkpoints.
+	 */
+	private int count;
+
+	/**
+	 * True once the index was built up to the end of the stream.
+	 */
+	private boolean complete;
+
+	/**
+	 * The memory held by the checkpoints in bytes.
+	 */
+	private volatile long memoryUsage;
+
+	/**
+	 * Creates an index with only the checkpoint at the start of the stream.
+	 * 
+	 * @param span
+	 * 		The least uncompressed bytes between two checkpoints.
+	 */
+	InflateIndex(int span) {
+		this.span = span;
+		this.offsets = new int[16];
+		this.bitPositions = new long[16];
+		this.windows = new byte[16][];
+		add(0, 0, new byte[0]);
+	}
+
+	/**
+	 * Moves a decoder to the last checkpoint at or before a position,
+	 * building the index up to the position first if it has not been yet.
+	 * 
+	 * @param decoder
+	 * 		A decoder over the compressed data of the entry.
+	 * 
+	 * @param position
+	 * 		The uncompressed position to go to.
+	 * 
+	 * @return
+	 * 		The uncompressed offset the decoder was moved to.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the compressed data is damaged.
+	 */
+	synchronized int moveTo(DeflateDecoder decoder, int position) {
+		if (!this.complete && position >= this.offsets[this.count - 1] + this.span)
+			extend(decoder, position);
+		int index = Arrays.binarySearch(this.offsets, 0, this.count, position);
+		if (index < 0)
+			index = -index - 2;
+		decoder.reset(this.bitPositions[index], this.windows[index]);
+		return this.offsets[index];
+	}
+
+	/**
+	 * Decodes on from the last checkpoint, adding checkpoints at block
+	 * boundaries, until the output passes a position or the stream ends.
+	 * 
+	 * @param decoder
+	 * 		A decoder over the compressed data of the entry.
+	 * 
+	 * @param position
+	 * 		The uncompressed position that has to be covered.
+	 */
+	private void extend(DeflateDecoder decoder, int position) {
+		int last = this.count - 1;
+		decoder.reset(this.bitPositions[last], this.windows[last]);
+		long output = this.offsets[last];
+		byte[] scan = new byte[SCAN_BUFFER_SIZE];
+		while (output <= position) {
+			int read = decoder.read(scan, 0, scan.length);
+			if (read < 0) {
+				this.complete = true;
+				return;
+			}
+			output += read;
+			if (decoder.isAtBlockBoundary() && output - this.offsets[this.count - 1] >= this.span && output <= Integer.MAX_VALUE)
+				add((int)output, decoder.getBitPosition(), decoder.copyWindow());
+		}
+	}
+
+	/**
+	 * Adds a checkpoint.
+	 * 
+	 * @param offset
+	 * 		The uncompressed offset.
+	 * 
+	 * @param bitPosition
+	 * 		The bit position of the block header.
+	 * 
+	 * @param window
+	 * 		The output before the offset.
+	 */
+	private void add(int offset, long bitPosition, byte[] window) {
+		if (this.count == this.offsets.length) {
+			int length = this.count * 2;
+			this.offsets = Arrays.copyOf(this.offsets, length);
+			this.bitPositions = Arrays.copyOf(this.bitPositions, length);
+			this.windows = Arrays.copyOf(this.windows, length);
+		}
+		this.offsets[this.count] = offset;
+		this.bitPositions[this.count] = bitPosition;
+		this.windows[this.count] = window;
+		this.count++;
+		this.memoryUsage += window.length + CHECKPOINT_OVERHEAD;
+	}
+
+	/**
+	 * Gets the number of checkpoints.
+	 * 
+	 * @return
+	 * 		The checkpoints built so far, including the one at the start.
+	 */
+	synchronized int getCheckpointCount() {
+		return this.count;
+	}
+
+	/**
+	 * Gets the memory held by the checkpoints.
+	 * 
+	 * @return
+	 * 		The size of the windows and offsets in bytes.
+	 */
+	long getMemoryUsage() {
+		return this.memoryUsage;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the inflate indexes of large PK3 entries in memory, so that opening
+ * an entry again does not have to scan it again. When the checkpoints of all
+ * indexes take more than the memory limit, the least recently used indexes
+ * are dropped.
+ */
+final class InflateIndexCache {
+
+	/**
+	 * The memory the default cache may use, in bytes.
+	 */
+	static final long DEFAULT_MEMORY_LIMIT = 64L << 20;
+
+	/**
+	 * The cache used when none is given.
+	 */
+	private static InflateIndexCache defaultCache;
+
+	/**
+	 * The indexes by entry key, least recently used first.
+	 */
+	private final LinkedHashMap<String, InflateIndex> indexes;
+
+	/**
+	 * The memory the indexes may use before the oldest are dropped.
+	 */
+	private final long memoryLimit;
+
+	/**
+	 * Creates an empty cache.
+	 * 
+	 * @param memoryLimit
+	 * 		The memory the indexes may use in bytes.
+	 */
+	InflateIndexCache(long memoryLimit) {
+		this.indexes = new LinkedHashMap<>(16, 0.75f, true);
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Gets the cache that is shared by the whole program.
+	 * 
+	 * @return
+	 * 		The default cache.
+	 */
+	static synchronized InflateIndexCache getDefault() {
+		if (defaultCache == null)
+			defaultCache = new InflateIndexCache(DEFAULT_MEMORY_LIMIT);
+		return defaultCache;
+	}
+
+	/**
+	 * Makes the key of an entry. The sizes and CRC are part of it so that an
+	 * archive that was rewritten at the same path does not reuse the index of
+	 * the old data.
+	 * 
+	 * @param filePath
+	 * 		The path of the PK3.
+	 * 
+	 * @param entry
+	 * 		The entry.
+	 * 
+	 * @return
+	 * 		The key.
+	 */
+	static String keyOf(String filePath, PK3Entry entry) {
+		return filePath + '|' + entry.getOffset() + '|' + entry.getCompressedSize() + '|' + entry.getSize() + '|' + entry.getCrc();
+	}
+
+	/**
+	 * Gets the index of an entry, creating an empty one if it is not cached.
+	 * 
+	 * @param key
+	 * 		The key of the entry.
+	 * 
+	 * @param span
+	 * 		The checkpoint span of a new index.
+	 * 
+	 * @return
+	 * 		The index.
+	 */
+	synchronized InflateIndex get(String key, int span) {
+		InflateIndex index = this.indexes.get(key);
+		if (index == null) {
+			index = new InflateIndex(span);
+			this.indexes.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Drops the least recently used indexes until the rest fit in the memory
+	 * limit. The most recently used index is always kept.
+	 */
+	synchronized void trim() {
+		long total = getMemoryUsage();
+		Iterator<Map.Entry<String, InflateIndex>> iterator = this.indexes.entrySet().iterator();
+		while (total > this.memoryLimit && this.indexes.size() > 1 && iterator.hasNext()) {
+			total -= iterator.next().getValue().getMemoryUsage();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Gets the memory held by the cached indexes.
+	 * 
+	 * @return
+	 * 		The total in bytes.
+	 */
+	synchronized long getMemoryUsage() {
+		long total = 0;
+		for (InflateIndex index : this.indexes.values())
+			total += index.getMemoryUsage();
+		return total;
+	}
+
+	/**
+	 * Gets the number of cached indexes.
+	 * 
+	 * @return
+	 * 		The number of entries with an index.
+	 */
+	synchronized int size() {
+		return this.indexes.size();
+	}
+
+	/**
+	 * Drops every index.
+	 */
+	synchronized void clear() {
+		this.indexes.clear();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+/**
+ * A single directory entry of a DoomFile. This only holds the metadata of the
+ * entry, the data itself is always requested through the DoomFile that owns
+ * it so that it can be read straight from the file without copying.
+ */
+public class Lump {
+
+	/**
+	 * The position of this lump in the directory of its file.
+	 */
+	private final int index;
+
+	/**
+	 * The name of the lump. For wads this is at most 8 characters.
+	 */
+	private final String name;
+
+	/**
+	 * The offset in the file where the data of this lump begins.
+	 */
+	private final long offset;
+
+	/**
+	 * The length of the lump data in bytes.
+	 */
+	private final int size;
+
+	/**
+	 * Creates a lump directory entry.
+	 * 
+	 * @param index
+	 * 		The index in the directory.
+	 * 
+	 * @param name
+	 * 		The name of the lump.
+	 * 
+	 * @param offset
+	 * 		The offset in the file where the data starts.
+	 * 
+	 * @param size
+	 * 		The size of the data in bytes.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the name is null.
+	 */
+	public Lump(int index, String name, long offset, int size) {
+		if (name == null)
+			throw new NullPointerException("Provided a null name to a Lump.");
+		this.index = index;
+		this.name = name;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the index of this lump in the directory.
+	 * 
+	 * @return
+	 * 		The zero based directory index.
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Gets the name of this lump.
+	 * 
+	 * @return
+	 * 		The lump name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Gets the offset of the lump data in the file.
+	 * 
+	 * @return
+	 * 		The byte offset from the start of the file.
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Gets the size of the lump data.
+	 * 
+	 * @return
+	 * 		The number of bytes in the lump.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Checks if this lump has no data, which is the case for markers like
+	 * S_START or the map header lumps.
+	 * 
+	 * @return
+	 * 		True if the lump is empty, false otherwise.
+	 */
+	public boolean isMarker() {
+		return this.size == 0;
+	}
+
+	@Override
+	public String toString() {
+		return this.name + " [" + this.index + "]";
+	}
+}
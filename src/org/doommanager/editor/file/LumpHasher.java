@@ -0,0 +1,113 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * Computes content hashes of lumps. A hash packs the lump size into the upper
+ * 32 bits and the CRC32 of the data into the lower 32 bits, so two lumps can
+ * only share a hash if they are the same length. Since this is not a
+ * cryptographic hash, anything that relies on equality must still compare
+ * the bytes when hashes match.
+ */
+public class LumpHasher {
+
+	/**
+	 * Not to be instantiated.
+	 */
+	private LumpHasher() {
+	}
+
+	/**
+	 * Hashes a buffer from its position to its limit. The buffer position is
+	 * not changed.
+	 * 
+	 * @param data
+	 * 		The data to hash.
+	 * 
+	 * @return
+	 * 		The content hash.
+	 */
+	public static long hash(ByteBuffer data) {
+		CRC32 crc = new CRC32();
+		crc.update(data.duplicate());
+		return ((long)data.remaining() << 32) | crc.getValue();
+	}
+
+	/**
+	 * Hashes a single lump straight from the file data. PK3 entries already
+	 * carry the CRC32 of their uncompressed data in the central directory, so
+	 * they are hashed without reading or inflating anything.
+	 * 
+	 * @param file
+	 * 		The file that owns the lump.
+	 * 
+	 * @param lump
+	 * 		The lump to hash.
+	 * 
+	 * @return
+	 * 		The content hash.
+	 */
+	public static long hash(DoomFile file, Lump lump) {
+		if (lump instanceof PK3Entry)
+			return ((long)lump.getSize() << 32) | (((PK3Entry)lump).getCrc() & 0xFFFFFFFFL);
+		BufferLease data = file.getLumpData(lump, BufferPool.getShared());
+		try {
+			return hash(data.getBuffer());
+		} finally {
+			data.dispose();
+		}
+	}
+
+	/**
+	 * Hashes every lump of a file in parallel.
+	 * 
+	 * @param file
+	 * 		The file to hash.
+	 * 
+	 * @return
+	 * 		An array of hashes indexed by the lump directory index.
+	 */
+	public static long[] hashAll(DoomFile file) {
+		List<Lump> lumps = file.getLumps();
+		long[] hashes = new long[lumps.size()];
+		IntStream.range(0, hashes.length).parallel().forEach(i -> hashes[i] = hash(file, lumps.get(i)));
+		return hashes;
+	}
+
+	/**
+	 * Gets the size portion of a hash.
+	 * 
+	 * @param hash
+	 * 		The content hash.
+	 * 
+	 * @return
+	 * 		The lump size the hash was made from.
+	 */
+	public static int sizeOf(long hash) {
+		return (int)(hash >>> 32);
+	}
+}
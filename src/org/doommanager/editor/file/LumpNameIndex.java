@@ -0,0 +1,122 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A case insensitive lookup of lumps by name. The index is just the lump
+ * indices sorted by name (and by index for equal names), which keeps it a
+ * single int array that can be stored and loaded as is. Like the Doom engine,
+ * a lookup returns the last lump in the directory with the name.
+ */
+public class LumpNameIndex {
+
+	/**
+	 * The lumps the index was built for.
+	 */
+	private final List<Lump> lumps;
+
+	/**
+	 * Lump indices sorted by upper case name, then by index.
+	 */
+	private final int[] sorted;
+
+	/**
+	 * Creates an index from an already sorted order, for example one that was
+	 * read from the index cache.
+	 * 
+	 * @param lumps
+	 * 		The lumps of the file.
+	 * 
+	 * @param sorted
+	 * 		The lump indices sorted by name then index.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the sorted array does not match the lump count.
+	 */
+	LumpNameIndex(List<Lump> lumps, int[] sorted) {
+		if (sorted.length != lumps.size())
+			throw new IllegalArgumentException("Name index size does not match the number of lumps.");
+		this.lumps = lumps;
+		this.sorted = sorted;
+	}
+
+	/**
+	 * Builds the index for a list of lumps.
+	 * 
+	 * @param lumps
+	 * 		The lumps in directory order.
+	 * 
+	 * @return
+	 * 		The new index.
+	 */
+	public static LumpNameIndex build(List<Lump> lumps) {
+		Integer[] order = new Integer[lumps.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> {
+			int compare = lumps.get(a).getName().compareToIgnoreCase(lumps.get(b).getName());
+			return compare != 0 ? compare : Integer.compare(a, b);
+		});
+		int[] sorted = new int[order.length];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = order[i];
+		return new LumpNameIndex(lumps, sorted);
+	}
+
+	/**
+	 * Finds the last lump with a name.
+	 * 
+	 * @param name
+	 * 		The name to look for, in any case.
+	 * 
+	 * @return
+	 * 		The last lump in the directory with the name, or null if there is
+	 * 		none.
+	 */
+	public Lump find(String name) {
+		int low = 0;
+		int high = this.sorted.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = this.lumps.get(this.sorted[middle]).getName().compareToIgnoreCase(name);
+			if (compare <= 0) {
+				if (compare == 0)
+					found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found < 0 ? null : this.lumps.get(this.sorted[found]);
+	}
+
+	/**
+	 * Gets the sorted order so it can be stored.
+	 * 
+	 * @return
+	 * 		The lump indices sorted by name. This must not be modified.
+	 */
+	int[] getSortedIndices() {
+		return this.sorted;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pairs a lump with the file it came from, for anything that works with lumps
+ * of more than one file at a time.
+ */
+public class LumpReference {
+
+	/**
+	 * The file that owns the lump.
+	 */
+	private final DoomFile file;
+
+	/**
+	 * The lump in the file.
+	 */
+	private final Lump lump;
+
+	/**
+	 * Creates a reference to a lump in a file.
+	 * 
+	 * @param file
+	 * 		The file that owns the lump.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 */
+	public LumpReference(DoomFile file, Lump lump) {
+		if (file == null || lump == null)
+			throw new NullPointerException("Provided a null file or lump to LumpReference.");
+		this.file = file;
+		this.lump = lump;
+	}
+
+	/**
+	 * Gets the file that owns the lump.
+	 * 
+	 * @return
+	 * 		The file.
+	 */
+	public DoomFile getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Gets the lump.
+	 * 
+	 * @return
+	 * 		The lump.
+	 */
+	public Lump getLump() {
+		return this.lump;
+	}
+
+	/**
+	 * Gets the data of the lump from its file.
+	 * 
+	 * @return
+	 * 		A read-only view of the lump data.
+	 */
+	public ByteBuffer getData() {
+		return this.file.getLumpData(this.lump);
+	}
+
+	/**
+	 * Checks if another reference is to the same lump of the same file.
+	 * Files and lumps are compared by identity, so the same lump of a file
+	 * that was opened twice gives two different references.
+	 * 
+	 * @param other
+	 * 		The object to compare to.
+	 * 
+	 * @return
+	 * 		True if it refers to the same lump.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof LumpReference))
+			return false;
+		LumpReference reference = (LumpReference)other;
+		return this.file == reference.file && this.lump == reference.lump;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this.file) * 31 + System.identityHashCode(this.lump);
+	}
+
+	@Override
+	public String toString() {
+		return this.file.getFilePath() + ":" + this.lump;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.CorruptionType;
+import org.doommanager.editor.Corruptable;
+import org.doommanager.editor.Disposable;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * The shared base of every DoomFile that is read through a read-only memory
+ * mapping of the whole file. Subclasses only have to read their directory and
+ * turn a lump into a buffer.
+ */
+public abstract class MappedFile implements DoomFile, Corruptable, Disposable {
+
+	/**
+	 * The path of the file this was read from.
+	 */
+	private final String filePath;
+
+	/**
+	 * The channel that backs the mapping.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * The whole file mapped into memory.
+	 */
+	private MappedByteBuffer mapping;
+
+	/**
+	 * All the lumps in directory order.
+	 */
+	private List<Lump> lumps;
+
+	/**
+	 * The name lookup, built on first use unless one was provided.
+	 */
+	private LumpNameIndex nameIndex;
+
+	/**
+	 * The first corruption that was found while reading, if any.
+	 */
+	private CorruptionType corruptionType;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(MappedFile.class.getName());
+
+	/**
+	 * Opens and maps a file. The directory is left empty for the subclass to
+	 * fill in.
+	 * 
+	 * @param filePath
+	 * 		The path to the file.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the path is null.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened or mapped.
+	 */
+	protected MappedFile(String filePath) throws IOException {
+		if (filePath == null) {
+			NullPointerException e = new NullPointerException("Provided a null file path to " + getClass().getSimpleName() + ".");
+			log.log(Level.SEVERE, "MappedFile path is null", e);
+			throw e;
+		}
+		this.filePath = filePath;
+		this.corruptionType = CorruptionType.NOT_CORRUPT;
+		this.lumps = Collections.emptyList();
+		this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		try {
+			long fileSize = this.channel.size();
+			if (fileSize > Integer.MAX_VALUE)
+				throw new IOException("File is too large to be mapped: " + filePath);
+			this.mapping = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets a view of the whole mapping.
+	 * 
+	 * @return
+	 * 		A little endian duplicate of the mapping, positioned at zero.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the file was disposed.
+	 */
+	protected ByteBuffer getMapping() {
+		if (this.mapping == null)
+			throw new IllegalStateException("Attempted to read from a disposed " + getClass().getSimpleName() + ".");
+		return this.mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets a read-only view of a range of the file.
+	 * 
+	 * @param offset
+	 * 		The start of the range.
+	 * 
+	 * @param length
+	 * 		The length of the range.
+	 * 
+	 * @return
+	 * 		A little endian buffer positioned at zero and limited to the
+	 * 		length.
+	 */
+	protected ByteBuffer getMappedRange(long offset, int length) {
+		ByteBuffer view = getMapping();
+		view.position((int)offset);
+		view.limit((int)offset + length);
+		return view.slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the size of the mapped file.
+	 * 
+	 * @return
+	 * 		The file size in bytes.
+	 */
+	protected int getMappedSize() {
+		return getMapping().capacity();
+	}
+
+	/**
+	 * Sets the directory once it has been read.
+	 * 
+	 * @param lumps
+	 * 		The lumps in directory order.
+	 */
+	protected void setLumps(List<Lump> lumps) {
+		this.lumps = Collections.unmodifiableList(lumps);
+		this.nameIndex = null;
+		log.log(Level.FINE, "Read " + lumps.size() + " lumps from " + this.filePath);
+	}
+
+	/**
+	 * Sets a name index that was built elsewhere, like the index cache.
+	 * 
+	 * @param nameIndex
+	 * 		The index for the current lumps.
+	 */
+	void setNameIndex(LumpNameIndex nameIndex) {
+		this.nameIndex = nameIndex;
+	}
+
+	/**
+	 * Gets the name index, building it if needed.
+	 * 
+	 * @return
+	 * 		The name index of the current lumps.
+	 */
+	synchronized LumpNameIndex getNameIndex() {
+		if (this.nameIndex == null)
+			this.nameIndex = LumpNameIndex.build(this.lumps);
+		return this.nameIndex;
+	}
+
+	/**
+	 * Records a corruption. Only the first corruption found is kept since
+	 * later ones are usually a consequence of it.
+	 * 
+	 * @param type
+	 * 		The corruption type found.
+	 */
+	protected void markCorrupt(CorruptionType type) {
+		if (type == CorruptionType.NOT_CORRUPT)
+			return;
+		log.log(Level.WARNING, this.filePath + ": " + type.getReason());
+		if (this.corruptionType == CorruptionType.NOT_CORRUPT)
+			this.corruptionType = type;
+	}
+
+	/**
+	 * Checks that a lump belongs to this file.
+	 * 
+	 * @param lump
+	 * 		The lump to check.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the lump is null or from another file.
+	 */
+	protected void checkOwnership(Lump lump) {
+		if (lump == null || lump.getIndex() >= this.lumps.size() || this.lumps.get(lump.getIndex()) != lump)
+			throw new IllegalArgumentException("Lump " + lump + " does not belong to " + this.filePath);
+	}
+
+	@Override
+	public String getFilePath() {
+		return this.filePath;
+	}
+
+	@Override
+	public List<Lump> getLumps() {
+		return this.lumps;
+	}
+
+	@Override
+	public Lump getLump(String name) {
+		return getNameIndex().find(name);
+	}
+
+	@Override
+	public CorruptionType getCorruptionType() {
+		return this.corruptionType;
+	}
+
+	@Override
+	public boolean isCorrupt() {
+		return this.corruptionType != CorruptionType.NOT_CORRUPT;
+	}
+
+	/**
+	 * Wraps the data from getLumpData in a lease without copying it, which
+	 * suits lumps that are views into the mapping. Subclasses that produce
+	 * the data override this to fill a pooled buffer instead.
+	 */
+	@Override
+	public BufferLease getLumpData(Lump lump, BufferPool pool) {
+		return BufferLease.wrap(getLumpData(lump));
+	}
+
+	@Override
+	public void dispose() {
+		this.mapping = null;
+		this.lumps = Collections.emptyList();
+		this.nameIndex = null;
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Unable to close " + this.filePath, e);
+			}
+			this.channel = null;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+/**
+ * A lump inside of a PK3. The name is the full path in the archive, the
+ * offset points at the (possibly compressed) data after the local header and
+ * the size is always the uncompressed size.
+ */
+public class PK3Entry extends Lump {
+
+	/**
+	 * The zip method for data that is stored as is.
+	 */
+	public static final int METHOD_STORED = 0;
+
+	/**
+	 * The zip method for deflated data.
+	 */
+	public static final int METHOD_DEFLATED = 8;
+
+	/**
+	 * The size of the data in the archive.
+	 */
+	private final int compressedSize;
+
+	/**
+	 * The zip compression method.
+	 */
+	private final int method;
+
+	/**
+	 * The CRC32 of the uncompressed data from the central directory.
+	 */
+	private final int crc;
+
+	/**
+	 * Creates a PK3 entry.
+	 * 
+	 * @param index
+	 * 		The index in the central directory, not counting folders.
+	 * 
+	 * @param name
+	 * 		The full path of the entry.
+	 * 
+	 * @param offset
+	 * 		The offset of the entry data in the archive.
+	 * 
+	 * @param size
+	 * 		The uncompressed size.
+	 * 
+	 * @param compressedSize
+	 * 		The size of the data in the archive.
+	 * 
+	 * @param method
+	 * 		The zip compression method.
+	 * 
+	 * @param crc
+	 * 		The CRC32 of the uncompressed data.
+	 */
+	public PK3Entry(int index, String name, long offset, int size, int compressedSize, int method, int crc) {
+		super(index, name, offset, size);
+		this.compressedSize = compressedSize;
+		this.method = method;
+		this.crc = crc;
+	}
+
+	/**
+	 * Gets the size of the data as stored in the archive.
+	 * 
+	 * @return
+	 * 		The compressed size in bytes.
+	 */
+	public int getCompressedSize() {
+		return this.compressedSize;
+	}
+
+	/**
+	 * Gets the zip compression method.
+	 * 
+	 * @return
+	 * 		METHOD_STORED or METHOD_DEFLATED.
+	 */
+	public int getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * Gets the CRC32 that the archive lists for this entry.
+	 * 
+	 * @return
+	 * 		The CRC32 of the uncompressed data.
+	 */
+	public int getCrc() {
+		return this.crc;
+	}
+
+	/**
+	 * Gets the file name without any folders.
+	 * 
+	 * @return
+	 * 		The part of the path after the last slash.
+	 */
+	public String getFileName() {
+		return getName().substring(getName().lastIndexOf('/') + 1);
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the uncompressed data of a PK3 entry with a marker, like a
+ * ByteHandler, without inflating all of it first. Stored entries and small
+ * deflated ones are read from a buffer. Deflated entries of at least
+ * INDEX_THRESHOLD bytes are decoded on demand: a seek starts from the
+ * nearest checkpoint of a shared inflate index and decodes at most one span,
+ * and reads that follow each other carry on decoding without seeking.
+ * <p>
+ * A reader is not safe for use by more than one thread, but any number of
+ * readers may be open on the same entry.
+ */
+public class PK3EntryReader {
+
+	/**
+	 * The size from which deflated entries are decoded on demand instead
+	 * of inflated whole.
+	 */
+	public static final int INDEX_THRESHOLD = 4 << 20;
+
+	/**
+	 * The least uncompressed bytes between two checkpoints of an index.
+	 */
+	public static final int CHECKPOINT_SPAN = 1 << 20;
+
+	/**
+	 * The size of the buffer of decoded data.
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * The uncompressed size of the entry.
+	 */
+	private final int size;
+
+	/**
+	 * The whole uncompressed data, if the entry is not decoded on demand.
+	 */
+	private final ByteBuffer data;
+
+	/**
+	 * The index of the entry, if it is decoded on demand.
+	 */
+	private final InflateIndex index;
+
+	/**
+	 * The cache the index is kept in.
+	 */
+	private final InflateIndexCache cache;
+
+	/**
+	 * The decoder over the compressed data.
+	 */
+	private final DeflateDecoder decoder;
+
+	/**
+	 * The uncompressed position the decoder is at.
+	 */
+	private int decoderPosition;
+
+	/**
+	 * The most recently decoded data.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * The uncompressed offset of the first byte in the buffer.
+	 */
+	private int bufferStart;
+
+	/**
+	 * The number of valid bytes in the buffer.
+	 */
+	private int bufferLength;
+
+	/**
+	 * Where the next read begins.
+	 */
+	private int marker;
+
+	/**
+	 * Creates a reader over data that is already uncompressed.
+	 * 
+	 * @param data
+	 * 		The data of the entry.
+	 */
+	PK3EntryReader(ByteBuffer data) {
+		this.size = data.limit();
+		this.data = data;
+		this.index = null;
+		this.cache = null;
+		this.decoder = null;
+		this.buffer = null;
+	}
+
+	/**
+	 * Creates a reader that decodes deflated data on demand.
+	 * 
+	 * @param compressed
+	 * 		The raw deflate data of the entry.
+	 * 
+	 * @param size
+	 * 		The uncompressed size of the entry.
+	 * 
+	 * @param index
+	 * 		The index of the entry.
+	 * 
+	 * @param cache
+	 * 		The cache the index is kept in, which is trimmed when the index
+	 * 		grows.
+	 */
+	PK3EntryReader(ByteBuffer compressed, int size, InflateIndex index, InflateIndexCache cache) {
+		this.size = size;
+		this.data = null;
+		this.index = index;
+		this.cache = cache;
+		this.decoder = new DeflateDecoder(compressed);
+		this.buffer = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Gets the uncompressed size of the entry.
+	 * 
+	 * @return
+	 * 		The size in bytes.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Checks if the entry is decoded on demand.
+	 * 
+	 * @return
+	 * 		True if reads go through an inflate index, false if the data is
+	 * 		held whole.
+	 */
+	public boolean isIndexed() {
+		return this.index != null;
+	}
+
+	/**
+	 * Gets the location where the next read will begin.
+	 * 
+	 * @return
+	 * 		The marker as an offset into the uncompressed data.
+	 */
+	public int getMarkerLocation() {
+		return this.marker;
+	}
+
+	/**
+	 * Sets where the next read will begin. This does not decode anything.
+	 * 
+	 * @param index
+	 * 		The offset into the uncompressed data, from zero to the size.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the index is negative or past the size.
+	 */
+	public void setMarkerLocation(int index) {
+		if (index < 0 || index > this.size)
+			throw new IndexOutOfBoundsException("Attempted to set location on PK3EntryReader past the data length or negative.");
+		this.marker = index;
+	}
+
+	/**
+	 * Reads a byte at the marker.
+	 * 
+	 * @return
+	 * 		The byte next in line from the marker.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the marker is at the end of the data.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	public byte getByte() {
+		if (this.marker >= this.size)
+			throw new IndexOutOfBoundsException("PK3EntryReader getByte was called at the end of the data.");
+		byte value;
+		if (this.data != null) {
+			value = this.data.get(this.marker);
+		} else {
+			if (this.marker < this.bufferStart || this.marker >= this.bufferStart + this.bufferLength)
+				fill(this.marker);
+			value = this.buffer[this.marker - this.bufferStart];
+		}
+		this.marker++;
+		return value;
+	}
+
+	/**
+	 * Copies bytes at the marker into a new array.
+	 * 
+	 * @param length
+	 * 		The number of bytes.
+	 * 
+	 * @return
+	 * 		The bytes.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the length is negative or goes past the end of the data.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	public byte[] getBytes(int length) {
+		if (length < 0 || length > this.size - this.marker)
+			throw new IndexOutOfBoundsException("PK3EntryReader getBytes was passed a length that would go out of bounds.");
+		byte[] values = new byte[length];
+		read(values, 0, length);
+		return values;
+	}
+
+	/**
+	 * Reads bytes at the marker into an array.
+	 * 
+	 * @param destination
+	 * 		The array to read into.
+	 * 
+	 * @param offset
+	 * 		The offset in the array.
+	 * 
+	 * @param length
+	 * 		The most bytes to read.
+	 * 
+	 * @return
+	 * 		The number of bytes read, which is only less than the length at
+	 * 		the end of the data, or -1 if the marker is at the end.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the offset and length do not fit in the array.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	public int read(byte[] destination, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > destination.length)
+			throw new IndexOutOfBoundsException("PK3EntryReader read was passed an offset and length outside of the array.");
+		if (this.marker >= this.size)
+			return length == 0 ? 0 : -1;
+		int count = Math.min(length, this.size - this.marker);
+		if (this.data != null) {
+			ByteBuffer source = this.data.duplicate();
+			source.position(this.marker);
+			source.get(destination, offset, count);
+		} else {
+			int copied = 0;
+			while (copied < count) {
+				int position = this.marker + copied;
+				if (position < this.bufferStart || position >= this.bufferStart + this.bufferLength)
+					fill(position);
+				int available = Math.min(count - copied, this.bufferStart + this.bufferLength - position);
+				System.arraycopy(this.buffer, position - this.bufferStart, destination, offset + copied, available);
+				copied += available;
+			}
+		}
+		this.marker += count;
+		return count;
+	}
+
+	/**
+	 * Decodes the buffer full of data that holds a position. The decoder
+	 * only seeks if the position is behind it or more than a span ahead.
+	 * 
+	 * @param position
+	 * 		The uncompressed position that has to be in the buffer.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged or ends early.
+	 */
+	private void fill(int position) {
+		if (position < this.decoderPosition || position - this.decoderPosition > CHECKPOINT_SPAN) {
+			long memoryUsage = this.index.getMemoryUsage();
+			this.decoderPosition = this.index.moveTo(this.decoder, position);
+			if (this.index.getMemoryUsage() != memoryUsage)
+				this.cache.trim();
+		}
+		while (true) {
+			int length = 0;
+			while (length < this.buffer.length) {
+				int read = this.decoder.read(this.buffer, length, this.buffer.length - length);
+				if (read < 0)
+					break;
+				length += read;
+			}
+			this.bufferStart = this.decoderPosition;
+			this.bufferLength = length;
+			this.decoderPosition += length;
+			if (position < this.decoderPosition)
+				return;
+			if (length == 0)
+				throw new IllegalStateException("Deflated entry data ended before its listed size.");
+		}
+	}
+}
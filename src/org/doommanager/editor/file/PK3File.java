@@ -0,0 +1,434 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.doommanager.editor.CorruptionType;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+import org.doommanager.util.ByteHandler;
+
+/**
+ * A PK3 (zip) file that is memory mapped on load. Only the central directory
+ * is parsed. Stored entries are handed out as views into the mapping, while
+ * deflated entries are inflated when their data is requested.
+ */
+public class PK3File extends MappedFile {
+
+	/**
+	 * The signature of the end of central directory record.
+	 */
+	public static final int END_OF_DIRECTORY_SIGNATURE = 0x06054B50;
+
+	/**
+	 * The signature of a central directory file header.
+	 */
+	public static final int DIRECTORY_ENTRY_SIGNATURE = 0x02014B50;
+
+	/**
+	 * The signature of a local file header.
+	 */
+	public static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+
+	/**
+	 * The size of the end of central directory record without its comment.
+	 */
+	public static final int END_OF_DIRECTORY_SIZE = 22;
+
+	/**
+	 * The size of a central directory file header without its variable data.
+	 */
+	public static final int DIRECTORY_ENTRY_SIZE = 46;
+
+	/**
+	 * The size of a local file header without its variable data.
+	 */
+	public static final int LOCAL_HEADER_SIZE = 30;
+
+	/**
+	 * The inflater and arrays of each thread.
+	 */
+	private static final ThreadLocal<InflateScratch> INFLATE_SCRATCH = ThreadLocal.withInitial(InflateScratch::new);
+
+	/**
+	 * Opens and maps a PK3, then reads its central directory.
+	 * 
+	 * @param filePath
+	 * 		The path to the PK3.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the path is null.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened or mapped.
+	 */
+	public PK3File(String filePath) throws IOException {
+		super(filePath);
+		readCentralDirectory();
+	}
+
+	/**
+	 * Opens and maps a PK3 with a directory that was read before, so that
+	 * the central directory does not have to be parsed again.
+	 * 
+	 * @param filePath
+	 * 		The path to the PK3.
+	 * 
+	 * @param lumps
+	 * 		The entries of the PK3. These must all be PK3Entry objects.
+	 * 
+	 * @param corruptionType
+	 * 		The corruption that was found when the directory was read.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened or mapped.
+	 */
+	PK3File(String filePath, List<Lump> lumps, CorruptionType corruptionType) throws IOException {
+		super(filePath);
+		setLumps(lumps);
+		markCorrupt(corruptionType);
+	}
+
+	/**
+	 * Finds the end of central directory record by searching backwards over
+	 * the maximum comment length.
+	 * 
+	 * @return
+	 * 		The offset of the record, or -1 if it was not found.
+	 */
+	private int findEndOfDirectory() {
+		ByteBuffer mapping = getMapping();
+		int last = mapping.capacity() - END_OF_DIRECTORY_SIZE;
+		int first = Math.max(0, last - 0xFFFF);
+		for (int i = last; i >= first; i--)
+			if (mapping.getInt(i) == END_OF_DIRECTORY_SIGNATURE)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Reads the central directory. Folders are skipped, and anything that
+	 * points outside of the file marks the PK3 corrupt and is left out.
+	 */
+	private void readCentralDirectory() {
+		int endOfDirectory = findEndOfDirectory();
+		if (endOfDirectory < 0) {
+			markCorrupt(CorruptionType.BAD_CENTRAL_DIRECTORY);
+			return;
+		}
+
+		ByteBuffer mapping = getMapping();
+		int entryCount = mapping.getShort(endOfDirectory + 10) & 0xFFFF;
+		long directorySize = mapping.getInt(endOfDirectory + 12) & 0xFFFFFFFFL;
+		long directoryOffset = mapping.getInt(endOfDirectory + 16) & 0xFFFFFFFFL;
+		if (directoryOffset + directorySize > endOfDirectory) {
+			markCorrupt(CorruptionType.BAD_CENTRAL_DIRECTORY);
+			return;
+		}
+
+		ByteHandler handler = new ByteHandler(getMappedRange(directoryOffset, (int)directorySize), ByteOrder.LITTLE_ENDIAN);
+
+		List<Lump> readLumps = new ArrayList<>(entryCount);
+		for (int i = 0; i < entryCount; i++) {
+			if (handler.getMarkerLocation() + DIRECTORY_ENTRY_SIZE > handler.size()) {
+				markCorrupt(CorruptionType.BAD_CENTRAL_DIRECTORY);
+				break;
+			}
+			int entryStart = handler.getMarkerLocation();
+			if (handler.getInt() != DIRECTORY_ENTRY_SIGNATURE) {
+				markCorrupt(CorruptionType.BAD_CENTRAL_DIRECTORY);
+				break;
+			}
+			handler.setMarkerLocation(entryStart + 10);
+			int method = handler.getShortUnsigned();
+			handler.setMarkerLocation(entryStart + 16);
+			int crc = handler.getInt();
+			long compressedSize = handler.getIntUnsigned();
+			long size = handler.getIntUnsigned();
+			int nameLength = handler.getShortUnsigned();
+			int extraLength = handler.getShortUnsigned();
+			int commentLength = handler.getShortUnsigned();
+			handler.setMarkerLocation(entryStart + 42);
+			long localHeaderOffset = handler.getIntUnsigned();
+			int entryEnd = entryStart + DIRECTORY_ENTRY_SIZE + nameLength + extraLength + commentLength;
+			if (entryEnd > handler.size()) {
+				markCorrupt(CorruptionType.BAD_CENTRAL_DIRECTORY);
+				break;
+			}
+			String name = new String(handler.getBytes(nameLength), StandardCharsets.UTF_8);
+			handler.setMarkerLocation(entryEnd);
+
+			if (name.endsWith("/"))
+				continue;
+			if (method != PK3Entry.METHOD_STORED && method != PK3Entry.METHOD_DEFLATED) {
+				markCorrupt(CorruptionType.UNSUPPORTED_COMPRESSION);
+				continue;
+			}
+			long dataOffset = findDataOffset(localHeaderOffset);
+			if (dataOffset < 0 || dataOffset + compressedSize > getMappedSize() || size > Integer.MAX_VALUE) {
+				markCorrupt(CorruptionType.LUMP_OUT_OF_BOUNDS);
+				continue;
+			}
+			readLumps.add(new PK3Entry(readLumps.size(), name, dataOffset, (int)size, (int)compressedSize, method, crc));
+		}
+		setLumps(readLumps);
+	}
+
+	/**
+	 * Reads a local file header to find where the entry data begins.
+	 * 
+	 * @param localHeaderOffset
+	 * 		The offset of the local header.
+	 * 
+	 * @return
+	 * 		The offset of the entry data, or -1 if the local header is invalid.
+	 */
+	private long findDataOffset(long localHeaderOffset) {
+		ByteBuffer mapping = getMapping();
+		if (localHeaderOffset + LOCAL_HEADER_SIZE > mapping.capacity())
+			return -1;
+		int offset = (int)localHeaderOffset;
+		if (mapping.getInt(offset) != LOCAL_HEADER_SIGNATURE)
+			return -1;
+		int nameLength = mapping.getShort(offset + 26) & 0xFFFF;
+		int extraLength = mapping.getShort(offset + 28) & 0xFFFF;
+		return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	/**
+	 * Gets the raw entry data as it is stored in the archive.
+	 * 
+	 * @param entry
+	 * 		The entry to get the data of.
+	 * 
+	 * @return
+	 * 		A read-only view of the stored (possibly compressed) bytes.
+	 */
+	public ByteBuffer getRawData(PK3Entry entry) {
+		checkOwnership(entry);
+		return getMappedRange(entry.getOffset(), entry.getCompressedSize());
+	}
+
+	/**
+	 * Gets the first bytes of the uncompressed data of an entry. A deflated
+	 * entry is only inflated as far as needed, which makes reading headers
+	 * of many entries cheap.
+	 * 
+	 * @param entry
+	 * 		The entry to read.
+	 * 
+	 * @param length
+	 * 		The most bytes to get.
+	 * 
+	 * @return
+	 * 		The bytes, fewer than the length if the entry is smaller.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	public ByteBuffer getLumpStart(PK3Entry entry, int length) {
+		checkOwnership(entry);
+		int size = Math.min(length, entry.getSize());
+		ByteBuffer raw = getMappedRange(entry.getOffset(), entry.getCompressedSize());
+		if (entry.getMethod() == PK3Entry.METHOD_STORED) {
+			raw.limit(size);
+			return raw;
+		}
+
+		// A literal takes at most 15 bits, so twice the length plus room for
+		// the block headers is enough input. The extra byte is required by the
+		// inflater when it is given the end of raw deflate data.
+		long needed = size * 2L + 1024;
+		byte[] input;
+		if (needed < entry.getCompressedSize()) {
+			input = new byte[(int)needed];
+			raw.get(input);
+		} else {
+			input = new byte[entry.getCompressedSize() + 1];
+			raw.get(input, 0, entry.getCompressedSize());
+		}
+		byte[] output = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(input);
+			int inflated = 0;
+			while (inflated < size) {
+				int count = inflater.inflate(output, inflated, size - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				inflated += count;
+			}
+			return ByteBuffer.wrap(output, 0, inflated).slice().asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Entry " + entry.getName() + " has damaged deflate data.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Opens a reader over the uncompressed data of an entry. Deflated entries
+	 * of at least PK3EntryReader.INDEX_THRESHOLD bytes are decoded on demand
+	 * through an inflate index that is shared between readers, so large
+	 * entries can be read at any offset without inflating them from the start.
+	 * 
+	 * @param entry
+	 * 		The entry to read.
+	 * 
+	 * @return
+	 * 		A reader with its marker at the start of the data.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the entry is small and its deflated data is damaged.
+	 */
+	public PK3EntryReader openEntry(PK3Entry entry) {
+		checkOwnership(entry);
+		if (entry.getMethod() == PK3Entry.METHOD_STORED || entry.getSize() < PK3EntryReader.INDEX_THRESHOLD)
+			return new PK3EntryReader(getLumpData(entry));
+		InflateIndexCache cache = InflateIndexCache.getDefault();
+		InflateIndex index = cache.get(InflateIndexCache.keyOf(getFilePath(), entry), PK3EntryReader.CHECKPOINT_SPAN);
+		return new PK3EntryReader(getRawData(entry), entry.getSize(), index, cache);
+	}
+
+	/**
+	 * Gets the uncompressed data of a lump. Stored entries are views into the
+	 * mapping, deflated entries are inflated into a new buffer.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	@Override
+	public ByteBuffer getLumpData(Lump lump) {
+		checkOwnership(lump);
+		PK3Entry entry = (PK3Entry)lump;
+		if (entry.getMethod() == PK3Entry.METHOD_STORED)
+			return getMappedRange(entry.getOffset(), entry.getCompressedSize());
+		ByteBuffer output = ByteBuffer.allocate(entry.getSize());
+		inflate(entry, output);
+		return output.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the uncompressed data of a lump for a short while. Stored entries
+	 * are wrapped views into the mapping, deflated entries are inflated into a
+	 * pooled buffer, so reading many entries makes no garbage.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	@Override
+	public BufferLease getLumpData(Lump lump, BufferPool pool) {
+		checkOwnership(lump);
+		PK3Entry entry = (PK3Entry)lump;
+		if (entry.getMethod() == PK3Entry.METHOD_STORED)
+			return BufferLease.wrap(getMappedRange(entry.getOffset(), entry.getCompressedSize()));
+		BufferLease lease = pool.lease(entry.getSize());
+		try {
+			inflate(entry, lease.getBuffer());
+		} catch (RuntimeException e) {
+			lease.dispose();
+			throw e;
+		}
+		return lease;
+	}
+
+	/**
+	 * Inflates a deflated entry through the inflater and arrays of the
+	 * current thread.
+	 * 
+	 * @param entry
+	 * 		The entry.
+	 * 
+	 * @param output
+	 * 		Where the data goes, from its position to its limit, which must be
+	 * 		the entry size. It is flipped to be read afterwards.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the deflated data is damaged.
+	 */
+	private void inflate(PK3Entry entry, ByteBuffer output) {
+		ByteBuffer raw = getMappedRange(entry.getOffset(), entry.getCompressedSize());
+		InflateScratch scratch = INFLATE_SCRATCH.get();
+		Inflater inflater = scratch.inflater;
+		inflater.reset();
+		boolean padded = false;
+		try {
+			while (output.hasRemaining()) {
+				if (inflater.needsInput()) {
+					if (raw.hasRemaining()) {
+						int length = Math.min(raw.remaining(), scratch.input.length);
+						raw.get(scratch.input, 0, length);
+						inflater.setInput(scratch.input, 0, length);
+					} else if (!padded) {
+						// The extra byte is required by the inflater when reading raw deflate data.
+						scratch.input[0] = 0;
+						inflater.setInput(scratch.input, 0, 1);
+						padded = true;
+					} else {
+						break;
+					}
+				}
+				int inflated = inflater.inflate(scratch.output, 0, Math.min(output.remaining(), scratch.output.length));
+				if (inflated == 0 && (inflater.finished() || inflater.needsDictionary()))
+					break;
+				output.put(scratch.output, 0, inflated);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Entry " + entry.getName() + " has damaged deflate data.", e);
+		}
+		if (output.hasRemaining())
+			throw new IllegalStateException("Entry " + entry.getName() + " inflated to fewer bytes than its listed size.");
+		output.flip();
+	}
+
+	/**
+	 * The inflater and arrays each thread inflates entries with, so inflating
+	 * does not allocate.
+	 */
+	private static final class InflateScratch {
+
+		/**
+		 * The size of the arrays.
+		 */
+		private static final int SIZE = 1 << 16;
+
+		/**
+		 * The raw deflate inflater.
+		 */
+		private final Inflater inflater = new Inflater(true);
+
+		/**
+		 * Compressed data copied from the mapping.
+		 */
+		private final byte[] input = new byte[SIZE];
+
+		/**
+		 * Inflated data before it is copied to the output.
+		 */
+		private final byte[] output = new byte[SIZE];
+	}
+}
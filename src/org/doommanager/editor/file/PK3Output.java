@@ -0,0 +1,475 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a PK3 to a channel as entries are added, compressing the entries on
+ * a pool of worker threads. Every entry is an independent deflate stream, so
+ * entries can be compressed in any order while the finished entries are
+ * written to the channel in the order they were added. Only a bounded number
+ * of entries are in flight at once; add() blocks on the oldest one when the
+ * limit is reached.
+ * <p>
+ * Entries that are already compressed (PNG, OGG, ...) are stored as is, as
+ * is anything that deflate does not make smaller.
+ */
+public class PK3Output implements ArchiveOutput {
+
+	/**
+	 * The extensions of formats that are already compressed.
+	 */
+	private static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"png", "jpg", "jpeg", "ogg", "mp3", "flac", "opus", "zip", "pk3", "pk7", "7z", "gz"));
+
+	/**
+	 * How many entries each worker may be ahead of the writer.
+	 */
+	private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 4;
+
+	/**
+	 * The zip version needed to extract deflated entries (2.0).
+	 */
+	private static final int ZIP_VERSION = 20;
+
+	/**
+	 * The most entries the 16 bit counts of a zip without zip64 can hold.
+	 */
+	private static final int MAX_ENTRIES = 0xFFFF;
+
+	/**
+	 * The channel to write to.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The deflate level.
+	 */
+	private final int compressionLevel;
+
+	/**
+	 * The number of compression threads.
+	 */
+	private final int threadCount;
+
+	/**
+	 * The compression threads.
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * Every deflater created by a worker, so they can be ended.
+	 */
+	private final List<Deflater> createdDeflaters;
+
+	/**
+	 * The deflater of each worker thread.
+	 */
+	private final ThreadLocal<Deflater> deflaters;
+
+	/**
+	 * The entries that are being compressed, in the order they were added.
+	 */
+	private final ArrayDeque<Future<CompressedEntry>> pending;
+
+	/**
+	 * The central directory entries written so far.
+	 */
+	private ByteBuffer directory;
+
+	/**
+	 * The number of entries written.
+	 */
+	private int entryCount;
+
+	/**
+	 * The position the next entry is written at.
+	 */
+	private long position;
+
+	/**
+	 * The modification time of every entry in DOS format.
+	 */
+	private final int dosTime;
+
+	/**
+	 * When writing started, for the throughput log.
+	 */
+	private final long startTime;
+
+	/**
+	 * The total size of the entries before compression.
+	 */
+	private long uncompressedBytes;
+
+	/**
+	 * If finish() or close() was called.
+	 */
+	private boolean finished;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(PK3Output.class.getName());
+
+	/**
+	 * Starts writing a PK3 at the start of a channel.
+	 * 
+	 * @param channel
+	 * 		The channel to write to. It is not closed by this object.
+	 * 
+	 * @param compressionLevel
+	 * 		The deflate level from 0 to 9, or -1 for the default.
+	 * 
+	 * @param threadCount
+	 * 		The number of compression threads.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the channel is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the level or thread count is invalid.
+	 */
+	public PK3Output(FileChannel channel, int compressionLevel, int threadCount) {
+		if (channel == null)
+			throw new NullPointerException("Provided a null channel to PK3Output.");
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		if (threadCount < 1)
+			throw new IllegalArgumentException("PK3Output needs at least one thread.");
+		this.channel = channel;
+		this.compressionLevel = compressionLevel;
+		this.threadCount = threadCount;
+		this.workers = Executors.newFixedThreadPool(threadCount, runnable -> {
+			Thread thread = new Thread(runnable, "PK3 compressor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.createdDeflaters = new CopyOnWriteArrayList<>();
+		this.deflaters = ThreadLocal.withInitial(() -> {
+			Deflater deflater = new Deflater(compressionLevel, true);
+			this.createdDeflaters.add(deflater);
+			return deflater;
+		});
+		this.pending = new ArrayDeque<>();
+		this.directory = ByteBuffer.allocate(64 * (PK3File.DIRECTORY_ENTRY_SIZE + 32)).order(ByteOrder.LITTLE_ENDIAN);
+		this.dosTime = toDosTime(System.currentTimeMillis());
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Checks if an entry should be stored rather than deflated based on its
+	 * extension.
+	 * 
+	 * @param path
+	 * 		The entry path.
+	 * 
+	 * @return
+	 * 		True if the format is already compressed.
+	 */
+	public static boolean isPrecompressed(String path) {
+		int dot = path.lastIndexOf('.');
+		return dot > path.lastIndexOf('/') && STORED_EXTENSIONS.contains(path.substring(dot + 1).toLowerCase());
+	}
+
+	/**
+	 * Queues an entry for compression. If too many entries are in flight, the
+	 * oldest one is waited for and written first.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the PK3 was already finished.
+	 */
+	@Override
+	public void add(String name, ByteBuffer data) throws IOException {
+		if (this.finished)
+			throw new IllegalStateException("Attempted to add an entry to a finished PK3.");
+		if (this.entryCount + this.pending.size() + 1 > MAX_ENTRIES)
+			throw new IOException("PK3 has more entries than a zip without zip64 can hold.");
+		ByteBuffer entryData = data.duplicate();
+		this.pending.add(this.workers.submit(() -> compress(name, entryData, this.deflaters.get())));
+		if (this.pending.size() >= this.threadCount * ENTRIES_IN_FLIGHT_PER_THREAD)
+			writeNext();
+	}
+
+	/**
+	 * Waits for the oldest pending entry and writes it.
+	 * 
+	 * @throws IOException
+	 * 		If compressing or writing fails.
+	 */
+	private void writeNext() throws IOException {
+		CompressedEntry entry;
+		try {
+			entry = this.pending.poll().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing a PK3.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to compress a PK3 entry.", e.getCause());
+		}
+		long localHeaderOffset = this.position;
+		this.position += writeLocalHeader(this.channel, entry, this.dosTime, this.position);
+		this.position += WadWriter.writeFully(this.channel, entry.output, this.position);
+		if (this.position > 0xFFFFFFFFL)
+			throw new IOException("PK3 is larger than a zip without zip64 can hold.");
+		this.uncompressedBytes += entry.size;
+		addDirectoryEntry(entry, localHeaderOffset);
+		this.entryCount++;
+	}
+
+	@Override
+	public long finish() throws IOException {
+		if (this.finished)
+			throw new IllegalStateException("Attempted to finish a PK3 twice.");
+		try {
+			while (!this.pending.isEmpty())
+				writeNext();
+		} finally {
+			close();
+		}
+
+		long directoryOffset = this.position;
+		this.directory.flip();
+		this.position += WadWriter.writeFully(this.channel, this.directory, this.position);
+		ByteBuffer end = ByteBuffer.allocate(PK3File.END_OF_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(PK3File.END_OF_DIRECTORY_SIGNATURE).putShort((short)0).putShort((short)0);
+		end.putShort((short)this.entryCount).putShort((short)this.entryCount);
+		end.putInt((int)(this.position - directoryOffset)).putInt((int)directoryOffset).putShort((short)0);
+		end.flip();
+		this.position += WadWriter.writeFully(this.channel, end, this.position);
+		this.channel.truncate(this.position);
+
+		double seconds = (System.nanoTime() - this.startTime) / 1e9;
+		log.log(Level.FINE, String.format("Wrote %d entries (%d -> %d bytes) with %d threads at level %d in %.2fs, %.1f MB/s",
+				this.entryCount, this.uncompressedBytes, this.position, this.threadCount, this.compressionLevel, seconds,
+				this.uncompressedBytes / 1048576.0 / Math.max(seconds, 1e-9)));
+		return this.position;
+	}
+
+	/**
+	 * Stops the compression threads. Entries that were not written yet are
+	 * dropped. This does not close the channel.
+	 */
+	@Override
+	public void close() {
+		if (this.finished && this.workers.isShutdown())
+			return;
+		this.finished = true;
+		for (Future<CompressedEntry> future : this.pending)
+			future.cancel(true);
+		this.pending.clear();
+		// The deflaters can only be ended once no worker is using them anymore.
+		this.workers.shutdownNow();
+		try {
+			if (!this.workers.awaitTermination(1, TimeUnit.MINUTES))
+				log.log(Level.WARNING, "Compression threads did not stop, ending their deflaters anyway");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Deflater deflater : this.createdDeflaters)
+				deflater.end();
+			this.createdDeflaters.clear();
+		}
+	}
+
+	/**
+	 * Compresses one entry. This runs on a worker thread.
+	 * 
+	 * @param path
+	 * 		The entry path.
+	 * 
+	 * @param input
+	 * 		The uncompressed entry data.
+	 * 
+	 * @param deflater
+	 * 		The deflater of the worker thread.
+	 * 
+	 * @return
+	 * 		The compressed entry.
+	 */
+	private CompressedEntry compress(String path, ByteBuffer input, Deflater deflater) {
+		CompressedEntry entry = new CompressedEntry();
+		entry.path = path.getBytes(StandardCharsets.UTF_8);
+		entry.size = input.remaining();
+
+		CRC32 crc = new CRC32();
+		crc.update(input.duplicate());
+		entry.crc = (int)crc.getValue();
+
+		entry.method = PK3Entry.METHOD_STORED;
+		entry.output = input;
+		if (this.compressionLevel == Deflater.NO_COMPRESSION || entry.size == 0 || isPrecompressed(path))
+			return entry;
+
+		byte[] source;
+		int sourceOffset;
+		if (input.hasArray()) {
+			source = input.array();
+			sourceOffset = input.arrayOffset() + input.position();
+		} else {
+			source = new byte[entry.size];
+			input.duplicate().get(source);
+			sourceOffset = 0;
+		}
+		deflater.reset();
+		deflater.setInput(source, sourceOffset, entry.size);
+		deflater.finish();
+		// Anything that does not shrink is stored, so the output never needs to grow past the input size.
+		byte[] compressed = new byte[entry.size];
+		int length = 0;
+		while (!deflater.finished() && length < compressed.length)
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		if (deflater.finished() && length < entry.size) {
+			entry.method = PK3Entry.METHOD_DEFLATED;
+			entry.output = ByteBuffer.wrap(compressed, 0, length);
+		}
+		return entry;
+	}
+
+	/**
+	 * Writes the local file header of an entry.
+	 * 
+	 * @param channel
+	 * 		The channel to write to.
+	 * 
+	 * @param entry
+	 * 		The entry.
+	 * 
+	 * @param dosTime
+	 * 		The modification time in DOS format.
+	 * 
+	 * @param position
+	 * 		The position to write at.
+	 * 
+	 * @return
+	 * 		The number of bytes written.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	private static int writeLocalHeader(FileChannel channel, CompressedEntry entry, int dosTime, long position) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(PK3File.LOCAL_HEADER_SIZE + entry.path.length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(PK3File.LOCAL_HEADER_SIGNATURE).putShort((short)ZIP_VERSION).putShort((short)0x0800);
+		header.putShort((short)entry.method).putInt(dosTime).putInt(entry.crc);
+		header.putInt(entry.output.remaining()).putInt(entry.size);
+		header.putShort((short)entry.path.length).putShort((short)0).put(entry.path);
+		header.flip();
+		entry.compressedSize = entry.output.remaining();
+		return WadWriter.writeFully(channel, header, position);
+	}
+
+	/**
+	 * Adds the central directory header of a written entry.
+	 * 
+	 * @param entry
+	 * 		The entry.
+	 * 
+	 * @param localHeaderOffset
+	 * 		Where the local header of the entry was written.
+	 */
+	private void addDirectoryEntry(CompressedEntry entry, long localHeaderOffset) {
+		int size = PK3File.DIRECTORY_ENTRY_SIZE + entry.path.length;
+		if (this.directory.remaining() < size) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(this.directory.capacity() * 2, this.directory.position() + size)).order(ByteOrder.LITTLE_ENDIAN);
+			this.directory.flip();
+			larger.put(this.directory);
+			this.directory = larger;
+		}
+		this.directory.putInt(PK3File.DIRECTORY_ENTRY_SIGNATURE).putShort((short)ZIP_VERSION).putShort((short)ZIP_VERSION);
+		this.directory.putShort((short)0x0800).putShort((short)entry.method).putInt(this.dosTime).putInt(entry.crc);
+		this.directory.putInt(entry.compressedSize).putInt(entry.size);
+		this.directory.putShort((short)entry.path.length).putShort((short)0).putShort((short)0);
+		this.directory.putShort((short)0).putShort((short)0).putInt(0).putInt((int)localHeaderOffset);
+		this.directory.put(entry.path);
+	}
+
+	/**
+	 * Converts a time to the packed DOS date and time used by zip files.
+	 * 
+	 * @param millis
+	 * 		The time in milliseconds.
+	 * 
+	 * @return
+	 * 		The date in the upper 16 bits and the time in the lower 16 bits.
+	 */
+	private static int toDosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		int year = Math.max(1980, calendar.get(Calendar.YEAR));
+		return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+				| (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * An entry that is ready to be written.
+	 */
+	private static class CompressedEntry {
+
+		/**
+		 * The UTF-8 path.
+		 */
+		private byte[] path;
+
+		/**
+		 * The uncompressed size.
+		 */
+		private int size;
+
+		/**
+		 * The size of the written data.
+		 */
+		private int compressedSize;
+
+		/**
+		 * The CRC32 of the uncompressed data.
+		 */
+		private int crc;
+
+		/**
+		 * The zip method.
+		 */
+		private int method;
+
+		/**
+		 * The data to write. This is dropped once written.
+		 */
+		private ByteBuffer output;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Builds a PK3 file out of named data buffers. The buffers are only
+ * referenced until write() is called, and are then compressed on multiple
+ * threads by a PK3Output.
+ */
+public class PK3Writer {
+
+	/**
+	 * The paths of the entries to write, in order.
+	 */
+	private final List<String> paths;
+
+	/**
+	 * The data of the entries to write, in order.
+	 */
+	private final List<ByteBuffer> data;
+
+	/**
+	 * The deflate level, from Deflater.NO_COMPRESSION to BEST_COMPRESSION.
+	 */
+	private int compressionLevel;
+
+	/**
+	 * The number of compression threads.
+	 */
+	private int threadCount;
+
+	/**
+	 * Creates a writer that uses the default compression level and one thread
+	 * per processor.
+	 */
+	public PK3Writer() {
+		this.paths = new ArrayList<>();
+		this.data = new ArrayList<>();
+		this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
+		this.threadCount = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Sets the trade-off between speed and size.
+	 * 
+	 * @param compressionLevel
+	 * 		0 to store everything, 1 for the fastest compression up to 9 for
+	 * 		the smallest output, or -1 for the deflate default.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the level is out of range.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Sets how many threads compress entries.
+	 * 
+	 * @param threadCount
+	 * 		The number of threads, at least 1.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the count is less than 1.
+	 */
+	public void setThreadCount(int threadCount) {
+		if (threadCount < 1)
+			throw new IllegalArgumentException("PK3Writer needs at least one thread.");
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Queues an entry to be written.
+	 * 
+	 * @param path
+	 * 		The full path of the entry in the archive, using forward slashes.
+	 * 
+	 * @param entryData
+	 * 		The uncompressed data from its position to its limit. This is not
+	 * 		copied, so it must not be changed until the PK3 is written.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 */
+	public void addEntry(String path, ByteBuffer entryData) {
+		if (path == null || entryData == null)
+			throw new NullPointerException("Provided a null path or data to PK3Writer.");
+		this.paths.add(path);
+		this.data.add(entryData.duplicate());
+	}
+
+	/**
+	 * Gets how many entries are queued.
+	 * 
+	 * @return
+	 * 		The number of entries.
+	 */
+	public int getEntryCount() {
+		return this.paths.size();
+	}
+
+	/**
+	 * Writes the PK3 to a file, replacing it if it exists. The file is only
+	 * replaced once the new version is complete, see AtomicSave.
+	 * 
+	 * @param filePath
+	 * 		The path to write to.
+	 * 
+	 * @return
+	 * 		The size of the written file in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If writing or compressing fails.
+	 */
+	public long write(String filePath) throws IOException {
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath)) {
+			long size = write(save.getChannel());
+			save.commit();
+			return size;
+		}
+	}
+
+	/**
+	 * Writes the PK3 to the start of a channel.
+	 * 
+	 * @param channel
+	 * 		The channel to write to. It is not closed.
+	 * 
+	 * @return
+	 * 		The number of bytes written.
+	 * 
+	 * @throws IOException
+	 * 		If writing or compressing fails.
+	 */
+	public long write(FileChannel channel) throws IOException {
+		try (PK3Output output = new PK3Output(channel, this.compressionLevel, this.threadCount)) {
+			for (int i = 0; i < this.paths.size(); i++)
+				output.add(this.paths.get(i), this.data.get(i));
+			return output.finish();
+		}
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.util.RuntimeArgsContainer;
+
+/**
+ * Keeps track of saves that are in progress so that a save cut off by a crash
+ * can be cleaned up on the next start. Every save writes a small marker file
+ * to the journal folder naming the file being saved and the temporary file
+ * the new version is written to, and removes it once the temporary file has
+ * replaced the real one.
+ * 
+ * Since the real file is only ever replaced by an atomic move of a complete
+ * temporary file, a marker left behind always means the real file is still
+ * the version from before the save, and recovery only has to delete the
+ * temporary file. The marker itself is not forced to disk, as losing it only
+ * leaves a stray temporary file next to the saved file.
+ * 
+ * Several instances of the program may share the journal folder, so a marker
+ * is locked for as long as its save runs. Recovery skips markers it cannot
+ * lock, since their save is still going on in another instance. A marker is
+ * written and locked under a name recovery does not look at, and only then
+ * given its real name, so recovery never sees a marker before it is locked.
+ */
+public class SaveJournal {
+
+	/**
+	 * The first line of every marker file.
+	 */
+	private static final String MARKER_HEADER = "DoomManager save 1";
+
+	/**
+	 * The extension of marker files.
+	 */
+	private static final String MARKER_EXTENSION = ".save";
+
+	/**
+	 * The extension of markers that are still being written.
+	 */
+	private static final String NEW_MARKER_EXTENSION = ".new";
+
+	/**
+	 * The extension of temporary save files.
+	 */
+	public static final String TEMPORARY_EXTENSION = ".saving";
+
+	/**
+	 * The journal in the default location, created on first use.
+	 */
+	private static SaveJournal defaultJournal;
+
+	/**
+	 * The folder the markers are kept in.
+	 */
+	private final Path directory;
+
+	/**
+	 * The open channels of the markers of saves in progress, which hold
+	 * their locks.
+	 */
+	private final Map<Path, FileChannel> lockedMarkers;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SaveJournal.class.getName());
+
+	/**
+	 * Creates a journal that keeps its markers in a folder. The folder is
+	 * created when the first save starts.
+	 * 
+	 * @param directory
+	 * 		The folder for the markers.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the folder is null.
+	 */
+	public SaveJournal(String directory) {
+		if (directory == null) {
+			NullPointerException e = new NullPointerException("Provided a null directory to SaveJournal.");
+			log.log(Level.SEVERE, "SaveJournal directory is null", e);
+			throw e;
+		}
+		this.directory = Paths.get(directory);
+		this.lockedMarkers = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Gets the journal in the location from the runtime arguments.
+	 * 
+	 * @return
+	 * 		The default journal.
+	 */
+	public static synchronized SaveJournal getDefault() {
+		if (defaultJournal == null)
+			defaultJournal = new SaveJournal(RuntimeArgsContainer.getSaveJournalLocation());
+		return defaultJournal;
+	}
+
+	/**
+	 * Starts saving a file. The new version is written to the channel of the
+	 * returned save, and only replaces the file when the save is committed.
+	 * If the marker cannot be written the save still goes ahead, it just
+	 * cannot be cleaned up after a crash.
+	 * 
+	 * @param filePath
+	 * 		The file to save.
+	 * 
+	 * @return
+	 * 		The save in progress.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the path is null.
+	 * 
+	 * @throws IOException
+	 * 		If the temporary file cannot be created.
+	 */
+	public AtomicSave begin(String filePath) throws IOException {
+		if (filePath == null) {
+			NullPointerException e = new NullPointerException("Provided a null file path to SaveJournal.");
+			log.log(Level.SEVERE, "SaveJournal file path is null", e);
+			throw e;
+		}
+		Path target = Paths.get(filePath).toAbsolutePath().normalize();
+		// The temporary file must be in the same folder for the move to be atomic.
+		Path temporary = target.resolveSibling("." + target.getFileName() + "."
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + TEMPORARY_EXTENSION);
+
+		// The marker goes first, so there is never a temporary file without one.
+		Path marker = null;
+		try {
+			marker = writeMarker(target, temporary);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to write a save marker to " + this.directory + ", saving without one", e);
+		}
+		try {
+			return new AtomicSave(this, target, temporary, marker);
+		} catch (IOException e) {
+			deleteMarker(marker);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes and locks the marker of a save. The lock is held until the
+	 * marker is deleted.
+	 * 
+	 * @param target
+	 * 		The file being saved.
+	 * 
+	 * @param temporary
+	 * 		The temporary file the new version is written to.
+	 * 
+	 * @return
+	 * 		The marker.
+	 * 
+	 * @throws IOException
+	 * 		If the marker cannot be written or locked.
+	 */
+	private Path writeMarker(Path target, Path temporary) throws IOException {
+		Files.createDirectories(this.directory);
+		Path newMarker = Files.createTempFile(this.directory, "save", NEW_MARKER_EXTENSION);
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(newMarker, StandardOpenOption.WRITE);
+			if (channel.tryLock() == null)
+				throw new IOException("The new save marker " + newMarker + " is locked by another program.");
+			String separator = System.lineSeparator();
+			String content = MARKER_HEADER + separator + target + separator + temporary + separator;
+			ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			String name = newMarker.getFileName().toString();
+			Path marker = newMarker.resolveSibling(name.substring(0, name.length() - NEW_MARKER_EXTENSION.length()) + MARKER_EXTENSION);
+			Files.move(newMarker, marker);
+			this.lockedMarkers.put(marker, channel);
+			return marker;
+		} catch (IOException | RuntimeException e) {
+			if (channel != null)
+				closeQuietly(channel);
+			Files.deleteIfExists(newMarker);
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes a marker channel, which releases its lock.
+	 * 
+	 * @param channel
+	 * 		The channel.
+	 */
+	private static void closeQuietly(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to close a save marker", e);
+		}
+	}
+
+	/**
+	 * Unlocks and removes the marker of a save that is over.
+	 * 
+	 * @param marker
+	 * 		The marker, or null if there is none.
+	 */
+	void deleteMarker(Path marker) {
+		if (marker == null)
+			return;
+		FileChannel channel = this.lockedMarkers.remove(marker);
+		if (channel != null)
+			closeQuietly(channel);
+		try {
+			Files.deleteIfExists(marker);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to remove the save marker " + marker, e);
+		}
+	}
+
+	/**
+	 * Cleans up after saves that were cut off, which should be done once when
+	 * the program starts and before any save. The files that were being saved
+	 * are left as they were before those saves. Markers that are locked belong
+	 * to saves still running in another instance and are left alone.
+	 * 
+	 * @return
+	 * 		The paths of the files whose save was cut off after it started
+	 * 		writing, so the user can be told the changes were not saved.
+	 */
+	public List<String> recover() {
+		List<String> interrupted = new ArrayList<>();
+		if (!Files.isDirectory(this.directory))
+			return interrupted;
+		try (DirectoryStream<Path> markers = Files.newDirectoryStream(this.directory, "*{" + MARKER_EXTENSION + "," + NEW_MARKER_EXTENSION + "}")) {
+			for (Path marker : markers) {
+				try (FileChannel channel = FileChannel.open(marker, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					if (!tryLock(channel)) {
+						log.log(Level.FINE, "Skipping the save marker " + marker + " of a save that is still running");
+						continue;
+					}
+					// Markers that were never renamed were cut off before their temporary file was made.
+					if (marker.getFileName().toString().endsWith(MARKER_EXTENSION))
+						recoverMarker(marker, channel, interrupted);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Unable to recover the save in " + marker, e);
+				}
+				deleteMarker(marker);
+			}
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to read the save journal in " + this.directory, e);
+		}
+		return interrupted;
+	}
+
+	/**
+	 * Tries to lock a marker.
+	 * 
+	 * @param channel
+	 * 		The channel of the marker.
+	 * 
+	 * @return
+	 * 		False if the marker is locked by a running save, in this or another
+	 * 		instance.
+	 * 
+	 * @throws IOException
+	 * 		If locking fails.
+	 */
+	private static boolean tryLock(FileChannel channel) throws IOException {
+		try {
+			FileLock lock = channel.tryLock();
+			return lock != null;
+		} catch (OverlappingFileLockException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes the temporary file of a save that was cut off.
+	 * 
+	 * @param marker
+	 * 		The marker of the save.
+	 * 
+	 * @param channel
+	 * 		The locked channel of the marker. Its content is read through the
+	 * 		channel, since some systems do not let other handles read a locked
+	 * 		file.
+	 * 
+	 * @param interrupted
+	 * 		Where the path of the saved file goes if a temporary file was left.
+	 * 
+	 * @throws IOException
+	 * 		If the marker cannot be read or the temporary file deleted.
+	 */
+	private static void recoverMarker(Path marker, FileChannel channel, List<String> interrupted) throws IOException {
+		BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+		String header = reader.readLine();
+		String target = reader.readLine();
+		String temporaryPath = reader.readLine();
+		if (!MARKER_HEADER.equals(header) || target == null || temporaryPath == null) {
+			log.log(Level.WARNING, "Removing damaged save marker " + marker);
+			return;
+		}
+		Path temporary = Paths.get(temporaryPath);
+		if (temporary.getFileName().toString().endsWith(TEMPORARY_EXTENSION) && Files.deleteIfExists(temporary)) {
+			log.log(Level.WARNING, "A save of " + target + " was cut off, the file was left as it was before the save");
+			interrupted.add(target);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.doommanager.editor.CorruptionType;
+import org.doommanager.util.ByteHandler;
+
+/**
+ * A wad file that is memory mapped on load. Only the directory is parsed, the
+ * lump data is handed out as views into the mapping so nothing is copied onto
+ * the heap until a caller asks for it.
+ */
+public class WadFile extends MappedFile {
+
+	/**
+	 * The size of the wad header in bytes.
+	 */
+	public static final int HEADER_SIZE = 12;
+
+	/**
+	 * The size of a single directory entry in bytes.
+	 */
+	public static final int DIRECTORY_ENTRY_SIZE = 16;
+
+	/**
+	 * True if this is an IWAD, false if it is a PWAD.
+	 */
+	private boolean iwad;
+
+	/**
+	 * Opens and maps a wad file, then reads its directory.
+	 * 
+	 * @param filePath
+	 * 		The path to the wad.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the path is null.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened or mapped.
+	 */
+	public WadFile(String filePath) throws IOException {
+		super(filePath);
+		readDirectory();
+	}
+
+	/**
+	 * Opens and maps a wad file with a directory that was read before, so
+	 * that the directory does not have to be parsed again.
+	 * 
+	 * @param filePath
+	 * 		The path to the wad.
+	 * 
+	 * @param iwad
+	 * 		If the wad is an IWAD.
+	 * 
+	 * @param lumps
+	 * 		The lumps of the wad.
+	 * 
+	 * @param corruptionType
+	 * 		The corruption that was found when the directory was read.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be opened or mapped.
+	 */
+	WadFile(String filePath, boolean iwad, List<Lump> lumps, CorruptionType corruptionType) throws IOException {
+		super(filePath);
+		this.iwad = iwad;
+		setLumps(lumps);
+		markCorrupt(corruptionType);
+	}
+
+	/**
+	 * Reads the header and the directory from the mapping. If anything is out
+	 * of bounds the corruption type is set and only the valid lumps are kept.
+	 */
+	private void readDirectory() {
+		int fileSize = getMappedSize();
+		if (fileSize < HEADER_SIZE) {
+			markCorrupt(CorruptionType.BAD_HEADER);
+			return;
+		}
+
+		ByteHandler headerHandler = new ByteHandler(getMappedRange(0, HEADER_SIZE), ByteOrder.LITTLE_ENDIAN);
+		String magic = headerHandler.getString(4);
+		if (magic.equals("IWAD")) {
+			this.iwad = true;
+		} else if (!magic.equals("PWAD")) {
+			markCorrupt(CorruptionType.BAD_HEADER);
+			return;
+		}
+		headerHandler.setMarkerLocation(4);
+		long numLumps = headerHandler.getIntUnsigned();
+		long directoryOffset = headerHandler.getIntUnsigned();
+
+		long directoryEnd = directoryOffset + numLumps * DIRECTORY_ENTRY_SIZE;
+		if (directoryEnd > fileSize) {
+			markCorrupt(CorruptionType.DIRECTORY_OUT_OF_BOUNDS);
+			if (directoryOffset > fileSize)
+				return;
+			numLumps = (fileSize - directoryOffset) / DIRECTORY_ENTRY_SIZE;
+		}
+
+		ByteHandler handler = new ByteHandler(getMappedRange(directoryOffset, (int)numLumps * DIRECTORY_ENTRY_SIZE), ByteOrder.LITTLE_ENDIAN);
+
+		List<Lump> readLumps = new ArrayList<>((int)numLumps);
+		for (int i = 0; i < numLumps; i++) {
+			long offset = handler.getIntUnsigned();
+			long size = handler.getIntUnsigned();
+			String name = handler.getStringWithNoNull(8);
+			handler.setMarkerLocation(handler.getMarkerLocation() + 8);
+			if (offset + size > fileSize) {
+				markCorrupt(CorruptionType.LUMP_OUT_OF_BOUNDS);
+				continue;
+			}
+			readLumps.add(new Lump(readLumps.size(), name, offset, (int)size));
+		}
+		setLumps(readLumps);
+	}
+
+	/**
+	 * Checks if this is an IWAD.
+	 * 
+	 * @return
+	 * 		True if the header is IWAD, false if it is a PWAD.
+	 */
+	public boolean isIwad() {
+		return this.iwad;
+	}
+
+	@Override
+	public ByteBuffer getLumpData(Lump lump) {
+		checkOwnership(lump);
+		return getMappedRange(lump.getOffset(), lump.getSize());
+	}
+}
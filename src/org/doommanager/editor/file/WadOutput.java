@@ -0,0 +1,294 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a wad to a channel as lumps are added. The lump data goes straight
+ * to the channel and only the directory is kept in memory.
+ * <p>
+ * When identical data sharing is on, a lump whose hash matches an earlier
+ * lump is compared against the bytes already written to the channel, so no
+ * lump data has to be kept around for the comparison.
+ */
+public class WadOutput implements ArchiveOutput {
+
+	/**
+	 * The channel to write to.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * If an IWAD header should be written.
+	 */
+	private final boolean iwad;
+
+	/**
+	 * If lumps with identical data should share one data offset.
+	 */
+	private final boolean shareIdenticalData;
+
+	/**
+	 * The directory entries written so far.
+	 */
+	private ByteBuffer directory;
+
+	/**
+	 * The number of lumps added.
+	 */
+	private int lumpCount;
+
+	/**
+	 * The position the next lump data is written at.
+	 */
+	private long position;
+
+	/**
+	 * The offsets of written lumps by content hash, for sharing.
+	 */
+	private final Map<Long, List<Integer>> written;
+
+	/**
+	 * The number of bytes saved by sharing.
+	 */
+	private long sharedBytes;
+
+	/**
+	 * If finish() was called.
+	 */
+	private boolean finished;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(WadOutput.class.getName());
+
+	/**
+	 * Starts writing a wad at the start of a channel.
+	 * 
+	 * @param channel
+	 * 		The channel to write to. It must be readable as well if data is
+	 * 		shared. It is not closed by this object.
+	 * 
+	 * @param iwad
+	 * 		True for an IWAD, false for a PWAD.
+	 * 
+	 * @param shareIdenticalData
+	 * 		If lumps with identical data should share one data offset.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the channel is null.
+	 */
+	public WadOutput(FileChannel channel, boolean iwad, boolean shareIdenticalData) {
+		if (channel == null)
+			throw new NullPointerException("Provided a null channel to WadOutput.");
+		this.channel = channel;
+		this.iwad = iwad;
+		this.shareIdenticalData = shareIdenticalData;
+		this.directory = ByteBuffer.allocate(64 * WadFile.DIRECTORY_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.position = WadFile.HEADER_SIZE;
+		this.written = new HashMap<>();
+	}
+
+	/**
+	 * Adds a lump, writing its data immediately.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the name is longer than 8 characters.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the wad was already finished.
+	 */
+	@Override
+	public void add(String name, ByteBuffer data) throws IOException {
+		checkName(name);
+		int size = data.remaining();
+		int offset = this.shareIdenticalData && size > 0 ? findWritten(data) : -1;
+		if (offset >= 0) {
+			this.sharedBytes += size;
+		} else {
+			if (this.position + size > Integer.MAX_VALUE)
+				throw new IOException("Wad data exceeds the maximum wad size.");
+			offset = (int)this.position;
+			this.position += WadWriter.writeFully(this.channel, data.duplicate(), this.position);
+		}
+		addEntry(name, offset, size);
+	}
+
+	/**
+	 * Adds a lump whose data is copied straight from another channel with
+	 * transferTo, so it never passes through the heap. On most systems the
+	 * copy is done by the kernel. Lumps added this way are never shared with
+	 * identical data, since that would mean reading them.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @param source
+	 * 		The channel to copy from. Its position is not changed, so it can
+	 * 		be shared with other threads.
+	 * 
+	 * @param offset
+	 * 		The offset of the lump data in the source.
+	 * 
+	 * @param size
+	 * 		The size of the lump data.
+	 * 
+	 * @throws IOException
+	 * 		If the source ends early or writing fails.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the name is longer than 8 characters.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the wad was already finished.
+	 */
+	public void addFrom(String name, FileChannel source, long offset, int size) throws IOException {
+		checkName(name);
+		if (this.position + size > Integer.MAX_VALUE)
+			throw new IOException("Wad data exceeds the maximum wad size.");
+		int lumpOffset = (int)this.position;
+		this.channel.position(this.position);
+		long copied = 0;
+		while (copied < size) {
+			long transferred = source.transferTo(offset + copied, size - copied, this.channel);
+			if (transferred <= 0)
+				throw new IOException("Source ended before all " + size + " bytes of " + name + " were copied.");
+			copied += transferred;
+		}
+		this.position += size;
+		addEntry(name, lumpOffset, size);
+	}
+
+	/**
+	 * Checks that a lump can be added.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the name is longer than 8 characters.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the wad was already finished.
+	 */
+	private void checkName(String name) {
+		if (this.finished)
+			throw new IllegalStateException("Attempted to add a lump to a finished wad.");
+		if (name.length() > 8)
+			throw new IllegalArgumentException("Lump name is longer than 8 characters: " + name);
+	}
+
+	/**
+	 * Adds a directory entry.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @param offset
+	 * 		The offset of the lump data.
+	 * 
+	 * @param size
+	 * 		The size of the lump data.
+	 */
+	private void addEntry(String name, int offset, int size) {
+		if (this.directory.remaining() < WadFile.DIRECTORY_ENTRY_SIZE) {
+			ByteBuffer larger = ByteBuffer.allocate(this.directory.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+			this.directory.flip();
+			larger.put(this.directory);
+			this.directory = larger;
+		}
+		this.directory.putInt(offset);
+		this.directory.putInt(size);
+		byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+		this.directory.put(nameBytes);
+		for (int pad = nameBytes.length; pad < 8; pad++)
+			this.directory.put((byte)0);
+		this.lumpCount++;
+	}
+
+	/**
+	 * Looks for data identical to a lump that was already written, and
+	 * remembers the lump as written at the current position if there is none.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @return
+	 * 		The offset of the identical data, or -1 if there is none.
+	 * 
+	 * @throws IOException
+	 * 		If reading back the written data fails.
+	 */
+	private int findWritten(ByteBuffer data) throws IOException {
+		List<Integer> candidates = this.written.computeIfAbsent(LumpHasher.hash(data), k -> new ArrayList<>(1));
+		ByteBuffer existing = candidates.isEmpty() ? null : ByteBuffer.allocate(data.remaining());
+		for (int candidate : candidates) {
+			existing.clear();
+			while (existing.hasRemaining() && this.channel.read(existing, candidate + existing.position()) >= 0);
+			existing.flip();
+			if (existing.equals(data))
+				return candidate;
+		}
+		candidates.add((int)this.position);
+		return -1;
+	}
+
+	@Override
+	public long finish() throws IOException {
+		if (this.finished)
+			throw new IllegalStateException("Attempted to finish a wad twice.");
+		this.finished = true;
+
+		this.directory.flip();
+		long directoryOffset = this.position;
+		this.position += WadWriter.writeFully(this.channel, this.directory, this.position);
+
+		ByteBuffer header = ByteBuffer.allocate(WadFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put((this.iwad ? "IWAD" : "PWAD").getBytes(StandardCharsets.US_ASCII));
+		header.putInt(this.lumpCount);
+		header.putInt((int)directoryOffset);
+		header.flip();
+		WadWriter.writeFully(this.channel, header, 0);
+		this.channel.truncate(this.position);
+
+		log.log(Level.FINE, "Wrote " + this.lumpCount + " lumps (" + this.position + " bytes, " + this.sharedBytes + " bytes shared)");
+		return this.position;
+	}
+
+	/**
+	 * Drops the directory. This does not close the channel.
+	 */
+	@Override
+	public void close() {
+		this.finished = true;
+		this.directory = null;
+	}
+}
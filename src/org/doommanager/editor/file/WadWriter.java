@@ -0,0 +1,246 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds a wad file out of named data buffers. The buffers are only
+ * referenced until write() is called, so lumps can be added straight from the
+ * mapped data of another DoomFile without copying them.
+ */
+public class WadWriter {
+
+	/**
+	 * The names of the lumps to write, in order.
+	 */
+	private final List<String> names;
+
+	/**
+	 * The data of the lumps to write, in order.
+	 */
+	private final List<ByteBuffer> data;
+
+	/**
+	 * If the output should be an IWAD instead of a PWAD.
+	 */
+	private boolean iwad;
+
+	/**
+	 * If lumps with identical contents should point at one copy of the data.
+	 */
+	private boolean shareIdenticalData;
+
+	/**
+	 * Creates an empty PWAD writer.
+	 */
+	public WadWriter() {
+		this.names = new ArrayList<>();
+		this.data = new ArrayList<>();
+		this.iwad = false;
+		this.shareIdenticalData = false;
+	}
+
+	/**
+	 * Creates a writer that has every lump of the provided file queued.
+	 * 
+	 * @param file
+	 * 		The file to copy the lumps from.
+	 * 
+	 * @return
+	 * 		A writer with the lumps of the file.
+	 */
+	public static WadWriter fromFile(DoomFile file) {
+		WadWriter writer = new WadWriter();
+		if (file instanceof WadFile)
+			writer.setIwad(((WadFile)file).isIwad());
+		for (Lump lump : file.getLumps())
+			writer.addLump(lump.getName(), file.getLumpData(lump));
+		return writer;
+	}
+
+	/**
+	 * Sets whether an IWAD or PWAD header is written.
+	 * 
+	 * @param iwad
+	 * 		True for IWAD, false for PWAD.
+	 */
+	public void setIwad(boolean iwad) {
+		this.iwad = iwad;
+	}
+
+	/**
+	 * Sets whether lumps with identical data should share one data offset.
+	 * Doom only ever reads lumps through the directory, so this is safe for
+	 * any port and can shrink wads with many repeated lumps considerably.
+	 * 
+	 * @param shareIdenticalData
+	 * 		True to deduplicate the data, false to write every lump.
+	 */
+	public void setShareIdenticalData(boolean shareIdenticalData) {
+		this.shareIdenticalData = shareIdenticalData;
+	}
+
+	/**
+	 * Queues a lump to be written.
+	 * 
+	 * @param name
+	 * 		The lump name, at most 8 characters.
+	 * 
+	 * @param lumpData
+	 * 		The data from its position to its limit. This is not copied, so it
+	 * 		must not be changed until the wad is written.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the name is longer than 8 characters.
+	 */
+	public void addLump(String name, ByteBuffer lumpData) {
+		if (name == null || lumpData == null)
+			throw new NullPointerException("Provided a null name or data to WadWriter.");
+		if (name.length() > 8)
+			throw new IllegalArgumentException("Lump name is longer than 8 characters: " + name);
+		this.names.add(name);
+		this.data.add(lumpData.duplicate());
+	}
+
+	/**
+	 * Gets how many lumps are queued.
+	 * 
+	 * @return
+	 * 		The number of lumps.
+	 */
+	public int getLumpCount() {
+		return this.names.size();
+	}
+
+	/**
+	 * Writes the wad to a file, replacing it if it exists. The file is only
+	 * replaced once the new version is complete, see AtomicSave.
+	 * 
+	 * @param filePath
+	 * 		The path to write to.
+	 * 
+	 * @return
+	 * 		The size of the written file in bytes.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	public long write(String filePath) throws IOException {
+		try (AtomicSave save = SaveJournal.getDefault().begin(filePath)) {
+			long size = write(save.getChannel());
+			save.commit();
+			return size;
+		}
+	}
+
+	/**
+	 * Writes the wad to the start of a channel.
+	 * 
+	 * @param channel
+	 * 		The channel to write to. It must also be readable if identical data
+	 * 		is shared. It is not closed.
+	 * 
+	 * @return
+	 * 		The number of bytes written.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	public long write(FileChannel channel) throws IOException {
+		try (WadOutput output = new WadOutput(channel, this.iwad, this.shareIdenticalData)) {
+			for (int i = 0; i < this.names.size(); i++)
+				output.add(this.names.get(i), this.data.get(i));
+			return output.finish();
+		}
+	}
+
+	/**
+	 * Builds the wad in memory instead of in a file, for small wads like the
+	 * map wads that are embedded in PK3s. Identical data is never shared.
+	 * 
+	 * @return
+	 * 		A little endian buffer holding the whole wad, positioned at zero.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the wad would not fit in a buffer.
+	 */
+	public ByteBuffer toByteBuffer() {
+		long size = WadFile.HEADER_SIZE + (long)this.names.size() * WadFile.DIRECTORY_ENTRY_SIZE;
+		for (ByteBuffer lumpData : this.data)
+			size += lumpData.remaining();
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalStateException("Wad is too large to be built in memory.");
+
+		ByteBuffer wad = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+		int directoryOffset = (int)size - this.names.size() * WadFile.DIRECTORY_ENTRY_SIZE;
+		wad.put((this.iwad ? "IWAD" : "PWAD").getBytes(StandardCharsets.US_ASCII));
+		wad.putInt(this.names.size());
+		wad.putInt(directoryOffset);
+		for (ByteBuffer lumpData : this.data)
+			wad.put(lumpData.duplicate());
+
+		int offset = WadFile.HEADER_SIZE;
+		for (int i = 0; i < this.names.size(); i++) {
+			int length = this.data.get(i).remaining();
+			wad.putInt(offset);
+			wad.putInt(length);
+			byte[] name = Arrays.copyOf(this.names.get(i).getBytes(StandardCharsets.US_ASCII), 8);
+			wad.put(name);
+			offset += length;
+		}
+		wad.flip();
+		return wad;
+	}
+
+	/**
+	 * Writes all of a buffer at a position of the channel.
+	 * 
+	 * @param channel
+	 * 		The channel to write to.
+	 * 
+	 * @param buffer
+	 * 		The buffer to write out completely.
+	 * 
+	 * @param position
+	 * 		The file position to write at.
+	 * 
+	 * @return
+	 * 		The number of bytes written.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int length = buffer.remaining();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+		return length;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.util.stream.IntStream;
+
+/**
+ * Maps colors to the closest palette index in constant time through a table
+ * of 32 by 32 by 32 cells, one for each color with 5 bits per component. Each
+ * cell holds the palette entry closest to the center of the cell, so a color
+ * can be off by at most 4 per component before it is looked up.
+ * 
+ * Building the table checks every palette entry for each of the 32768 cells,
+ * which takes a few milliseconds, so a table should be built once per palette
+ * and shared. It is never changed after it is built and is safe to use from
+ * any number of threads.
+ */
+public class ColorLookup {
+
+	/**
+	 * The number of bits of each component that the table uses.
+	 */
+	public static final int BITS = 5;
+
+	/**
+	 * The number of cells along each component.
+	 */
+	public static final int SIZE = 1 << BITS;
+
+	/**
+	 * The palette the table was built for.
+	 */
+	private final Palette palette;
+
+	/**
+	 * The palette index of each cell, indexed by red, green then blue.
+	 */
+	private final byte[] table;
+
+	/**
+	 * Builds the table for a palette. Each red slice is built in parallel.
+	 * 
+	 * @param palette
+	 * 		The palette.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the palette is null.
+	 */
+	public ColorLookup(Palette palette) {
+		if (palette == null)
+			throw new NullPointerException("Provided a null palette to ColorLookup.");
+		this.palette = palette;
+		this.table = new byte[SIZE * SIZE * SIZE];
+		int shift = 8 - BITS;
+		int center = 1 << (shift - 1);
+		IntStream.range(0, SIZE).parallel().forEach(r -> {
+			for (int g = 0; g < SIZE; g++)
+				for (int b = 0; b < SIZE; b++)
+					this.table[(r << (BITS * 2)) | (g << BITS) | b] = (byte)palette.findNearest((r << shift) | center,
+							(g << shift) | center, (b << shift) | center);
+		});
+	}
+
+	/**
+	 * Gets the palette the table was built for.
+	 * 
+	 * @return
+	 * 		The palette.
+	 */
+	public Palette getPalette() {
+		return this.palette;
+	}
+
+	/**
+	 * Looks up the closest palette index of a color.
+	 * 
+	 * @param red
+	 * 		The red component, 0 to 255.
+	 * 
+	 * @param green
+	 * 		The green component, 0 to 255.
+	 * 
+	 * @param blue
+	 * 		The blue component, 0 to 255.
+	 * 
+	 * @return
+	 * 		The palette index.
+	 */
+	public int lookup(int red, int green, int blue) {
+		return this.table[((red >> 3) << (BITS * 2)) | ((green >> 3) << BITS) | (blue >> 3)] & 0xFF;
+	}
+
+	/**
+	 * Looks up the closest palette index of a packed color.
+	 * 
+	 * @param rgb
+	 * 		The color as 0xRRGGBB. Anything above the low 24 bits is
+	 * 		ignored.
+	 * 
+	 * @return
+	 * 		The palette index.
+	 */
+	public int lookup(int rgb) {
+		return this.table[((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x3E0) | ((rgb >> 3) & 0x1F)] & 0xFF;
+	}
+}
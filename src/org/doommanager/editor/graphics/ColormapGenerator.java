@@ -0,0 +1,297 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.doommanager.editor.edit.ArchiveDocument;
+import org.doommanager.editor.edit.LumpData;
+import org.doommanager.editor.edit.LumpEntry;
+
+/**
+ * Builds the lookup lumps that depend on the palette: COLORMAP, translucency
+ * tables like Boom's TRANMAP and Heretic's TINTTAB, and the tinted palettes
+ * of a PLAYPAL. Every entry is an exact closest color search, done through a
+ * PaletteSearch, with the rows of each table built in parallel.
+ */
+public final class ColormapGenerator {
+
+	/**
+	 * The number of light levels in a COLORMAP.
+	 */
+	public static final int LIGHT_LEVELS = 32;
+
+	/**
+	 * The number of maps in a COLORMAP: the light levels, the
+	 * invulnerability map and an all black map.
+	 */
+	public static final int COLORMAP_COUNT = LIGHT_LEVELS + 2;
+
+	/**
+	 * The size of a COLORMAP lump.
+	 */
+	public static final int COLORMAP_SIZE = COLORMAP_COUNT * Palette.COLOR_COUNT;
+
+	/**
+	 * The size of a translucency table.
+	 */
+	public static final int TRANSLUCENCY_SIZE = Palette.COLOR_COUNT * Palette.COLOR_COUNT;
+
+	/**
+	 * The opacity Boom uses for TRANMAP by default.
+	 */
+	public static final double DEFAULT_OPACITY = 0.66;
+
+	/**
+	 * The number of palettes in a PLAYPAL lump.
+	 */
+	public static final int PLAYPAL_COUNT = 14;
+
+	/**
+	 * The number of red palettes used for pain and the berserk pack.
+	 */
+	private static final int RED_PALETTES = 8;
+
+	/**
+	 * The number of yellow palettes used when picking up items.
+	 */
+	private static final int YELLOW_PALETTES = 4;
+
+	/**
+	 * The color of the item pickup palettes.
+	 */
+	private static final int YELLOW_TINT = 0xD7BA45;
+
+	/**
+	 * This class only has static methods.
+	 */
+	private ColormapGenerator() {
+	}
+
+	/**
+	 * Builds a COLORMAP. Map 0 is full brightness and each of the 32 light
+	 * levels is 1/32 darker than the one before. Map 32 is the inverted
+	 * grayscale of the invulnerability sphere and map 33 is all the color
+	 * closest to black, which need not be index 0 in a custom palette.
+	 * 
+	 * @param palette
+	 * 		The palette.
+	 * 
+	 * @return
+	 * 		The COLORMAP lump data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the palette is null.
+	 */
+	public static byte[] createColormap(Palette palette) {
+		PaletteSearch search = createSearch(palette);
+		byte[] colormap = new byte[COLORMAP_SIZE];
+		IntStream.range(0, LIGHT_LEVELS + 1).parallel().forEach(map -> {
+			int offset = map * Palette.COLOR_COUNT;
+			for (int i = 0; i < Palette.COLOR_COUNT; i++) {
+				int rgb = palette.getRgb(i);
+				int red = rgb >> 16;
+				int green = (rgb >> 8) & 0xFF;
+				int blue = rgb & 0xFF;
+				if (map < LIGHT_LEVELS) {
+					int scale = LIGHT_LEVELS - map;
+					colormap[offset + i] = (byte)search.nearest((red * scale + LIGHT_LEVELS / 2) / LIGHT_LEVELS,
+							(green * scale + LIGHT_LEVELS / 2) / LIGHT_LEVELS, (blue * scale + LIGHT_LEVELS / 2) / LIGHT_LEVELS);
+				} else {
+					int gray = 255 - (red * 299 + green * 587 + blue * 114 + 500) / 1000;
+					colormap[offset + i] = (byte)search.nearest(gray, gray, gray);
+				}
+			}
+		});
+		// Custom palettes need not have black at index 0, so the last map uses their darkest color.
+		Arrays.fill(colormap, (COLORMAP_COUNT - 1) * Palette.COLOR_COUNT, COLORMAP_SIZE, (byte)search.nearest(0, 0, 0));
+		return colormap;
+	}
+
+	/**
+	 * Builds a translucency table. The entry for a foreground color drawn over
+	 * a background color is at background * 256 + foreground, which is the
+	 * layout of Boom's TRANMAP.
+	 * 
+	 * @param palette
+	 * 		The palette.
+	 * 
+	 * @param opacity
+	 * 		How much of the foreground color shows, from 0 to 1.
+	 * 
+	 * @return
+	 * 		The table data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the palette is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the opacity is not within 0 to 1.
+	 */
+	public static byte[] createTranslucencyMap(Palette palette, double opacity) {
+		if (!(opacity >= 0 && opacity <= 1))
+			throw new IllegalArgumentException("Opacity must be within 0 and 1: " + opacity);
+		PaletteSearch search = createSearch(palette);
+		// Fixed point weights keep the inner loop to integer math.
+		int foregroundWeight = (int)Math.round(opacity * 65536);
+		int backgroundWeight = 65536 - foregroundWeight;
+		int[] red = new int[Palette.COLOR_COUNT];
+		int[] green = new int[Palette.COLOR_COUNT];
+		int[] blue = new int[Palette.COLOR_COUNT];
+		for (int i = 0; i < Palette.COLOR_COUNT; i++) {
+			int rgb = palette.getRgb(i);
+			red[i] = rgb >> 16;
+			green[i] = (rgb >> 8) & 0xFF;
+			blue[i] = rgb & 0xFF;
+		}
+
+		byte[] table = new byte[TRANSLUCENCY_SIZE];
+		IntStream.range(0, Palette.COLOR_COUNT).parallel().forEach(background -> {
+			int offset = background * Palette.COLOR_COUNT;
+			int backRed = red[background] * backgroundWeight + 32768;
+			int backGreen = green[background] * backgroundWeight + 32768;
+			int backBlue = blue[background] * backgroundWeight + 32768;
+			for (int foreground = 0; foreground < Palette.COLOR_COUNT; foreground++)
+				table[offset + foreground] = (byte)search.nearest((red[foreground] * foregroundWeight + backRed) >> 16,
+						(green[foreground] * foregroundWeight + backGreen) >> 16, (blue[foreground] * foregroundWeight + backBlue) >> 16);
+		});
+		return table;
+	}
+
+	/**
+	 * Builds the 14 palettes of a PLAYPAL from one palette: the palette
+	 * itself, 8 steps towards red for pain and berserk, 4 steps towards yellow
+	 * for item pickups and one step towards green for the radiation suit.
+	 * 
+	 * @param palette
+	 * 		The base palette.
+	 * 
+	 * @return
+	 * 		The PLAYPAL lump data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the palette is null.
+	 */
+	public static byte[] createPlaypal(Palette palette) {
+		if (palette == null)
+			throw new NullPointerException("Provided a null palette to ColormapGenerator.");
+		byte[] playpal = new byte[PLAYPAL_COUNT * Palette.PALETTE_SIZE];
+		for (int p = 0; p < PLAYPAL_COUNT; p++) {
+			int tint;
+			double amount;
+			if (p == 0) {
+				tint = 0;
+				amount = 0;
+			} else if (p <= RED_PALETTES) {
+				tint = 0xFF0000;
+				amount = p / (double)(RED_PALETTES + 1);
+			} else if (p <= RED_PALETTES + YELLOW_PALETTES) {
+				tint = YELLOW_TINT;
+				amount = (p - RED_PALETTES) / (double)(YELLOW_PALETTES * 2);
+			} else {
+				tint = 0x00FF00;
+				amount = 1 / 8.0;
+			}
+			int offset = p * Palette.PALETTE_SIZE;
+			for (int i = 0; i < Palette.COLOR_COUNT; i++) {
+				int rgb = palette.getRgb(i);
+				for (int c = 0; c < 3; c++) {
+					int shift = 16 - c * 8;
+					int from = (rgb >> shift) & 0xFF;
+					int to = (tint >> shift) & 0xFF;
+					playpal[offset + i * 3 + c] = (byte)Math.round(from + (to - from) * amount);
+				}
+			}
+		}
+		return playpal;
+	}
+
+	/**
+	 * Builds a COLORMAP and a TRANMAP and puts them in a document as one undo
+	 * step. Lumps that already have these names are replaced, otherwise the
+	 * lumps are added at the end.
+	 * 
+	 * @param document
+	 * 		The document.
+	 * 
+	 * @param palette
+	 * 		The palette.
+	 * 
+	 * @param opacity
+	 * 		The opacity of the TRANMAP.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the document or palette is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the opacity is not within 0 to 1.
+	 */
+	public static void addLumps(ArchiveDocument document, Palette palette, double opacity) {
+		if (document == null)
+			throw new NullPointerException("Provided a null document to ColormapGenerator.");
+		byte[] colormap = createColormap(palette);
+		byte[] tranmap = createTranslucencyMap(palette, opacity);
+		document.getJournal().begin("Generate colormaps");
+		try {
+			putLump(document, "COLORMAP", colormap);
+			putLump(document, "TRANMAP", tranmap);
+		} finally {
+			document.getJournal().end();
+		}
+	}
+
+	/**
+	 * Replaces the data of the last lump with a name, or adds the lump.
+	 * 
+	 * @param document
+	 * 		The document.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 */
+	private static void putLump(ArchiveDocument document, String name, byte[] data) {
+		int index = document.indexOf(name);
+		if (index >= 0)
+			document.setData(index, LumpData.of(data));
+		else
+			document.add(new LumpEntry(name, LumpData.of(data)));
+	}
+
+	/**
+	 * Creates the search for a palette.
+	 * 
+	 * @param palette
+	 * 		The palette.
+	 * 
+	 * @return
+	 * 		The search.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the palette is null.
+	 */
+	private static PaletteSearch createSearch(Palette palette) {
+		if (palette == null)
+			throw new NullPointerException("Provided a null palette to ColormapGenerator.");
+		return new PaletteSearch(palette);
+	}
+}
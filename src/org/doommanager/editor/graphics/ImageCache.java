@@ -0,0 +1,292 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.file.LumpReference;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * Keeps decoded Doom pictures in memory, so pictures that are drawn over and
+ * over, like the frames of an animation, are only decoded once. Pictures can
+ * be decoded ahead of time on the common pool, and a picture that is asked
+ * for while it is being decoded is not decoded twice. When the images take
+ * more than the memory limit, the least recently used are dropped.
+ */
+public class ImageCache {
+
+	/**
+	 * The memory the shared cache may use, in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT = 32L << 20;
+
+	/**
+	 * The bytes counted for an image besides its pixels.
+	 */
+	private static final int IMAGE_OVERHEAD = 64;
+
+	/**
+	 * The cache used when none is given.
+	 */
+	private static ImageCache sharedCache;
+
+	/**
+	 * The decoded images, least recently used first.
+	 */
+	private final LinkedHashMap<LumpReference, IndexedImage> images;
+
+	/**
+	 * The pictures that are being decoded.
+	 */
+	private final Map<LumpReference, CompletableFuture<IndexedImage>> pending;
+
+	/**
+	 * The memory the images may use before the oldest are dropped.
+	 */
+	private final long memoryLimit;
+
+	/**
+	 * The memory the images use.
+	 */
+	private long memoryUsage;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+
+	/**
+	 * Creates an empty cache.
+	 * 
+	 * @param memoryLimit
+	 * 		The memory the images may use in bytes.
+	 */
+	public ImageCache(long memoryLimit) {
+		this.images = new LinkedHashMap<>(64, 0.75f, true);
+		this.pending = new HashMap<>();
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Gets the cache that is shared by the whole program.
+	 * 
+	 * @return
+	 * 		The shared cache.
+	 */
+	public static synchronized ImageCache getShared() {
+		if (sharedCache == null)
+			sharedCache = new ImageCache(DEFAULT_MEMORY_LIMIT);
+		return sharedCache;
+	}
+
+	/**
+	 * Gets a picture, decoding it on this thread if it is not cached. If it is
+	 * being decoded ahead of time, this waits for that instead.
+	 * 
+	 * @param reference
+	 * 		The picture lump.
+	 * 
+	 * @return
+	 * 		The image.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the reference is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the lump is not a valid picture.
+	 */
+	public IndexedImage get(LumpReference reference) {
+		CompletableFuture<IndexedImage> future = request(reference, false);
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets a picture only if it is already decoded.
+	 * 
+	 * @param reference
+	 * 		The picture lump.
+	 * 
+	 * @return
+	 * 		The image, or null if it is not cached.
+	 */
+	public synchronized IndexedImage getIfPresent(LumpReference reference) {
+		return this.images.get(reference);
+	}
+
+	/**
+	 * Starts decoding a picture on the common pool, unless it is cached or
+	 * already being decoded.
+	 * 
+	 * @param reference
+	 * 		The picture lump.
+	 * 
+	 * @return
+	 * 		A future that completes with the image, or completes
+	 * 		exceptionally if the lump is not a valid picture.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the reference is null.
+	 */
+	public CompletableFuture<IndexedImage> prefetch(LumpReference reference) {
+		return request(reference, true);
+	}
+
+	/**
+	 * Finds a picture in the cache or among the pending ones, or starts
+	 * decoding it.
+	 * 
+	 * @param reference
+	 * 		The picture lump.
+	 * 
+	 * @param async
+	 * 		True to decode on the common pool, false to decode on this thread.
+	 * 
+	 * @return
+	 * 		The future of the image.
+	 */
+	private CompletableFuture<IndexedImage> request(LumpReference reference, boolean async) {
+		if (reference == null) {
+			NullPointerException e = new NullPointerException("Provided a null reference to ImageCache.");
+			log.log(Level.SEVERE, "ImageCache reference is null", e);
+			throw e;
+		}
+		CompletableFuture<IndexedImage> future;
+		synchronized (this) {
+			IndexedImage image = this.images.get(reference);
+			if (image != null)
+				return CompletableFuture.completedFuture(image);
+			future = this.pending.get(reference);
+			if (future != null)
+				return future;
+			future = new CompletableFuture<>();
+			this.pending.put(reference, future);
+		}
+		CompletableFuture<IndexedImage> decoding = future;
+		if (async)
+			ForkJoinPool.commonPool().execute(() -> decode(reference, decoding));
+		else
+			decode(reference, decoding);
+		return future;
+	}
+
+	/**
+	 * Decodes a picture, caches it and completes its future.
+	 * 
+	 * @param reference
+	 * 		The picture lump.
+	 * 
+	 * @param future
+	 * 		The future to complete.
+	 */
+	private void decode(LumpReference reference, CompletableFuture<IndexedImage> future) {
+		IndexedImage image;
+		BufferLease data = null;
+		try {
+			data = reference.getFile().getLumpData(reference.getLump(), BufferPool.getShared());
+			image = PictureReader.read(data.getBuffer());
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				this.pending.remove(reference);
+			}
+			log.log(Level.FINE, "Unable to decode " + reference, e);
+			future.completeExceptionally(e);
+			return;
+		} finally {
+			if (data != null)
+				data.dispose();
+		}
+		synchronized (this) {
+			this.pending.remove(reference);
+			this.images.put(reference, image);
+			this.memoryUsage += sizeOf(image);
+			trim();
+		}
+		future.complete(image);
+	}
+
+	/**
+	 * Drops the least recently used images until the rest fit in the memory
+	 * limit. The most recently used image is always kept.
+	 */
+	private void trim() {
+		Iterator<IndexedImage> iterator = this.images.values().iterator();
+		while (this.memoryUsage > this.memoryLimit && this.images.size() > 1 && iterator.hasNext()) {
+			this.memoryUsage -= sizeOf(iterator.next());
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Works out the memory an image takes.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @return
+	 * 		The size of its pixels and transparency in bytes.
+	 */
+	private static long sizeOf(IndexedImage image) {
+		return (long)image.getWidth() * image.getHeight() * 2 + IMAGE_OVERHEAD;
+	}
+
+	/**
+	 * Gets the memory the cached images take.
+	 * 
+	 * @return
+	 * 		The total in bytes.
+	 */
+	public synchronized long getMemoryUsage() {
+		return this.memoryUsage;
+	}
+
+	/**
+	 * Gets the number of cached images.
+	 * 
+	 * @return
+	 * 		The number of decoded pictures held.
+	 */
+	public synchronized int size() {
+		return this.images.size();
+	}
+
+	/**
+	 * Drops every cached image. Pictures that are being decoded are still
+	 * cached when they are done.
+	 */
+	public synchronized void clear() {
+		this.images.clear();
+		this.memoryUsage = 0;
+	}
+}
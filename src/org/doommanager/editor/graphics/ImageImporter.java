@@ -0,0 +1,299 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Imports truecolor images, such as PNGs, as Doom pictures and flats. Every
+ * pixel is mapped to the palette through a ColorLookup, optionally with
+ * Floyd-Steinberg dithering. Pixels that are mostly transparent become
+ * transparent in the picture. Importing many images at once runs one task
+ * per image on the common fork join pool.
+ */
+public final class ImageImporter {
+
+	/**
+	 * Pixels with an alpha below this are transparent.
+	 */
+	public static final int ALPHA_THRESHOLD = 128;
+
+	/**
+	 * The PNG file signature.
+	 */
+	private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+
+	/**
+	 * The type of the PNG chunk that ZDoom keeps picture offsets in.
+	 */
+	private static final int GRAB_CHUNK = 0x67724162;
+
+	/**
+	 * The type of the last PNG chunk.
+	 */
+	private static final int END_CHUNK = 0x49454E44;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ImageImporter.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private ImageImporter() {
+	}
+
+	/**
+	 * Maps an image to the palette.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @param lookup
+	 * 		The lookup table of the palette.
+	 * 
+	 * @param dither
+	 * 		If the error of each pixel is spread to the pixels next to it.
+	 * 
+	 * @return
+	 * 		The indexed image.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the image or the lookup is null.
+	 */
+	public static IndexedImage quantize(BufferedImage image, ColorLookup lookup, boolean dither) {
+		if (image == null || lookup == null)
+			throw new NullPointerException("Provided a null argument to ImageImporter.");
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		byte[] pixels = new byte[width * height];
+		boolean[] opaque = new boolean[width * height];
+		boolean transparent = false;
+		for (int i = 0; i < argb.length; i++) {
+			opaque[i] = (argb[i] >>> 24) >= ALPHA_THRESHOLD;
+			transparent |= !opaque[i];
+		}
+
+		if (dither) {
+			ditherPixels(argb, width, height, opaque, lookup, pixels);
+		} else {
+			for (int i = 0; i < argb.length; i++)
+				pixels[i] = (byte)lookup.lookup(argb[i]);
+		}
+		return new IndexedImage(width, height, pixels, transparent ? opaque : null);
+	}
+
+	/**
+	 * Maps pixels to the palette with Floyd-Steinberg dithering. The errors
+	 * are kept for the current and the next row only, in sixteenths.
+	 * Transparent pixels neither take nor spread any error.
+	 * 
+	 * @param argb
+	 * 		The colors row by row.
+	 * 
+	 * @param width
+	 * 		The width of the image.
+	 * 
+	 * @param height
+	 * 		The height of the image.
+	 * 
+	 * @param opaque
+	 * 		If each pixel is drawn.
+	 * 
+	 * @param lookup
+	 * 		The lookup table of the palette.
+	 * 
+	 * @param pixels
+	 * 		Where to put the palette indices.
+	 */
+	private static void ditherPixels(int[] argb, int width, int height, boolean[] opaque, ColorLookup lookup, byte[] pixels) {
+		Palette palette = lookup.getPalette();
+		// One pixel of padding on either side saves checks at the edges.
+		int[] current = new int[(width + 2) * 3];
+		int[] next = new int[(width + 2) * 3];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x;
+				if (!opaque[i])
+					continue;
+				int e = (x + 1) * 3;
+				int red = clamp(((argb[i] >> 16) & 0xFF) + (current[e] >> 4));
+				int green = clamp(((argb[i] >> 8) & 0xFF) + (current[e + 1] >> 4));
+				int blue = clamp((argb[i] & 0xFF) + (current[e + 2] >> 4));
+				int index = lookup.lookup(red, green, blue);
+				pixels[i] = (byte)index;
+
+				int color = palette.getRgb(index);
+				int[] errors = { red - (color >> 16), green - ((color >> 8) & 0xFF), blue - (color & 0xFF) };
+				for (int c = 0; c < 3; c++) {
+					int error = errors[c];
+					current[e + 3 + c] += error * 7;
+					next[e - 3 + c] += error * 3;
+					next[e + c] += error * 5;
+					next[e + 3 + c] += error;
+				}
+			}
+			int[] swap = current;
+			current = next;
+			next = swap;
+			Arrays.fill(next, 0);
+		}
+	}
+
+	/**
+	 * Clamps a color component.
+	 * 
+	 * @param value
+	 * 		The component.
+	 * 
+	 * @return
+	 * 		The component within 0 to 255.
+	 */
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+
+	/**
+	 * Reads the offsets ZDoom keeps in the grAb chunk of a PNG.
+	 * 
+	 * @param data
+	 * 		The PNG file from its position to its limit.
+	 * 
+	 * @return
+	 * 		The left and top offset, or null if the data is not a PNG or has
+	 * 		no grAb chunk.
+	 */
+	public static int[] readGrabOffsets(ByteBuffer data) {
+		ByteBuffer png = data.slice().order(ByteOrder.BIG_ENDIAN);
+		if (png.remaining() < 8 || png.getLong(0) != PNG_SIGNATURE)
+			return null;
+		int position = 8;
+		while (position + 8 <= png.limit()) {
+			long length = png.getInt(position) & 0xFFFFFFFFL;
+			int type = png.getInt(position + 4);
+			if (type == GRAB_CHUNK && length == 8 && position + 16 <= png.limit())
+				return new int[] { png.getInt(position + 8), png.getInt(position + 12) };
+			if (type == END_CHUNK)
+				break;
+			// Each chunk is its length, type, data and a CRC.
+			long nextPosition = position + 12 + length;
+			if (nextPosition > png.limit())
+				break;
+			position = (int)nextPosition;
+		}
+		return null;
+	}
+
+	/**
+	 * Imports an image file as a Doom picture. The offsets come from the grAb
+	 * chunk of a PNG, or are zero.
+	 * 
+	 * @param file
+	 * 		The image file, in any format ImageIO can read.
+	 * 
+	 * @param lookup
+	 * 		The lookup table of the palette.
+	 * 
+	 * @param dither
+	 * 		If the image is dithered.
+	 * 
+	 * @return
+	 * 		The picture data, positioned at zero.
+	 * 
+	 * @throws NullPointerException
+	 * 		If an argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be read or is not a supported image.
+	 */
+	public static ByteBuffer importPicture(Path file, ColorLookup lookup, boolean dither) throws IOException {
+		if (file == null)
+			throw new NullPointerException("Provided a null file to ImageImporter.");
+		byte[] data = Files.readAllBytes(file);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+		if (image == null)
+			throw new IOException("Not a supported image: " + file);
+		int[] offsets = readGrabOffsets(ByteBuffer.wrap(data));
+		IndexedImage indexed = quantize(image, lookup, dither);
+		return offsets == null ? PictureWriter.write(indexed, 0, 0) : PictureWriter.write(indexed, offsets[0], offsets[1]);
+	}
+
+	/**
+	 * Imports image files as Doom pictures, in parallel.
+	 * 
+	 * @param files
+	 * 		The image files.
+	 * 
+	 * @param lookup
+	 * 		The lookup table of the palette.
+	 * 
+	 * @param dither
+	 * 		If the images are dithered.
+	 * 
+	 * @return
+	 * 		The picture of each file that was imported, in the order of the
+	 * 		files. Files that fail are logged and left out.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the files or the lookup are null.
+	 */
+	public static Map<Path, ByteBuffer> importPictures(List<Path> files, ColorLookup lookup, boolean dither) {
+		if (files == null || lookup == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to ImageImporter.");
+			log.log(Level.SEVERE, "ImageImporter argument is null", e);
+			throw e;
+		}
+		ByteBuffer[] pictures = new ByteBuffer[files.size()];
+		AtomicInteger imported = new AtomicInteger();
+		long start = System.nanoTime();
+		IntStream.range(0, files.size()).parallel().forEach(i -> {
+			try {
+				pictures[i] = importPicture(files.get(i), lookup, dither);
+				imported.incrementAndGet();
+			} catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Unable to import " + files.get(i), e);
+			}
+		});
+		log.log(Level.INFO, String.format("Imported %d of %d images in %.2fs", imported.get(), files.size(), (System.nanoTime() - start) / 1e9));
+
+		Map<Path, ByteBuffer> result = new LinkedHashMap<>();
+		for (int i = 0; i < pictures.length; i++)
+			if (pictures[i] != null)
+				result.put(files.get(i), pictures[i]);
+		return result;
+	}
+}
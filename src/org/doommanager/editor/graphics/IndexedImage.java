@@ -0,0 +1,157 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+/**
+ * An image of palette indices with optional transparency, as it is before
+ * being written as a Doom picture or a flat. Pixels are stored row by row.
+ */
+public class IndexedImage {
+
+	/**
+	 * The width in pixels.
+	 */
+	private final int width;
+
+	/**
+	 * The height in pixels.
+	 */
+	private final int height;
+
+	/**
+	 * The palette index of each pixel.
+	 */
+	private final byte[] pixels;
+
+	/**
+	 * If each pixel is drawn, or null if every pixel is.
+	 */
+	private final boolean[] opaque;
+
+	/**
+	 * Creates an image. The arrays are used as they are, not copied.
+	 * 
+	 * @param width
+	 * 		The width in pixels.
+	 * 
+	 * @param height
+	 * 		The height in pixels.
+	 * 
+	 * @param pixels
+	 * 		The palette index of each pixel, row by row.
+	 * 
+	 * @param opaque
+	 * 		If each pixel is drawn, or null if every pixel is.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the pixels are null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the size is negative or the arrays do not match it.
+	 */
+	public IndexedImage(int width, int height, byte[] pixels, boolean[] opaque) {
+		if (pixels == null)
+			throw new NullPointerException("Provided null pixels to IndexedImage.");
+		if (width < 0 || height < 0 || pixels.length != width * height || (opaque != null && opaque.length != pixels.length))
+			throw new IllegalArgumentException("IndexedImage arrays do not match a size of " + width + "x" + height);
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.opaque = opaque;
+	}
+
+	/**
+	 * Gets the width.
+	 * 
+	 * @return
+	 * 		The width in pixels.
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the height.
+	 * 
+	 * @return
+	 * 		The height in pixels.
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets the palette index of a pixel.
+	 * 
+	 * @param x
+	 * 		The column.
+	 * 
+	 * @param y
+	 * 		The row.
+	 * 
+	 * @return
+	 * 		The palette index, 0 to 255.
+	 */
+	public int getIndex(int x, int y) {
+		return this.pixels[y * this.width + x] & 0xFF;
+	}
+
+	/**
+	 * Checks if a pixel is drawn.
+	 * 
+	 * @param x
+	 * 		The column.
+	 * 
+	 * @param y
+	 * 		The row.
+	 * 
+	 * @return
+	 * 		False if the pixel is transparent.
+	 */
+	public boolean isOpaque(int x, int y) {
+		return this.opaque == null || this.opaque[y * this.width + x];
+	}
+
+	/**
+	 * Checks if any pixel is transparent.
+	 * 
+	 * @return
+	 * 		True if the image has transparency.
+	 */
+	public boolean hasTransparency() {
+		if (this.opaque == null)
+			return false;
+		for (boolean drawn : this.opaque)
+			if (!drawn)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Gets the palette indices. Transparent pixels keep whatever index they
+	 * were given, which is how flats, that have no transparency, are stored.
+	 * 
+	 * @return
+	 * 		The indices row by row. This is the array of the image, not a
+	 * 		copy.
+	 */
+	public byte[] getPixels() {
+		return this.pixels;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.nio.ByteBuffer;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+
+/**
+ * The 256 colors of a Doom palette, as read from the first palette of a
+ * PLAYPAL lump.
+ */
+public class Palette {
+
+	/**
+	 * The number of colors in a palette.
+	 */
+	public static final int COLOR_COUNT = 256;
+
+	/**
+	 * The size of one palette in a PLAYPAL lump.
+	 */
+	public static final int PALETTE_SIZE = COLOR_COUNT * 3;
+
+	/**
+	 * The colors as 0xRRGGBB.
+	 */
+	private final int[] colors;
+
+	/**
+	 * Reads a palette from PLAYPAL data. Only the first palette is used.
+	 * 
+	 * @param playpal
+	 * 		The lump data from its position to its limit.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the data is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data is smaller than one palette.
+	 */
+	public Palette(ByteBuffer playpal) {
+		if (playpal == null)
+			throw new NullPointerException("Provided null data to Palette.");
+		if (playpal.remaining() < PALETTE_SIZE)
+			throw new IllegalArgumentException("Palette data has " + playpal.remaining() + " bytes, " + PALETTE_SIZE + " are needed.");
+		this.colors = new int[COLOR_COUNT];
+		int start = playpal.position();
+		for (int i = 0; i < COLOR_COUNT; i++) {
+			int red = playpal.get(start + i * 3) & 0xFF;
+			int green = playpal.get(start + i * 3 + 1) & 0xFF;
+			int blue = playpal.get(start + i * 3 + 2) & 0xFF;
+			this.colors[i] = (red << 16) | (green << 8) | blue;
+		}
+	}
+
+	/**
+	 * Reads the palette of a file.
+	 * 
+	 * @param file
+	 * 		The file with a PLAYPAL lump.
+	 * 
+	 * @return
+	 * 		The palette, or null if the file has no PLAYPAL lump.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the PLAYPAL lump is too small.
+	 */
+	public static Palette fromFile(DoomFile file) {
+		Lump lump = file.getLump("PLAYPAL");
+		return lump == null ? null : new Palette(file.getLumpData(lump));
+	}
+
+	/**
+	 * Gets a color.
+	 * 
+	 * @param index
+	 * 		The palette index.
+	 * 
+	 * @return
+	 * 		The color as 0xRRGGBB.
+	 * 
+	 * @throws ArrayIndexOutOfBoundsException
+	 * 		If the index is not within 0 to 255.
+	 */
+	public int getRgb(int index) {
+		return this.colors[index];
+	}
+
+	/**
+	 * Finds the closest color by checking every entry. This is what the
+	 * lookup table is built from and is too slow to call per pixel.
+	 * 
+	 * @param red
+	 * 		The red component, 0 to 255.
+	 * 
+	 * @param green
+	 * 		The green component, 0 to 255.
+	 * 
+	 * @param blue
+	 * 		The blue component, 0 to 255.
+	 * 
+	 * @return
+	 * 		The index of the color with the smallest squared distance. Ties go
+	 * 		to the lower index.
+	 */
+	public int findNearest(int red, int green, int blue) {
+		int best = 0;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < COLOR_COUNT; i++) {
+			int color = this.colors[i];
+			int dr = red - (color >> 16);
+			int dg = green - ((color >> 8) & 0xFF);
+			int db = blue - (color & 0xFF);
+			int distance = dr * dr + dg * dg + db * db;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+			}
+		}
+		return best;
+	}
+}
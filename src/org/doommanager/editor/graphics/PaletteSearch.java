@@ -0,0 +1,150 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Finds the exact closest palette color faster than checking all 256. The
+ * colors are kept sorted by red in plain arrays, and a table gives the first
+ * sorted color for each red value. A search starts there and walks outwards
+ * in both directions, stopping each way as soon as the red difference alone
+ * is larger than the best distance found so far.
+ * 
+ * The result is always the same as Palette.findNearest(), ties included.
+ */
+final class PaletteSearch {
+
+	/**
+	 * The red of each color, sorted.
+	 */
+	private final int[] red;
+
+	/**
+	 * The green of each color, in red order.
+	 */
+	private final int[] green;
+
+	/**
+	 * The blue of each color, in red order.
+	 */
+	private final int[] blue;
+
+	/**
+	 * The palette index of each color, in red order.
+	 */
+	private final int[] index;
+
+	/**
+	 * The first sorted position with at least each red value, with one more
+	 * entry at the end.
+	 */
+	private final int[] redStart;
+
+	/**
+	 * Sorts the colors of a palette.
+	 * 
+	 * @param palette
+	 * 		The palette.
+	 */
+	PaletteSearch(Palette palette) {
+		long[] keys = new long[Palette.COLOR_COUNT];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = ((long)(palette.getRgb(i) >> 16) << 8) | i;
+		Arrays.sort(keys);
+		this.red = new int[keys.length];
+		this.green = new int[keys.length];
+		this.blue = new int[keys.length];
+		this.index = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			int paletteIndex = (int)(keys[i] & 0xFF);
+			int rgb = palette.getRgb(paletteIndex);
+			this.red[i] = rgb >> 16;
+			this.green[i] = (rgb >> 8) & 0xFF;
+			this.blue[i] = rgb & 0xFF;
+			this.index[i] = paletteIndex;
+		}
+		this.redStart = new int[257];
+		int position = 0;
+		for (int value = 0; value <= 256; value++) {
+			while (position < keys.length && this.red[position] < value)
+				position++;
+			this.redStart[value] = position;
+		}
+	}
+
+	/**
+	 * Finds the closest color.
+	 * 
+	 * @param r
+	 * 		The red component, 0 to 255.
+	 * 
+	 * @param g
+	 * 		The green component, 0 to 255.
+	 * 
+	 * @param b
+	 * 		The blue component, 0 to 255.
+	 * 
+	 * @return
+	 * 		The index of the color with the smallest squared distance. Ties go
+	 * 		to the lower index.
+	 */
+	int nearest(int r, int g, int b) {
+		int best = Integer.MAX_VALUE;
+		int bestIndex = 0;
+		int count = this.red.length;
+		int up = this.redStart[r];
+		int down = up - 1;
+		while (up < count || down >= 0) {
+			if (up < count) {
+				int dr = this.red[up] - r;
+				int distance = dr * dr;
+				if (distance > best) {
+					up = count;
+				} else {
+					int dg = this.green[up] - g;
+					int db = this.blue[up] - b;
+					distance += dg * dg + db * db;
+					if (distance < best || (distance == best && this.index[up] < bestIndex)) {
+						best = distance;
+						bestIndex = this.index[up];
+					}
+					up++;
+				}
+			}
+			if (down >= 0) {
+				int dr = this.red[down] - r;
+				int distance = dr * dr;
+				if (distance > best) {
+					down = -1;
+				} else {
+					int dg = this.green[down] - g;
+					int db = this.blue[down] - b;
+					distance += dg * dg + db * db;
+					if (distance < best || (distance == best && this.index[down] < bestIndex)) {
+						best = distance;
+						bestIndex = this.index[down];
+					}
+					down--;
+				}
+			}
+		}
+		return bestIndex;
+	}
+}
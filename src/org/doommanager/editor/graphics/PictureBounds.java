@@ -0,0 +1,213 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The box a Doom picture covers around its origin, taken from the picture
+ * header alone. For a sprite the origin is where the actor stands: the
+ * left offset is how far the picture reaches to the left of it, and the top
+ * offset how far it reaches above it.
+ */
+public final class PictureBounds {
+
+	/**
+	 * The width in pixels.
+	 */
+	private final int width;
+
+	/**
+	 * The height in pixels.
+	 */
+	private final int height;
+
+	/**
+	 * The columns left of the origin.
+	 */
+	private final int leftOffset;
+
+	/**
+	 * The rows above the origin.
+	 */
+	private final int topOffset;
+
+	/**
+	 * Creates bounds.
+	 * 
+	 * @param width
+	 * 		The width in pixels.
+	 * 
+	 * @param height
+	 * 		The height in pixels.
+	 * 
+	 * @param leftOffset
+	 * 		The columns left of the origin.
+	 * 
+	 * @param topOffset
+	 * 		The rows above the origin.
+	 */
+	public PictureBounds(int width, int height, int leftOffset, int topOffset) {
+		this.width = width;
+		this.height = height;
+		this.leftOffset = leftOffset;
+		this.topOffset = topOffset;
+	}
+
+	/**
+	 * Reads the bounds from a picture header. The header is checked against
+	 * the size of the picture, so most lumps that are not pictures, such as
+	 * PNGs, are turned down without reading any column.
+	 * 
+	 * @param header
+	 * 		At least the first 8 bytes of the picture, from the position.
+	 * 
+	 * @param size
+	 * 		The size of the whole picture.
+	 * 
+	 * @return
+	 * 		The bounds, or null if the header cannot be a picture of that
+	 * 		size.
+	 */
+	public static PictureBounds read(ByteBuffer header, int size) {
+		if (header.remaining() < PictureWriter.HEADER_SIZE)
+			return null;
+		ByteBuffer data = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int start = data.position();
+		int width = data.getShort(start);
+		int height = data.getShort(start + 2);
+		if (width <= 0 || height <= 0 || PictureWriter.HEADER_SIZE + width * 4L + width > size)
+			return null;
+		return new PictureBounds(width, height, data.getShort(start + 4), data.getShort(start + 6));
+	}
+
+	/**
+	 * Gets the width.
+	 * 
+	 * @return
+	 * 		The width in pixels.
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Gets the height.
+	 * 
+	 * @return
+	 * 		The height in pixels.
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Gets the left offset.
+	 * 
+	 * @return
+	 * 		The columns left of the origin.
+	 */
+	public int getLeftOffset() {
+		return this.leftOffset;
+	}
+
+	/**
+	 * Gets the top offset.
+	 * 
+	 * @return
+	 * 		The rows above the origin.
+	 */
+	public int getTopOffset() {
+		return this.topOffset;
+	}
+
+	/**
+	 * Gets the left edge relative to the origin.
+	 * 
+	 * @return
+	 * 		The x of the first column.
+	 */
+	public int getLeft() {
+		return -this.leftOffset;
+	}
+
+	/**
+	 * Gets the right edge relative to the origin.
+	 * 
+	 * @return
+	 * 		The x just past the last column.
+	 */
+	public int getRight() {
+		return this.width - this.leftOffset;
+	}
+
+	/**
+	 * Gets the top edge relative to the origin.
+	 * 
+	 * @return
+	 * 		The y of the first row, with y going down.
+	 */
+	public int getTop() {
+		return -this.topOffset;
+	}
+
+	/**
+	 * Gets the bottom edge relative to the origin.
+	 * 
+	 * @return
+	 * 		The y just past the last row.
+	 */
+	public int getBottom() {
+		return this.height - this.topOffset;
+	}
+
+	/**
+	 * Gets the bounds of the picture drawn mirrored around the origin, as
+	 * sprites that stand in for the opposite rotation are.
+	 * 
+	 * @return
+	 * 		The mirrored bounds.
+	 */
+	public PictureBounds mirror() {
+		return new PictureBounds(this.width, this.height, this.width - this.leftOffset, this.topOffset);
+	}
+
+	/**
+	 * Gets the smallest bounds that hold both these and other bounds.
+	 * 
+	 * @param other
+	 * 		The other bounds.
+	 * 
+	 * @return
+	 * 		The union.
+	 */
+	public PictureBounds union(PictureBounds other) {
+		int left = Math.min(getLeft(), other.getLeft());
+		int top = Math.min(getTop(), other.getTop());
+		int right = Math.max(getRight(), other.getRight());
+		int bottom = Math.max(getBottom(), other.getBottom());
+		return new PictureBounds(right - left, bottom - top, -left, -top);
+	}
+
+	@Override
+	public String toString() {
+		return this.width + "x" + this.height + " at " + this.leftOffset + "," + this.topOffset;
+	}
+}
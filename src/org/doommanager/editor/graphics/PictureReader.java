@@ -0,0 +1,96 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads images in the Doom picture format, the counterpart of
+ * PictureWriter. Tall patches are read the way PictureWriter writes them: a
+ * post whose starting row is not below the one of the post before it is
+ * relative to that post.
+ */
+public final class PictureReader {
+
+	/**
+	 * This class only has static methods.
+	 */
+	private PictureReader() {
+	}
+
+	/**
+	 * Decodes a Doom picture. Pixels that no post covers are transparent.
+	 * 
+	 * @param data
+	 * 		The picture from its position to its limit.
+	 * 
+	 * @return
+	 * 		The image. The offsets can be read with PictureBounds.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the data is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data is not a valid picture.
+	 */
+	public static IndexedImage read(ByteBuffer data) {
+		if (data == null)
+			throw new NullPointerException("Provided null data to PictureReader.");
+		ByteBuffer picture = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int size = picture.limit();
+		PictureBounds bounds = PictureBounds.read(picture, size);
+		if (bounds == null)
+			throw new IllegalArgumentException("Data is not a Doom picture.");
+		int width = bounds.getWidth();
+		int height = bounds.getHeight();
+		byte[] pixels = new byte[width * height];
+		boolean[] opaque = new boolean[width * height];
+
+		for (int x = 0; x < width; x++) {
+			long columnOffset = picture.getInt(PictureWriter.HEADER_SIZE + x * 4) & 0xFFFFFFFFL;
+			if (columnOffset >= size)
+				throw new IllegalArgumentException("Picture column " + x + " starts outside of the data.");
+			int position = (int)columnOffset;
+			int lastTop = -1;
+			while (true) {
+				if (position >= size)
+					throw new IllegalArgumentException("Picture column " + x + " is not ended.");
+				int top = picture.get(position) & 0xFF;
+				if (top == PictureWriter.END_OF_COLUMN)
+					break;
+				if (position + 2 > size)
+					throw new IllegalArgumentException("Picture column " + x + " has a cut off post.");
+				int length = picture.get(position + 1) & 0xFF;
+				if (position + 4 + length > size)
+					throw new IllegalArgumentException("Picture column " + x + " has a cut off post.");
+				int start = top <= lastTop ? lastTop + top : top;
+				lastTop = start;
+				int end = Math.min(start + length, height);
+				for (int y = start; y < end; y++) {
+					int index = y * width + x;
+					pixels[index] = picture.get(position + 3 + y - start);
+					opaque[index] = true;
+				}
+				position += 4 + length;
+			}
+		}
+		return new IndexedImage(width, height, pixels, opaque);
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.doommanager.util.ByteHandler;
+
+/**
+ * Writes images in the Doom picture format used by patches, sprites and
+ * menu graphics. Each column is a list of posts, runs of drawn pixels with
+ * the row they start at, ended by 0xFF.
+ * 
+ * Pictures taller than 255 rows are written in the tall patch format that
+ * ZDoom and other ports read: a post whose starting row is not below the one
+ * of the post before it is relative to that post. Empty posts are added
+ * where a jump is too far for one byte. Ports that do not know the format
+ * read every starting row as absolute, so they draw the posts below row 254
+ * over the top of the picture.
+ */
+public final class PictureWriter {
+
+	/**
+	 * The size of the header before the column offsets.
+	 */
+	public static final int HEADER_SIZE = 8;
+
+	/**
+	 * The byte that ends a column.
+	 */
+	public static final int END_OF_COLUMN = 0xFF;
+
+	/**
+	 * The longest post a single length byte can hold.
+	 */
+	private static final int MAX_POST_LENGTH = 254;
+
+	/**
+	 * The highest row a post can start at with one byte.
+	 */
+	private static final int MAX_TOP_DELTA = 254;
+
+	/**
+	 * This class only has static methods.
+	 */
+	private PictureWriter() {
+	}
+
+	/**
+	 * Writes an image as a Doom picture. The size is worked out first so
+	 * the picture is written straight into an array of the exact size.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @param leftOffset
+	 * 		The horizontal offset of the picture.
+	 * 
+	 * @param topOffset
+	 * 		The vertical offset of the picture.
+	 * 
+	 * @return
+	 * 		The picture data, positioned at zero.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the image is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the image is wider or taller than a picture can be.
+	 */
+	public static ByteBuffer write(IndexedImage image, int leftOffset, int topOffset) {
+		if (image == null)
+			throw new NullPointerException("Provided a null image to PictureWriter.");
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (width > Short.MAX_VALUE || height > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Image is too large for a Doom picture: " + width + "x" + height);
+
+		int size = HEADER_SIZE + width * 4;
+		for (int x = 0; x < width; x++)
+			size += writeColumn(image, x, null);
+
+		ByteHandler handler = new ByteHandler(new byte[size], ByteOrder.LITTLE_ENDIAN);
+		handler.putShort(width);
+		handler.putShort(height);
+		handler.putShort(leftOffset);
+		handler.putShort(topOffset);
+		handler.setMarkerLocation(HEADER_SIZE + width * 4);
+		for (int x = 0; x < width; x++) {
+			handler.putInt(HEADER_SIZE + x * 4, handler.getMarkerLocation());
+			writeColumn(image, x, handler);
+		}
+		return handler.getBuffer();
+	}
+
+	/**
+	 * Writes the posts of one column, or only measures them.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @param x
+	 * 		The column.
+	 * 
+	 * @param handler
+	 * 		Where to write the column, or null to only measure it.
+	 * 
+	 * @return
+	 * 		The number of bytes the column takes.
+	 */
+	private static int writeColumn(IndexedImage image, int x, ByteHandler handler) {
+		int height = image.getHeight();
+		int size = 1;
+		int lastTop = -1;
+		int y = 0;
+		while (y < height) {
+			if (!image.isOpaque(x, y)) {
+				y++;
+				continue;
+			}
+			int start = y;
+			while (y < height && y - start < MAX_POST_LENGTH && image.isOpaque(x, y))
+				y++;
+
+			// Empty posts move the last row forward until the start fits in one byte.
+			int top = encodeTop(start, lastTop);
+			while (top < 0) {
+				size += writePost(image, x, MAX_TOP_DELTA, 0, 0, handler);
+				lastTop = lastTop < MAX_TOP_DELTA ? MAX_TOP_DELTA : lastTop + MAX_TOP_DELTA;
+				top = encodeTop(start, lastTop);
+			}
+			size += writePost(image, x, top, start, y - start, handler);
+			lastTop = start;
+		}
+		if (handler != null)
+			handler.putByte(END_OF_COLUMN);
+		return size;
+	}
+
+	/**
+	 * Works out the byte that gives the row of a post.
+	 * 
+	 * @param start
+	 * 		The row the post starts at.
+	 * 
+	 * @param lastTop
+	 * 		The row the post before started at, or -1 if it is the first.
+	 * 
+	 * @return
+	 * 		The byte to write, or -1 if the row is too far from the last post
+	 * 		for one byte.
+	 */
+	private static int encodeTop(int start, int lastTop) {
+		if (start > lastTop && start <= MAX_TOP_DELTA)
+			return start;
+		int delta = start - lastTop;
+		if (lastTop >= 0 && delta <= lastTop && delta <= MAX_TOP_DELTA)
+			return delta;
+		return -1;
+	}
+
+	/**
+	 * Writes one post, or only measures it.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @param x
+	 * 		The column.
+	 * 
+	 * @param top
+	 * 		The byte that gives the row of the post.
+	 * 
+	 * @param start
+	 * 		The first row of the post.
+	 * 
+	 * @param length
+	 * 		The number of pixels in the post.
+	 * 
+	 * @param handler
+	 * 		Where to write the post, or null to only measure it.
+	 * 
+	 * @return
+	 * 		The number of bytes the post takes.
+	 */
+	private static int writePost(IndexedImage image, int x, int top, int start, int length, ByteHandler handler) {
+		if (handler != null) {
+			handler.putByte(top);
+			handler.putByte(length);
+			// The unused bytes around the pixels repeat the edge pixels, like other editors write them.
+			handler.putByte(length > 0 ? image.getIndex(x, start) : 0);
+			for (int y = start; y < start + length; y++)
+				handler.putByte(image.getIndex(x, y));
+			handler.putByte(length > 0 ? image.getIndex(x, start + length - 1) : 0);
+		}
+		return length + 4;
+	}
+
+	/**
+	 * Writes an image as a flat, which is only the palette indices row by
+	 * row. Transparent pixels keep their index.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @return
+	 * 		The flat data, positioned at zero.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the image is null.
+	 */
+	public static ByteBuffer writeFlat(IndexedImage image) {
+		if (image == null)
+			throw new NullPointerException("Provided a null image to PictureWriter.");
+		return ByteBuffer.wrap(image.getPixels().clone());
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.file.LumpReference;
+
+/**
+ * Plays the frames of a sprite from one side at the speed of the game. The
+ * images come from an image cache and are never decoded on the thread that
+ * asks for them: the frames of the next steps are decoded ahead on the
+ * common pool, and if a frame is still not ready when it is due, the frame
+ * before it is shown a little longer.
+ */
+public class SpriteAnimation {
+
+	/**
+	 * The number of game tics per second.
+	 */
+	public static final int TICS_PER_SECOND = 35;
+
+	/**
+	 * The tics each frame is shown for unless set otherwise.
+	 */
+	public static final int DEFAULT_TICS_PER_FRAME = 4;
+
+	/**
+	 * How many steps ahead frames are decoded.
+	 */
+	private static final int PREFETCH_STEPS = 2;
+
+	/**
+	 * The index the frames are taken from.
+	 */
+	private final SpriteIndex index;
+
+	/**
+	 * The sprite name.
+	 */
+	private final String sprite;
+
+	/**
+	 * The cache the images come from.
+	 */
+	private final ImageCache cache;
+
+	/**
+	 * The frames to play, in order.
+	 */
+	private int[] sequence;
+
+	/**
+	 * The side the sprite is seen from, 1 to 8.
+	 */
+	private int rotation;
+
+	/**
+	 * The tics each frame is shown for.
+	 */
+	private int ticsPerFrame;
+
+	/**
+	 * The frame whose image was returned last, or null.
+	 */
+	private SpriteFrame shownFrame;
+
+	/**
+	 * The image returned last, or null.
+	 */
+	private IndexedImage shownImage;
+
+	/**
+	 * The pictures that could not be decoded, so they are not tried again
+	 * every step.
+	 */
+	private final Set<LumpReference> failed;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SpriteAnimation.class.getName());
+
+	/**
+	 * Creates an animation of every frame of a sprite, seen from the front.
+	 * Frames with no front picture are played from the first side they have.
+	 * 
+	 * @param index
+	 * 		The sprite index.
+	 * 
+	 * @param sprite
+	 * 		The sprite name.
+	 * 
+	 * @param cache
+	 * 		The cache to take the images from.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the sprite is not in the index.
+	 */
+	public SpriteAnimation(SpriteIndex index, String sprite, ImageCache cache) {
+		if (index == null || sprite == null || cache == null) {
+			NullPointerException e = new NullPointerException("Provided a null index, sprite or cache to SpriteAnimation.");
+			log.log(Level.SEVERE, "SpriteAnimation argument is null", e);
+			throw e;
+		}
+		int frameCount = index.getFrameCount(sprite);
+		if (frameCount == 0)
+			throw new IllegalArgumentException("Sprite " + sprite + " is not in the index.");
+		this.index = index;
+		this.sprite = sprite;
+		this.cache = cache;
+		this.rotation = 1;
+		this.ticsPerFrame = DEFAULT_TICS_PER_FRAME;
+		this.failed = ConcurrentHashMap.newKeySet();
+
+		List<Integer> frames = new ArrayList<>();
+		for (int frame = 0; frame < frameCount; frame++)
+			if (findFrame(frame, 1) != null)
+				frames.add(frame);
+		if (frames.isEmpty())
+			throw new IllegalArgumentException("Sprite " + sprite + " has no pictures.");
+		this.sequence = frames.stream().mapToInt(Integer::intValue).toArray();
+		prefetch(0);
+	}
+
+	/**
+	 * Sets the frames to play, for example the walking frames A to D only.
+	 * 
+	 * @param frames
+	 * 		The frames in order, 0 for A.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If there are no frames or one is out of range.
+	 */
+	public void setSequence(int... frames) {
+		if (frames.length == 0)
+			throw new IllegalArgumentException("SpriteAnimation needs at least one frame.");
+		for (int frame : frames)
+			if (frame < 0 || frame >= SpriteIndex.MAX_FRAMES)
+				throw new IllegalArgumentException("Sprite frame " + frame + " is out of range.");
+		this.sequence = frames.clone();
+		prefetch(0);
+	}
+
+	/**
+	 * Gets the frames that are played.
+	 * 
+	 * @return
+	 * 		A copy of the frames in order.
+	 */
+	public int[] getSequence() {
+		return Arrays.copyOf(this.sequence, this.sequence.length);
+	}
+
+	/**
+	 * Sets the side the sprite is seen from.
+	 * 
+	 * @param rotation
+	 * 		The rotation from 1, the front, to 8.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the rotation is out of range.
+	 */
+	public void setRotation(int rotation) {
+		if (rotation < 1 || rotation > SpriteIndex.ROTATIONS)
+			throw new IllegalArgumentException("Sprite rotation " + rotation + " is out of range.");
+		this.rotation = rotation;
+	}
+
+	/**
+	 * Gets the side the sprite is seen from.
+	 * 
+	 * @return
+	 * 		The rotation from 1 to 8.
+	 */
+	public int getRotation() {
+		return this.rotation;
+	}
+
+	/**
+	 * Sets how long each frame is shown.
+	 * 
+	 * @param ticsPerFrame
+	 * 		The number of tics, at least 1.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the number is below 1.
+	 */
+	public void setTicsPerFrame(int ticsPerFrame) {
+		if (ticsPerFrame < 1)
+			throw new IllegalArgumentException("SpriteAnimation needs at least one tic per frame.");
+		this.ticsPerFrame = ticsPerFrame;
+	}
+
+	/**
+	 * Gets the box every frame of the sprite fits in.
+	 * 
+	 * @return
+	 * 		The bounds around the origin of the actor.
+	 */
+	public PictureBounds getBounds() {
+		return this.index.getBounds(this.sprite);
+	}
+
+	/**
+	 * Works out which step of the sequence is due.
+	 * 
+	 * @param elapsedNanos
+	 * 		The time since the animation started.
+	 * 
+	 * @return
+	 * 		The index in the sequence.
+	 */
+	public int getStep(long elapsedNanos) {
+		long tics = elapsedNanos / (1000000000L / TICS_PER_SECOND);
+		return (int)(tics / this.ticsPerFrame % this.sequence.length);
+	}
+
+	/**
+	 * Gets the frame of a step from the current rotation, or from the first
+	 * side the frame has a picture for if it has none from this one, as when
+	 * a PWAD replaces only some rotations of a sprite.
+	 * 
+	 * @param step
+	 * 		The index in the sequence.
+	 * 
+	 * @return
+	 * 		The frame, or null if the sprite has no picture for it.
+	 */
+	public SpriteFrame getFrame(int step) {
+		return findFrame(this.sequence[step], this.rotation);
+	}
+
+	/**
+	 * Finds the picture of a frame from a side, falling back to the first
+	 * side it has.
+	 * 
+	 * @param frame
+	 * 		The frame, 0 for A.
+	 * 
+	 * @param rotation
+	 * 		The rotation that is wanted.
+	 * 
+	 * @return
+	 * 		The frame, or null if it has no picture from any side.
+	 */
+	private SpriteFrame findFrame(int frame, int rotation) {
+		SpriteFrame found = this.index.getFrame(this.sprite, frame, rotation);
+		for (int side = 1; found == null && side <= SpriteIndex.ROTATIONS; side++)
+			found = this.index.getFrame(this.sprite, frame, side);
+		return found;
+	}
+
+	/**
+	 * Gets the image that is due and starts decoding the ones after it.
+	 * This never waits for a decode: if the due frame is not decoded yet,
+	 * the image shown before is returned again.
+	 * 
+	 * @param elapsedNanos
+	 * 		The time since the animation started.
+	 * 
+	 * @return
+	 * 		The image to show, or null if none is decoded yet.
+	 */
+	public IndexedImage getImage(long elapsedNanos) {
+		int step = getStep(elapsedNanos);
+		prefetch(step);
+		SpriteFrame frame = getFrame(step);
+		if (frame != null) {
+			IndexedImage image = this.cache.getIfPresent(frame.getReference());
+			if (image != null) {
+				this.shownFrame = frame;
+				this.shownImage = image;
+			}
+		}
+		return this.shownImage;
+	}
+
+	/**
+	 * Gets the frame of the image that getImage returned last, which tells
+	 * how to place and mirror it.
+	 * 
+	 * @return
+	 * 		The frame, or null if no image was shown yet.
+	 */
+	public SpriteFrame getShownFrame() {
+		return this.shownFrame;
+	}
+
+	/**
+	 * Starts decoding the frames of a step and the steps after it that are
+	 * not cached yet.
+	 * 
+	 * @param step
+	 * 		The first step.
+	 */
+	private void prefetch(int step) {
+		for (int i = 0; i <= PREFETCH_STEPS && i < this.sequence.length; i++) {
+			SpriteFrame frame = getFrame((step + i) % this.sequence.length);
+			if (frame == null)
+				continue;
+			LumpReference reference = frame.getReference();
+			if (this.failed.contains(reference) || this.cache.getIfPresent(reference) != null)
+				continue;
+			this.cache.prefetch(reference).whenComplete((image, error) -> {
+				if (error != null)
+					this.failed.add(reference);
+			});
+		}
+	}
+}
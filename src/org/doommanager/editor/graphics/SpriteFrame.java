@@ -0,0 +1,97 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import org.doommanager.editor.file.LumpReference;
+
+/**
+ * One picture of a sprite as it is seen from one side: the lump to draw,
+ * if it is drawn mirrored, and the box it covers.
+ */
+public final class SpriteFrame {
+
+	/**
+	 * The picture lump.
+	 */
+	private final LumpReference reference;
+
+	/**
+	 * True if the picture is drawn mirrored.
+	 */
+	private final boolean mirrored;
+
+	/**
+	 * The box the picture covers as it is drawn.
+	 */
+	private final PictureBounds bounds;
+
+	/**
+	 * Creates a frame.
+	 * 
+	 * @param reference
+	 * 		The picture lump.
+	 * 
+	 * @param mirrored
+	 * 		True if the picture is drawn mirrored.
+	 * 
+	 * @param bounds
+	 * 		The box the picture covers as it is stored.
+	 */
+	SpriteFrame(LumpReference reference, boolean mirrored, PictureBounds bounds) {
+		this.reference = reference;
+		this.mirrored = mirrored;
+		this.bounds = mirrored ? bounds.mirror() : bounds;
+	}
+
+	/**
+	 * Gets the picture lump.
+	 * 
+	 * @return
+	 * 		The lump to decode.
+	 */
+	public LumpReference getReference() {
+		return this.reference;
+	}
+
+	/**
+	 * Checks if the picture is drawn mirrored.
+	 * 
+	 * @return
+	 * 		True if the columns are drawn right to left.
+	 */
+	public boolean isMirrored() {
+		return this.mirrored;
+	}
+
+	/**
+	 * Gets the box the picture covers as it is drawn, with mirroring
+	 * applied.
+	 * 
+	 * @return
+	 * 		The bounds around the origin of the actor.
+	 */
+	public PictureBounds getBounds() {
+		return this.bounds;
+	}
+
+	@Override
+	public String toString() {
+		return this.reference.getLump().getName() + (this.mirrored ? " mirrored" : "");
+	}
+}
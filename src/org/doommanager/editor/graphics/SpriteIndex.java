@@ -0,0 +1,404 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.graphics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.convert.Namespace;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.LumpReference;
+import org.doommanager.editor.file.PK3Entry;
+import org.doommanager.editor.file.PK3File;
+
+/**
+ * Finds the picture of any sprite, frame and rotation without searching
+ * the sprite lumps. Sprite lump names hold the sprite name in their first
+ * four characters, then a frame letter and a rotation digit, and optionally a
+ * second frame and rotation that use the same picture mirrored, so TROOA2A8
+ * is frame A of TROO seen from rotation 2, and mirrored from rotation 8.
+ * Rotation 0 means the picture is used from every side.
+ * <p>
+ * The index is built once for a load order. Like the engine, a lump in a
+ * later file replaces a lump of the same name in an earlier one, and a later
+ * lump for a frame replaces the rotations of an earlier lump it overlaps.
+ * The bounds of every picture are read from its header only, so no picture
+ * is decoded until it is drawn.
+ */
+public class SpriteIndex {
+
+	/**
+	 * The number of frames a sprite can have, A to Z and the three
+	 * characters after Z.
+	 */
+	public static final int MAX_FRAMES = 29;
+
+	/**
+	 * The number of rotations a frame can have besides rotation 0.
+	 */
+	public static final int ROTATIONS = 8;
+
+	/**
+	 * The sprites by their upper case name.
+	 */
+	private final Map<String, Sprite> sprites;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SpriteIndex.class.getName());
+
+	/**
+	 * Builds the index of the sprites of a load order.
+	 * 
+	 * @param loadOrder
+	 * 		The archives in the order they are loaded, the IWAD first.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the load order is null.
+	 */
+	public SpriteIndex(List<? extends DoomFile> loadOrder) {
+		if (loadOrder == null) {
+			NullPointerException e = new NullPointerException("Provided a null load order to SpriteIndex.");
+			log.log(Level.SEVERE, "SpriteIndex load order is null", e);
+			throw e;
+		}
+		long start = System.nanoTime();
+
+		// A name that comes again moves to the end, so the order is the one the
+		// surviving lumps were loaded in.
+		LinkedHashMap<String, LumpReference> lumps = new LinkedHashMap<>();
+		for (DoomFile file : loadOrder)
+			collectSpriteLumps(file, lumps);
+
+		this.sprites = new HashMap<>();
+		int skipped = 0;
+		for (Map.Entry<String, LumpReference> entry : lumps.entrySet())
+			if (!install(entry.getKey(), entry.getValue()))
+				skipped++;
+		for (Sprite sprite : this.sprites.values())
+			sprite.finish();
+		log.log(Level.INFO, String.format("Indexed %d sprites from %d lumps in %.1fms, skipped %d", this.sprites.size(), lumps.size(),
+				(System.nanoTime() - start) / 1e6, skipped));
+	}
+
+	/**
+	 * Collects the lumps in the sprite namespace of an archive, which is the
+	 * S_START to S_END range of a wad, or the sprites folder of a PK3.
+	 * 
+	 * @param file
+	 * 		The archive.
+	 * 
+	 * @param lumps
+	 * 		Where the lumps go by upper case name.
+	 */
+	private static void collectSpriteLumps(DoomFile file, LinkedHashMap<String, LumpReference> lumps) {
+		boolean pk3 = file instanceof PK3File;
+		boolean inSprites = false;
+		for (Lump lump : file.getLumps()) {
+			String name = lump.getName();
+			if (pk3) {
+				if (Namespace.fromPath(name) != Namespace.SPRITES)
+					continue;
+				name = Namespace.toLumpName(name);
+			} else {
+				Namespace opened = Namespace.fromStartMarker(name);
+				if (opened != null) {
+					inSprites = opened == Namespace.SPRITES;
+					continue;
+				}
+				if (inSprites && Namespace.SPRITES.isEndMarker(name)) {
+					inSprites = false;
+					continue;
+				}
+				if (!inSprites || lump.getSize() == 0)
+					continue;
+			}
+			name = name.toUpperCase(Locale.ROOT);
+			lumps.remove(name);
+			lumps.put(name, new LumpReference(file, lump));
+		}
+	}
+
+	/**
+	 * Adds a sprite lump to its frames.
+	 * 
+	 * @param name
+	 * 		The upper case lump name.
+	 * 
+	 * @param reference
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		False if the name is not a sprite name or the lump is not a
+	 * 		picture.
+	 */
+	private boolean install(String name, LumpReference reference) {
+		if (name.length() != 6 && name.length() != 8)
+			return false;
+		int frame = name.charAt(4) - 'A';
+		int rotation = name.charAt(5) - '0';
+		if (!isValid(frame, rotation))
+			return false;
+		int mirroredFrame = -1;
+		int mirroredRotation = -1;
+		if (name.length() == 8) {
+			mirroredFrame = name.charAt(6) - 'A';
+			mirroredRotation = name.charAt(7) - '0';
+			if (!isValid(mirroredFrame, mirroredRotation))
+				return false;
+		}
+		PictureBounds bounds = readBounds(reference);
+		if (bounds == null) {
+			log.log(Level.FINE, "Sprite lump " + reference + " is not a Doom picture");
+			return false;
+		}
+
+		Sprite sprite = this.sprites.computeIfAbsent(name.substring(0, 4), key -> new Sprite());
+		sprite.set(frame, rotation, new SpriteFrame(reference, false, bounds));
+		if (mirroredFrame >= 0)
+			sprite.set(mirroredFrame, mirroredRotation, new SpriteFrame(reference, true, bounds));
+		return true;
+	}
+
+	/**
+	 * Checks a frame and rotation taken from a lump name.
+	 * 
+	 * @param frame
+	 * 		The frame.
+	 * 
+	 * @param rotation
+	 * 		The rotation.
+	 * 
+	 * @return
+	 * 		True if both are in range.
+	 */
+	private static boolean isValid(int frame, int rotation) {
+		return frame >= 0 && frame < MAX_FRAMES && rotation >= 0 && rotation <= ROTATIONS;
+	}
+
+	/**
+	 * Reads the bounds of a picture from its header. Deflated PK3 entries
+	 * are only inflated as far as the header.
+	 * 
+	 * @param reference
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		The bounds, or null if the lump is not a picture.
+	 */
+	private static PictureBounds readBounds(LumpReference reference) {
+		Lump lump = reference.getLump();
+		try {
+			ByteBuffer header;
+			if (reference.getFile() instanceof PK3File)
+				header = ((PK3File)reference.getFile()).getLumpStart((PK3Entry)lump, PictureWriter.HEADER_SIZE);
+			else
+				header = reference.getData();
+			return PictureBounds.read(header, lump.getSize());
+		} catch (IllegalStateException e) {
+			log.log(Level.WARNING, "Unable to read sprite lump " + reference, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Finds a sprite.
+	 * 
+	 * @param name
+	 * 		The sprite name, in any case.
+	 * 
+	 * @return
+	 * 		The sprite, or null if there is none or the name is null.
+	 */
+	private Sprite find(String name) {
+		return name == null ? null : this.sprites.get(name.toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Gets the names of every sprite.
+	 * 
+	 * @return
+	 * 		The upper case names in alphabetical order.
+	 */
+	public List<String> getSpriteNames() {
+		List<String> names = new ArrayList<>(this.sprites.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Gets the number of sprites.
+	 * 
+	 * @return
+	 * 		The number of sprite names with at least one frame.
+	 */
+	public int getSpriteCount() {
+		return this.sprites.size();
+	}
+
+	/**
+	 * Gets the number of frames of a sprite.
+	 * 
+	 * @param name
+	 * 		The sprite name.
+	 * 
+	 * @return
+	 * 		One more than the last frame, or 0 if there is no such sprite.
+	 * 		Frames before the last one may be missing.
+	 */
+	public int getFrameCount(String name) {
+		Sprite sprite = find(name);
+		return sprite == null ? 0 : sprite.frameCount;
+	}
+
+	/**
+	 * Checks if a frame has a picture from every side.
+	 * 
+	 * @param name
+	 * 		The sprite name.
+	 * 
+	 * @param frame
+	 * 		The frame, 0 for A.
+	 * 
+	 * @return
+	 * 		True if the frame has rotation 0 or all of rotations 1 to 8.
+	 */
+	public boolean isComplete(String name, int frame) {
+		Sprite sprite = find(name);
+		if (sprite == null || frame < 0 || frame >= MAX_FRAMES)
+			return false;
+		SpriteFrame[] rotations = sprite.frames[frame];
+		if (rotations[0] != null)
+			return true;
+		for (int rotation = 1; rotation <= ROTATIONS; rotation++)
+			if (rotations[rotation] == null)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Gets the picture of a frame seen from one side.
+	 * 
+	 * @param name
+	 * 		The sprite name.
+	 * 
+	 * @param frame
+	 * 		The frame, 0 for A.
+	 * 
+	 * @param rotation
+	 * 		The rotation from 1, the front, to 8. 0 gives the front too.
+	 * 
+	 * @return
+	 * 		The frame, or null if there is no picture for it.
+	 */
+	public SpriteFrame getFrame(String name, int frame, int rotation) {
+		Sprite sprite = find(name);
+		if (sprite == null || frame < 0 || frame >= MAX_FRAMES || rotation < 0 || rotation > ROTATIONS)
+			return null;
+		SpriteFrame[] rotations = sprite.frames[frame];
+		if (rotations[0] != null)
+			return rotations[0];
+		return rotations[Math.max(rotation, 1)];
+	}
+
+	/**
+	 * Gets the box that every picture of a sprite fits in, so all of its
+	 * frames can be drawn at one size and place.
+	 * 
+	 * @param name
+	 * 		The sprite name.
+	 * 
+	 * @return
+	 * 		The union of the bounds of all frames and rotations, or null if
+	 * 		there is no such sprite.
+	 */
+	public PictureBounds getBounds(String name) {
+		Sprite sprite = find(name);
+		return sprite == null ? null : sprite.bounds;
+	}
+
+	/**
+	 * The frames of one sprite.
+	 */
+	private static final class Sprite {
+
+		/**
+		 * The pictures by frame and rotation, with rotation 0 at index 0.
+		 */
+		private final SpriteFrame[][] frames = new SpriteFrame[MAX_FRAMES][ROTATIONS + 1];
+
+		/**
+		 * One more than the last frame with a picture.
+		 */
+		private int frameCount;
+
+		/**
+		 * The union of the bounds of all pictures.
+		 */
+		private PictureBounds bounds;
+
+		/**
+		 * Sets the picture of a frame and rotation. Rotation 0 replaces
+		 * every rotation of the frame, and any other rotation replaces a
+		 * rotation 0 that was set before.
+		 * 
+		 * @param frame
+		 * 		The frame.
+		 * 
+		 * @param rotation
+		 * 		The rotation.
+		 * 
+		 * @param picture
+		 * 		The picture.
+		 */
+		private void set(int frame, int rotation, SpriteFrame picture) {
+			SpriteFrame[] rotations = this.frames[frame];
+			if (rotation == 0)
+				Arrays.fill(rotations, null);
+			else
+				rotations[0] = null;
+			rotations[rotation] = picture;
+		}
+
+		/**
+		 * Works out the frame count and bounds once every lump is in.
+		 */
+		private void finish() {
+			for (int frame = 0; frame < MAX_FRAMES; frame++) {
+				for (SpriteFrame picture : this.frames[frame]) {
+					if (picture == null)
+						continue;
+					this.frameCount = frame + 1;
+					this.bounds = this.bounds == null ? picture.getBounds() : this.bounds.union(picture.getBounds());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,832 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.doommanager.editor.convert.Namespace;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+import org.doommanager.util.ByteHandler;
+
+/**
+ * Checks Doom and Hexen format maps before a release. Each map is decoded
+ * in a single pass over its lumps, which gathers the element counts, the
+ * texture, flat and thing usage, and the problems that can be seen on a
+ * single element.
+ * 
+ * Reachability is found with a union-find over the sectors. Two-sided
+ * linedefs join the sectors on their sides, and teleporters join their front
+ * sector with their destination. This does not know about heights, keys or
+ * one-way drops, so a sector that is reported is certainly unreachable but
+ * one that is not might still be.
+ * 
+ * When resources are given, the texture and flat names are checked against
+ * TEXTURE1, TEXTURE2 and the flat and texture namespaces of those resources.
+ */
+public class MapAnalyzer {
+
+	/**
+	 * The packed name that means no texture.
+	 */
+	private static final long NO_TEXTURE = NameCounter.packName("-");
+
+	/**
+	 * The packed name of the sky flat.
+	 */
+	private static final long SKY_FLAT = NameCounter.packName("F_SKY1");
+
+	/**
+	 * The thing type of the player 1 start.
+	 */
+	private static final int PLAYER_START = 1;
+
+	/**
+	 * The thing type of a teleport destination.
+	 */
+	private static final int TELEPORT_DESTINATION = 14;
+
+	/**
+	 * The Doom and Boom specials that teleport to a tagged sector, sorted.
+	 */
+	private static final int[] DOOM_TELEPORTS = { 39, 97, 125, 126, 174, 195, 207, 208, 209, 210, 268, 269 };
+
+	/**
+	 * The Hexen special Teleport, with the thing id in its first argument and
+	 * the sector tag in its second.
+	 */
+	private static final int HEXEN_TELEPORT = 70;
+
+	/**
+	 * The Hexen special Teleport_NoFog, with the thing id in its first
+	 * argument and the sector tag in its third.
+	 */
+	private static final int HEXEN_TELEPORT_NO_FOG = 71;
+
+	/**
+	 * The Doom thing flag for things that only appear in multiplayer.
+	 */
+	private static final int DOOM_MULTIPLAYER_ONLY = 0x10;
+
+	/**
+	 * The Hexen thing flag for things that appear in single player.
+	 */
+	private static final int HEXEN_SINGLE_PLAYER = 0x100;
+
+	/**
+	 * Marks a teleport destination whose sector has not been looked up yet.
+	 */
+	private static final int UNKNOWN = -2;
+
+	/**
+	 * The known wall textures, or null to skip the check.
+	 */
+	private final NameCounter knownTextures;
+
+	/**
+	 * The known flats, or null to skip the check.
+	 */
+	private final NameCounter knownFlats;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(MapAnalyzer.class.getName());
+
+	/**
+	 * Creates an analyzer that does not check texture and flat names.
+	 */
+	public MapAnalyzer() {
+		this.knownTextures = null;
+		this.knownFlats = null;
+	}
+
+	/**
+	 * Creates an analyzer that checks texture and flat names against a set
+	 * of resources, which usually are the IWAD and the map's own archive.
+	 * If the resources define no textures or no flats, that check is skipped.
+	 * 
+	 * @param resources
+	 * 		The archives to take the names from.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the resources are null.
+	 */
+	public MapAnalyzer(Collection<? extends DoomFile> resources) {
+		if (resources == null) {
+			NullPointerException e = new NullPointerException("Provided null resources to MapAnalyzer.");
+			log.log(Level.SEVERE, "MapAnalyzer resources are null", e);
+			throw e;
+		}
+		NameCounter textures = new NameCounter();
+		NameCounter flats = new NameCounter();
+		for (DoomFile file : resources)
+			collectNames(file, textures, flats);
+		this.knownTextures = textures.size() == 0 ? null : textures;
+		this.knownFlats = flats.size() == 0 ? null : flats;
+	}
+
+	/**
+	 * Collects the texture and flat names an archive defines.
+	 * 
+	 * @param file
+	 * 		The archive.
+	 * 
+	 * @param textures
+	 * 		Where texture names go.
+	 * 
+	 * @param flats
+	 * 		Where flat names go.
+	 */
+	private static void collectNames(DoomFile file, NameCounter textures, NameCounter flats) {
+		boolean pk3 = file instanceof PK3File;
+		Namespace namespace = null;
+		for (Lump lump : file.getLumps()) {
+			String name = lump.getName();
+			if (pk3) {
+				namespace = Namespace.fromPath(name);
+				name = Namespace.toLumpName(name);
+			} else {
+				Namespace opened = Namespace.fromStartMarker(name);
+				if (opened != null) {
+					namespace = opened;
+					continue;
+				}
+				if (namespace != null && namespace.isEndMarker(name)) {
+					namespace = null;
+					continue;
+				}
+				if (Namespace.isSubMarker(name))
+					continue;
+			}
+			if (namespace == Namespace.FLATS)
+				flats.increment(NameCounter.packName(name));
+			else if (namespace == Namespace.TEXTURES)
+				textures.increment(NameCounter.packName(name));
+			else if (namespace == null && (name.equalsIgnoreCase("TEXTURE1") || name.equalsIgnoreCase("TEXTURE2"))) {
+				BufferLease data = file.getLumpData(lump, BufferPool.getShared());
+				try {
+					readTextureNames(new ByteHandler(data.getBuffer(), ByteOrder.LITTLE_ENDIAN), textures);
+				} finally {
+					data.dispose();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the names out of a TEXTURE1 or TEXTURE2 lump. Offsets that point
+	 * outside of the lump are skipped.
+	 * 
+	 * @param handler
+	 * 		The lump data.
+	 * 
+	 * @param textures
+	 * 		Where the names go.
+	 */
+	private static void readTextureNames(ByteHandler handler, NameCounter textures) {
+		if (handler.size() < 4)
+			return;
+		long count = handler.getIntUnsigned(0);
+		for (int i = 0; i < count && 8 + i * 4 <= handler.size(); i++) {
+			long offset = handler.getIntUnsigned(4 + i * 4);
+			if (offset + 8 <= handler.size())
+				textures.increment(NameCounter.packName(handler, (int)offset));
+		}
+	}
+
+	/**
+	 * Analyzes every map of several archives in parallel.
+	 * 
+	 * @param files
+	 * 		The archives.
+	 * 
+	 * @return
+	 * 		The reports, in archive and map order.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the archives are null.
+	 */
+	public List<MapReport> analyzeAll(Collection<? extends DoomFile> files) {
+		if (files == null) {
+			NullPointerException e = new NullPointerException("Provided null files to MapAnalyzer.");
+			log.log(Level.SEVERE, "MapAnalyzer files are null", e);
+			throw e;
+		}
+		long start = System.nanoTime();
+		List<MapReference> maps = files.parallelStream().flatMap(file -> MapReference.findMaps(file).stream()).collect(Collectors.toList());
+		List<MapReport> reports = maps.parallelStream().map(this::analyze).collect(Collectors.toList());
+		log.log(Level.INFO, String.format("Analyzed %d maps in %d files in %.1fms", maps.size(), files.size(), (System.nanoTime() - start) / 1e6));
+		return reports;
+	}
+
+	/**
+	 * Analyzes every map of an archive in parallel.
+	 * 
+	 * @param file
+	 * 		The archive.
+	 * 
+	 * @return
+	 * 		The reports, in map order.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the archive is null.
+	 */
+	public List<MapReport> analyzeAll(DoomFile file) {
+		return analyzeAll(Collections.singletonList(file));
+	}
+
+	/**
+	 * Analyzes a map. UDMF maps are not decoded, their report only holds an
+	 * UNSUPPORTED_FORMAT finding.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The report.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the map is null.
+	 */
+	public MapReport analyze(MapReference map) {
+		if (map == null) {
+			NullPointerException e = new NullPointerException("Provided a null map to MapAnalyzer.");
+			log.log(Level.SEVERE, "MapAnalyzer map is null", e);
+			throw e;
+		}
+		MapReport report = new MapReport(map.getFile().getFilePath(), map.getName());
+		if (map.isUDMF()) {
+			report.addFinding(MapFindingType.UNSUPPORTED_FORMAT, -1, "UDMF");
+			return report;
+		}
+		Pass pass = new Pass(map, report);
+		try {
+			pass.run();
+		} finally {
+			pass.dispose();
+		}
+		return report;
+	}
+
+	/**
+	 * The state of analyzing one map.
+	 */
+	private final class Pass {
+
+		/**
+		 * The report to fill.
+		 */
+		private final MapReport report;
+
+		/**
+		 * True if the map is in Hexen format.
+		 */
+		private final boolean hexen;
+
+		/**
+		 * The data of the map lumps.
+		 */
+		private final ByteHandler vertices, lines, sides, sectors, things;
+
+		/**
+		 * The leases of the map lump data, given back when the pass is done.
+		 */
+		private final List<BufferLease> leases = new ArrayList<>(5);
+
+		/**
+		 * The vertex coordinates.
+		 */
+		private int[] vertexX, vertexY;
+
+		/**
+		 * The floor and ceiling heights and tag of each sector.
+		 */
+		private int[] floor, ceiling, tag;
+
+		/**
+		 * True for sectors with a sky ceiling.
+		 */
+		private boolean[] sky;
+
+		/**
+		 * True for sectors that a sidedef refers to.
+		 */
+		private boolean[] referenced;
+
+		/**
+		 * The packed upper, lower and middle texture of each sidedef.
+		 */
+		private long[] upper, lower, middle;
+
+		/**
+		 * The sector of each sidedef, or -1 if it is invalid.
+		 */
+		private int[] sideSector;
+
+		/**
+		 * The vertices and sidedefs of each linedef, with -1 for invalid ones.
+		 */
+		private int[] lineStart, lineEnd, lineFront, lineBack;
+
+		/**
+		 * The union-find parent of each sector.
+		 */
+		private int[] parent;
+
+		/**
+		 * The number of sectors in each union-find set, valid for roots.
+		 */
+		private int[] setSize;
+
+		/**
+		 * The sectors sorted by tag, each as the tag in the high and the
+		 * sector in the low half.
+		 */
+		private long[] sectorsByTag;
+
+		/**
+		 * Creates the state for a map.
+		 * 
+		 * @param map
+		 * 		The map.
+		 * 
+		 * @param report
+		 * 		The report to fill.
+		 */
+		private Pass(MapReference map, MapReport report) {
+			this.report = report;
+			this.hexen = map.isHexen();
+			try {
+				this.vertices = getLumpHandler(map, "VERTEXES");
+				this.lines = getLumpHandler(map, "LINEDEFS");
+				this.sides = getLumpHandler(map, "SIDEDEFS");
+				this.sectors = getLumpHandler(map, "SECTORS");
+				this.things = getLumpHandler(map, "THINGS");
+			} catch (RuntimeException e) {
+				dispose();
+				throw e;
+			}
+		}
+
+		/**
+		 * Gets the data of a map lump as a little endian handler over a
+		 * pooled buffer.
+		 * 
+		 * @param map
+		 * 		The map.
+		 * 
+		 * @param name
+		 * 		The lump name.
+		 * 
+		 * @return
+		 * 		The handler, which is empty if the map does not have the lump.
+		 */
+		private ByteHandler getLumpHandler(MapReference map, String name) {
+			Lump lump = map.getLump(name);
+			if (lump == null)
+				return new ByteHandler(new byte[0], ByteOrder.LITTLE_ENDIAN);
+			BufferLease lease = map.getFile().getLumpData(lump, BufferPool.getShared());
+			this.leases.add(lease);
+			return new ByteHandler(lease.getBuffer(), ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Gives back the map lump data. The handlers must not be used after
+		 * this.
+		 */
+		private void dispose() {
+			for (BufferLease lease : this.leases)
+				lease.dispose();
+			this.leases.clear();
+		}
+
+		/**
+		 * Runs the analysis.
+		 */
+		private void run() {
+			int vertexCount = this.vertices.size() / MapReference.VERTEX_SIZE;
+			int lineCount = this.lines.size() / MapReference.getRecordSize("LINEDEFS", this.hexen);
+			int sideCount = this.sides.size() / MapReference.SIDEDEF_SIZE;
+			int sectorCount = this.sectors.size() / MapReference.SECTOR_SIZE;
+			int thingCount = this.things.size() / MapReference.getRecordSize("THINGS", this.hexen);
+			this.report.setCounts(vertexCount, lineCount, sideCount, sectorCount, thingCount);
+
+			readVertices(vertexCount);
+			readSectors(sectorCount);
+			readSides(sideCount);
+			readLines(lineCount);
+			checkReachability(readThings(thingCount));
+		}
+
+		/**
+		 * Reads the vertex coordinates.
+		 * 
+		 * @param count
+		 * 		The number of vertices.
+		 */
+		private void readVertices(int count) {
+			this.vertexX = new int[count];
+			this.vertexY = new int[count];
+			for (int i = 0; i < count; i++) {
+				this.vertexX[i] = this.vertices.getShort(i * MapReference.VERTEX_SIZE);
+				this.vertexY[i] = this.vertices.getShort(i * MapReference.VERTEX_SIZE + 2);
+			}
+		}
+
+		/**
+		 * Reads the sectors, counts their flats and sets up the union-find.
+		 * 
+		 * @param count
+		 * 		The number of sectors.
+		 */
+		private void readSectors(int count) {
+			this.floor = new int[count];
+			this.ceiling = new int[count];
+			this.tag = new int[count];
+			this.sky = new boolean[count];
+			this.referenced = new boolean[count];
+			this.parent = new int[count];
+			this.setSize = new int[count];
+			this.sectorsByTag = new long[count];
+			for (int i = 0; i < count; i++) {
+				int offset = i * MapReference.SECTOR_SIZE;
+				this.floor[i] = this.sectors.getShort(offset);
+				this.ceiling[i] = this.sectors.getShort(offset + 2);
+				long floorFlat = NameCounter.packName(this.sectors, offset + 4);
+				long ceilingFlat = NameCounter.packName(this.sectors, offset + 12);
+				this.sky[i] = ceilingFlat == SKY_FLAT;
+				this.tag[i] = this.sectors.getShortUnsigned(offset + 24);
+				this.parent[i] = i;
+				this.setSize[i] = 1;
+				this.sectorsByTag[i] = (long)this.tag[i] << 32 | i;
+				countFlat(i, floorFlat);
+				countFlat(i, ceilingFlat);
+			}
+			Arrays.sort(this.sectorsByTag);
+		}
+
+		/**
+		 * Counts a flat and checks that it is known.
+		 * 
+		 * @param sector
+		 * 		The sector using the flat.
+		 * 
+		 * @param flat
+		 * 		The packed flat name.
+		 */
+		private void countFlat(int sector, long flat) {
+			this.report.flats.increment(flat);
+			if (knownFlats != null && knownFlats.get(flat) == 0)
+				this.report.addFinding(MapFindingType.UNKNOWN_FLAT, sector, NameCounter.unpackName(flat));
+		}
+
+		/**
+		 * Reads the sidedefs and counts their textures.
+		 * 
+		 * @param count
+		 * 		The number of sidedefs.
+		 */
+		private void readSides(int count) {
+			this.upper = new long[count];
+			this.lower = new long[count];
+			this.middle = new long[count];
+			this.sideSector = new int[count];
+			for (int i = 0; i < count; i++) {
+				int offset = i * MapReference.SIDEDEF_SIZE;
+				this.upper[i] = countTexture(i, NameCounter.packName(this.sides, offset + 4));
+				this.lower[i] = countTexture(i, NameCounter.packName(this.sides, offset + 12));
+				this.middle[i] = countTexture(i, NameCounter.packName(this.sides, offset + 20));
+				int sector = this.sides.getShortUnsigned(offset + 28);
+				if (sector >= this.floor.length) {
+					this.report.addFinding(MapFindingType.BAD_SECTOR_REFERENCE, i, "sector " + sector);
+					sector = -1;
+				} else {
+					this.referenced[sector] = true;
+				}
+				this.sideSector[i] = sector;
+			}
+		}
+
+		/**
+		 * Counts a wall texture and checks that it is known.
+		 * 
+		 * @param side
+		 * 		The sidedef using the texture.
+		 * 
+		 * @param texture
+		 * 		The packed texture name.
+		 * 
+		 * @return
+		 * 		The texture.
+		 */
+		private long countTexture(int side, long texture) {
+			if (texture == NO_TEXTURE || texture == 0)
+				return NO_TEXTURE;
+			this.report.textures.increment(texture);
+			if (knownTextures != null && knownTextures.get(texture) == 0)
+				this.report.addFinding(MapFindingType.UNKNOWN_TEXTURE, side, NameCounter.unpackName(texture));
+			return texture;
+		}
+
+		/**
+		 * Reads the linedefs, joins the sectors on both sides of two-sided
+		 * ones and checks for missing textures.
+		 * 
+		 * @param count
+		 * 		The number of linedefs.
+		 */
+		private void readLines(int count) {
+			int recordSize = MapReference.getRecordSize("LINEDEFS", this.hexen);
+			this.lineStart = new int[count];
+			this.lineEnd = new int[count];
+			this.lineFront = new int[count];
+			this.lineBack = new int[count];
+			for (int i = 0; i < count; i++) {
+				int offset = i * recordSize;
+				int start = this.lines.getShortUnsigned(offset);
+				int end = this.lines.getShortUnsigned(offset + 2);
+				int sideOffset = offset + (this.hexen ? 12 : 10);
+				int front = this.lines.getShortUnsigned(sideOffset);
+				int back = this.lines.getShortUnsigned(sideOffset + 2);
+				if (start >= this.vertexX.length || end >= this.vertexX.length) {
+					this.report.addFinding(MapFindingType.BAD_VERTEX_REFERENCE, i, null);
+					start = -1;
+				}
+				if (front >= this.sideSector.length) {
+					this.report.addFinding(MapFindingType.BAD_SIDEDEF_REFERENCE, i, front == 0xFFFF ? "no front" : "front " + front);
+					front = -1;
+				}
+				if (back >= this.sideSector.length) {
+					if (back != 0xFFFF)
+						this.report.addFinding(MapFindingType.BAD_SIDEDEF_REFERENCE, i, "back " + back);
+					back = -1;
+				}
+				this.lineStart[i] = start;
+				this.lineEnd[i] = end;
+				this.lineFront[i] = front;
+				this.lineBack[i] = back;
+
+				int frontSector = front < 0 ? -1 : this.sideSector[front];
+				int backSector = back < 0 ? -1 : this.sideSector[back];
+				if (frontSector >= 0 && backSector >= 0) {
+					union(frontSector, backSector);
+					checkSide(i, "front", front, frontSector, backSector);
+					checkSide(i, "back", back, backSector, frontSector);
+				} else if (front >= 0 && back < 0 && this.middle[front] == NO_TEXTURE) {
+					this.report.addFinding(MapFindingType.MISSING_TEXTURE, i, "front middle");
+				}
+			}
+		}
+
+		/**
+		 * Checks that the upper and lower textures of a sidedef are set where
+		 * the sector behind it leaves a gap. A gap between two sky ceilings
+		 * shows the sky, so it needs no upper texture.
+		 * 
+		 * @param line
+		 * 		The linedef.
+		 * 
+		 * @param name
+		 * 		Which side of the linedef it is.
+		 * 
+		 * @param side
+		 * 		The sidedef.
+		 * 
+		 * @param sector
+		 * 		The sector of the sidedef.
+		 * 
+		 * @param other
+		 * 		The sector on the other side.
+		 */
+		private void checkSide(int line, String name, int side, int sector, int other) {
+			if (this.ceiling[other] < this.ceiling[sector] && !(this.sky[sector] && this.sky[other]) && this.upper[side] == NO_TEXTURE)
+				this.report.addFinding(MapFindingType.MISSING_TEXTURE, line, name + " upper");
+			if (this.floor[other] > this.floor[sector] && this.lower[side] == NO_TEXTURE)
+				this.report.addFinding(MapFindingType.MISSING_TEXTURE, line, name + " lower");
+		}
+
+		/**
+		 * Reads the things, counts the single player things per skill and
+		 * joins teleporters with their destinations.
+		 * 
+		 * @param count
+		 * 		The number of things.
+		 * 
+		 * @return
+		 * 		The thing index of the player 1 start, or -1.
+		 */
+		private int readThings(int count) {
+			int recordSize = MapReference.getRecordSize("THINGS", this.hexen);
+			int base = this.hexen ? 2 : 0;
+			int playerStart = -1;
+			for (int i = 0; i < count; i++) {
+				int offset = i * recordSize + base;
+				int type = this.things.getShortUnsigned(offset + (this.hexen ? 8 : 6));
+				int flags = this.things.getShortUnsigned(offset + (this.hexen ? 10 : 8));
+				if (type == PLAYER_START && playerStart < 0)
+					playerStart = i;
+				boolean singlePlayer = this.hexen ? (flags & HEXEN_SINGLE_PLAYER) != 0 : (flags & DOOM_MULTIPLAYER_ONLY) == 0;
+				if (!singlePlayer)
+					continue;
+				for (int skill = MapReport.SKILL_EASY; skill <= MapReport.SKILL_HARD; skill++)
+					if ((flags & 1 << skill) != 0)
+						this.report.thingTypes[skill].increment(type);
+			}
+			joinTeleporters(count);
+			return playerStart;
+		}
+
+		/**
+		 * Joins the front sector of every teleporter with the sectors it
+		 * can teleport to.
+		 * 
+		 * @param thingCount
+		 * 		The number of things.
+		 */
+		private void joinTeleporters(int thingCount) {
+			int recordSize = MapReference.getRecordSize("LINEDEFS", this.hexen);
+			// The sector of each teleport destination, found when first needed.
+			int[] destinations = null;
+			for (int i = 0; i < this.lineFront.length; i++) {
+				int offset = i * recordSize;
+				if (this.lineFront[i] < 0 || this.sideSector[this.lineFront[i]] < 0)
+					continue;
+				int sector = this.sideSector[this.lineFront[i]];
+				if (!this.hexen) {
+					if (Arrays.binarySearch(DOOM_TELEPORTS, this.lines.getShortUnsigned(offset + 6)) >= 0)
+						joinTagged(sector, this.lines.getShortUnsigned(offset + 8));
+					continue;
+				}
+				int special = this.lines.getByteUnsigned(offset + 6);
+				if (special != HEXEN_TELEPORT && special != HEXEN_TELEPORT_NO_FOG)
+					continue;
+				int thingId = this.lines.getByteUnsigned(offset + 7);
+				int sectorTag = this.lines.getByteUnsigned(offset + (special == HEXEN_TELEPORT ? 8 : 9));
+				if (thingId == 0) {
+					joinTagged(sector, sectorTag);
+					continue;
+				}
+				for (int thing = 0; thing < thingCount; thing++) {
+					int thingOffset = thing * MapReference.HEXEN_THING_SIZE;
+					if (this.things.getShortUnsigned(thingOffset) != thingId || this.things.getShortUnsigned(thingOffset + 10) != TELEPORT_DESTINATION)
+						continue;
+					if (destinations == null) {
+						destinations = new int[thingCount];
+						Arrays.fill(destinations, UNKNOWN);
+					}
+					if (destinations[thing] == UNKNOWN)
+						destinations[thing] = sectorAt(this.things.getShort(thingOffset + 2), this.things.getShort(thingOffset + 4));
+					int destination = destinations[thing];
+					if (destination >= 0 && (sectorTag == 0 || this.tag[destination] == sectorTag))
+						union(sector, destination);
+				}
+			}
+		}
+
+		/**
+		 * Joins a sector with every sector that has a tag.
+		 * 
+		 * @param sector
+		 * 		The sector.
+		 * 
+		 * @param sectorTag
+		 * 		The tag, where 0 joins nothing.
+		 */
+		private void joinTagged(int sector, int sectorTag) {
+			if (sectorTag == 0)
+				return;
+			int index = Arrays.binarySearch(this.sectorsByTag, (long)sectorTag << 32);
+			for (int i = index < 0 ? -index - 1 : index; i < this.sectorsByTag.length && this.sectorsByTag[i] >>> 32 == sectorTag; i++)
+				union(sector, (int)this.sectorsByTag[i]);
+		}
+
+		/**
+		 * Reports the sectors that no sidedef uses, and the ones that are not
+		 * joined to the sector of the player start.
+		 * 
+		 * @param playerStart
+		 * 		The thing index of the player 1 start, or -1.
+		 */
+		private void checkReachability(int playerStart) {
+			int startSector = -1;
+			if (playerStart < 0) {
+				this.report.addFinding(MapFindingType.NO_PLAYER_START, -1, null);
+			} else {
+				int offset = playerStart * MapReference.getRecordSize("THINGS", this.hexen) + (this.hexen ? 2 : 0);
+				startSector = sectorAt(this.things.getShort(offset), this.things.getShort(offset + 2));
+				if (startSector < 0)
+					this.report.addFinding(MapFindingType.NO_PLAYER_START, playerStart, "outside of the map");
+			}
+			int startRoot = startSector < 0 ? -1 : find(startSector);
+			for (int i = 0; i < this.parent.length; i++) {
+				if (!this.referenced[i])
+					this.report.addFinding(MapFindingType.UNUSED_SECTOR, i, null);
+				else if (startRoot >= 0 && find(i) != startRoot)
+					this.report.addFinding(MapFindingType.UNREACHABLE_SECTOR, i, null);
+			}
+		}
+
+		/**
+		 * Finds the sector a point is in by casting a ray to the right and
+		 * taking the side of the first linedef it crosses.
+		 * 
+		 * @param x
+		 * 		The x coordinate.
+		 * 
+		 * @param y
+		 * 		The y coordinate.
+		 * 
+		 * @return
+		 * 		The sector, or -1 if the point is outside of the map.
+		 */
+		private int sectorAt(double x, double y) {
+			double nearest = Double.POSITIVE_INFINITY;
+			int sector = -1;
+			for (int i = 0; i < this.lineStart.length; i++) {
+				if (this.lineStart[i] < 0)
+					continue;
+				double x1 = this.vertexX[this.lineStart[i]], y1 = this.vertexY[this.lineStart[i]];
+				double x2 = this.vertexX[this.lineEnd[i]], y2 = this.vertexY[this.lineEnd[i]];
+				if ((y1 > y) == (y2 > y))
+					continue;
+				double crossing = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+				if (crossing < x || crossing >= nearest)
+					continue;
+				nearest = crossing;
+				// The front of a linedef is on its right.
+				int side = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1) <= 0 ? this.lineFront[i] : this.lineBack[i];
+				sector = side < 0 ? -1 : this.sideSector[side];
+			}
+			return sector;
+		}
+
+		/**
+		 * Finds the root of a sector, halving the path on the way.
+		 * 
+		 * @param sector
+		 * 		The sector.
+		 * 
+		 * @return
+		 * 		The root.
+		 */
+		private int find(int sector) {
+			while (this.parent[sector] != sector) {
+				this.parent[sector] = this.parent[this.parent[sector]];
+				sector = this.parent[sector];
+			}
+			return sector;
+		}
+
+		/**
+		 * Joins the sets of two sectors, hanging the smaller set under the
+		 * larger.
+		 * 
+		 * @param first
+		 * 		The first sector.
+		 * 
+		 * @param second
+		 * 		The second sector.
+		 */
+		private void union(int first, int second) {
+			int firstRoot = find(first);
+			int secondRoot = find(second);
+			if (firstRoot == secondRoot)
+				return;
+			if (this.setSize[firstRoot] < this.setSize[secondRoot]) {
+				int swap = firstRoot;
+				firstRoot = secondRoot;
+				secondRoot = swap;
+			}
+			this.parent[secondRoot] = firstRoot;
+			this.setSize[firstRoot] += this.setSize[secondRoot];
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+/**
+ * A problem found in a map, with the element it was found on.
+ */
+public class MapFinding {
+
+	/**
+	 * The kind of problem.
+	 */
+	private final MapFindingType type;
+
+	/**
+	 * The index of the sector, sidedef, linedef or thing the problem is on,
+	 * or -1 if it is about the whole map.
+	 */
+	private final int index;
+
+	/**
+	 * Extra detail, like a texture name, or null.
+	 */
+	private final String detail;
+
+	/**
+	 * Creates a finding.
+	 * 
+	 * @param type
+	 * 		The kind of problem.
+	 * 
+	 * @param index
+	 * 		The index of the element, or -1.
+	 * 
+	 * @param detail
+	 * 		Extra detail, or null.
+	 */
+	MapFinding(MapFindingType type, int index, String detail) {
+		this.type = type;
+		this.index = index;
+		this.detail = detail;
+	}
+
+	/**
+	 * Gets the kind of problem.
+	 * 
+	 * @return
+	 * 		The type.
+	 */
+	public MapFindingType getType() {
+		return this.type;
+	}
+
+	/**
+	 * Gets the index of the element the problem is on. The element kind
+	 * follows from the type.
+	 * 
+	 * @return
+	 * 		The index, or -1 if the problem is about the whole map.
+	 */
+	public int getIndex() {
+		return this.index;
+	}
+
+	/**
+	 * Gets extra detail about the problem.
+	 * 
+	 * @return
+	 * 		The detail, or null.
+	 */
+	public String getDetail() {
+		return this.detail;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(this.type.getDescription());
+		if (this.index >= 0)
+			builder.append(" [").append(this.index).append(']');
+		if (this.detail != null)
+			builder.append(": ").append(this.detail);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+/**
+ * The kinds of problems a map analysis can find.
+ */
+public enum MapFindingType {
+	UNREACHABLE_SECTOR("The sector cannot be reached from the player start"),
+	UNUSED_SECTOR("No sidedef refers to the sector"),
+	MISSING_TEXTURE("A texture that will be visible is not set"),
+	UNKNOWN_TEXTURE("The texture is not defined in any resource"),
+	UNKNOWN_FLAT("The flat is not defined in any resource"),
+	BAD_VERTEX_REFERENCE("A linedef refers to a vertex that does not exist"),
+	BAD_SIDEDEF_REFERENCE("A linedef has no front sidedef or refers to one that does not exist"),
+	BAD_SECTOR_REFERENCE("A sidedef refers to a sector that does not exist"),
+	NO_PLAYER_START("There is no player 1 start inside of the map"),
+	UNSUPPORTED_FORMAT("The map format cannot be analyzed");
+
+	/**
+	 * The description of the finding.
+	 */
+	private final String description;
+
+	/**
+	 * Creates a finding type.
+	 * 
+	 * @param description
+	 * 		The description of the finding.
+	 */
+	private MapFindingType(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * Gets a human readable description of the finding.
+	 * 
+	 * @return
+	 * 		The description.
+	 */
+	public String getDescription() {
+		return this.description;
+	}
+}
@@ -0,0 +1,784 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.text.TextLexer;
+import org.doommanager.editor.text.TokenType;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+import org.doommanager.util.ByteHandler;
+
+/**
+ * The vertices, linedefs and things of a map, kept in flat arrays so that
+ * maps with tens of thousands of lines take little memory and can be walked
+ * quickly when they are drawn. Doom, Hexen and UDMF maps can be read.
+ * Linedefs that point to vertices that do not exist are left out.
+ */
+public class MapGeometry {
+
+	/**
+	 * The value of a sidedef index that means there is no sidedef.
+	 */
+	public static final int NO_SIDEDEF = -1;
+
+	/**
+	 * The x of each vertex.
+	 */
+	private double[] vertexX;
+
+	/**
+	 * The y of each vertex.
+	 */
+	private double[] vertexY;
+
+	/**
+	 * The number of vertices.
+	 */
+	private int vertexCount;
+
+	/**
+	 * The start vertex of each linedef.
+	 */
+	private int[] lineStart;
+
+	/**
+	 * The end vertex of each linedef.
+	 */
+	private int[] lineEnd;
+
+	/**
+	 * The special of each linedef.
+	 */
+	private int[] lineSpecial;
+
+	/**
+	 * The front sidedef of each linedef, or NO_SIDEDEF.
+	 */
+	private int[] lineFront;
+
+	/**
+	 * The back sidedef of each linedef, or NO_SIDEDEF.
+	 */
+	private int[] lineBack;
+
+	/**
+	 * The number of linedefs.
+	 */
+	private int lineCount;
+
+	/**
+	 * The x of each thing.
+	 */
+	private double[] thingX;
+
+	/**
+	 * The y of each thing.
+	 */
+	private double[] thingY;
+
+	/**
+	 * The angle of each thing in degrees.
+	 */
+	private int[] thingAngle;
+
+	/**
+	 * The editor number of each thing.
+	 */
+	private int[] thingType;
+
+	/**
+	 * The number of things.
+	 */
+	private int thingCount;
+
+	/**
+	 * The smallest x of every vertex and thing.
+	 */
+	private double minX;
+
+	/**
+	 * The smallest y of every vertex and thing.
+	 */
+	private double minY;
+
+	/**
+	 * The largest x of every vertex and thing.
+	 */
+	private double maxX;
+
+	/**
+	 * The largest y of every vertex and thing.
+	 */
+	private double maxY;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(MapGeometry.class.getName());
+
+	/**
+	 * Creates empty geometry to be filled in by a reader.
+	 * 
+	 * @param vertices
+	 * 		The expected number of vertices.
+	 * 
+	 * @param lines
+	 * 		The expected number of linedefs.
+	 * 
+	 * @param things
+	 * 		The expected number of things.
+	 */
+	private MapGeometry(int vertices, int lines, int things) {
+		this.vertexX = new double[Math.max(vertices, 16)];
+		this.vertexY = new double[this.vertexX.length];
+		this.lineStart = new int[Math.max(lines, 16)];
+		this.lineEnd = new int[this.lineStart.length];
+		this.lineSpecial = new int[this.lineStart.length];
+		this.lineFront = new int[this.lineStart.length];
+		this.lineBack = new int[this.lineStart.length];
+		this.thingX = new double[Math.max(things, 16)];
+		this.thingY = new double[this.thingX.length];
+		this.thingAngle = new int[this.thingX.length];
+		this.thingType = new int[this.thingX.length];
+	}
+
+	/**
+	 * Reads the geometry of a map.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The geometry.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the map is null.
+	 */
+	public static MapGeometry read(MapReference map) {
+		if (map == null) {
+			NullPointerException e = new NullPointerException("Provided a null map to MapGeometry.");
+			log.log(Level.SEVERE, "MapGeometry map is null", e);
+			throw e;
+		}
+		MapGeometry geometry = map.isUDMF() ? readTextMap(map) : readBinary(map);
+		geometry.removeBrokenLines();
+		geometry.computeBounds();
+		return geometry;
+	}
+
+	/**
+	 * Gets the data of a map lump as a little endian handler over a pooled
+	 * buffer.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @param leases
+	 * 		Where the lease of the data goes, to be disposed by the caller once
+	 * 		the handler is no longer used.
+	 * 
+	 * @return
+	 * 		The handler, which is empty if the map does not have the lump.
+	 */
+	private static ByteHandler getLumpHandler(MapReference map, String name, List<BufferLease> leases) {
+		Lump lump = map.getLump(name);
+		DoomFile file = map.getFile();
+		if (lump == null)
+			return new ByteHandler(new byte[0], ByteOrder.LITTLE_ENDIAN);
+		BufferLease lease = file.getLumpData(lump, BufferPool.getShared());
+		leases.add(lease);
+		return new ByteHandler(lease.getBuffer(), ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Reads a Doom or Hexen format map. Trailing bytes that do not make up a
+	 * whole record are ignored.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The geometry without its bounds.
+	 */
+	private static MapGeometry readBinary(MapReference map) {
+		boolean hexen = map.isHexen();
+		List<BufferLease> leases = new ArrayList<>(3);
+		try {
+			ByteHandler vertices = getLumpHandler(map, "VERTEXES", leases);
+			ByteHandler lines = getLumpHandler(map, "LINEDEFS", leases);
+			ByteHandler things = getLumpHandler(map, "THINGS", leases);
+			int lineSize = MapReference.getRecordSize("LINEDEFS", hexen);
+			int thingSize = MapReference.getRecordSize("THINGS", hexen);
+			int vertexCount = vertices.size() / MapReference.VERTEX_SIZE;
+			int lineCount = lines.size() / lineSize;
+			int thingCount = things.size() / thingSize;
+			MapGeometry geometry = new MapGeometry(vertexCount, lineCount, thingCount);
+
+			for (int i = 0; i < vertexCount; i++) {
+				int offset = i * MapReference.VERTEX_SIZE;
+				geometry.addVertex(vertices.getShort(offset), vertices.getShort(offset + 2));
+			}
+			for (int i = 0; i < lineCount; i++) {
+				int offset = i * lineSize;
+				int special = hexen ? lines.getByteUnsigned(offset + 6) : lines.getShortUnsigned(offset + 6);
+				int sides = offset + (hexen ? 12 : 10);
+				geometry.addLine(lines.getShortUnsigned(offset), lines.getShortUnsigned(offset + 2), special,
+						toSidedef(lines.getShortUnsigned(sides)), toSidedef(lines.getShortUnsigned(sides + 2)));
+			}
+			for (int i = 0; i < thingCount; i++) {
+				int offset = i * thingSize + (hexen ? 2 : 0);
+				geometry.addThing(things.getShort(offset), things.getShort(offset + 2), things.getShortUnsigned(offset + (hexen ? 6 : 4)),
+						things.getShortUnsigned(offset + (hexen ? 8 : 6)));
+			}
+			return geometry;
+		} finally {
+			for (BufferLease lease : leases)
+				lease.dispose();
+		}
+	}
+
+	/**
+	 * Turns a binary sidedef number into an index.
+	 * 
+	 * @param sidedef
+	 * 		The unsigned sidedef number.
+	 * 
+	 * @return
+	 * 		The index, or NO_SIDEDEF for 0xFFFF.
+	 */
+	private static int toSidedef(int sidedef) {
+		return sidedef == 0xFFFF ? NO_SIDEDEF : sidedef;
+	}
+
+	/**
+	 * Reads a UDMF map from its TEXTMAP. Only the blocks and fields this
+	 * class keeps are looked at, everything else is skipped.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The geometry without its bounds.
+	 */
+	private static MapGeometry readTextMap(MapReference map) {
+		Lump lump = map.getLump("TEXTMAP");
+		TextLexer lexer = new TextLexer(map.getFile().getLumpData(lump));
+		MapGeometry geometry = new MapGeometry(0, 0, 0);
+		int count = lexer.getTokenCount();
+		double[] values = new double[5];
+		int token = nextToken(lexer, 0);
+		while (token < count) {
+			// Top level fields like the namespace are skipped up to their semicolon.
+			int block = token;
+			token = nextToken(lexer, token + 1);
+			if (token >= count || !lexer.tokenEquals(token, "{", false)) {
+				while (token < count && !lexer.tokenEquals(token, ";", false))
+					token = nextToken(lexer, token + 1);
+				token = nextToken(lexer, token + 1);
+				continue;
+			}
+			int kind = lexer.tokenEquals(block, "vertex", true) ? 0 : lexer.tokenEquals(block, "linedef", true) ? 1
+					: lexer.tokenEquals(block, "thing", true) ? 2 : -1;
+			Arrays.fill(values, 0);
+			if (kind == 1) {
+				values[3] = NO_SIDEDEF;
+				values[4] = NO_SIDEDEF;
+			}
+			token = nextToken(lexer, token + 1);
+			while (token < count && !lexer.tokenEquals(token, "}", false)) {
+				int key = token;
+				token = nextToken(lexer, token + 1);
+				if (token < count && lexer.tokenEquals(token, "=", false))
+					token = nextToken(lexer, token + 1);
+				boolean negative = false;
+				if (token < count && lexer.tokenEquals(token, "-", false)) {
+					negative = true;
+					token = nextToken(lexer, token + 1);
+				}
+				int field = kind < 0 || token >= count || lexer.getTokenType(token) != TokenType.NUMBER ? -1 : fieldIndex(lexer, key, kind);
+				if (field >= 0) {
+					double value = parseNumber(lexer.getTokenText(token));
+					values[field] = negative ? -value : value;
+				}
+				while (token < count && !lexer.tokenEquals(token, ";", false) && !lexer.tokenEquals(token, "}", false))
+					token = nextToken(lexer, token + 1);
+				if (token < count && lexer.tokenEquals(token, ";", false))
+					token = nextToken(lexer, token + 1);
+			}
+			token = nextToken(lexer, token + 1);
+
+			if (kind == 0)
+				geometry.addVertex(values[0], values[1]);
+			else if (kind == 1)
+				geometry.addLine((int)values[0], (int)values[1], (int)values[2], (int)values[3], (int)values[4]);
+			else if (kind == 2)
+				geometry.addThing(values[0], values[1], (int)values[2], (int)values[3]);
+		}
+		return geometry;
+	}
+
+	/**
+	 * Finds the next token that is not a comment.
+	 * 
+	 * @param lexer
+	 * 		The lexer.
+	 * 
+	 * @param token
+	 * 		The first token to look at.
+	 * 
+	 * @return
+	 * 		The token, or the token count if there are no more.
+	 */
+	private static int nextToken(TextLexer lexer, int token) {
+		int count = lexer.getTokenCount();
+		while (token < count && lexer.getTokenType(token) == TokenType.COMMENT)
+			token++;
+		return token;
+	}
+
+	/**
+	 * Finds where a UDMF field goes in the values of a block.
+	 * 
+	 * @param lexer
+	 * 		The lexer.
+	 * 
+	 * @param key
+	 * 		The token of the field name.
+	 * 
+	 * @param kind
+	 * 		0 for a vertex, 1 for a linedef and 2 for a thing.
+	 * 
+	 * @return
+	 * 		The index in the values, or -1 if the field is not kept.
+	 */
+	private static int fieldIndex(TextLexer lexer, int key, int kind) {
+		String[] fields;
+		switch (kind) {
+		case 0:
+			fields = new String[] { "x", "y" };
+			break;
+		case 1:
+			fields = new String[] { "v1", "v2", "special", "sidefront", "sideback" };
+			break;
+		default:
+			fields = new String[] { "x", "y", "angle", "type" };
+			break;
+		}
+		for (int i = 0; i < fields.length; i++)
+			if (lexer.tokenEquals(key, fields[i], true))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Parses a UDMF number, which can be a decimal, hexadecimal or floating
+	 * point number.
+	 * 
+	 * @param text
+	 * 		The number token.
+	 * 
+	 * @return
+	 * 		The value, or 0 if it cannot be parsed.
+	 */
+	private static double parseNumber(String text) {
+		try {
+			if (text.startsWith("0x") || text.startsWith("0X"))
+				return Long.parseLong(text.substring(2), 16);
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			log.log(Level.FINE, "Unable to parse UDMF number " + text);
+			return 0;
+		}
+	}
+
+	/**
+	 * Adds a vertex.
+	 * 
+	 * @param x
+	 * 		The x.
+	 * 
+	 * @param y
+	 * 		The y.
+	 */
+	private void addVertex(double x, double y) {
+		if (this.vertexCount == this.vertexX.length) {
+			this.vertexX = Arrays.copyOf(this.vertexX, this.vertexCount * 2);
+			this.vertexY = Arrays.copyOf(this.vertexY, this.vertexCount * 2);
+		}
+		this.vertexX[this.vertexCount] = x;
+		this.vertexY[this.vertexCount] = y;
+		this.vertexCount++;
+	}
+
+	/**
+	 * Adds a linedef. The vertices are not checked here, since UDMF allows
+	 * linedefs before their vertices, see removeBrokenLines().
+	 * 
+	 * @param start
+	 * 		The start vertex.
+	 * 
+	 * @param end
+	 * 		The end vertex.
+	 * 
+	 * @param special
+	 * 		The special.
+	 * 
+	 * @param front
+	 * 		The front sidedef, or NO_SIDEDEF.
+	 * 
+	 * @param back
+	 * 		The back sidedef, or NO_SIDEDEF.
+	 */
+	private void addLine(int start, int end, int special, int front, int back) {
+		if (this.lineCount == this.lineStart.length) {
+			int capacity = this.lineCount * 2;
+			this.lineStart = Arrays.copyOf(this.lineStart, capacity);
+			this.lineEnd = Arrays.copyOf(this.lineEnd, capacity);
+			this.lineSpecial = Arrays.copyOf(this.lineSpecial, capacity);
+			this.lineFront = Arrays.copyOf(this.lineFront, capacity);
+			this.lineBack = Arrays.copyOf(this.lineBack, capacity);
+		}
+		this.lineStart[this.lineCount] = start;
+		this.lineEnd[this.lineCount] = end;
+		this.lineSpecial[this.lineCount] = special;
+		this.lineFront[this.lineCount] = front;
+		this.lineBack[this.lineCount] = back;
+		this.lineCount++;
+	}
+
+	/**
+	 * Leaves out the linedefs with a vertex that does not exist, once every
+	 * vertex has been added. The linedefs after one that is left out move up.
+	 */
+	private void removeBrokenLines() {
+		int kept = 0;
+		for (int i = 0; i < this.lineCount; i++) {
+			int start = this.lineStart[i];
+			int end = this.lineEnd[i];
+			if (start < 0 || end < 0 || start >= this.vertexCount || end >= this.vertexCount) {
+				log.log(Level.FINE, "Skipping a linedef with a missing vertex: " + start + ", " + end);
+				continue;
+			}
+			this.lineStart[kept] = start;
+			this.lineEnd[kept] = end;
+			this.lineSpecial[kept] = this.lineSpecial[i];
+			this.lineFront[kept] = this.lineFront[i];
+			this.lineBack[kept] = this.lineBack[i];
+			kept++;
+		}
+		this.lineCount = kept;
+	}
+
+	/**
+	 * Adds a thing.
+	 * 
+	 * @param x
+	 * 		The x.
+	 * 
+	 * @param y
+	 * 		The y.
+	 * 
+	 * @param angle
+	 * 		The angle in degrees.
+	 * 
+	 * @param type
+	 * 		The editor number.
+	 */
+	private void addThing(double x, double y, int angle, int type) {
+		if (this.thingCount == this.thingX.length) {
+			int capacity = this.thingCount * 2;
+			this.thingX = Arrays.copyOf(this.thingX, capacity);
+			this.thingY = Arrays.copyOf(this.thingY, capacity);
+			this.thingAngle = Arrays.copyOf(this.thingAngle, capacity);
+			this.thingType = Arrays.copyOf(this.thingType, capacity);
+		}
+		this.thingX[this.thingCount] = x;
+		this.thingY[this.thingCount] = y;
+		this.thingAngle[this.thingCount] = angle;
+		this.thingType[this.thingCount] = type;
+		this.thingCount++;
+	}
+
+	/**
+	 * Works out the bounds of the map. A map with nothing in it gets empty
+	 * bounds at the origin.
+	 */
+	private void computeBounds() {
+		this.minX = Double.POSITIVE_INFINITY;
+		this.minY = Double.POSITIVE_INFINITY;
+		this.maxX = Double.NEGATIVE_INFINITY;
+		this.maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < this.vertexCount; i++) {
+			this.minX = Math.min(this.minX, this.vertexX[i]);
+			this.minY = Math.min(this.minY, this.vertexY[i]);
+			this.maxX = Math.max(this.maxX, this.vertexX[i]);
+			this.maxY = Math.max(this.maxY, this.vertexY[i]);
+		}
+		for (int i = 0; i < this.thingCount; i++) {
+			this.minX = Math.min(this.minX, this.thingX[i]);
+			this.minY = Math.min(this.minY, this.thingY[i]);
+			this.maxX = Math.max(this.maxX, this.thingX[i]);
+			this.maxY = Math.max(this.maxY, this.thingY[i]);
+		}
+		if (this.minX > this.maxX) {
+			this.minX = 0;
+			this.minY = 0;
+			this.maxX = 0;
+			this.maxY = 0;
+		}
+	}
+
+	/**
+	 * Gets the number of vertices.
+	 * 
+	 * @return
+	 * 		The vertex count.
+	 */
+	public int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * Gets the x of a vertex.
+	 * 
+	 * @param vertex
+	 * 		The vertex index.
+	 * 
+	 * @return
+	 * 		The x.
+	 */
+	public double getVertexX(int vertex) {
+		return this.vertexX[vertex];
+	}
+
+	/**
+	 * Gets the y of a vertex.
+	 * 
+	 * @param vertex
+	 * 		The vertex index.
+	 * 
+	 * @return
+	 * 		The y.
+	 */
+	public double getVertexY(int vertex) {
+		return this.vertexY[vertex];
+	}
+
+	/**
+	 * Gets the number of linedefs.
+	 * 
+	 * @return
+	 * 		The linedef count.
+	 */
+	public int getLineCount() {
+		return this.lineCount;
+	}
+
+	/**
+	 * Gets the start vertex of a linedef.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @return
+	 * 		The vertex index.
+	 */
+	public int getLineStart(int line) {
+		return this.lineStart[line];
+	}
+
+	/**
+	 * Gets the end vertex of a linedef.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @return
+	 * 		The vertex index.
+	 */
+	public int getLineEnd(int line) {
+		return this.lineEnd[line];
+	}
+
+	/**
+	 * Gets the special of a linedef.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @return
+	 * 		The special, or 0 for none.
+	 */
+	public int getLineSpecial(int line) {
+		return this.lineSpecial[line];
+	}
+
+	/**
+	 * Gets the front sidedef of a linedef.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @return
+	 * 		The sidedef index, or NO_SIDEDEF.
+	 */
+	public int getLineFront(int line) {
+		return this.lineFront[line];
+	}
+
+	/**
+	 * Gets the back sidedef of a linedef.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @return
+	 * 		The sidedef index, or NO_SIDEDEF.
+	 */
+	public int getLineBack(int line) {
+		return this.lineBack[line];
+	}
+
+	/**
+	 * Checks if a linedef has a sector on both sides.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @return
+	 * 		True if it has a back sidedef.
+	 */
+	public boolean isTwoSided(int line) {
+		return this.lineBack[line] != NO_SIDEDEF;
+	}
+
+	/**
+	 * Gets the number of things.
+	 * 
+	 * @return
+	 * 		The thing count.
+	 */
+	public int getThingCount() {
+		return this.thingCount;
+	}
+
+	/**
+	 * Gets the x of a thing.
+	 * 
+	 * @param thing
+	 * 		The thing index.
+	 * 
+	 * @return
+	 * 		The x.
+	 */
+	public double getThingX(int thing) {
+		return this.thingX[thing];
+	}
+
+	/**
+	 * Gets the y of a thing.
+	 * 
+	 * @param thing
+	 * 		The thing index.
+	 * 
+	 * @return
+	 * 		The y.
+	 */
+	public double getThingY(int thing) {
+		return this.thingY[thing];
+	}
+
+	/**
+	 * Gets the angle of a thing.
+	 * 
+	 * @param thing
+	 * 		The thing index.
+	 * 
+	 * @return
+	 * 		The angle in degrees, where 0 is east and 90 is north.
+	 */
+	public int getThingAngle(int thing) {
+		return this.thingAngle[thing];
+	}
+
+	/**
+	 * Gets the editor number of a thing.
+	 * 
+	 * @param thing
+	 * 		The thing index.
+	 * 
+	 * @return
+	 * 		The type.
+	 */
+	public int getThingType(int thing) {
+		return this.thingType[thing];
+	}
+
+	/**
+	 * Gets the smallest x of the map.
+	 * 
+	 * @return
+	 * 		The left edge of the bounds.
+	 */
+	public double getMinX() {
+		return this.minX;
+	}
+
+	/**
+	 * Gets the smallest y of the map.
+	 * 
+	 * @return
+	 * 		The bottom edge of the bounds.
+	 */
+	public double getMinY() {
+		return this.minY;
+	}
+
+	/**
+	 * Gets the largest x of the map.
+	 * 
+	 * @return
+	 * 		The right edge of the bounds.
+	 */
+	public double getMaxX() {
+		return this.maxX;
+	}
+
+	/**
+	 * Gets the largest y of the map.
+	 * 
+	 * @return
+	 * 		The top edge of the bounds.
+	 */
+	public double getMaxY() {
+		return this.maxY;
+	}
+}
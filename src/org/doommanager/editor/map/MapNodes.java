@@ -0,0 +1,418 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+/**
+ * The BSP nodes of a map, decoded into flat arrays in the model of the ZDoom
+ * extended format, which every other format fits into. Vertex numbers below
+ * the original vertex count refer to VERTEXES, the ones above it refer to the
+ * extra vertices the node builder added. Coordinates of extra vertices and
+ * partition lines are kept in 16.16 fixed point.
+ * 
+ * Nodes are read by NodeReader, usually through MapReference.getNodes so
+ * they are only decoded once something needs them.
+ */
+public class MapNodes {
+
+	/**
+	 * Set on a node child that is a subsector rather than a node.
+	 */
+	public static final int SUBSECTOR_CHILD = 0x80000000;
+
+	/**
+	 * The linedef of a miniseg, and the partner of a seg without one.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The format the nodes were read from.
+	 */
+	private final NodeFormat format;
+
+	/**
+	 * The number of vertices that come from VERTEXES.
+	 */
+	private final int originalVertexCount;
+
+	/**
+	 * The extra vertex coordinates in fixed point.
+	 */
+	int[] vertexX, vertexY;
+
+	/**
+	 * The start and end vertex, linedef, side and partner of each seg.
+	 */
+	int[] segStart, segEnd, segLine, segSide, segPartner;
+
+	/**
+	 * The first seg and seg count of each subsector.
+	 */
+	int[] subsectorFirst, subsectorCount;
+
+	/**
+	 * The partition line of each node in fixed point.
+	 */
+	int[] nodeX, nodeY, nodeDx, nodeDy;
+
+	/**
+	 * The bounding boxes of each node, eight per node: top, bottom, left and
+	 * right of the right child, then of the left child.
+	 */
+	short[] nodeBox;
+
+	/**
+	 * The right and left child of each node.
+	 */
+	int[] nodeChild;
+
+	/**
+	 * Creates nodes whose arrays are filled in by a reader.
+	 * 
+	 * @param format
+	 * 		The format the nodes are read from.
+	 * 
+	 * @param originalVertexCount
+	 * 		The number of vertices that come from VERTEXES.
+	 */
+	MapNodes(NodeFormat format, int originalVertexCount) {
+		this.format = format;
+		this.originalVertexCount = originalVertexCount;
+	}
+
+	/**
+	 * Checks that every reference points at something that exists, so the
+	 * getters can be used without bounds checks of their own.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If a reference is out of range.
+	 */
+	void validate() {
+		long vertexCount = (long)this.originalVertexCount + this.vertexX.length;
+		for (int i = 0; i < this.segStart.length; i++) {
+			if ((this.segStart[i] & 0xFFFFFFFFL) >= vertexCount || (this.segEnd[i] & 0xFFFFFFFFL) >= vertexCount)
+				throw new IllegalArgumentException("Seg " + i + " refers to a vertex that does not exist.");
+			if (this.segPartner[i] != NONE && (this.segPartner[i] & 0xFFFFFFFFL) >= this.segStart.length)
+				throw new IllegalArgumentException("Seg " + i + " has a partner that does not exist.");
+		}
+		for (int i = 0; i < this.subsectorFirst.length; i++)
+			if ((this.subsectorFirst[i] & 0xFFFFFFFFL) + (this.subsectorCount[i] & 0xFFFFFFFFL) > this.segStart.length)
+				throw new IllegalArgumentException("Subsector " + i + " refers to segs that do not exist.");
+		for (int i = 0; i < this.nodeChild.length; i++) {
+			int child = this.nodeChild[i];
+			int limit = (child & SUBSECTOR_CHILD) != 0 ? this.subsectorFirst.length : this.nodeX.length;
+			if ((child & ~SUBSECTOR_CHILD) >= limit)
+				throw new IllegalArgumentException("Node " + i / 2 + " has a child that does not exist.");
+		}
+	}
+
+	/**
+	 * Gets the format the nodes were read from.
+	 * 
+	 * @return
+	 * 		The format.
+	 */
+	public NodeFormat getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * Gets the number of vertices that come from VERTEXES. Vertex numbers
+	 * from this on refer to extra vertices.
+	 * 
+	 * @return
+	 * 		The number of original vertices.
+	 */
+	public int getOriginalVertexCount() {
+		return this.originalVertexCount;
+	}
+
+	/**
+	 * Gets the number of vertices the node builder added.
+	 * 
+	 * @return
+	 * 		The number of extra vertices.
+	 */
+	public int getExtraVertexCount() {
+		return this.vertexX.length;
+	}
+
+	/**
+	 * Gets the x coordinate of an extra vertex.
+	 * 
+	 * @param vertex
+	 * 		The vertex number, from the original vertex count on.
+	 * 
+	 * @return
+	 * 		The x coordinate.
+	 */
+	public double getExtraVertexX(int vertex) {
+		return this.vertexX[vertex - this.originalVertexCount] / 65536.0;
+	}
+
+	/**
+	 * Gets the y coordinate of an extra vertex.
+	 * 
+	 * @param vertex
+	 * 		The vertex number, from the original vertex count on.
+	 * 
+	 * @return
+	 * 		The y coordinate.
+	 */
+	public double getExtraVertexY(int vertex) {
+		return this.vertexY[vertex - this.originalVertexCount] / 65536.0;
+	}
+
+	/**
+	 * Gets the number of segs.
+	 * 
+	 * @return
+	 * 		The number of segs.
+	 */
+	public int getSegCount() {
+		return this.segStart.length;
+	}
+
+	/**
+	 * Gets the start vertex of a seg.
+	 * 
+	 * @param seg
+	 * 		The seg.
+	 * 
+	 * @return
+	 * 		The vertex number.
+	 */
+	public int getSegStart(int seg) {
+		return this.segStart[seg];
+	}
+
+	/**
+	 * Gets the end vertex of a seg. In the extended GL formats this is the
+	 * start of the next seg in the subsector.
+	 * 
+	 * @param seg
+	 * 		The seg.
+	 * 
+	 * @return
+	 * 		The vertex number.
+	 */
+	public int getSegEnd(int seg) {
+		return this.segEnd[seg];
+	}
+
+	/**
+	 * Gets the linedef a seg lies on.
+	 * 
+	 * @param seg
+	 * 		The seg.
+	 * 
+	 * @return
+	 * 		The linedef, or NONE for a miniseg.
+	 */
+	public int getSegLine(int seg) {
+		return this.segLine[seg];
+	}
+
+	/**
+	 * Gets the side of the linedef a seg lies on.
+	 * 
+	 * @param seg
+	 * 		The seg.
+	 * 
+	 * @return
+	 * 		0 for the front, 1 for the back.
+	 */
+	public int getSegSide(int seg) {
+		return this.segSide[seg];
+	}
+
+	/**
+	 * Gets the seg on the other side of a seg, which only GL formats store.
+	 * 
+	 * @param seg
+	 * 		The seg.
+	 * 
+	 * @return
+	 * 		The partner seg, or NONE.
+	 */
+	public int getSegPartner(int seg) {
+		return this.segPartner[seg];
+	}
+
+	/**
+	 * Gets the number of subsectors.
+	 * 
+	 * @return
+	 * 		The number of subsectors.
+	 */
+	public int getSubsectorCount() {
+		return this.subsectorFirst.length;
+	}
+
+	/**
+	 * Gets the first seg of a subsector.
+	 * 
+	 * @param subsector
+	 * 		The subsector.
+	 * 
+	 * @return
+	 * 		The first seg.
+	 */
+	public int getSubsectorFirstSeg(int subsector) {
+		return this.subsectorFirst[subsector];
+	}
+
+	/**
+	 * Gets the number of segs of a subsector.
+	 * 
+	 * @param subsector
+	 * 		The subsector.
+	 * 
+	 * @return
+	 * 		The number of segs.
+	 */
+	public int getSubsectorSegCount(int subsector) {
+		return this.subsectorCount[subsector];
+	}
+
+	/**
+	 * Gets the number of nodes. The last node is the root.
+	 * 
+	 * @return
+	 * 		The number of nodes.
+	 */
+	public int getNodeCount() {
+		return this.nodeX.length;
+	}
+
+	/**
+	 * Gets the x coordinate of the start of a partition line.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @return
+	 * 		The x coordinate.
+	 */
+	public double getNodeX(int node) {
+		return this.nodeX[node] / 65536.0;
+	}
+
+	/**
+	 * Gets the y coordinate of the start of a partition line.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @return
+	 * 		The y coordinate.
+	 */
+	public double getNodeY(int node) {
+		return this.nodeY[node] / 65536.0;
+	}
+
+	/**
+	 * Gets the x direction of a partition line.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @return
+	 * 		The x direction.
+	 */
+	public double getNodeDx(int node) {
+		return this.nodeDx[node] / 65536.0;
+	}
+
+	/**
+	 * Gets the y direction of a partition line.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @return
+	 * 		The y direction.
+	 */
+	public double getNodeDy(int node) {
+		return this.nodeDy[node] / 65536.0;
+	}
+
+	/**
+	 * Gets one edge of the bounding box of a node child.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @param side
+	 * 		0 for the right child, 1 for the left child.
+	 * 
+	 * @param edge
+	 * 		0 for the top, 1 for the bottom, 2 for the left and 3 for the
+	 * 		right edge.
+	 * 
+	 * @return
+	 * 		The coordinate of the edge.
+	 */
+	public int getNodeBox(int node, int side, int edge) {
+		return this.nodeBox[node * 8 + side * 4 + edge];
+	}
+
+	/**
+	 * Gets a child of a node.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @param side
+	 * 		0 for the right child, 1 for the left child.
+	 * 
+	 * @return
+	 * 		The child node, or the subsector with SUBSECTOR_CHILD set.
+	 */
+	public int getNodeChild(int node, int side) {
+		return this.nodeChild[node * 2 + side];
+	}
+
+	/**
+	 * Finds the subsector a point is in by walking down the tree from the
+	 * root, the way the engine does.
+	 * 
+	 * @param x
+	 * 		The x coordinate.
+	 * 
+	 * @param y
+	 * 		The y coordinate.
+	 * 
+	 * @return
+	 * 		The subsector, or -1 if there are none or the tree has a loop.
+	 */
+	public int findSubsector(double x, double y) {
+		if (this.nodeX.length == 0)
+			return this.subsectorFirst.length > 0 ? 0 : -1;
+		int node = this.nodeX.length - 1;
+		for (int depth = 0; depth < this.nodeX.length; depth++) {
+			double left = this.nodeDy[node] * (x - this.nodeX[node] / 65536.0);
+			double right = (y - this.nodeY[node] / 65536.0) * this.nodeDx[node];
+			int child = this.nodeChild[node * 2 + (right < left ? 0 : 1)];
+			if ((child & SUBSECTOR_CHILD) != 0)
+				return child & ~SUBSECTOR_CHILD;
+			node = child;
+		}
+		return -1;
+	}
+}
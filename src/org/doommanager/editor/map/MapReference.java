@@ -0,0 +1,348 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+
+/**
+ * The lumps that make up one map in a wad. A map starts with a header lump
+ * (like MAP01 or E1M1) that is followed by its data lumps, and ends at the
+ * first lump that is not a known map lump. The GL nodes that glBSP puts in
+ * a GL_ section right after the map are counted as part of it.
+ */
+public class MapReference {
+
+	/**
+	 * The size of a Doom format thing.
+	 */
+	public static final int THING_SIZE = 10;
+
+	/**
+	 * The size of a Hexen format thing.
+	 */
+	public static final int HEXEN_THING_SIZE = 20;
+
+	/**
+	 * The size of a Doom format linedef.
+	 */
+	public static final int LINEDEF_SIZE = 14;
+
+	/**
+	 * The size of a Hexen format linedef.
+	 */
+	public static final int HEXEN_LINEDEF_SIZE = 16;
+
+	/**
+	 * The size of a sidedef.
+	 */
+	public static final int SIDEDEF_SIZE = 30;
+
+	/**
+	 * The size of a vertex.
+	 */
+	public static final int VERTEX_SIZE = 4;
+
+	/**
+	 * The size of a sector.
+	 */
+	public static final int SECTOR_SIZE = 26;
+
+	/**
+	 * The size of a seg.
+	 */
+	public static final int SEG_SIZE = 12;
+
+	/**
+	 * The size of a subsector.
+	 */
+	public static final int SUBSECTOR_SIZE = 4;
+
+	/**
+	 * The size of a node.
+	 */
+	public static final int NODE_SIZE = 28;
+
+	/**
+	 * Every lump name that can follow a map header.
+	 */
+	private static final Set<String> MAP_LUMP_NAMES = new HashSet<>(Arrays.asList(
+			"THINGS", "LINEDEFS", "SIDEDEFS", "VERTEXES", "SEGS", "SSECTORS", "NODES", "SECTORS", "REJECT",
+			"BLOCKMAP", "BEHAVIOR", "SCRIPTS", "TEXTMAP", "ZNODES", "DIALOGUE", "ENDMAP",
+			"GL_VERT", "GL_SEGS", "GL_SSECT", "GL_NODES", "GL_PVS"));
+
+	/**
+	 * The file the map is in.
+	 */
+	private final DoomFile file;
+
+	/**
+	 * The header lump that names the map.
+	 */
+	private final Lump header;
+
+	/**
+	 * The data lumps after the header.
+	 */
+	private final List<Lump> lumps;
+
+	/**
+	 * The decoded nodes, or null until they are first asked for.
+	 */
+	private volatile MapNodes nodes;
+
+	/**
+	 * Creates a map reference.
+	 * 
+	 * @param file
+	 * 		The file the map is in.
+	 * 
+	 * @param header
+	 * 		The header lump.
+	 * 
+	 * @param lumps
+	 * 		The lumps of the map after the header.
+	 */
+	private MapReference(DoomFile file, Lump header, List<Lump> lumps) {
+		this.file = file;
+		this.header = header;
+		this.lumps = Collections.unmodifiableList(lumps);
+	}
+
+	/**
+	 * Finds every map in a file.
+	 * 
+	 * @param file
+	 * 		The file to search.
+	 * 
+	 * @return
+	 * 		The maps in directory order. If there are none, this will be an
+	 * 		empty list.
+	 */
+	public static List<MapReference> findMaps(DoomFile file) {
+		List<Lump> fileLumps = file.getLumps();
+		List<MapReference> maps = new ArrayList<>();
+		for (int i = 0; i + 1 < fileLumps.size(); i++) {
+			String next = fileLumps.get(i + 1).getName().toUpperCase();
+			if (!next.equals("THINGS") && !next.equals("TEXTMAP"))
+				continue;
+			int end = i + 1;
+			while (end < fileLumps.size() && (isMapLumpName(fileLumps.get(end).getName()) || isGLMarker(fileLumps, end, fileLumps.get(i).getName()))) {
+				end++;
+				if (fileLumps.get(end - 1).getName().equalsIgnoreCase("ENDMAP"))
+					break;
+			}
+			maps.add(new MapReference(file, fileLumps.get(i), new ArrayList<>(fileLumps.subList(i + 1, end))));
+			i = end - 1;
+		}
+		return maps;
+	}
+
+	/**
+	 * Checks if a lump is the marker of the GL nodes that glBSP adds after a
+	 * map, like GL_MAP01 or GL_LEVEL for maps with long names.
+	 * 
+	 * @param fileLumps
+	 * 		The lumps of the file.
+	 * 
+	 * @param index
+	 * 		The index of the lump.
+	 * 
+	 * @param mapName
+	 * 		The name of the map the marker would belong to.
+	 * 
+	 * @return
+	 * 		True if the lump is the GL marker of the map and is followed by
+	 * 		GL_VERT.
+	 */
+	private static boolean isGLMarker(List<Lump> fileLumps, int index, String mapName) {
+		String name = fileLumps.get(index).getName();
+		boolean marker = mapName.length() <= 5 ? name.equalsIgnoreCase("GL_" + mapName) : name.equalsIgnoreCase("GL_LEVEL");
+		return marker && index + 1 < fileLumps.size() && fileLumps.get(index + 1).getName().equalsIgnoreCase("GL_VERT");
+	}
+
+	/**
+	 * Checks if a lump name can be part of a map.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		True if it is one of the known map lump names.
+	 */
+	public static boolean isMapLumpName(String name) {
+		return MAP_LUMP_NAMES.contains(name.toUpperCase());
+	}
+
+	/**
+	 * Gets the size of a record in a binary map lump.
+	 * 
+	 * @param lumpName
+	 * 		The name of the map lump.
+	 * 
+	 * @param hexen
+	 * 		If the map is in Hexen format.
+	 * 
+	 * @return
+	 * 		The record size in bytes, or 0 if the lump is not made of fixed
+	 * 		size records.
+	 */
+	public static int getRecordSize(String lumpName, boolean hexen) {
+		switch (lumpName.toUpperCase()) {
+		case "THINGS":
+			return hexen ? HEXEN_THING_SIZE : THING_SIZE;
+		case "LINEDEFS":
+			return hexen ? HEXEN_LINEDEF_SIZE : LINEDEF_SIZE;
+		case "SIDEDEFS":
+			return SIDEDEF_SIZE;
+		case "VERTEXES":
+			return VERTEX_SIZE;
+		case "SECTORS":
+			return SECTOR_SIZE;
+		case "SEGS":
+			return SEG_SIZE;
+		case "SSECTORS":
+			return SUBSECTOR_SIZE;
+		case "NODES":
+			return NODE_SIZE;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Gets the file the map is in.
+	 * 
+	 * @return
+	 * 		The file.
+	 */
+	public DoomFile getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Gets the name of the map.
+	 * 
+	 * @return
+	 * 		The header lump name, like MAP01.
+	 */
+	public String getName() {
+		return this.header.getName();
+	}
+
+	/**
+	 * Gets the header lump.
+	 * 
+	 * @return
+	 * 		The map header.
+	 */
+	public Lump getHeader() {
+		return this.header;
+	}
+
+	/**
+	 * Gets the data lumps of the map.
+	 * 
+	 * @return
+	 * 		An unmodifiable list of the lumps after the header.
+	 */
+	public List<Lump> getLumps() {
+		return this.lumps;
+	}
+
+	/**
+	 * Gets one of the map lumps by name.
+	 * 
+	 * @param name
+	 * 		The lump name, like THINGS.
+	 * 
+	 * @return
+	 * 		The lump, or null if the map does not have it.
+	 */
+	public Lump getLump(String name) {
+		for (Lump lump : this.lumps)
+			if (lump.getName().equalsIgnoreCase(name))
+				return lump;
+		return null;
+	}
+
+	/**
+	 * Checks if this is a Hexen format map, which is signified by a BEHAVIOR
+	 * lump.
+	 * 
+	 * @return
+	 * 		True if it is in Hexen format.
+	 */
+	public boolean isHexen() {
+		return getLump("BEHAVIOR") != null;
+	}
+
+	/**
+	 * Checks if this is a UDMF map, which stores everything in TEXTMAP.
+	 * 
+	 * @return
+	 * 		True if it is a UDMF map.
+	 */
+	public boolean isUDMF() {
+		return getLump("TEXTMAP") != null;
+	}
+
+	/**
+	 * Finds the format of the nodes of the map without decoding them.
+	 * 
+	 * @return
+	 * 		The node format.
+	 */
+	public NodeFormat getNodeFormat() {
+		return NodeReader.detectFormat(this);
+	}
+
+	/**
+	 * Gets the nodes of the map. They are decoded when this is first called
+	 * and kept after that, so features that do not need nodes never pay for
+	 * decoding them. Two threads that ask at the same time may both decode
+	 * them, which is harmless.
+	 * 
+	 * @return
+	 * 		The nodes, or null if the map has none.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the nodes are damaged or in an unsupported format.
+	 */
+	public MapNodes getNodes() {
+		MapNodes decoded = this.nodes;
+		if (decoded == null) {
+			decoded = NodeReader.read(this);
+			this.nodes = decoded;
+		}
+		return decoded;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The result of analyzing one map: the problems that were found, the element
+ * counts, and how often each texture, flat and thing type is used.
+ */
+public class MapReport {
+
+	/**
+	 * The skill level of the first two skills.
+	 */
+	public static final int SKILL_EASY = 0;
+
+	/**
+	 * The skill level of the third skill.
+	 */
+	public static final int SKILL_MEDIUM = 1;
+
+	/**
+	 * The skill level of the last two skills.
+	 */
+	public static final int SKILL_HARD = 2;
+
+	/**
+	 * The path of the file the map is in.
+	 */
+	private final String filePath;
+
+	/**
+	 * The name of the map.
+	 */
+	private final String mapName;
+
+	/**
+	 * The problems that were found.
+	 */
+	private final List<MapFinding> findings = new ArrayList<>();
+
+	/**
+	 * The number of vertices, linedefs, sidedefs, sectors and things.
+	 */
+	private final int[] counts = new int[5];
+
+	/**
+	 * The wall texture usage by packed name.
+	 */
+	final NameCounter textures = new NameCounter();
+
+	/**
+	 * The flat usage by packed name.
+	 */
+	final NameCounter flats = new NameCounter();
+
+	/**
+	 * The single player thing type usage for each skill level.
+	 */
+	final NameCounter[] thingTypes = { new NameCounter(), new NameCounter(), new NameCounter() };
+
+	/**
+	 * Creates an empty report.
+	 * 
+	 * @param filePath
+	 * 		The path of the file the map is in.
+	 * 
+	 * @param mapName
+	 * 		The name of the map.
+	 */
+	MapReport(String filePath, String mapName) {
+		this.filePath = filePath;
+		this.mapName = mapName;
+	}
+
+	/**
+	 * Adds a finding.
+	 * 
+	 * @param type
+	 * 		The kind of problem.
+	 * 
+	 * @param index
+	 * 		The index of the element, or -1.
+	 * 
+	 * @param detail
+	 * 		Extra detail, or null.
+	 */
+	void addFinding(MapFindingType type, int index, String detail) {
+		this.findings.add(new MapFinding(type, index, detail));
+	}
+
+	/**
+	 * Sets the element counts.
+	 * 
+	 * @param vertices
+	 * 		The number of vertices.
+	 * 
+	 * @param lines
+	 * 		The number of linedefs.
+	 * 
+	 * @param sides
+	 * 		The number of sidedefs.
+	 * 
+	 * @param sectors
+	 * 		The number of sectors.
+	 * 
+	 * @param things
+	 * 		The number of things.
+	 */
+	void setCounts(int vertices, int lines, int sides, int sectors, int things) {
+		this.counts[0] = vertices;
+		this.counts[1] = lines;
+		this.counts[2] = sides;
+		this.counts[3] = sectors;
+		this.counts[4] = things;
+	}
+
+	/**
+	 * Gets the path of the file the map is in.
+	 * 
+	 * @return
+	 * 		The path.
+	 */
+	public String getFilePath() {
+		return this.filePath;
+	}
+
+	/**
+	 * Gets the name of the map.
+	 * 
+	 * @return
+	 * 		The name.
+	 */
+	public String getMapName() {
+		return this.mapName;
+	}
+
+	/**
+	 * Gets the problems that were found, in the order they were found.
+	 * 
+	 * @return
+	 * 		An unmodifiable list of findings.
+	 */
+	public List<MapFinding> getFindings() {
+		return Collections.unmodifiableList(this.findings);
+	}
+
+	/**
+	 * Gets the number of vertices.
+	 * 
+	 * @return
+	 * 		The number of vertices.
+	 */
+	public int getVertexCount() {
+		return this.counts[0];
+	}
+
+	/**
+	 * Gets the number of linedefs.
+	 * 
+	 * @return
+	 * 		The number of linedefs.
+	 */
+	public int getLineCount() {
+		return this.counts[1];
+	}
+
+	/**
+	 * Gets the number of sidedefs.
+	 * 
+	 * @return
+	 * 		The number of sidedefs.
+	 */
+	public int getSideCount() {
+		return this.counts[2];
+	}
+
+	/**
+	 * Gets the number of sectors.
+	 * 
+	 * @return
+	 * 		The number of sectors.
+	 */
+	public int getSectorCount() {
+		return this.counts[3];
+	}
+
+	/**
+	 * Gets the number of things, including those that are not in single
+	 * player.
+	 * 
+	 * @return
+	 * 		The number of things.
+	 */
+	public int getThingCount() {
+		return this.counts[4];
+	}
+
+	/**
+	 * Gets the number of single player things on a skill level.
+	 * 
+	 * @param skill
+	 * 		One of the skill constants.
+	 * 
+	 * @return
+	 * 		The number of things.
+	 */
+	public int getThingCount(int skill) {
+		NameCounter counter = this.thingTypes[skill];
+		int total = 0;
+		for (int slot = 0; slot < counter.getSlotCount(); slot++)
+			total += counter.getCount(slot);
+		return total;
+	}
+
+	/**
+	 * Gets how often each thing type appears in single player on a skill
+	 * level.
+	 * 
+	 * @param skill
+	 * 		One of the skill constants.
+	 * 
+	 * @return
+	 * 		The counts by thing type, sorted by type.
+	 */
+	public Map<Integer, Integer> getThingTypeUsage(int skill) {
+		NameCounter counter = this.thingTypes[skill];
+		Map<Integer, Integer> usage = new TreeMap<>();
+		for (int slot = 0; slot < counter.getSlotCount(); slot++)
+			if (counter.getCount(slot) != 0)
+				usage.put((int)counter.getKey(slot), counter.getCount(slot));
+		return usage;
+	}
+
+	/**
+	 * Gets how often each wall texture is used, not counting "-".
+	 * 
+	 * @return
+	 * 		The counts by texture name, sorted by name.
+	 */
+	public Map<String, Integer> getTextureUsage() {
+		return toNameMap(this.textures);
+	}
+
+	/**
+	 * Gets how often each flat is used.
+	 * 
+	 * @return
+	 * 		The counts by flat name, sorted by name.
+	 */
+	public Map<String, Integer> getFlatUsage() {
+		return toNameMap(this.flats);
+	}
+
+	/**
+	 * Turns a counter of packed names into a map.
+	 * 
+	 * @param counter
+	 * 		The counter.
+	 * 
+	 * @return
+	 * 		The counts by name, sorted by name.
+	 */
+	private static Map<String, Integer> toNameMap(NameCounter counter) {
+		Map<String, Integer> usage = new TreeMap<>();
+		for (int slot = 0; slot < counter.getSlotCount(); slot++)
+			if (counter.getCount(slot) != 0)
+				usage.put(NameCounter.unpackName(counter.getKey(slot)), counter.getCount(slot));
+		return usage;
+	}
+
+	@Override
+	public String toString() {
+		return this.mapName + " (" + this.findings.size() + " findings)";
+	}
+}
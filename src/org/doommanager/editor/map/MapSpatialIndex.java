@@ -0,0 +1,446 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A quadtree over the linedefs and things of a map, built once per map, that
+ * finds what is inside a view and what is under the mouse without looking at
+ * the whole map.
+ * 
+ * Each item is kept in the smallest node that holds all of it, so a linedef
+ * that crosses the middle of a node stays in that node instead of being split
+ * or copied into its children. A node therefore never holds a linedef longer
+ * than its own diagonal, which lets a query skip whole subtrees that are too
+ * small to be seen at the current zoom.
+ */
+public class MapSpatialIndex {
+
+	/**
+	 * The most items a node holds before it is split.
+	 */
+	private static final int NODE_CAPACITY = 16;
+
+	/**
+	 * The deepest a node can be, which bounds the tree for items that are all
+	 * in one place.
+	 */
+	private static final int MAX_DEPTH = 16;
+
+	/**
+	 * The geometry the index is over.
+	 */
+	private final MapGeometry geometry;
+
+	/**
+	 * The root of the linedef tree.
+	 */
+	private final Node lineRoot;
+
+	/**
+	 * The root of the thing tree.
+	 */
+	private final Node thingRoot;
+
+	/**
+	 * Builds the index of a map.
+	 * 
+	 * @param geometry
+	 * 		The map geometry.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the geometry is null.
+	 */
+	public MapSpatialIndex(MapGeometry geometry) {
+		if (geometry == null)
+			throw new NullPointerException("Provided null geometry to MapSpatialIndex.");
+		this.geometry = geometry;
+		// Square nodes keep the size of a node the same on both axes.
+		double size = Math.max(geometry.getMaxX() - geometry.getMinX(), geometry.getMaxY() - geometry.getMinY()) + 1;
+		double minX = geometry.getMinX();
+		double minY = geometry.getMinY();
+
+		int[] lines = new int[geometry.getLineCount()];
+		for (int i = 0; i < lines.length; i++)
+			lines[i] = i;
+		this.lineRoot = new Node(minX, minY, size);
+		this.lineRoot.build(lines, lines.length, 0, true, geometry);
+
+		int[] things = new int[geometry.getThingCount()];
+		for (int i = 0; i < things.length; i++)
+			things[i] = i;
+		this.thingRoot = new Node(minX, minY, size);
+		this.thingRoot.build(things, things.length, 0, false, geometry);
+	}
+
+	/**
+	 * Gets the geometry the index is over.
+	 * 
+	 * @return
+	 * 		The map geometry.
+	 */
+	public MapGeometry getGeometry() {
+		return this.geometry;
+	}
+
+	/**
+	 * Finds the linedefs whose bounding box touches a rectangle.
+	 * 
+	 * @param minX
+	 * 		The left edge of the rectangle.
+	 * 
+	 * @param minY
+	 * 		The bottom edge of the rectangle.
+	 * 
+	 * @param maxX
+	 * 		The right edge of the rectangle.
+	 * 
+	 * @param maxY
+	 * 		The top edge of the rectangle.
+	 * 
+	 * @param minLength
+	 * 		Linedefs shorter than this, on both axes, are left out, and so
+	 * 		are nodes that are too small to hold a longer one. Use 0 to find
+	 * 		every linedef.
+	 * 
+	 * @param action
+	 * 		Receives the index of each linedef found.
+	 */
+	public void queryLines(double minX, double minY, double maxX, double maxY, double minLength, IntConsumer action) {
+		this.lineRoot.query(minX, minY, maxX, maxY, minLength * Math.sqrt(2), minLength, true, this.geometry, action);
+	}
+
+	/**
+	 * Finds the things inside a rectangle.
+	 * 
+	 * @param minX
+	 * 		The left edge of the rectangle.
+	 * 
+	 * @param minY
+	 * 		The bottom edge of the rectangle.
+	 * 
+	 * @param maxX
+	 * 		The right edge of the rectangle.
+	 * 
+	 * @param maxY
+	 * 		The top edge of the rectangle.
+	 * 
+	 * @param action
+	 * 		Receives the index of each thing found.
+	 */
+	public void queryThings(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+		this.thingRoot.query(minX, minY, maxX, maxY, 0, 0, false, this.geometry, action);
+	}
+
+	/**
+	 * Finds the linedef closest to a point.
+	 * 
+	 * @param x
+	 * 		The x of the point.
+	 * 
+	 * @param y
+	 * 		The y of the point.
+	 * 
+	 * @param tolerance
+	 * 		How far from the point a linedef can be.
+	 * 
+	 * @return
+	 * 		The index of the closest linedef, or -1 if none is within the
+	 * 		tolerance.
+	 */
+	public int pickLine(double x, double y, double tolerance) {
+		double[] best = { tolerance * tolerance };
+		int[] found = { -1 };
+		queryLines(x - tolerance, y - tolerance, x + tolerance, y + tolerance, 0, line -> {
+			double distance = distanceToLineSquared(line, x, y);
+			if (distance <= best[0]) {
+				best[0] = distance;
+				found[0] = line;
+			}
+		});
+		return found[0];
+	}
+
+	/**
+	 * Finds the thing closest to a point.
+	 * 
+	 * @param x
+	 * 		The x of the point.
+	 * 
+	 * @param y
+	 * 		The y of the point.
+	 * 
+	 * @param tolerance
+	 * 		How far from the point a thing can be.
+	 * 
+	 * @return
+	 * 		The index of the closest thing, or -1 if none is within the
+	 * 		tolerance.
+	 */
+	public int pickThing(double x, double y, double tolerance) {
+		double[] best = { tolerance * tolerance };
+		int[] found = { -1 };
+		queryThings(x - tolerance, y - tolerance, x + tolerance, y + tolerance, thing -> {
+			double dx = this.geometry.getThingX(thing) - x;
+			double dy = this.geometry.getThingY(thing) - y;
+			double distance = dx * dx + dy * dy;
+			if (distance <= best[0]) {
+				best[0] = distance;
+				found[0] = thing;
+			}
+		});
+		return found[0];
+	}
+
+	/**
+	 * Works out the squared distance from a point to a linedef.
+	 * 
+	 * @param line
+	 * 		The linedef index.
+	 * 
+	 * @param x
+	 * 		The x of the point.
+	 * 
+	 * @param y
+	 * 		The y of the point.
+	 * 
+	 * @return
+	 * 		The squared distance to the closest point of the linedef.
+	 */
+	public double distanceToLineSquared(int line, double x, double y) {
+		double x1 = this.geometry.getVertexX(this.geometry.getLineStart(line));
+		double y1 = this.geometry.getVertexY(this.geometry.getLineStart(line));
+		double dx = this.geometry.getVertexX(this.geometry.getLineEnd(line)) - x1;
+		double dy = this.geometry.getVertexY(this.geometry.getLineEnd(line)) - y1;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		double px = x1 + t * dx - x;
+		double py = y1 + t * dy - y;
+		return px * px + py * py;
+	}
+
+	/**
+	 * A square part of the map with the items that fit in it but not in any
+	 * of its quadrants.
+	 */
+	private static final class Node {
+
+		/**
+		 * The left edge.
+		 */
+		private final double minX;
+
+		/**
+		 * The bottom edge.
+		 */
+		private final double minY;
+
+		/**
+		 * The length of each side.
+		 */
+		private final double size;
+
+		/**
+		 * The items kept in this node.
+		 */
+		private int[] items;
+
+		/**
+		 * The quadrants, or null for a leaf.
+		 */
+		private Node[] children;
+
+		/**
+		 * Creates an empty node.
+		 * 
+		 * @param minX
+		 * 		The left edge.
+		 * 
+		 * @param minY
+		 * 		The bottom edge.
+		 * 
+		 * @param size
+		 * 		The length of each side.
+		 */
+		private Node(double minX, double minY, double size) {
+			this.minX = minX;
+			this.minY = minY;
+			this.size = size;
+		}
+
+		/**
+		 * Fills the node and its quadrants.
+		 * 
+		 * @param candidates
+		 * 		The items that fit in the node. The array is reordered.
+		 * 
+		 * @param count
+		 * 		The number of items at the start of the array.
+		 * 
+		 * @param depth
+		 * 		The depth of the node.
+		 * 
+		 * @param lines
+		 * 		True for linedefs, false for things.
+		 * 
+		 * @param geometry
+		 * 		The map geometry.
+		 */
+		private void build(int[] candidates, int count, int depth, boolean lines, MapGeometry geometry) {
+			if (count <= NODE_CAPACITY || depth >= MAX_DEPTH) {
+				this.items = Arrays.copyOf(candidates, count);
+				return;
+			}
+
+			// Sort the items into the quadrant they fit in, with the ones that fit in none (4) kept here.
+			double half = this.size / 2;
+			double midX = this.minX + half;
+			double midY = this.minY + half;
+			int[][] buckets = new int[5][];
+			int[] sizes = new int[5];
+			for (int i = 0; i < 5; i++)
+				buckets[i] = new int[Math.min(count, 64)];
+			for (int i = 0; i < count; i++) {
+				int item = candidates[i];
+				int quadrant = lines ? quadrantOfLine(item, midX, midY, geometry) : quadrantOfPoint(geometry.getThingX(item), geometry.getThingY(item), midX, midY);
+				if (sizes[quadrant] == buckets[quadrant].length)
+					buckets[quadrant] = Arrays.copyOf(buckets[quadrant], sizes[quadrant] * 2);
+				buckets[quadrant][sizes[quadrant]++] = item;
+			}
+			this.items = Arrays.copyOf(buckets[4], sizes[4]);
+			if (sizes[4] == count)
+				return;
+
+			this.children = new Node[4];
+			for (int q = 0; q < 4; q++) {
+				this.children[q] = new Node((q & 1) == 0 ? this.minX : midX, (q & 2) == 0 ? this.minY : midY, half);
+				this.children[q].build(buckets[q], sizes[q], depth + 1, lines, geometry);
+			}
+		}
+
+		/**
+		 * Finds the quadrant a point is in.
+		 * 
+		 * @param x
+		 * 		The x of the point.
+		 * 
+		 * @param y
+		 * 		The y of the point.
+		 * 
+		 * @param midX
+		 * 		The x of the middle of the node.
+		 * 
+		 * @param midY
+		 * 		The y of the middle of the node.
+		 * 
+		 * @return
+		 * 		The quadrant, with bit 0 set for the right and bit 1 set for
+		 * 		the top.
+		 */
+		private static int quadrantOfPoint(double x, double y, double midX, double midY) {
+			return (x < midX ? 0 : 1) | (y < midY ? 0 : 2);
+		}
+
+		/**
+		 * Finds the quadrant a linedef fits in.
+		 * 
+		 * @param line
+		 * 		The linedef index.
+		 * 
+		 * @param midX
+		 * 		The x of the middle of the node.
+		 * 
+		 * @param midY
+		 * 		The y of the middle of the node.
+		 * 
+		 * @param geometry
+		 * 		The map geometry.
+		 * 
+		 * @return
+		 * 		The quadrant, or 4 if the linedef crosses the middle.
+		 */
+		private static int quadrantOfLine(int line, double midX, double midY, MapGeometry geometry) {
+			int start = quadrantOfPoint(geometry.getVertexX(geometry.getLineStart(line)), geometry.getVertexY(geometry.getLineStart(line)), midX, midY);
+			int end = quadrantOfPoint(geometry.getVertexX(geometry.getLineEnd(line)), geometry.getVertexY(geometry.getLineEnd(line)), midX, midY);
+			return start == end ? start : 4;
+		}
+
+		/**
+		 * Finds the items in a rectangle.
+		 * 
+		 * @param minX
+		 * 		The left edge of the rectangle.
+		 * 
+		 * @param minY
+		 * 		The bottom edge of the rectangle.
+		 * 
+		 * @param maxX
+		 * 		The right edge of the rectangle.
+		 * 
+		 * @param maxY
+		 * 		The top edge of the rectangle.
+		 * 
+		 * @param minDiagonal
+		 * 		Nodes with a shorter diagonal than this are skipped.
+		 * 
+		 * @param minLength
+		 * 		Linedefs shorter than this on both axes are skipped.
+		 * 
+		 * @param lines
+		 * 		True for linedefs, false for things.
+		 * 
+		 * @param geometry
+		 * 		The map geometry.
+		 * 
+		 * @param action
+		 * 		Receives each item found.
+		 */
+		private void query(double minX, double minY, double maxX, double maxY, double minDiagonal, double minLength, boolean lines,
+				MapGeometry geometry, IntConsumer action) {
+			if (this.minX > maxX || this.minY > maxY || this.minX + this.size < minX || this.minY + this.size < minY)
+				return;
+			if (this.size * Math.sqrt(2) < minDiagonal)
+				return;
+			for (int item : this.items) {
+				if (lines) {
+					double x1 = geometry.getVertexX(geometry.getLineStart(item));
+					double y1 = geometry.getVertexY(geometry.getLineStart(item));
+					double x2 = geometry.getVertexX(geometry.getLineEnd(item));
+					double y2 = geometry.getVertexY(geometry.getLineEnd(item));
+					if (Math.min(x1, x2) > maxX || Math.max(x1, x2) < minX || Math.min(y1, y2) > maxY || Math.max(y1, y2) < minY)
+						continue;
+					if (Math.abs(x2 - x1) < minLength && Math.abs(y2 - y1) < minLength)
+						continue;
+				} else {
+					double x = geometry.getThingX(item);
+					double y = geometry.getThingY(item);
+					if (x < minX || x > maxX || y < minY || y > maxY)
+						continue;
+				}
+				action.accept(item);
+			}
+			if (this.children != null)
+				for (Node child : this.children)
+					child.query(minX, minY, maxX, maxY, minDiagonal, minLength, lines, geometry, action);
+		}
+	}
+}
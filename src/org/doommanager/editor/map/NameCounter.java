@@ -0,0 +1,248 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.nio.charset.StandardCharsets;
+
+import org.doommanager.util.ByteHandler;
+
+/**
+ * Counts long keys in an open addressing table, without boxing. Lump names
+ * are counted by packing their eight bytes into a long.
+ */
+final class NameCounter {
+
+	/**
+	 * The golden ratio multiplier that spreads keys over the table.
+	 */
+	private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * The keys, where a slot is free if its count is 0.
+	 */
+	private long[] keys;
+
+	/**
+	 * The counts.
+	 */
+	private int[] counts;
+
+	/**
+	 * The number of keys.
+	 */
+	private int size;
+
+	/**
+	 * The shift that turns a hash into a slot.
+	 */
+	private int shift;
+
+	/**
+	 * Creates an empty counter.
+	 */
+	NameCounter() {
+		this.keys = new long[16];
+		this.counts = new int[16];
+		this.shift = 64 - 4;
+	}
+
+	/**
+	 * Adds one to the count of a key.
+	 * 
+	 * @param key
+	 * 		The key.
+	 */
+	void increment(long key) {
+		add(key, 1);
+	}
+
+	/**
+	 * Adds to the count of a key.
+	 * 
+	 * @param key
+	 * 		The key.
+	 * 
+	 * @param amount
+	 * 		The amount to add, which must be positive.
+	 */
+	void add(long key, int amount) {
+		int mask = this.keys.length - 1;
+		int slot = (int)((key * HASH_MULTIPLIER) >>> this.shift);
+		while (this.counts[slot] != 0) {
+			if (this.keys[slot] == key) {
+				this.counts[slot] += amount;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		this.keys[slot] = key;
+		this.counts[slot] = amount;
+		if (++this.size * 2 > this.keys.length)
+			grow();
+	}
+
+	/**
+	 * Gets the count of a key.
+	 * 
+	 * @param key
+	 * 		The key.
+	 * 
+	 * @return
+	 * 		The count, which is 0 if the key was never added.
+	 */
+	int get(long key) {
+		int mask = this.keys.length - 1;
+		int slot = (int)((key * HASH_MULTIPLIER) >>> this.shift);
+		while (this.counts[slot] != 0) {
+			if (this.keys[slot] == key)
+				return this.counts[slot];
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Doubles the table.
+	 */
+	private void grow() {
+		long[] oldKeys = this.keys;
+		int[] oldCounts = this.counts;
+		this.keys = new long[oldKeys.length * 2];
+		this.counts = new int[oldKeys.length * 2];
+		this.shift--;
+		this.size = 0;
+		for (int i = 0; i < oldKeys.length; i++)
+			if (oldCounts[i] != 0)
+				add(oldKeys[i], oldCounts[i]);
+	}
+
+	/**
+	 * Gets the number of keys.
+	 * 
+	 * @return
+	 * 		The number of keys.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the number of slots, for walking the table with the slot getters.
+	 * 
+	 * @return
+	 * 		The number of slots.
+	 */
+	int getSlotCount() {
+		return this.keys.length;
+	}
+
+	/**
+	 * Gets the key in a slot.
+	 * 
+	 * @param slot
+	 * 		The slot.
+	 * 
+	 * @return
+	 * 		The key, which is only valid if the count is not 0.
+	 */
+	long getKey(int slot) {
+		return this.keys[slot];
+	}
+
+	/**
+	 * Gets the count in a slot.
+	 * 
+	 * @param slot
+	 * 		The slot.
+	 * 
+	 * @return
+	 * 		The count, which is 0 for a free slot.
+	 */
+	int getCount(int slot) {
+		return this.counts[slot];
+	}
+
+	/**
+	 * Packs an eight byte lump name into a long, upper casing it like the
+	 * engine does. The name ends at the first null byte.
+	 * 
+	 * @param handler
+	 * 		The data holding the name.
+	 * 
+	 * @param index
+	 * 		The index of the name.
+	 * 
+	 * @return
+	 * 		The packed name.
+	 */
+	static long packName(ByteHandler handler, int index) {
+		long packed = 0;
+		for (int i = 0; i < 8; i++) {
+			int c = handler.getByte(index + i) & 0xFF;
+			if (c == 0)
+				break;
+			if (c >= 'a' && c <= 'z')
+				c -= 'a' - 'A';
+			packed |= (long)c << (i * 8);
+		}
+		return packed;
+	}
+
+	/**
+	 * Packs a lump name into a long, upper casing it like the engine does.
+	 * Only the first eight characters are used.
+	 * 
+	 * @param name
+	 * 		The name.
+	 * 
+	 * @return
+	 * 		The packed name.
+	 */
+	static long packName(String name) {
+		long packed = 0;
+		for (int i = 0; i < Math.min(8, name.length()); i++) {
+			int c = name.charAt(i) & 0xFF;
+			if (c == 0)
+				break;
+			if (c >= 'a' && c <= 'z')
+				c -= 'a' - 'A';
+			packed |= (long)c << (i * 8);
+		}
+		return packed;
+	}
+
+	/**
+	 * Turns a packed name back into a string.
+	 * 
+	 * @param packed
+	 * 		The packed name.
+	 * 
+	 * @return
+	 * 		The name.
+	 */
+	static String unpackName(long packed) {
+		byte[] bytes = new byte[8];
+		int length = 0;
+		while (length < 8 && (packed >>> (length * 8) & 0xFF) != 0) {
+			bytes[length] = (byte)(packed >>> (length * 8));
+			length++;
+		}
+		return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+	}
+}
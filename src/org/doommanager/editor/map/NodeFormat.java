@@ -0,0 +1,132 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+/**
+ * The formats that the BSP nodes of a map can be stored in.
+ */
+public enum NodeFormat {
+	NONE("No nodes"),
+	DOOM("Doom nodes in NODES, SEGS and SSECTORS"),
+	XNOD("ZDoom extended nodes"),
+	ZNOD("ZDoom compressed extended nodes"),
+	XGLN("ZDoom extended GL nodes"),
+	ZGLN("ZDoom compressed extended GL nodes"),
+	XGL2("ZDoom extended GL nodes with 32 bit linedef numbers"),
+	ZGL2("ZDoom compressed extended GL nodes with 32 bit linedef numbers"),
+	XGL3("ZDoom extended GL nodes with fractional partition lines"),
+	ZGL3("ZDoom compressed extended GL nodes with fractional partition lines"),
+	GL_V1("glBSP version 1 GL nodes"),
+	GL_V2("glBSP version 2 GL nodes"),
+	GL_V5("glBSP version 5 GL nodes"),
+	UNSUPPORTED("Nodes in a format that cannot be read");
+
+	/**
+	 * The description of the format.
+	 */
+	private final String description;
+
+	/**
+	 * Creates a node format.
+	 * 
+	 * @param description
+	 * 		The description of the format.
+	 */
+	private NodeFormat(String description) {
+		this.description = description;
+	}
+
+	/**
+	 * Gets a human readable description of the format.
+	 * 
+	 * @return
+	 * 		The description.
+	 */
+	public String getDescription() {
+		return this.description;
+	}
+
+	/**
+	 * Checks if this is one of the ZDoom extended formats, which are stored
+	 * in a single lump that starts with the format name.
+	 * 
+	 * @return
+	 * 		True for the extended formats.
+	 */
+	public boolean isExtended() {
+		return ordinal() >= XNOD.ordinal() && ordinal() <= ZGL3.ordinal();
+	}
+
+	/**
+	 * Checks if everything after the format name is zlib compressed.
+	 * 
+	 * @return
+	 * 		True for the compressed extended formats.
+	 */
+	public boolean isCompressed() {
+		return isExtended() && name().charAt(0) == 'Z';
+	}
+
+	/**
+	 * Checks if this is a GL format, where every subsector is closed by
+	 * minisegs and each seg knows the seg on its other side.
+	 * 
+	 * @return
+	 * 		True for the GL formats.
+	 */
+	public boolean isGL() {
+		return ordinal() >= XGLN.ordinal() && ordinal() <= GL_V5.ordinal();
+	}
+
+	/**
+	 * Checks if segs store their linedef in 32 bits.
+	 * 
+	 * @return
+	 * 		True for XGL2, ZGL2, XGL3 and ZGL3.
+	 */
+	boolean hasWideLines() {
+		return this == XGL2 || this == ZGL2 || hasFractionalNodes();
+	}
+
+	/**
+	 * Checks if partition lines are stored in fixed point.
+	 * 
+	 * @return
+	 * 		True for XGL3 and ZGL3.
+	 */
+	boolean hasFractionalNodes() {
+		return this == XGL3 || this == ZGL3;
+	}
+
+	/**
+	 * Finds the extended format a lump starts with.
+	 * 
+	 * @param magic
+	 * 		The first four characters of the lump.
+	 * 
+	 * @return
+	 * 		The format, or null if it is not an extended format.
+	 */
+	static NodeFormat fromMagic(String magic) {
+		for (NodeFormat format : values())
+			if (format.isExtended() && format.name().equals(magic))
+				return format;
+		return null;
+	}
+}
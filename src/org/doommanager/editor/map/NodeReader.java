@@ -0,0 +1,584 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.file.Lump;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+import org.doommanager.util.ByteHandler;
+
+/**
+ * Reads the BSP nodes of a map in any of the formats of NodeFormat. The
+ * format can be found from the first bytes of the node lumps alone, so
+ * listing maps does not have to decode anything.
+ * 
+ * ZDoom extended nodes are found in NODES, SSECTORS or ZNODES, glBSP nodes
+ * in the GL_ section that follows the map, and Doom nodes in NODES, SEGS and
+ * SSECTORS. When a map has more than one, the extended nodes are used first,
+ * then GL nodes, since those are what a port that understands them uses.
+ */
+public final class NodeReader {
+
+	/**
+	 * The lumps that can hold extended nodes, in the order they are checked.
+	 */
+	private static final String[] EXTENDED_LUMPS = { "ZNODES", "NODES", "SSECTORS" };
+
+	/**
+	 * Set on a 16 bit vertex number in glBSP segs that refers to GL_VERT.
+	 */
+	private static final int GL_VERTEX = 0x8000;
+
+	/**
+	 * Set on a 32 bit vertex number in version 5 glBSP segs that refers to
+	 * GL_VERT.
+	 */
+	private static final int GL_V5_VERTEX = 0x80000000;
+
+	/**
+	 * Set on a 16 bit node child that is a subsector.
+	 */
+	private static final int SUBSECTOR_CHILD = 0x8000;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(NodeReader.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private NodeReader() {
+	}
+
+	/**
+	 * Finds the format of the nodes of a map without decoding them.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The format, NONE if the map has no nodes, or UNSUPPORTED if it has
+	 * 		GL nodes of a version that cannot be read.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the map is null.
+	 */
+	public static NodeFormat detectFormat(MapReference map) {
+		if (map == null) {
+			NullPointerException e = new NullPointerException("Provided a null map to NodeReader.");
+			log.log(Level.SEVERE, "NodeReader map is null", e);
+			throw e;
+		}
+		Lump extended = findExtendedLump(map);
+		if (extended != null)
+			return NodeFormat.fromMagic(readMagic(map, extended));
+		Lump vertices = map.getLump("GL_VERT");
+		if (vertices != null) {
+			String magic = readMagic(map, vertices);
+			if (magic.equals("gNd2"))
+				return isGLV3(map) ? NodeFormat.UNSUPPORTED : NodeFormat.GL_V2;
+			if (magic.equals("gNd5"))
+				return NodeFormat.GL_V5;
+			return magic.startsWith("gNd") ? NodeFormat.UNSUPPORTED : NodeFormat.GL_V1;
+		}
+		Lump nodes = map.getLump("NODES");
+		return nodes != null && nodes.getSize() > 0 ? NodeFormat.DOOM : NodeFormat.NONE;
+	}
+
+	/**
+	 * Checks if the GL nodes of a map are glBSP version 3, which keeps the
+	 * version 2 magic in GL_VERT and only marks GL_SEGS and GL_SSECT.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		True if either of those lumps starts with "gNd3".
+	 */
+	private static boolean isGLV3(MapReference map) {
+		for (String name : new String[] { "GL_SEGS", "GL_SSECT" }) {
+			Lump lump = map.getLump(name);
+			if (lump != null && readMagic(map, lump).equals("gNd3"))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the nodes of a map.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The nodes, or null if the map has none.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the map is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the nodes are damaged or in an unsupported format.
+	 */
+	public static MapNodes read(MapReference map) {
+		NodeFormat format = detectFormat(map);
+		int vertexCount = getLumpSize(map, "VERTEXES") / MapReference.VERTEX_SIZE;
+		switch (format) {
+		case NONE:
+			return null;
+		case UNSUPPORTED:
+			throw new IllegalArgumentException("The GL nodes of " + map.getName() + " are of an unsupported glBSP version.");
+		case DOOM:
+			return readDoom(map, vertexCount);
+		case GL_V1:
+		case GL_V2:
+		case GL_V5:
+			return readGL(map, format, vertexCount);
+		default:
+			Lump lump = findExtendedLump(map);
+			ByteBuffer data = map.getFile().getLumpData(lump).duplicate();
+			data.position(4);
+			return readExtended(new NodeStream(data, format.isCompressed()), format);
+		}
+	}
+
+	/**
+	 * Finds the lump that holds extended nodes.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @return
+	 * 		The lump, or null if there is none.
+	 */
+	private static Lump findExtendedLump(MapReference map) {
+		for (String name : EXTENDED_LUMPS) {
+			Lump lump = map.getLump(name);
+			if (lump != null && NodeFormat.fromMagic(readMagic(map, lump)) != null)
+				return lump;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the first four bytes of a lump as text.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		The text, which is empty if the lump is too short.
+	 */
+	private static String readMagic(MapReference map, Lump lump) {
+		if (lump.getSize() < 4)
+			return "";
+		byte[] magic = new byte[4];
+		BufferLease data = map.getFile().getLumpData(lump, BufferPool.getShared());
+		try {
+			data.getBuffer().duplicate().get(magic);
+		} finally {
+			data.dispose();
+		}
+		return new String(magic, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Gets the size of a map lump.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		The size, or 0 if the map does not have the lump.
+	 */
+	private static int getLumpSize(MapReference map, String name) {
+		Lump lump = map.getLump(name);
+		return lump == null ? 0 : lump.getSize();
+	}
+
+	/**
+	 * Gets the data of a map lump as a little endian handler.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @param name
+	 * 		The lump name.
+	 * 
+	 * @return
+	 * 		The handler, which is empty if the map does not have the lump.
+	 */
+	private static ByteHandler getLumpHandler(MapReference map, String name) {
+		Lump lump = map.getLump(name);
+		if (lump == null)
+			return new ByteHandler(new byte[0], ByteOrder.LITTLE_ENDIAN);
+		return new ByteHandler(map.getFile().getLumpData(lump), ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Decodes ZDoom extended nodes.
+	 * 
+	 * @param in
+	 * 		The data after the format name.
+	 * 
+	 * @param format
+	 * 		The extended format.
+	 * 
+	 * @return
+	 * 		The nodes.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the nodes are damaged.
+	 */
+	static MapNodes readExtended(NodeStream in, NodeFormat format) {
+		try {
+			boolean gl = format.isGL();
+			boolean wideLines = format.hasWideLines();
+			boolean fractional = format.hasFractionalNodes();
+
+			long originalVertexCount = in.readInt() & 0xFFFFFFFFL;
+			if (originalVertexCount > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Node data lists " + originalVertexCount + " original vertices.");
+			MapNodes nodes = new MapNodes(format, (int)originalVertexCount);
+			int vertexCount = in.readCount(8);
+			nodes.vertexX = new int[vertexCount];
+			nodes.vertexY = new int[vertexCount];
+			for (int i = 0; i < vertexCount; i++) {
+				nodes.vertexX[i] = in.readInt();
+				nodes.vertexY[i] = in.readInt();
+			}
+
+			int subsectorCount = in.readCount(4);
+			nodes.subsectorFirst = new int[subsectorCount];
+			nodes.subsectorCount = new int[subsectorCount];
+			long firstSeg = 0;
+			for (int i = 0; i < subsectorCount; i++) {
+				nodes.subsectorCount[i] = in.readInt();
+				nodes.subsectorFirst[i] = (int)Math.min(firstSeg, Integer.MAX_VALUE);
+				firstSeg += nodes.subsectorCount[i] & 0xFFFFFFFFL;
+			}
+
+			int segCount = in.readCount(wideLines ? 13 : 11);
+			if (firstSeg != segCount)
+				throw new IllegalArgumentException("The subsectors have " + firstSeg + " segs, but there are " + segCount + ".");
+			nodes.segStart = new int[segCount];
+			nodes.segEnd = new int[segCount];
+			nodes.segLine = new int[segCount];
+			nodes.segSide = new int[segCount];
+			nodes.segPartner = new int[segCount];
+			for (int i = 0; i < segCount; i++) {
+				nodes.segStart[i] = in.readInt();
+				if (gl)
+					nodes.segPartner[i] = in.readInt();
+				else
+					nodes.segEnd[i] = in.readInt();
+				int line = wideLines ? in.readInt() : in.readUnsignedShort();
+				nodes.segLine[i] = line == 0xFFFF && !wideLines ? MapNodes.NONE : line;
+				nodes.segSide[i] = in.readUnsignedByte();
+				if (!gl)
+					nodes.segPartner[i] = MapNodes.NONE;
+			}
+			if (gl) {
+				// Each seg ends where the next one in its subsector starts.
+				for (int i = 0; i < subsectorCount; i++) {
+					int first = nodes.subsectorFirst[i];
+					int last = first + nodes.subsectorCount[i] - 1;
+					for (int seg = first; seg <= last; seg++)
+						nodes.segEnd[seg] = nodes.segStart[seg == last ? first : seg + 1];
+				}
+			}
+
+			int nodeCount = in.readCount(fractional ? 40 : 32);
+			allocateNodes(nodes, nodeCount);
+			for (int i = 0; i < nodeCount; i++) {
+				if (fractional) {
+					nodes.nodeX[i] = in.readInt();
+					nodes.nodeY[i] = in.readInt();
+					nodes.nodeDx[i] = in.readInt();
+					nodes.nodeDy[i] = in.readInt();
+				} else {
+					nodes.nodeX[i] = in.readShort() << 16;
+					nodes.nodeY[i] = in.readShort() << 16;
+					nodes.nodeDx[i] = in.readShort() << 16;
+					nodes.nodeDy[i] = in.readShort() << 16;
+				}
+				for (int edge = 0; edge < 8; edge++)
+					nodes.nodeBox[i * 8 + edge] = in.readShort();
+				nodes.nodeChild[i * 2] = in.readInt();
+				nodes.nodeChild[i * 2 + 1] = in.readInt();
+			}
+			nodes.validate();
+			return nodes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes Doom nodes.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @param vertexCount
+	 * 		The number of vertices in VERTEXES.
+	 * 
+	 * @return
+	 * 		The nodes.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the nodes are damaged.
+	 */
+	private static MapNodes readDoom(MapReference map, int vertexCount) {
+		MapNodes nodes = new MapNodes(NodeFormat.DOOM, vertexCount);
+		nodes.vertexX = new int[0];
+		nodes.vertexY = new int[0];
+
+		ByteHandler segs = getLumpHandler(map, "SEGS");
+		allocateSegs(nodes, segs.size() / MapReference.SEG_SIZE);
+		for (int i = 0; i < nodes.segStart.length; i++) {
+			int offset = i * MapReference.SEG_SIZE;
+			nodes.segStart[i] = segs.getShortUnsigned(offset);
+			nodes.segEnd[i] = segs.getShortUnsigned(offset + 2);
+			int line = segs.getShortUnsigned(offset + 6);
+			nodes.segLine[i] = line == 0xFFFF ? MapNodes.NONE : line;
+			nodes.segSide[i] = segs.getShortUnsigned(offset + 8);
+			nodes.segPartner[i] = MapNodes.NONE;
+		}
+		readShortSubsectors(nodes, getLumpHandler(map, "SSECTORS"));
+		readShortNodes(nodes, getLumpHandler(map, "NODES"));
+		nodes.validate();
+		return nodes;
+	}
+
+	/**
+	 * Decodes glBSP nodes.
+	 * 
+	 * @param map
+	 * 		The map.
+	 * 
+	 * @param format
+	 * 		The glBSP version.
+	 * 
+	 * @param vertexCount
+	 * 		The number of vertices in VERTEXES.
+	 * 
+	 * @return
+	 * 		The nodes.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the nodes are damaged.
+	 */
+	private static MapNodes readGL(MapReference map, NodeFormat format, int vertexCount) {
+		boolean v5 = format == NodeFormat.GL_V5;
+		MapNodes nodes = new MapNodes(format, vertexCount);
+
+		ByteHandler vertices = getLumpHandler(map, "GL_VERT");
+		int vertexSize = format == NodeFormat.GL_V1 ? 4 : 8;
+		int vertexStart = format == NodeFormat.GL_V1 ? 0 : 4;
+		int glVertexCount = Math.max(0, vertices.size() - vertexStart) / vertexSize;
+		nodes.vertexX = new int[glVertexCount];
+		nodes.vertexY = new int[glVertexCount];
+		for (int i = 0; i < glVertexCount; i++) {
+			int offset = vertexStart + i * vertexSize;
+			if (format == NodeFormat.GL_V1) {
+				nodes.vertexX[i] = vertices.getShort(offset) << 16;
+				nodes.vertexY[i] = vertices.getShort(offset + 2) << 16;
+			} else {
+				nodes.vertexX[i] = (int)vertices.getIntUnsigned(offset);
+				nodes.vertexY[i] = (int)vertices.getIntUnsigned(offset + 4);
+			}
+		}
+
+		ByteHandler segs = getLumpHandler(map, "GL_SEGS");
+		int segSize = v5 ? 16 : 10;
+		allocateSegs(nodes, segs.size() / segSize);
+		for (int i = 0; i < nodes.segStart.length; i++) {
+			int offset = i * segSize;
+			if (v5) {
+				nodes.segStart[i] = toGLVertex((int)segs.getIntUnsigned(offset), GL_V5_VERTEX, vertexCount);
+				nodes.segEnd[i] = toGLVertex((int)segs.getIntUnsigned(offset + 4), GL_V5_VERTEX, vertexCount);
+				offset += 8;
+			} else {
+				nodes.segStart[i] = toGLVertex(segs.getShortUnsigned(offset), GL_VERTEX, vertexCount);
+				nodes.segEnd[i] = toGLVertex(segs.getShortUnsigned(offset + 2), GL_VERTEX, vertexCount);
+				offset += 4;
+			}
+			int line = segs.getShortUnsigned(offset);
+			nodes.segLine[i] = line == 0xFFFF ? MapNodes.NONE : line;
+			nodes.segSide[i] = segs.getShortUnsigned(offset + 2);
+			int partner = v5 ? (int)segs.getIntUnsigned(offset + 4) : segs.getShortUnsigned(offset + 4);
+			nodes.segPartner[i] = !v5 && partner == 0xFFFF ? MapNodes.NONE : partner;
+		}
+
+		ByteHandler subsectors = getLumpHandler(map, "GL_SSECT");
+		ByteHandler glNodes = getLumpHandler(map, "GL_NODES");
+		if (v5) {
+			int subsectorCount = subsectors.size() / 8;
+			nodes.subsectorFirst = new int[subsectorCount];
+			nodes.subsectorCount = new int[subsectorCount];
+			for (int i = 0; i < subsectorCount; i++) {
+				nodes.subsectorCount[i] = (int)subsectors.getIntUnsigned(i * 8);
+				nodes.subsectorFirst[i] = (int)subsectors.getIntUnsigned(i * 8 + 4);
+			}
+			allocateNodes(nodes, glNodes.size() / 32);
+			for (int i = 0; i < nodes.nodeX.length; i++) {
+				readPartition(nodes, glNodes, i, i * 32);
+				nodes.nodeChild[i * 2] = (int)glNodes.getIntUnsigned(i * 32 + 24);
+				nodes.nodeChild[i * 2 + 1] = (int)glNodes.getIntUnsigned(i * 32 + 28);
+			}
+		} else {
+			readShortSubsectors(nodes, subsectors);
+			readShortNodes(nodes, glNodes);
+		}
+		nodes.validate();
+		return nodes;
+	}
+
+	/**
+	 * Turns a glBSP vertex number into a vertex number of MapNodes.
+	 * 
+	 * @param vertex
+	 * 		The vertex number from the seg.
+	 * 
+	 * @param glFlag
+	 * 		The bit that marks a GL_VERT vertex.
+	 * 
+	 * @param vertexCount
+	 * 		The number of vertices in VERTEXES.
+	 * 
+	 * @return
+	 * 		The vertex number.
+	 */
+	private static int toGLVertex(int vertex, int glFlag, int vertexCount) {
+		return (vertex & glFlag) != 0 ? vertexCount + (vertex & ~glFlag) : vertex;
+	}
+
+	/**
+	 * Allocates the seg arrays.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @param count
+	 * 		The number of segs.
+	 */
+	private static void allocateSegs(MapNodes nodes, int count) {
+		nodes.segStart = new int[count];
+		nodes.segEnd = new int[count];
+		nodes.segLine = new int[count];
+		nodes.segSide = new int[count];
+		nodes.segPartner = new int[count];
+	}
+
+	/**
+	 * Allocates the node arrays.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @param count
+	 * 		The number of nodes.
+	 */
+	private static void allocateNodes(MapNodes nodes, int count) {
+		nodes.nodeX = new int[count];
+		nodes.nodeY = new int[count];
+		nodes.nodeDx = new int[count];
+		nodes.nodeDy = new int[count];
+		nodes.nodeBox = new short[count * 8];
+		nodes.nodeChild = new int[count * 2];
+	}
+
+	/**
+	 * Reads subsectors with 16 bit fields, as in SSECTORS.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @param subsectors
+	 * 		The subsector data.
+	 */
+	private static void readShortSubsectors(MapNodes nodes, ByteHandler subsectors) {
+		int count = subsectors.size() / MapReference.SUBSECTOR_SIZE;
+		nodes.subsectorFirst = new int[count];
+		nodes.subsectorCount = new int[count];
+		for (int i = 0; i < count; i++) {
+			nodes.subsectorCount[i] = subsectors.getShortUnsigned(i * MapReference.SUBSECTOR_SIZE);
+			nodes.subsectorFirst[i] = subsectors.getShortUnsigned(i * MapReference.SUBSECTOR_SIZE + 2);
+		}
+	}
+
+	/**
+	 * Reads nodes with 16 bit children, as in NODES.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @param data
+	 * 		The node data.
+	 */
+	private static void readShortNodes(MapNodes nodes, ByteHandler data) {
+		allocateNodes(nodes, data.size() / MapReference.NODE_SIZE);
+		for (int i = 0; i < nodes.nodeX.length; i++) {
+			int offset = i * MapReference.NODE_SIZE;
+			readPartition(nodes, data, i, offset);
+			for (int side = 0; side < 2; side++) {
+				int child = data.getShortUnsigned(offset + 24 + side * 2);
+				nodes.nodeChild[i * 2 + side] = (child & SUBSECTOR_CHILD) != 0 ? (child & ~SUBSECTOR_CHILD) | MapNodes.SUBSECTOR_CHILD : child;
+			}
+		}
+	}
+
+	/**
+	 * Reads the partition line and bounding boxes of a node, which all
+	 * formats but XGL3 store as sixteen 16 bit values.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @param data
+	 * 		The node data.
+	 * 
+	 * @param node
+	 * 		The node.
+	 * 
+	 * @param offset
+	 * 		The offset of the node.
+	 */
+	private static void readPartition(MapNodes nodes, ByteHandler data, int node, int offset) {
+		nodes.nodeX[node] = data.getShort(offset) << 16;
+		nodes.nodeY[node] = data.getShort(offset + 2) << 16;
+		nodes.nodeDx[node] = data.getShort(offset + 4) << 16;
+		nodes.nodeDy[node] = data.getShort(offset + 6) << 16;
+		for (int edge = 0; edge < 8; edge++)
+			nodes.nodeBox[node * 8 + edge] = data.getShort(offset + 8 + edge * 2);
+	}
+}
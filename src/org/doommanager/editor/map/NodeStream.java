@@ -0,0 +1,213 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads little endian values from node data in order. Compressed data is
+ * inflated a window at a time as it is read, so a large ZNOD lump never has
+ * to be inflated in full before it is decoded.
+ */
+final class NodeStream {
+
+	/**
+	 * The size of the input and output windows of a compressed stream.
+	 */
+	private static final int WINDOW_SIZE = 16384;
+
+	/**
+	 * The most bytes that deflate can turn a single byte into.
+	 */
+	private static final int MAX_DEFLATE_RATIO = 1032;
+
+	/**
+	 * The compressed data that has not been passed to the inflater, or null
+	 * if the stream is not compressed.
+	 */
+	private final ByteBuffer source;
+
+	/**
+	 * The inflater, or null if the stream is not compressed.
+	 */
+	private final Inflater inflater;
+
+	/**
+	 * The buffer that compressed data is copied into for the inflater.
+	 */
+	private final byte[] input;
+
+	/**
+	 * The data that is ready to be read. For a stream that is not
+	 * compressed, this is all of it.
+	 */
+	private final ByteBuffer window;
+
+	/**
+	 * Creates a stream.
+	 * 
+	 * @param data
+	 * 		The data from its position on.
+	 * 
+	 * @param compressed
+	 * 		True if the data is zlib compressed.
+	 */
+	NodeStream(ByteBuffer data, boolean compressed) {
+		if (!compressed) {
+			this.source = null;
+			this.inflater = null;
+			this.input = null;
+			this.window = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+			return;
+		}
+		this.source = data.slice();
+		this.inflater = new Inflater();
+		this.input = new byte[WINDOW_SIZE];
+		this.window = ByteBuffer.allocate(WINDOW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.window.limit(0);
+	}
+
+	/**
+	 * Reads a signed 32 bit value.
+	 * 
+	 * @return
+	 * 		The value.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data ends or is damaged.
+	 */
+	int readInt() {
+		require(4);
+		return this.window.getInt();
+	}
+
+	/**
+	 * Reads a signed 16 bit value.
+	 * 
+	 * @return
+	 * 		The value.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data ends or is damaged.
+	 */
+	short readShort() {
+		require(2);
+		return this.window.getShort();
+	}
+
+	/**
+	 * Reads an unsigned 16 bit value.
+	 * 
+	 * @return
+	 * 		The value.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data ends or is damaged.
+	 */
+	int readUnsignedShort() {
+		require(2);
+		return this.window.getShort() & 0xFFFF;
+	}
+
+	/**
+	 * Reads an unsigned byte.
+	 * 
+	 * @return
+	 * 		The value.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data ends or is damaged.
+	 */
+	int readUnsignedByte() {
+		require(1);
+		return this.window.get() & 0xFF;
+	}
+
+	/**
+	 * Reads the 32 bit count of a list of records and checks that the
+	 * records can fit in what is left of the data, so that a damaged count
+	 * cannot make the reader allocate huge arrays.
+	 * 
+	 * @param recordSize
+	 * 		The size of one record.
+	 * 
+	 * @return
+	 * 		The count.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data ends or is damaged, or the records cannot fit.
+	 */
+	int readCount(int recordSize) {
+		long count = readInt() & 0xFFFFFFFFL;
+		long available = this.window.remaining();
+		if (this.inflater != null)
+			available += (this.source.remaining() + (long)this.inflater.getRemaining()) * MAX_DEFLATE_RATIO + WINDOW_SIZE;
+		if (count * recordSize > available || count > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Node data lists " + count + " records, which run past its end.");
+		return (int)count;
+	}
+
+	/**
+	 * Makes sure a number of bytes can be read from the window, inflating
+	 * more data if needed.
+	 * 
+	 * @param length
+	 * 		The number of bytes, which is at most 4.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data ends or is damaged.
+	 */
+	private void require(int length) {
+		if (this.window.remaining() >= length)
+			return;
+		if (this.inflater == null)
+			throw new IllegalArgumentException("Node data ends early.");
+		this.window.compact();
+		try {
+			while (this.window.position() < length) {
+				if (this.inflater.needsInput()) {
+					if (!this.source.hasRemaining())
+						throw new IllegalArgumentException("Compressed node data ends early.");
+					int chunk = Math.min(this.input.length, this.source.remaining());
+					this.source.get(this.input, 0, chunk);
+					this.inflater.setInput(this.input, 0, chunk);
+				}
+				int inflated = this.inflater.inflate(this.window.array(), this.window.position(), this.window.remaining());
+				if (inflated == 0 && (this.inflater.finished() || this.inflater.needsDictionary()))
+					throw new IllegalArgumentException("Compressed node data ends early.");
+				this.window.position(this.window.position() + inflated);
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Compressed node data is damaged.", e);
+		} finally {
+			this.window.flip();
+		}
+	}
+
+	/**
+	 * Releases the inflater.
+	 */
+	void close() {
+		if (this.inflater != null)
+			this.inflater.end();
+	}
+}
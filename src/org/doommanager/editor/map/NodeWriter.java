@@ -0,0 +1,252 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.map;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import org.doommanager.util.ByteHandler;
+
+/**
+ * Writes BSP nodes as a ZDoom extended nodes lump or as version 5 glBSP
+ * lumps. The GL formats leave out the end of each seg, since it is the start
+ * of the next seg in the subsector, so they should only be written for nodes
+ * whose subsectors are closed, like those read from a GL format.
+ */
+public final class NodeWriter {
+
+	/**
+	 * The size of the chunks the compressed data is collected in.
+	 */
+	private static final int CHUNK_SIZE = 65536;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(NodeWriter.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private NodeWriter() {
+	}
+
+	/**
+	 * Writes nodes as a ZDoom extended nodes lump. Partition lines are cut
+	 * to whole units in every format but XGL3 and ZGL3.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @param format
+	 * 		One of the extended formats.
+	 * 
+	 * @return
+	 * 		The lump data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If an argument is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the format is not an extended format, or the segs of the
+	 * 		subsectors do not follow each other as the format requires.
+	 */
+	public static ByteBuffer writeExtended(MapNodes nodes, NodeFormat format) {
+		if (nodes == null || format == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to NodeWriter.");
+			log.log(Level.SEVERE, "NodeWriter argument is null", e);
+			throw e;
+		}
+		if (!format.isExtended())
+			throw new IllegalArgumentException(format + " is not an extended node format.");
+		int firstSeg = 0;
+		for (int i = 0; i < nodes.getSubsectorCount(); i++) {
+			if (nodes.subsectorFirst[i] != firstSeg)
+				throw new IllegalArgumentException("Subsector " + i + " does not start after the segs of the one before it.");
+			firstSeg += nodes.subsectorCount[i];
+		}
+
+		boolean gl = format.isGL();
+		boolean wideLines = format.hasWideLines();
+		boolean fractional = format.hasFractionalNodes();
+		int segSize = wideLines ? 13 : 11;
+		int nodeSize = fractional ? 40 : 32;
+		long size = 4 + 8 + 8L * nodes.getExtraVertexCount() + 4 + 4L * nodes.getSubsectorCount() + 4 + (long)segSize * nodes.getSegCount() + 4
+				+ (long)nodeSize * nodes.getNodeCount();
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The nodes are too large for a lump.");
+
+		byte[] data = new byte[(int)size];
+		ByteHandler out = new ByteHandler(data, ByteOrder.LITTLE_ENDIAN);
+		out.putBytes(format.name().getBytes(StandardCharsets.US_ASCII));
+		out.putInt(nodes.getOriginalVertexCount());
+		out.putInt(nodes.getExtraVertexCount());
+		for (int i = 0; i < nodes.getExtraVertexCount(); i++) {
+			out.putInt(nodes.vertexX[i]);
+			out.putInt(nodes.vertexY[i]);
+		}
+		out.putInt(nodes.getSubsectorCount());
+		for (int i = 0; i < nodes.getSubsectorCount(); i++)
+			out.putInt(nodes.subsectorCount[i]);
+		out.putInt(nodes.getSegCount());
+		for (int i = 0; i < nodes.getSegCount(); i++) {
+			out.putInt(nodes.segStart[i]);
+			out.putInt(gl ? nodes.segPartner[i] : nodes.segEnd[i]);
+			if (wideLines)
+				out.putInt(nodes.segLine[i]);
+			else
+				out.putShort(nodes.segLine[i]);
+			out.putByte(nodes.segSide[i]);
+		}
+		out.putInt(nodes.getNodeCount());
+		for (int i = 0; i < nodes.getNodeCount(); i++) {
+			if (fractional) {
+				out.putInt(nodes.nodeX[i]);
+				out.putInt(nodes.nodeY[i]);
+				out.putInt(nodes.nodeDx[i]);
+				out.putInt(nodes.nodeDy[i]);
+			} else {
+				out.putShort(nodes.nodeX[i] >> 16);
+				out.putShort(nodes.nodeY[i] >> 16);
+				out.putShort(nodes.nodeDx[i] >> 16);
+				out.putShort(nodes.nodeDy[i] >> 16);
+			}
+			for (int edge = 0; edge < 8; edge++)
+				out.putShort(nodes.nodeBox[i * 8 + edge]);
+			out.putInt(nodes.nodeChild[i * 2]);
+			out.putInt(nodes.nodeChild[i * 2 + 1]);
+		}
+		if (!format.isCompressed())
+			return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		return compress(data);
+	}
+
+	/**
+	 * Compresses everything after the format name with zlib.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @return
+	 * 		The compressed lump data.
+	 */
+	private static ByteBuffer compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setInput(data, 4, data.length - 4);
+			deflater.finish();
+			byte[] output = new byte[CHUNK_SIZE];
+			System.arraycopy(data, 0, output, 0, 4);
+			int length = 4;
+			while (!deflater.finished()) {
+				if (length == output.length)
+					output = Arrays.copyOf(output, output.length + CHUNK_SIZE);
+				length += deflater.deflate(output, length, output.length - length);
+			}
+			return ByteBuffer.wrap(output, 0, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Writes nodes as version 5 glBSP lumps. Vertex numbers from the
+	 * original vertex count on are written as GL_VERT vertices.
+	 * 
+	 * @param nodes
+	 * 		The nodes.
+	 * 
+	 * @return
+	 * 		The data of GL_VERT, GL_SEGS, GL_SSECT and GL_NODES, in that order.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the nodes are null.
+	 */
+	public static Map<String, ByteBuffer> writeGL(MapNodes nodes) {
+		if (nodes == null) {
+			NullPointerException e = new NullPointerException("Provided null nodes to NodeWriter.");
+			log.log(Level.SEVERE, "NodeWriter nodes are null", e);
+			throw e;
+		}
+		int original = nodes.getOriginalVertexCount();
+		Map<String, ByteBuffer> lumps = new LinkedHashMap<>();
+
+		ByteHandler vertices = new ByteHandler(new byte[4 + 8 * nodes.getExtraVertexCount()], ByteOrder.LITTLE_ENDIAN);
+		vertices.putBytes("gNd5".getBytes(StandardCharsets.US_ASCII));
+		for (int i = 0; i < nodes.getExtraVertexCount(); i++) {
+			vertices.putInt(nodes.vertexX[i]);
+			vertices.putInt(nodes.vertexY[i]);
+		}
+		lumps.put("GL_VERT", vertices.getBuffer());
+
+		ByteHandler segs = new ByteHandler(new byte[16 * nodes.getSegCount()], ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < nodes.getSegCount(); i++) {
+			segs.putInt(toGLVertex(nodes.segStart[i], original));
+			segs.putInt(toGLVertex(nodes.segEnd[i], original));
+			segs.putShort(nodes.segLine[i]);
+			segs.putShort(nodes.segSide[i]);
+			segs.putInt(nodes.segPartner[i]);
+		}
+		lumps.put("GL_SEGS", segs.getBuffer());
+
+		ByteHandler subsectors = new ByteHandler(new byte[8 * nodes.getSubsectorCount()], ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < nodes.getSubsectorCount(); i++) {
+			subsectors.putInt(nodes.subsectorCount[i]);
+			subsectors.putInt(nodes.subsectorFirst[i]);
+		}
+		lumps.put("GL_SSECT", subsectors.getBuffer());
+
+		ByteHandler glNodes = new ByteHandler(new byte[32 * nodes.getNodeCount()], ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < nodes.getNodeCount(); i++) {
+			glNodes.putShort(nodes.nodeX[i] >> 16);
+			glNodes.putShort(nodes.nodeY[i] >> 16);
+			glNodes.putShort(nodes.nodeDx[i] >> 16);
+			glNodes.putShort(nodes.nodeDy[i] >> 16);
+			for (int edge = 0; edge < 8; edge++)
+				glNodes.putShort(nodes.nodeBox[i * 8 + edge]);
+			glNodes.putInt(nodes.nodeChild[i * 2]);
+			glNodes.putInt(nodes.nodeChild[i * 2 + 1]);
+		}
+		lumps.put("GL_NODES", glNodes.getBuffer());
+		return lumps;
+	}
+
+	/**
+	 * Turns a vertex number of MapNodes into a version 5 glBSP vertex number.
+	 * 
+	 * @param vertex
+	 * 		The vertex number.
+	 * 
+	 * @param original
+	 * 		The number of vertices in VERTEXES.
+	 * 
+	 * @return
+	 * 		The glBSP vertex number.
+	 */
+	private static int toGLVertex(int vertex, int original) {
+		return vertex < original ? vertex : (vertex - original) | 0x80000000;
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.music;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The output of a conversion. It is allocated once with a size estimated
+ * from the input, which is almost always enough, and only grows if the
+ * estimate was short.
+ */
+class MusicBuffer {
+
+	/**
+	 * The bytes written so far.
+	 */
+	private byte[] data;
+
+	/**
+	 * The number of bytes written.
+	 */
+	private int size;
+
+	/**
+	 * Creates a buffer.
+	 * 
+	 * @param capacity
+	 * 		The expected size of the output.
+	 */
+	MusicBuffer(int capacity) {
+		this.data = new byte[Math.max(capacity, 64)];
+	}
+
+	/**
+	 * Makes room for more bytes.
+	 * 
+	 * @param length
+	 * 		The number of bytes about to be written.
+	 */
+	private void ensure(int length) {
+		if (this.size + length > this.data.length)
+			this.data = Arrays.copyOf(this.data, Math.max(this.data.length * 2, this.size + length));
+	}
+
+	/**
+	 * Writes a byte.
+	 * 
+	 * @param value
+	 * 		The byte in the low 8 bits.
+	 */
+	void put(int value) {
+		ensure(1);
+		this.data[this.size++] = (byte)value;
+	}
+
+	/**
+	 * Writes bytes.
+	 * 
+	 * @param values
+	 * 		The bytes.
+	 */
+	void put(byte[] values) {
+		ensure(values.length);
+		System.arraycopy(values, 0, this.data, this.size, values.length);
+		this.size += values.length;
+	}
+
+	/**
+	 * Writes a 16 bit value in little endian order.
+	 * 
+	 * @param value
+	 * 		The value.
+	 */
+	void putShortLittle(int value) {
+		put(value);
+		put(value >>> 8);
+	}
+
+	/**
+	 * Writes a 16 bit value in big endian order.
+	 * 
+	 * @param value
+	 * 		The value.
+	 */
+	void putShortBig(int value) {
+		put(value >>> 8);
+		put(value);
+	}
+
+	/**
+	 * Writes a 32 bit value in big endian order.
+	 * 
+	 * @param value
+	 * 		The value.
+	 */
+	void putIntBig(int value) {
+		putShortBig(value >>> 16);
+		putShortBig(value);
+	}
+
+	/**
+	 * Writes a variable length number, seven bits per byte with the most
+	 * significant group first, as both MIDI and MUS use.
+	 * 
+	 * @param value
+	 * 		The number, which must not be negative.
+	 */
+	void putVariableLength(long value) {
+		int shift = 63 - Long.numberOfLeadingZeros(value | 1);
+		for (int group = shift / 7; group > 0; group--)
+			put(0x80 | ((int)(value >>> (group * 7)) & 0x7F));
+		put((int)(value & 0x7F));
+	}
+
+	/**
+	 * Sets bits of a byte written before.
+	 * 
+	 * @param index
+	 * 		Where the byte is.
+	 * 
+	 * @param mask
+	 * 		The bits to set.
+	 */
+	void setBits(int index, int mask) {
+		this.data[index] |= mask;
+	}
+
+	/**
+	 * Overwrites a 16 bit little endian value written before.
+	 * 
+	 * @param index
+	 * 		Where the value is.
+	 * 
+	 * @param value
+	 * 		The new value.
+	 */
+	void setShortLittle(int index, int value) {
+		this.data[index] = (byte)value;
+		this.data[index + 1] = (byte)(value >>> 8);
+	}
+
+	/**
+	 * Overwrites a 32 bit big endian value written before.
+	 * 
+	 * @param index
+	 * 		Where the value is.
+	 * 
+	 * @param value
+	 * 		The new value.
+	 */
+	void setIntBig(int index, int value) {
+		this.data[index] = (byte)(value >>> 24);
+		this.data[index + 1] = (byte)(value >>> 16);
+		this.data[index + 2] = (byte)(value >>> 8);
+		this.data[index + 3] = (byte)value;
+	}
+
+	/**
+	 * Gets the number of bytes written.
+	 * 
+	 * @return
+	 * 		The size of the output.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Gets the output.
+	 * 
+	 * @return
+	 * 		A buffer wrapping the written bytes, positioned at zero.
+	 */
+	ByteBuffer toByteBuffer() {
+		return ByteBuffer.wrap(this.data, 0, this.size).slice();
+	}
+}
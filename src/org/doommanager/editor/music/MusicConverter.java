@@ -0,0 +1,642 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.music;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts music between the DMX MUS format of Doom music lumps and
+ * standard MIDI files. Both directions work on the events as a stream: every
+ * event is translated as soon as it is read and written straight into an
+ * output buffer that was sized from the input up front.
+ * 
+ * MUS runs at 140 ticks per second. MIDI files are written with 70 ticks per
+ * quarter note at the default tempo of 120 beats per minute, which is the
+ * same rate, so no tempo event is needed. When reading MIDI files every tempo
+ * change is followed and times are rounded to the nearest MUS tick.
+ */
+public final class MusicConverter {
+
+	/**
+	 * "MUS" and an end of file character, read as a little endian int.
+	 */
+	public static final int MUS_MAGIC = 0x1A53554D;
+
+	/**
+	 * "MThd" read as a big endian int.
+	 */
+	public static final int MIDI_MAGIC = 0x4D546864;
+
+	/**
+	 * How many bytes at the start of a lump isMus and isMidi need to see.
+	 */
+	public static final int DETECT_HEADER_SIZE = 16;
+
+	/**
+	 * "MTrk" read as a big endian int.
+	 */
+	private static final int MIDI_TRACK_MAGIC = 0x4D54726B;
+
+	/**
+	 * The number of MUS ticks per second.
+	 */
+	public static final int MUS_TICKS_PER_SECOND = 140;
+
+	/**
+	 * The MIDI ticks per quarter note that match MUS ticks at 120 BPM.
+	 */
+	private static final int MIDI_DIVISION = 70;
+
+	/**
+	 * The MUS channel for percussion.
+	 */
+	private static final int MUS_PERCUSSION = 15;
+
+	/**
+	 * The MIDI channel for percussion.
+	 */
+	private static final int MIDI_PERCUSSION = 9;
+
+	/**
+	 * The volume a channel starts with when a note is played without one.
+	 */
+	private static final int DEFAULT_VOLUME = 127;
+
+	/**
+	 * The MIDI controller of each MUS controller. MUS controller 0 is a
+	 * program change.
+	 */
+	private static final int[] MIDI_CONTROLLERS = { -1, 0, 1, 7, 10, 11, 91, 93, 64, 67 };
+
+	/**
+	 * The MIDI controller of each MUS system event, starting at event 10.
+	 */
+	private static final int[] MIDI_SYSTEM_CONTROLLERS = { 120, 123, 126, 127, 121 };
+
+	/**
+	 * The first MUS system event number.
+	 */
+	private static final int FIRST_SYSTEM_EVENT = 10;
+
+	/**
+	 * MUS instruments above this are percussion notes, numbered as the note
+	 * plus this offset.
+	 */
+	private static final int PERCUSSION_INSTRUMENT_OFFSET = 100;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(MusicConverter.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private MusicConverter() {
+	}
+
+	/**
+	 * Checks if data is a MUS lump.
+	 * 
+	 * @param data
+	 * 		The data from its position to its limit.
+	 * 
+	 * @return
+	 * 		True if it starts with the MUS identifier.
+	 */
+	public static boolean isMus(ByteBuffer data) {
+		return data.remaining() >= 16 && data.slice().order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MUS_MAGIC;
+	}
+
+	/**
+	 * Checks if data is a MIDI file.
+	 * 
+	 * @param data
+	 * 		The data from its position to its limit.
+	 * 
+	 * @return
+	 * 		True if it starts with a MIDI header.
+	 */
+	public static boolean isMidi(ByteBuffer data) {
+		return data.remaining() >= 14 && data.slice().order(ByteOrder.BIG_ENDIAN).getInt(0) == MIDI_MAGIC;
+	}
+
+	/**
+	 * Converts a MUS lump to a type 0 MIDI file. A score that is cut off is
+	 * converted up to where it ends.
+	 * 
+	 * @param mus
+	 * 		The MUS data from its position to its limit.
+	 * 
+	 * @return
+	 * 		The MIDI file, positioned at zero.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the data is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data is not a MUS lump.
+	 */
+	public static ByteBuffer musToMidi(ByteBuffer mus) {
+		if (mus == null)
+			throw new NullPointerException("Provided null data to MusicConverter.");
+		if (!isMus(mus))
+			throw new IllegalArgumentException("Data is not a MUS lump.");
+		ByteBuffer in = mus.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int scoreLength = in.getShort(4) & 0xFFFF;
+		int scoreStart = in.getShort(6) & 0xFFFF;
+		if (scoreStart > in.limit())
+			throw new IllegalArgumentException("MUS score starts past the end of the lump.");
+
+		// Notes take about two bytes in MUS and three in MIDI, plus the delays.
+		MusicBuffer out = new MusicBuffer(64 + scoreLength * 2);
+		out.put("MThd".getBytes(StandardCharsets.US_ASCII));
+		out.putIntBig(6);
+		out.putShortBig(0);
+		out.putShortBig(1);
+		out.putShortBig(MIDI_DIVISION);
+		out.put("MTrk".getBytes(StandardCharsets.US_ASCII));
+		int trackLengthIndex = out.size();
+		out.putIntBig(0);
+		int trackStart = out.size();
+
+		int[] channels = new int[16];
+		Arrays.fill(channels, -1);
+		int[] volumes = new int[16];
+		Arrays.fill(volumes, DEFAULT_VOLUME);
+		int nextChannel = 0;
+		long delay = 0;
+		int position = scoreStart;
+		try {
+			while (position < in.limit()) {
+				int descriptor = in.get(position++) & 0xFF;
+				int type = (descriptor >> 4) & 7;
+				int musChannel = descriptor & 15;
+				if (type == 6)
+					break;
+				if (type == 7) {
+					log.log(Level.FINE, "Unknown MUS event at " + (position - 1) + ", stopping there");
+					break;
+				}
+
+				int channel = channels[musChannel];
+				if (channel < 0 && type != 5) {
+					if (musChannel == MUS_PERCUSSION) {
+						channel = MIDI_PERCUSSION;
+					} else {
+						channel = nextChannel++;
+						if (channel == MIDI_PERCUSSION)
+							channel = nextChannel++;
+						// A fresh channel starts silent, like other MUS players do.
+						writeDelay(out, delay);
+						delay = 0;
+						out.put(0xB0 | channel);
+						out.put(123);
+						out.put(0);
+					}
+					channels[musChannel] = channel;
+				}
+
+				switch (type) {
+				case 0:
+					writeDelay(out, delay);
+					delay = 0;
+					out.put(0x80 | channel);
+					out.put(in.get(position++) & 0x7F);
+					out.put(0);
+					break;
+				case 1: {
+					int note = in.get(position++) & 0xFF;
+					if ((note & 0x80) != 0)
+						volumes[musChannel] = in.get(position++) & 0x7F;
+					writeDelay(out, delay);
+					delay = 0;
+					out.put(0x90 | channel);
+					out.put(note & 0x7F);
+					out.put(volumes[musChannel]);
+					break;
+				}
+				case 2: {
+					int bend = (in.get(position++) & 0xFF) << 6;
+					writeDelay(out, delay);
+					delay = 0;
+					out.put(0xE0 | channel);
+					out.put(bend & 0x7F);
+					out.put((bend >> 7) & 0x7F);
+					break;
+				}
+				case 3: {
+					int event = in.get(position++) & 0x7F;
+					if (event >= FIRST_SYSTEM_EVENT && event < FIRST_SYSTEM_EVENT + MIDI_SYSTEM_CONTROLLERS.length) {
+						writeDelay(out, delay);
+						delay = 0;
+						out.put(0xB0 | channel);
+						out.put(MIDI_SYSTEM_CONTROLLERS[event - FIRST_SYSTEM_EVENT]);
+						out.put(0);
+					}
+					break;
+				}
+				case 4: {
+					int controller = in.get(position++) & 0x7F;
+					int value = in.get(position++) & 0x7F;
+					if (controller == 0) {
+						writeDelay(out, delay);
+						delay = 0;
+						out.put(0xC0 | channel);
+						out.put(value);
+					} else if (controller < MIDI_CONTROLLERS.length) {
+						writeDelay(out, delay);
+						delay = 0;
+						out.put(0xB0 | channel);
+						out.put(MIDI_CONTROLLERS[controller]);
+						out.put(value);
+					}
+					break;
+				}
+				default:
+					// Type 5 marks the end of a measure and has no data.
+					break;
+				}
+
+				if ((descriptor & 0x80) != 0) {
+					long time = 0;
+					int part;
+					do {
+						part = in.get(position++) & 0xFF;
+						time = (time << 7) | (part & 0x7F);
+					} while ((part & 0x80) != 0);
+					delay += time;
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			log.log(Level.FINE, "MUS score is cut off at " + position);
+		}
+
+		writeDelay(out, delay);
+		out.put(0xFF);
+		out.put(0x2F);
+		out.put(0);
+		out.setIntBig(trackLengthIndex, out.size() - trackStart);
+		return out.toByteBuffer();
+	}
+
+	/**
+	 * Writes the delta time in front of a MIDI event.
+	 * 
+	 * @param out
+	 * 		The output.
+	 * 
+	 * @param delay
+	 * 		The ticks since the last event.
+	 */
+	private static void writeDelay(MusicBuffer out, long delay) {
+		out.putVariableLength(delay);
+	}
+
+	/**
+	 * Converts a MIDI file of type 0 or 1 to a MUS lump. The tracks are
+	 * merged as they are read by always taking the next event of the track
+	 * that is furthest behind. Events MUS has no room for, like aftertouch and
+	 * system exclusive messages, are left out.
+	 * 
+	 * @param midi
+	 * 		The MIDI data from its position to its limit.
+	 * 
+	 * @return
+	 * 		The MUS lump, positioned at zero.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the data is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data is not a MIDI file, uses SMPTE timing, is damaged or
+	 * 		is too long for MUS.
+	 */
+	public static ByteBuffer midiToMus(ByteBuffer midi) {
+		if (midi == null)
+			throw new NullPointerException("Provided null data to MusicConverter.");
+		if (!isMidi(midi))
+			throw new IllegalArgumentException("Data is not a MIDI file.");
+		ByteBuffer in = midi.slice().order(ByteOrder.BIG_ENDIAN);
+		int headerLength = in.getInt(4);
+		int division = in.getShort(12) & 0xFFFF;
+		if ((division & 0x8000) != 0)
+			throw new IllegalArgumentException("MIDI files with SMPTE timing are not supported.");
+		if (division == 0)
+			throw new IllegalArgumentException("MIDI file has a division of zero.");
+
+		TrackCursor[] tracks = findTracks(in, 8 + (long)headerLength);
+		MusicBuffer score = new MusicBuffer(in.remaining());
+		Set<Integer> instruments = new LinkedHashSet<>();
+		int[] channels = new int[16];
+		Arrays.fill(channels, -1);
+		channels[MIDI_PERCUSSION] = MUS_PERCUSSION;
+		int[] volumes = new int[16];
+		Arrays.fill(volumes, DEFAULT_VOLUME);
+		int nextChannel = 0;
+
+		long tempo = 500000;
+		long lastTick = 0;
+		long lastMicros = 0;
+		long scoreTick = 0;
+		int lastDescriptor = -1;
+		long endTick = 0;
+
+		while (true) {
+			TrackCursor track = null;
+			for (TrackCursor candidate : tracks)
+				if (!candidate.done && (track == null || candidate.tick < track.tick))
+					track = candidate;
+			if (track == null)
+				break;
+
+			// Times are kept in microseconds so every tempo change is followed.
+			long micros = lastMicros + (track.tick - lastTick) * tempo / division;
+			lastTick = track.tick;
+			lastMicros = micros;
+			long musTick = (micros * MUS_TICKS_PER_SECOND + 500000) / 1000000;
+
+			int status = in.get(track.position) & 0xFF;
+			if (status < 0x80) {
+				if (track.runningStatus < 0)
+					throw new IllegalArgumentException("MIDI track has data without a status byte.");
+				status = track.runningStatus;
+			} else {
+				track.position++;
+				if (status < 0xF0)
+					track.runningStatus = status;
+			}
+
+			int musEvent = -1;
+			int first = 0;
+			int second = -1;
+			if (status == 0xFF) {
+				int type = in.get(track.position++) & 0xFF;
+				int length = (int)track.readVariableLength(in);
+				if (type == 0x51 && length == 3)
+					tempo = ((in.get(track.position) & 0xFF) << 16) | ((in.get(track.position + 1) & 0xFF) << 8) | (in.get(track.position + 2) & 0xFF);
+				track.position += length;
+				if (type == 0x2F) {
+					track.done = true;
+					endTick = Math.max(endTick, musTick);
+					continue;
+				}
+			} else if (status == 0xF0 || status == 0xF7) {
+				track.position += (int)track.readVariableLength(in);
+			} else {
+				int command = status & 0xF0;
+				int midiChannel = status & 15;
+				int data1 = in.get(track.position++) & 0x7F;
+				int data2 = command == 0xC0 || command == 0xD0 ? 0 : in.get(track.position++) & 0x7F;
+				boolean opensChannel = false;
+				if (channels[midiChannel] < 0 && (command == 0x80 || command == 0x90 || command == 0xB0 || command == 0xC0 || command == 0xE0)) {
+					if (nextChannel >= MUS_PERCUSSION)
+						throw new IllegalArgumentException("MIDI file uses more channels than MUS can hold.");
+					channels[midiChannel] = nextChannel++;
+					opensChannel = true;
+				}
+				int channel = channels[midiChannel];
+				// A note on without velocity is a note off.
+				if (command == 0x90 && data2 == 0)
+					command = 0x80;
+				switch (command) {
+				case 0x90:
+					musEvent = 0x10;
+					if (data2 != volumes[midiChannel]) {
+						volumes[midiChannel] = data2;
+						first = data1 | 0x80;
+						second = data2;
+					} else {
+						first = data1;
+					}
+					if (channel == MUS_PERCUSSION)
+						instruments.add(data1 + PERCUSSION_INSTRUMENT_OFFSET);
+					break;
+				case 0x80:
+					musEvent = 0x00;
+					first = data1;
+					break;
+				case 0xB0:
+					for (int i = 1; i < MIDI_CONTROLLERS.length; i++) {
+						if (MIDI_CONTROLLERS[i] == data1) {
+							musEvent = 0x40;
+							first = i;
+							second = data2;
+						}
+					}
+					for (int i = 0; i < MIDI_SYSTEM_CONTROLLERS.length; i++) {
+						if (MIDI_SYSTEM_CONTROLLERS[i] == data1) {
+							musEvent = 0x30;
+							first = FIRST_SYSTEM_EVENT + i;
+						}
+					}
+					// Converting back writes this for every new channel, so it is not kept.
+					if (opensChannel && data1 == 123)
+						musEvent = -1;
+					break;
+				case 0xC0:
+					musEvent = 0x40;
+					first = 0;
+					second = data1;
+					if (channel != MUS_PERCUSSION)
+						instruments.add(data1);
+					break;
+				case 0xE0:
+					musEvent = 0x20;
+					first = ((data2 << 7) | data1) >> 6;
+					break;
+				default:
+					break;
+				}
+				if (musEvent >= 0) {
+					musEvent |= channel;
+					if (lastDescriptor < 0 && musTick > 0) {
+						// MUS can only wait after an event, so a silent start needs a placeholder.
+						lastDescriptor = score.size();
+						score.put(0x50);
+					}
+					if (musTick > scoreTick && lastDescriptor >= 0) {
+						score.setBits(lastDescriptor, 0x80);
+						score.putVariableLength(musTick - scoreTick);
+					}
+					scoreTick = musTick;
+					lastDescriptor = score.size();
+					score.put(musEvent);
+					score.put(first);
+					if (second >= 0)
+						score.put(second);
+				}
+			}
+			track.readDelta(in);
+		}
+
+		if (endTick > scoreTick && lastDescriptor >= 0) {
+			score.setBits(lastDescriptor, 0x80);
+			score.putVariableLength(endTick - scoreTick);
+		}
+		score.put(0x60);
+
+		int scoreStart = 16 + 2 * instruments.size();
+		if (score.size() > 0xFFFF || scoreStart > 0xFFFF)
+			throw new IllegalArgumentException("Song is too long for a MUS lump.");
+		MusicBuffer out = new MusicBuffer(scoreStart + score.size());
+		out.put("MUS".getBytes(StandardCharsets.US_ASCII));
+		out.put(0x1A);
+		out.putShortLittle(score.size());
+		out.putShortLittle(scoreStart);
+		out.putShortLittle(nextChannel);
+		out.putShortLittle(0);
+		out.putShortLittle(instruments.size());
+		out.putShortLittle(0);
+		for (int instrument : instruments)
+			out.putShortLittle(instrument);
+		ByteBuffer scoreData = score.toByteBuffer();
+		byte[] scoreBytes = new byte[scoreData.remaining()];
+		scoreData.get(scoreBytes);
+		out.put(scoreBytes);
+		return out.toByteBuffer();
+	}
+
+	/**
+	 * Finds the tracks of a MIDI file and reads the delta time of their
+	 * first event. Chunks that are not tracks are skipped.
+	 * 
+	 * @param in
+	 * 		The MIDI file.
+	 * 
+	 * @param offset
+	 * 		The offset of the first chunk after the header.
+	 * 
+	 * @return
+	 * 		The tracks.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If a track runs past the end of the file.
+	 */
+	private static TrackCursor[] findTracks(ByteBuffer in, long offset) {
+		int trackCount = in.getShort(10) & 0xFFFF;
+		TrackCursor[] tracks = new TrackCursor[trackCount];
+		int found = 0;
+		while (found < trackCount && offset + 8 <= in.limit()) {
+			int id = in.getInt((int)offset);
+			long length = in.getInt((int)offset + 4) & 0xFFFFFFFFL;
+			long start = offset + 8;
+			if (start + length > in.limit())
+				throw new IllegalArgumentException("MIDI track runs past the end of the file.");
+			if (id == MIDI_TRACK_MAGIC) {
+				TrackCursor track = new TrackCursor((int)start, (int)(start + length));
+				track.readDelta(in);
+				tracks[found++] = track;
+			}
+			offset = start + length;
+		}
+		return Arrays.copyOf(tracks, found);
+	}
+
+	/**
+	 * The read position in one MIDI track.
+	 */
+	private static final class TrackCursor {
+
+		/**
+		 * The offset of the next byte to read.
+		 */
+		private int position;
+
+		/**
+		 * The end of the track data.
+		 */
+		private final int end;
+
+		/**
+		 * The time of the next event in MIDI ticks.
+		 */
+		private long tick;
+
+		/**
+		 * The status of the last channel event, or -1.
+		 */
+		private int runningStatus;
+
+		/**
+		 * If there are no more events.
+		 */
+		private boolean done;
+
+		/**
+		 * Creates a cursor at the start of a track.
+		 * 
+		 * @param position
+		 * 		The start of the track data.
+		 * 
+		 * @param end
+		 * 		The end of the track data.
+		 */
+		private TrackCursor(int position, int end) {
+			this.position = position;
+			this.end = end;
+			this.runningStatus = -1;
+		}
+
+		/**
+		 * Reads the delta time in front of the next event, or marks the
+		 * track done if it has no more data.
+		 * 
+		 * @param in
+		 * 		The MIDI file.
+		 */
+		private void readDelta(ByteBuffer in) {
+			if (this.position >= this.end) {
+				this.done = true;
+				return;
+			}
+			this.tick += readVariableLength(in);
+			if (this.position >= this.end)
+				this.done = true;
+		}
+
+		/**
+		 * Reads a variable length number.
+		 * 
+		 * @param in
+		 * 		The MIDI file.
+		 * 
+		 * @return
+		 * 		The number.
+		 */
+		private long readVariableLength(ByteBuffer in) {
+			long value = 0;
+			int part;
+			do {
+				if (this.position >= this.end)
+					throw new IllegalArgumentException("MIDI track ends inside a number.");
+				part = in.get(this.position++) & 0xFF;
+				value = (value << 7) | (part & 0x7F);
+			} while ((part & 0x80) != 0);
+			return value;
+		}
+	}
+}
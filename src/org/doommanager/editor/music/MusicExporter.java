@@ -0,0 +1,255 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.music;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3Entry;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * Exports music lumps as MIDI files. MUS lumps are converted and MIDI lumps
+ * are copied as they are. Exporting from many files at once runs one task per
+ * lump across all of them on the common fork join pool, so a file with a
+ * single song does not leave the other threads idle.
+ */
+public final class MusicExporter {
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(MusicExporter.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private MusicExporter() {
+	}
+
+	/**
+	 * Finds every music lump in a file by checking the header of each lump.
+	 * Deflated PK3 entries are only inflated as far as the header.
+	 * 
+	 * @param file
+	 * 		The file to look in.
+	 * 
+	 * @return
+	 * 		The MUS and MIDI lumps in directory order.
+	 */
+	public static List<Lump> findMusic(DoomFile file) {
+		List<Lump> music = new ArrayList<>();
+		for (Lump lump : file.getLumps()) {
+			if (lump.getSize() == 0)
+				continue;
+			ByteBuffer header = getHeader(file, lump);
+			if (MusicConverter.isMus(header) || MusicConverter.isMidi(header))
+				music.add(lump);
+		}
+		return music;
+	}
+
+	/**
+	 * Gets enough of the start of a lump to detect if it is music.
+	 * 
+	 * @param file
+	 * 		The file that owns the lump.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		At least MusicConverter.DETECT_HEADER_SIZE bytes unless the lump is
+	 * 		smaller.
+	 */
+	private static ByteBuffer getHeader(DoomFile file, Lump lump) {
+		if (file instanceof PK3File)
+			return ((PK3File)file).getLumpStart((PK3Entry)lump, MusicConverter.DETECT_HEADER_SIZE);
+		return file.getLumpData(lump);
+	}
+
+	/**
+	 * Exports every music lump of some files as MIDI files, in parallel. Each
+	 * file gets its own folder named after it, and lumps that would get the
+	 * same file name get a number added.
+	 * 
+	 * @param files
+	 * 		The files with the music.
+	 * 
+	 * @param directory
+	 * 		The folder to export to, which is created if needed.
+	 * 
+	 * @return
+	 * 		The number of songs exported. Songs that fail are logged and
+	 * 		skipped.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If a folder cannot be created.
+	 */
+	public static int exportAll(Collection<? extends DoomFile> files, String directory) throws IOException {
+		if (files == null || directory == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to MusicExporter.");
+			log.log(Level.SEVERE, "MusicExporter argument is null", e);
+			throw e;
+		}
+		Path root = Files.createDirectories(Paths.get(directory));
+
+		// Names are picked up front so the parallel tasks never race for one.
+		List<DoomFile> sources = new ArrayList<>();
+		List<Lump> songs = new ArrayList<>();
+		List<Path> targets = new ArrayList<>();
+		Set<String> usedFolders = new HashSet<>();
+		for (DoomFile file : files) {
+			List<Lump> music = findMusic(file);
+			if (music.isEmpty())
+				continue;
+			String folderBase = sanitize(stripExtension(new File(file.getFilePath()).getName()));
+			String folderName = folderBase;
+			for (int i = 1; !usedFolders.add(folderName.toLowerCase(Locale.ROOT)); i++)
+				folderName = folderBase + "_" + i;
+			Path folder = Files.createDirectories(root.resolve(folderName));
+
+			Set<String> used = new HashSet<>();
+			for (Lump lump : music) {
+				String base = baseName(lump);
+				String name = base + ".mid";
+				for (int i = 1; !used.add(name.toLowerCase(Locale.ROOT)); i++)
+					name = base + "_" + i + ".mid";
+				sources.add(file);
+				songs.add(lump);
+				targets.add(folder.resolve(name));
+			}
+		}
+
+		AtomicInteger exported = new AtomicInteger();
+		long start = System.nanoTime();
+		IntStream.range(0, songs.size()).parallel().forEach(i -> {
+			BufferLease data = null;
+			try {
+				data = sources.get(i).getLumpData(songs.get(i), BufferPool.getShared());
+				export(data.getBuffer(), targets.get(i));
+				exported.incrementAndGet();
+			} catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Unable to export " + songs.get(i).getName() + " to " + targets.get(i), e);
+			} finally {
+				if (data != null)
+					data.dispose();
+			}
+		});
+		log.log(Level.INFO, String.format("Exported %d of %d songs to %s in %.2fs", exported.get(), songs.size(), root,
+				(System.nanoTime() - start) / 1e9));
+		return exported.get();
+	}
+
+	/**
+	 * Exports one song as a MIDI file.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @param target
+	 * 		The file to write.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the data is neither MUS nor MIDI.
+	 */
+	public static void export(ByteBuffer data, Path target) throws IOException {
+		ByteBuffer midi;
+		if (MusicConverter.isMus(data))
+			midi = MusicConverter.musToMidi(data);
+		else if (MusicConverter.isMidi(data))
+			midi = data.duplicate();
+		else
+			throw new IllegalArgumentException("Lump is not MUS or MIDI music.");
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (midi.hasRemaining())
+				channel.write(midi);
+		}
+	}
+
+	/**
+	 * Makes a file name out of a lump name, dropping the folders and the
+	 * extension of PK3 entries.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		The name without an extension.
+	 */
+	private static String baseName(Lump lump) {
+		String name = lump instanceof PK3Entry ? ((PK3Entry)lump).getFileName() : lump.getName();
+		return sanitize(stripExtension(name));
+	}
+
+	/**
+	 * Removes the extension from a name.
+	 * 
+	 * @param name
+	 * 		The name.
+	 * 
+	 * @return
+	 * 		The part before the last dot, or the whole name if there is none.
+	 */
+	private static String stripExtension(String name) {
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Replaces anything a file system might not take.
+	 * 
+	 * @param name
+	 * 		The name.
+	 * 
+	 * @return
+	 * 		A name of only letters, digits, underscores and dashes.
+	 */
+	private static String sanitize(String name) {
+		name = name.replaceAll("[^A-Za-z0-9_\\-]", "_");
+		return name.isEmpty() ? "_" : name;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds many patterns at once with the Aho-Corasick algorithm. The trie is
+ * turned into a full transition table when it is built, so scanning reads
+ * every byte exactly once no matter how many patterns there are.
+ */
+public class AhoCorasickMatcher implements ByteMatcher {
+
+	/**
+	 * The next state for every state and folded byte, as state * 256 + byte.
+	 */
+	private final int[] transitions;
+
+	/**
+	 * The pattern that ends at each state, or -1 if none does.
+	 */
+	private final int[] outputs;
+
+	/**
+	 * The nearest state along the failure links that has an output, or -1.
+	 */
+	private final int[] outputLinks;
+
+	/**
+	 * The lengths of the patterns.
+	 */
+	private final int[] lengths;
+
+	/**
+	 * The folding applied to the data before matching.
+	 */
+	private final byte[] folding;
+
+	/**
+	 * Builds a matcher for a set of patterns.
+	 * 
+	 * @param patterns
+	 * 		The byte patterns to look for. If two are equal, only the first is
+	 * 		reported.
+	 * 
+	 * @param ignoreCase
+	 * 		If ASCII letters should match in either case.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the list or a pattern is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If there are no patterns or a pattern is empty.
+	 */
+	public AhoCorasickMatcher(List<byte[]> patterns, boolean ignoreCase) {
+		if (patterns == null)
+			throw new NullPointerException("Provided null patterns to AhoCorasickMatcher.");
+		if (patterns.isEmpty())
+			throw new IllegalArgumentException("AhoCorasickMatcher needs at least one pattern.");
+		this.folding = ByteFolding.table(ignoreCase);
+		this.lengths = new int[patterns.size()];
+
+		int maxStates = 1;
+		for (byte[] pattern : patterns) {
+			if (pattern.length == 0)
+				throw new IllegalArgumentException("AhoCorasickMatcher patterns must not be empty.");
+			maxStates += pattern.length;
+		}
+
+		// The trie, with -1 for missing edges.
+		int[] trie = new int[maxStates * 256];
+		Arrays.fill(trie, -1);
+		int[] outputs = new int[maxStates];
+		Arrays.fill(outputs, -1);
+		int stateCount = 1;
+		for (int p = 0; p < patterns.size(); p++) {
+			byte[] pattern = ByteFolding.fold(patterns.get(p), this.folding);
+			this.lengths[p] = pattern.length;
+			int state = 0;
+			for (byte b : pattern) {
+				int edge = state * 256 + (b & 0xFF);
+				if (trie[edge] < 0)
+					trie[edge] = stateCount++;
+				state = trie[edge];
+			}
+			if (outputs[state] < 0)
+				outputs[state] = p;
+		}
+
+		// Breadth first, fill the missing edges from the failure state, which
+		// is always closer to the root and so already complete.
+		int[] failures = new int[stateCount];
+		int[] outputLinks = new int[stateCount];
+		outputLinks[0] = -1;
+		int[] queue = new int[stateCount];
+		int head = 0;
+		int tail = 0;
+		for (int b = 0; b < 256; b++) {
+			int next = trie[b];
+			if (next < 0) {
+				trie[b] = 0;
+			} else {
+				failures[next] = 0;
+				outputLinks[next] = -1;
+				queue[tail++] = next;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			for (int b = 0; b < 256; b++) {
+				int edge = state * 256 + b;
+				int next = trie[edge];
+				int fallback = trie[failures[state] * 256 + b];
+				if (next < 0) {
+					trie[edge] = fallback;
+				} else {
+					failures[next] = fallback;
+					outputLinks[next] = outputs[fallback] >= 0 ? fallback : outputLinks[fallback];
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		this.transitions = Arrays.copyOf(trie, stateCount * 256);
+		this.outputs = Arrays.copyOf(outputs, stateCount);
+		this.outputLinks = outputLinks;
+	}
+
+	@Override
+	public void scan(ByteBuffer data, MatchHandler handler) {
+		int start = data.position();
+		int limit = data.limit();
+		int state = 0;
+		for (int i = start; i < limit; i++) {
+			state = this.transitions[state * 256 + (this.folding[data.get(i) & 0xFF] & 0xFF)];
+			for (int found = this.outputs[state] >= 0 ? state : this.outputLinks[state]; found >= 0; found = this.outputLinks[found]) {
+				int pattern = this.outputs[found];
+				if (!handler.onMatch(pattern, i - start - this.lengths[pattern] + 1))
+					return;
+			}
+		}
+	}
+
+	@Override
+	public int getPatternCount() {
+		return this.lengths.length;
+	}
+
+	@Override
+	public int getPatternLength(int pattern) {
+		return this.lengths[pattern];
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+/**
+ * The case folding that all of the search code shares. Only ASCII letters
+ * are folded, which matches how Doom compares lump names and how most text
+ * lumps are parsed.
+ */
+final class ByteFolding {
+
+	/**
+	 * Maps every byte to itself, except lower case ASCII letters which map to
+	 * upper case. Indexed by the unsigned byte value.
+	 */
+	static final byte[] UPPER = new byte[256];
+
+	/**
+	 * Maps every byte to itself.
+	 */
+	static final byte[] IDENTITY = new byte[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			IDENTITY[i] = (byte)i;
+			UPPER[i] = (byte)(i >= 'a' && i <= 'z' ? i - 32 : i);
+		}
+	}
+
+	/**
+	 * Not to be instantiated.
+	 */
+	private ByteFolding() {
+	}
+
+	/**
+	 * Gets the folding table to use.
+	 * 
+	 * @param ignoreCase
+	 * 		If case should be ignored.
+	 * 
+	 * @return
+	 * 		The upper case table, or the identity table.
+	 */
+	static byte[] table(boolean ignoreCase) {
+		return ignoreCase ? UPPER : IDENTITY;
+	}
+
+	/**
+	 * Folds a copy of a pattern.
+	 * 
+	 * @param pattern
+	 * 		The pattern.
+	 * 
+	 * @param table
+	 * 		The folding table.
+	 * 
+	 * @return
+	 * 		A folded copy.
+	 */
+	static byte[] fold(byte[] pattern, byte[] table) {
+		byte[] folded = new byte[pattern.length];
+		for (int i = 0; i < pattern.length; i++)
+			folded[i] = table[pattern[i] & 0xFF];
+		return folded;
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds one or more byte patterns in data. Matchers are immutable once
+ * built, so one matcher can scan many buffers on many threads at once.
+ */
+public interface ByteMatcher {
+
+	/**
+	 * Scans data for every occurrence of the patterns. Occurrences are
+	 * reported in order of where they end, and overlapping ones are all
+	 * reported.
+	 * 
+	 * @param data
+	 * 		The data from its position to its limit. The position is not
+	 * 		changed.
+	 * 
+	 * @param handler
+	 * 		What is told about each occurrence. Scanning stops early if it
+	 * 		returns false.
+	 */
+	void scan(ByteBuffer data, MatchHandler handler);
+
+	/**
+	 * Gets how many patterns the matcher looks for.
+	 * 
+	 * @return
+	 * 		The number of patterns.
+	 */
+	int getPatternCount();
+
+	/**
+	 * Gets the length of a pattern.
+	 * 
+	 * @param pattern
+	 * 		The index of the pattern.
+	 * 
+	 * @return
+	 * 		The pattern length in bytes.
+	 */
+	int getPatternLength(int pattern);
+}
@@ -0,0 +1,99 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds a single pattern with the Boyer-Moore-Horspool algorithm. On text
+ * this usually skips close to the pattern length for every byte it looks at,
+ * so longer patterns are found faster.
+ */
+public class HorspoolMatcher implements ByteMatcher {
+
+	/**
+	 * The folded pattern.
+	 */
+	private final byte[] pattern;
+
+	/**
+	 * The folding applied to the data before comparing.
+	 */
+	private final byte[] folding;
+
+	/**
+	 * How far to move when the last byte of the window is a given byte.
+	 */
+	private final int[] shifts;
+
+	/**
+	 * Creates a matcher.
+	 * 
+	 * @param pattern
+	 * 		The bytes to look for.
+	 * 
+	 * @param ignoreCase
+	 * 		If ASCII letters should match in either case.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the pattern is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the pattern is empty.
+	 */
+	public HorspoolMatcher(byte[] pattern, boolean ignoreCase) {
+		if (pattern == null)
+			throw new NullPointerException("Provided a null pattern to HorspoolMatcher.");
+		if (pattern.length == 0)
+			throw new IllegalArgumentException("HorspoolMatcher needs a pattern of at least one byte.");
+		this.folding = ByteFolding.table(ignoreCase);
+		this.pattern = ByteFolding.fold(pattern, this.folding);
+		this.shifts = new int[256];
+		Arrays.fill(this.shifts, this.pattern.length);
+		for (int i = 0; i < this.pattern.length - 1; i++)
+			this.shifts[this.pattern[i] & 0xFF] = this.pattern.length - 1 - i;
+	}
+
+	@Override
+	public void scan(ByteBuffer data, MatchHandler handler) {
+		int start = data.position();
+		int last = this.pattern.length - 1;
+		int end = data.limit() - last;
+		int window = start;
+		while (window < end) {
+			int i = last;
+			while (i >= 0 && this.folding[data.get(window + i) & 0xFF] == this.pattern[i])
+				i--;
+			if (i < 0 && !handler.onMatch(0, window - start))
+				return;
+			window += this.shifts[this.folding[data.get(window + last) & 0xFF] & 0xFF];
+		}
+	}
+
+	@Override
+	public int getPatternCount() {
+		return 1;
+	}
+
+	@Override
+	public int getPatternLength(int pattern) {
+		return this.pattern.length;
+	}
+}
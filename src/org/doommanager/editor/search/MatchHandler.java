@@ -0,0 +1,41 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+/**
+ * Receives the occurrences that a ByteMatcher finds.
+ */
+@FunctionalInterface
+public interface MatchHandler {
+
+	/**
+	 * Called for each occurrence of a pattern.
+	 * 
+	 * @param pattern
+	 * 		The index of the pattern that was found.
+	 * 
+	 * @param offset
+	 * 		Where the occurrence starts, relative to the position of the
+	 * 		scanned buffer.
+	 * 
+	 * @return
+	 * 		True to keep scanning, false to stop.
+	 */
+	boolean onMatch(int pattern, int offset);
+}
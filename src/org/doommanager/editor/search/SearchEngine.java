@@ -0,0 +1,518 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.file.ArchiveIndexCache;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.LumpHasher;
+import org.doommanager.editor.file.MappedFile;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+import org.doommanager.util.RuntimeArgsContainer;
+
+/**
+ * Searches the lump names and lump data of many files at once. Every lump is
+ * a separate task on the common fork join pool, and the data is scanned
+ * where it lies, which for wads is the memory mapping of the file.
+ * 
+ * With a TrigramIndex set, lumps that the index shows cannot contain any of
+ * the patterns are skipped without being read, and lumps that are read are
+ * added to the index for the next search.
+ */
+public class SearchEngine {
+
+	/**
+	 * How many bytes at the start of a lump are checked to decide if it is
+	 * text.
+	 */
+	public static final int TEXT_SAMPLE_SIZE = 4096;
+
+	/**
+	 * The most results reported for the data of one lump, so that a common
+	 * pattern does not flood the listener.
+	 */
+	public static final int MAX_RESULTS_PER_LUMP = 1000;
+
+	/**
+	 * The longest line text kept in a result.
+	 */
+	private static final int MAX_LINE_LENGTH = 200;
+
+	/**
+	 * The index used to skip lumps, or null to scan everything.
+	 */
+	private TrigramIndex index;
+
+	/**
+	 * If the last created search should stop. Every search gets its own flag
+	 * when it is created, so that cancelling one that has not started yet is
+	 * not undone when it starts.
+	 */
+	private volatile AtomicBoolean cancelled;
+
+	/**
+	 * The content hashes of files that were searched with the index.
+	 */
+	private final Map<DoomFile, long[]> hashes;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SearchEngine.class.getName());
+
+	/**
+	 * Creates a search engine without an index.
+	 */
+	public SearchEngine() {
+		this.cancelled = new AtomicBoolean();
+		this.hashes = Collections.synchronizedMap(new WeakHashMap<>());
+	}
+
+	/**
+	 * Sets the index used to skip lumps.
+	 * 
+	 * @param index
+	 * 		The index, or null to scan every lump.
+	 */
+	public void setIndex(TrigramIndex index) {
+		this.index = index;
+	}
+
+	/**
+	 * Stops the last created search, even if it has not started running yet.
+	 * The listener is still told that it finished.
+	 */
+	public void cancel() {
+		this.cancelled.set(true);
+	}
+
+	/**
+	 * Creates a search of files to run later, for example on an executor.
+	 * Running it blocks until the search is over, while results are passed
+	 * to the listener as they are found, so it should be run off the GUI
+	 * thread. Only one search should run on an engine at a time.
+	 * 
+	 * @param files
+	 * 		The files to search.
+	 * 
+	 * @param query
+	 * 		What to search for.
+	 * 
+	 * @param listener
+	 * 		Where results are sent.
+	 * 
+	 * @return
+	 * 		The search, which {@link #cancel()} stops until another search
+	 * 		is created.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 */
+	public Runnable createSearch(Collection<? extends DoomFile> files, SearchQuery query, SearchListener listener) {
+		if (files == null || query == null || listener == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to SearchEngine createSearch.");
+			log.log(Level.SEVERE, "SearchEngine argument is null", e);
+			throw e;
+		}
+		AtomicBoolean searchCancelled = new AtomicBoolean();
+		this.cancelled = searchCancelled;
+		return () -> run(files, query, listener, searchCancelled);
+	}
+
+	/**
+	 * Searches files. This blocks until the search is over, while results
+	 * are passed to the listener as they are found, so it should be called
+	 * off the GUI thread. Only one search should run on an engine at a time.
+	 * 
+	 * @param files
+	 * 		The files to search.
+	 * 
+	 * @param query
+	 * 		What to search for.
+	 * 
+	 * @param listener
+	 * 		Where results are sent.
+	 * 
+	 * @return
+	 * 		The number of results found.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 */
+	public int search(Collection<? extends DoomFile> files, SearchQuery query, SearchListener listener) {
+		if (files == null || query == null || listener == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to SearchEngine search.");
+			log.log(Level.SEVERE, "SearchEngine argument is null", e);
+			throw e;
+		}
+		AtomicBoolean searchCancelled = new AtomicBoolean();
+		this.cancelled = searchCancelled;
+		return run(files, query, listener, searchCancelled);
+	}
+
+	/**
+	 * Runs a search.
+	 * 
+	 * @param files
+	 * 		The files to search.
+	 * 
+	 * @param query
+	 * 		What to search for.
+	 * 
+	 * @param listener
+	 * 		Where results are sent.
+	 * 
+	 * @param searchCancelled
+	 * 		The flag that stops this search.
+	 * 
+	 * @return
+	 * 		The number of results found.
+	 */
+	private int run(Collection<? extends DoomFile> files, SearchQuery query, SearchListener listener, AtomicBoolean searchCancelled) {
+		long startTime = System.nanoTime();
+		ByteMatcher matcher = query.createMatcher();
+		List<byte[]> patterns = query.getPatternBytes();
+		TrigramIndex searchIndex = this.index;
+
+		List<LumpTask> tasks = new ArrayList<>();
+		for (DoomFile file : files) {
+			long[] fileHashes = searchIndex != null ? getHashes(file) : null;
+			List<Lump> lumps = file.getLumps();
+			for (int i = 0; i < lumps.size(); i++)
+				tasks.add(new LumpTask(file, lumps.get(i), fileHashes != null ? fileHashes[i] : 0, fileHashes != null, searchCancelled));
+		}
+
+		AtomicInteger resultCount = new AtomicInteger();
+		tasks.parallelStream().forEach(task -> {
+			if (searchCancelled.get())
+				return;
+			try {
+				resultCount.addAndGet(searchLump(task, query, matcher, patterns, searchIndex, listener));
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Unable to search " + task.lump + " in " + task.file.getFilePath(), e);
+			}
+		});
+
+		if (searchIndex != null && searchIndex.isModified()) {
+			try {
+				searchIndex.save();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Unable to save the search index", e);
+			}
+		}
+		boolean wasCancelled = searchCancelled.get();
+		log.log(Level.FINE, "Searched " + tasks.size() + " lumps in " + files.size() + " files for " + query.getPatterns()
+				+ " in " + (System.nanoTime() - startTime) / 1000000 + " ms, " + resultCount.get() + " results");
+		listener.searchFinished(resultCount.get(), wasCancelled);
+		return resultCount.get();
+	}
+
+	/**
+	 * Gets the content hashes of a file, from the index cache when it is
+	 * enabled so that they are only computed once per version of a file.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @return
+	 * 		The hashes by lump index.
+	 */
+	private long[] getHashes(DoomFile file) {
+		long[] fileHashes = this.hashes.get(file);
+		if (fileHashes != null && fileHashes.length == file.getLumps().size())
+			return fileHashes;
+		fileHashes = null;
+		if (file instanceof MappedFile && RuntimeArgsContainer.isIndexCacheEnabled()) {
+			try {
+				fileHashes = ArchiveIndexCache.getDefault().getContentHashes((MappedFile)file);
+			} catch (IOException e) {
+				log.log(Level.FINE, "Unable to use the index cache for " + file.getFilePath(), e);
+			}
+		}
+		if (fileHashes == null)
+			fileHashes = LumpHasher.hashAll(file);
+		this.hashes.put(file, fileHashes);
+		return fileHashes;
+	}
+
+	/**
+	 * Searches the name and data of one lump.
+	 * 
+	 * @param task
+	 * 		The lump to search.
+	 * 
+	 * @param query
+	 * 		The query.
+	 * 
+	 * @param matcher
+	 * 		The matcher of the query.
+	 * 
+	 * @param patterns
+	 * 		The pattern bytes of the query.
+	 * 
+	 * @param searchIndex
+	 * 		The index, or null.
+	 * 
+	 * @param listener
+	 * 		Where results are sent.
+	 * 
+	 * @return
+	 * 		The number of results found.
+	 */
+	private int searchLump(LumpTask task, SearchQuery query, ByteMatcher matcher, List<byte[]> patterns,
+			TrigramIndex searchIndex, SearchListener listener) {
+		int found = 0;
+		if (query.isSearchNames()) {
+			boolean[] reported = new boolean[matcher.getPatternCount()];
+			ByteBuffer name = ByteBuffer.wrap(task.lump.getName().getBytes(StandardCharsets.UTF_8));
+			List<Integer> matches = new ArrayList<>();
+			matcher.scan(name, (pattern, offset) -> {
+				if (!reported[pattern]) {
+					reported[pattern] = true;
+					matches.add(pattern);
+				}
+				return true;
+			});
+			for (int pattern : matches)
+				listener.resultFound(new SearchResult(task.file, task.lump, query.getPatterns().get(pattern), -1, 0, null));
+			found += matches.size();
+		}
+		if ((!query.isSearchText() && !query.isSearchBinary()) || task.lump.isMarker())
+			return found;
+
+		long[] record = task.hashed && searchIndex != null ? searchIndex.get(task.hash) : null;
+		boolean indexed = record != null;
+		if (record != null && !TrigramIndex.isRecordOf(record, task.lump.getName()))
+			record = null;
+		if (record != null) {
+			boolean text = TrigramIndex.isText(record);
+			if (text ? !query.isSearchText() : !query.isSearchBinary())
+				return found;
+			if (text && !mayContainAny(record, patterns))
+				return found;
+		}
+
+		BufferLease lease = task.file.getLumpData(task.lump, BufferPool.getShared());
+		try {
+			ByteBuffer data = lease.getBuffer();
+			boolean text = isText(data);
+			if (!indexed && task.hashed && searchIndex != null)
+				searchIndex.put(task.hash, TrigramIndex.buildRecord(data, text, task.lump.getName()));
+			if (text ? !query.isSearchText() : !query.isSearchBinary())
+				return found;
+			return found + scanData(task, data, text, query, matcher, listener);
+		} finally {
+			lease.dispose();
+		}
+	}
+
+	/**
+	 * Checks if a text lump may contain any of the patterns.
+	 * 
+	 * @param record
+	 * 		The index record of the lump.
+	 * 
+	 * @param patterns
+	 * 		The pattern bytes.
+	 * 
+	 * @return
+	 * 		False if it certainly contains none of them.
+	 */
+	private static boolean mayContainAny(long[] record, List<byte[]> patterns) {
+		for (byte[] pattern : patterns)
+			if (TrigramIndex.mayContain(record, pattern))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Scans the data of a lump. In text lumps each pattern is reported at
+	 * most once per line, with the line number and text.
+	 * 
+	 * @param task
+	 * 		The lump.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @param text
+	 * 		If the lump is text.
+	 * 
+	 * @param query
+	 * 		The query.
+	 * 
+	 * @param matcher
+	 * 		The matcher of the query.
+	 * 
+	 * @param listener
+	 * 		Where results are sent.
+	 * 
+	 * @return
+	 * 		The number of results found.
+	 */
+	private int scanData(LumpTask task, ByteBuffer data, boolean text, SearchQuery query, ByteMatcher matcher, SearchListener listener) {
+		int[] count = new int[1];
+		int[] lineNumber = { 1 };
+		int[] lineStart = { 0 };
+		int[] counted = { 0 };
+		int[] lastLine = new int[matcher.getPatternCount()];
+		matcher.scan(data, (pattern, offset) -> {
+			if (task.cancelled.get())
+				return false;
+			if (!text) {
+				listener.resultFound(new SearchResult(task.file, task.lump, query.getPatterns().get(pattern), offset, 0, null));
+				return ++count[0] < MAX_RESULTS_PER_LUMP;
+			}
+			for (int i = counted[0]; i < offset; i++) {
+				if (data.get(i) == '\n') {
+					lineNumber[0]++;
+					lineStart[0] = i + 1;
+				}
+			}
+			counted[0] = offset;
+			if (lastLine[pattern] == lineNumber[0])
+				return true;
+			lastLine[pattern] = lineNumber[0];
+			String line = readLine(data, lineStart[0]);
+			listener.resultFound(new SearchResult(task.file, task.lump, query.getPatterns().get(pattern), offset, lineNumber[0], line));
+			return ++count[0] < MAX_RESULTS_PER_LUMP;
+		});
+		return count[0];
+	}
+
+	/**
+	 * Reads a line of a text lump.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @param start
+	 * 		The offset of the line.
+	 * 
+	 * @return
+	 * 		The line without its line break, cut to a reasonable length.
+	 */
+	private static String readLine(ByteBuffer data, int start) {
+		int end = start;
+		while (end < data.limit() && end - start < MAX_LINE_LENGTH && data.get(end) != '\n' && data.get(end) != '\r')
+			end++;
+		byte[] line = new byte[end - start];
+		for (int i = 0; i < line.length; i++)
+			line[i] = data.get(start + i);
+		return new String(line, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Guesses if lump data is text by looking at its start. Text has no null
+	 * bytes and hardly any control characters other than whitespace.
+	 * 
+	 * @param data
+	 * 		The data from its position to its limit.
+	 * 
+	 * @return
+	 * 		True if the data looks like text.
+	 */
+	public static boolean isText(ByteBuffer data) {
+		int start = data.position();
+		int end = Math.min(data.limit(), start + TEXT_SAMPLE_SIZE);
+		if (end == start)
+			return false;
+		int control = 0;
+		for (int i = start; i < end; i++) {
+			int b = data.get(i) & 0xFF;
+			if (b == 0)
+				return false;
+			if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f')
+				control++;
+		}
+		return control * 50 < end - start;
+	}
+
+	/**
+	 * A lump to search.
+	 */
+	private static class LumpTask {
+
+		/**
+		 * The file the lump is in.
+		 */
+		private final DoomFile file;
+
+		/**
+		 * The lump.
+		 */
+		private final Lump lump;
+
+		/**
+		 * The content hash of the lump, if it is known.
+		 */
+		private final long hash;
+
+		/**
+		 * If the hash is known.
+		 */
+		private final boolean hashed;
+
+		/**
+		 * The flag that stops the search the lump is part of.
+		 */
+		private final AtomicBoolean cancelled;
+
+		/**
+		 * Creates a task.
+		 * 
+		 * @param file
+		 * 		The file the lump is in.
+		 * 
+		 * @param lump
+		 * 		The lump.
+		 * 
+		 * @param hash
+		 * 		The content hash.
+		 * 
+		 * @param hashed
+		 * 		If the hash is known.
+		 * 
+		 * @param cancelled
+		 * 		The flag that stops the search.
+		 */
+		private LumpTask(DoomFile file, Lump lump, long hash, boolean hashed, AtomicBoolean cancelled) {
+			this.file = file;
+			this.lump = lump;
+			this.hash = hash;
+			this.hashed = hashed;
+			this.cancelled = cancelled;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+/**
+ * Receives search results while a search is running. The methods are called
+ * from the search threads, so implementations must be thread safe and should
+ * return quickly.
+ */
+public interface SearchListener {
+
+	/**
+	 * Called for every result as soon as it is found.
+	 * 
+	 * @param result
+	 * 		The result.
+	 */
+	void resultFound(SearchResult result);
+
+	/**
+	 * Called once when the search is over.
+	 * 
+	 * @param resultCount
+	 * 		The number of results that were found.
+	 * 
+	 * @param cancelled
+	 * 		True if the search was cancelled before it was complete.
+	 */
+	void searchFinished(int resultCount, boolean cancelled);
+}
@@ -0,0 +1,203 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What to search for and where. A query with one pattern uses a
+ * HorspoolMatcher, while a query with several uses an AhoCorasickMatcher so
+ * all of them are found in one pass.
+ */
+public class SearchQuery {
+
+	/**
+	 * The patterns as they were given.
+	 */
+	private final List<String> patterns;
+
+	/**
+	 * If ASCII letters should match in either case.
+	 */
+	private boolean ignoreCase;
+
+	/**
+	 * If lump names should be searched.
+	 */
+	private boolean searchNames;
+
+	/**
+	 * If the contents of text lumps should be searched.
+	 */
+	private boolean searchText;
+
+	/**
+	 * If the contents of binary lumps should be searched as well.
+	 */
+	private boolean searchBinary;
+
+	/**
+	 * Creates a query that searches lump names and text lumps, ignoring case.
+	 * 
+	 * @param patterns
+	 * 		The strings to look for.
+	 * 
+	 * @throws NullPointerException
+	 * 		If a pattern is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If there are no patterns or one is empty.
+	 */
+	public SearchQuery(String... patterns) {
+		if (patterns.length == 0)
+			throw new IllegalArgumentException("A search needs at least one pattern.");
+		for (String pattern : patterns) {
+			if (pattern == null)
+				throw new NullPointerException("Provided a null pattern to SearchQuery.");
+			if (pattern.isEmpty())
+				throw new IllegalArgumentException("Search patterns must not be empty.");
+		}
+		this.patterns = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(patterns)));
+		this.ignoreCase = true;
+		this.searchNames = true;
+		this.searchText = true;
+		this.searchBinary = false;
+	}
+
+	/**
+	 * Sets if case is ignored.
+	 * 
+	 * @param ignoreCase
+	 * 		True to match ASCII letters in either case.
+	 */
+	public void setIgnoreCase(boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+	}
+
+	/**
+	 * Sets if lump names are searched.
+	 * 
+	 * @param searchNames
+	 * 		True to search names.
+	 */
+	public void setSearchNames(boolean searchNames) {
+		this.searchNames = searchNames;
+	}
+
+	/**
+	 * Sets if text lumps like DECORATE or MAPINFO are searched.
+	 * 
+	 * @param searchText
+	 * 		True to search text lumps.
+	 */
+	public void setSearchText(boolean searchText) {
+		this.searchText = searchText;
+	}
+
+	/**
+	 * Sets if binary lumps are searched too, for example to find a texture
+	 * name in SIDEDEFS or TEXTURE1.
+	 * 
+	 * @param searchBinary
+	 * 		True to search binary lumps.
+	 */
+	public void setSearchBinary(boolean searchBinary) {
+		this.searchBinary = searchBinary;
+	}
+
+	/**
+	 * Gets the patterns.
+	 * 
+	 * @return
+	 * 		The patterns in the order they were given.
+	 */
+	public List<String> getPatterns() {
+		return this.patterns;
+	}
+
+	/**
+	 * Checks if case is ignored.
+	 * 
+	 * @return
+	 * 		True if ASCII letters match in either case.
+	 */
+	public boolean isIgnoreCase() {
+		return this.ignoreCase;
+	}
+
+	/**
+	 * Checks if lump names are searched.
+	 * 
+	 * @return
+	 * 		True if names are searched.
+	 */
+	public boolean isSearchNames() {
+		return this.searchNames;
+	}
+
+	/**
+	 * Checks if text lumps are searched.
+	 * 
+	 * @return
+	 * 		True if text lumps are searched.
+	 */
+	public boolean isSearchText() {
+		return this.searchText;
+	}
+
+	/**
+	 * Checks if binary lumps are searched.
+	 * 
+	 * @return
+	 * 		True if binary lumps are searched.
+	 */
+	public boolean isSearchBinary() {
+		return this.searchBinary;
+	}
+
+	/**
+	 * Gets the patterns as UTF-8 bytes.
+	 * 
+	 * @return
+	 * 		The encoded patterns.
+	 */
+	List<byte[]> getPatternBytes() {
+		List<byte[]> bytes = new ArrayList<>(this.patterns.size());
+		for (String pattern : this.patterns)
+			bytes.add(pattern.getBytes(StandardCharsets.UTF_8));
+		return bytes;
+	}
+
+	/**
+	 * Builds the matcher for the query.
+	 * 
+	 * @return
+	 * 		A matcher for all of the patterns.
+	 */
+	public ByteMatcher createMatcher() {
+		List<byte[]> bytes = getPatternBytes();
+		if (bytes.size() == 1)
+			return new HorspoolMatcher(bytes.get(0), this.ignoreCase);
+		return new AhoCorasickMatcher(bytes, this.ignoreCase);
+	}
+}
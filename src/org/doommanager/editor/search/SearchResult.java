@@ -0,0 +1,166 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+
+/**
+ * A single occurrence of a search pattern, either in the name of a lump or
+ * in its data.
+ */
+public class SearchResult {
+
+	/**
+	 * The file the lump is in.
+	 */
+	private final DoomFile file;
+
+	/**
+	 * The lump that matched.
+	 */
+	private final Lump lump;
+
+	/**
+	 * The pattern that was found.
+	 */
+	private final String pattern;
+
+	/**
+	 * Where the pattern starts in the lump data, or -1 for a name match.
+	 */
+	private final int offset;
+
+	/**
+	 * The line the pattern is on in a text lump, from 1, or 0 if unknown.
+	 */
+	private final int lineNumber;
+
+	/**
+	 * The text of that line, or null if it is not a text lump.
+	 */
+	private final String line;
+
+	/**
+	 * Creates a result.
+	 * 
+	 * @param file
+	 * 		The file the lump is in.
+	 * 
+	 * @param lump
+	 * 		The lump that matched.
+	 * 
+	 * @param pattern
+	 * 		The pattern that was found.
+	 * 
+	 * @param offset
+	 * 		Where the pattern starts in the data, or -1 for a name match.
+	 * 
+	 * @param lineNumber
+	 * 		The line number in a text lump, or 0.
+	 * 
+	 * @param line
+	 * 		The line text in a text lump, or null.
+	 */
+	public SearchResult(DoomFile file, Lump lump, String pattern, int offset, int lineNumber, String line) {
+		this.file = file;
+		this.lump = lump;
+		this.pattern = pattern;
+		this.offset = offset;
+		this.lineNumber = lineNumber;
+		this.line = line;
+	}
+
+	/**
+	 * Gets the file the lump is in.
+	 * 
+	 * @return
+	 * 		The file.
+	 */
+	public DoomFile getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Gets the lump that matched.
+	 * 
+	 * @return
+	 * 		The lump.
+	 */
+	public Lump getLump() {
+		return this.lump;
+	}
+
+	/**
+	 * Gets the pattern that was found.
+	 * 
+	 * @return
+	 * 		The pattern.
+	 */
+	public String getPattern() {
+		return this.pattern;
+	}
+
+	/**
+	 * Checks if the name of the lump matched rather than its data.
+	 * 
+	 * @return
+	 * 		True for a name match.
+	 */
+	public boolean isNameMatch() {
+		return this.offset < 0;
+	}
+
+	/**
+	 * Gets where the pattern starts in the lump data.
+	 * 
+	 * @return
+	 * 		The offset, or -1 for a name match.
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * Gets the line the pattern is on.
+	 * 
+	 * @return
+	 * 		The line number from 1, or 0 if this is not a text match.
+	 */
+	public int getLineNumber() {
+		return this.lineNumber;
+	}
+
+	/**
+	 * Gets the line the pattern is on.
+	 * 
+	 * @return
+	 * 		The line without its line break, or null if this is not a text
+	 * 		match.
+	 */
+	public String getLine() {
+		return this.line;
+	}
+
+	@Override
+	public String toString() {
+		String location = isNameMatch() ? "name" : this.line != null ? "line " + this.lineNumber : "offset " + this.offset;
+		return this.file.getFilePath() + ": " + this.lump.getName() + " (" + location + ")";
+	}
+}
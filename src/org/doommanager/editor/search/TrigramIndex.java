@@ -0,0 +1,463 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.util.RuntimeArgsContainer;
+
+/**
+ * A persisted index that lets repeated searches skip lumps that cannot
+ * contain a pattern. Lumps are keyed by their content hash from LumpHasher,
+ * so a lump that appears in many files is indexed once. That hash is only a
+ * CRC32 and the size, so each record also keeps a hash of the name of the
+ * lump it was built from, and a record is only trusted for a lump with the
+ * same name. Two lumps would have to collide on size, CRC and name for a
+ * search to skip real matches.
+ * 
+ * For every lump the index records whether it is text and, for text lumps, a
+ * 4096 bit signature of the case folded trigrams in it. A pattern can only be
+ * in a lump if all of the bits of its trigrams are set. Like any bloom
+ * filter this can give false positives but never false negatives, and a
+ * large lump that sets most bits simply ends up being scanned.
+ * 
+ * The file is a 16 byte header followed by the sorted hashes and then the
+ * records in the same order. It is memory mapped when opened, and entries
+ * added since then are kept on the heap until save() is called.
+ */
+public class TrigramIndex {
+
+	/**
+	 * The identifier at the start of an index file, "DMNG".
+	 */
+	public static final int MAGIC = 0x474E4D44;
+
+	/**
+	 * The version of the file layout.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The name of the index file in the cache folder.
+	 */
+	public static final String DEFAULT_FILE_NAME = "search.ngm";
+
+	/**
+	 * The size of the file header.
+	 */
+	private static final int HEADER_SIZE = 16;
+
+	/**
+	 * The number of signature bits as a power of two.
+	 */
+	private static final int SIGNATURE_BITS_SHIFT = 12;
+
+	/**
+	 * The number of longs in a record: the name hash and flags followed by
+	 * the signature.
+	 */
+	static final int RECORD_LONGS = 1 + (1 << SIGNATURE_BITS_SHIFT) / 64;
+
+	/**
+	 * The flag that is set for text lumps.
+	 */
+	private static final long FLAG_TEXT = 1;
+
+	/**
+	 * The bits of the first record long that hold the name hash.
+	 */
+	private static final long NAME_MASK = 0xFFFFFFFF00000000L;
+
+	/**
+	 * Where the index is stored.
+	 */
+	private final Path filePath;
+
+	/**
+	 * The sorted hashes that were read from the file.
+	 */
+	private LongBuffer loadedHashes;
+
+	/**
+	 * The records that were read from the file.
+	 */
+	private LongBuffer loadedRecords;
+
+	/**
+	 * The records added since the file was read.
+	 */
+	private final Map<Long, long[]> added;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(TrigramIndex.class.getName());
+
+	/**
+	 * Opens an index file, or starts an empty index if it does not exist or
+	 * cannot be read.
+	 * 
+	 * @param filePath
+	 * 		The index file.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the path is null.
+	 */
+	public TrigramIndex(String filePath) {
+		if (filePath == null)
+			throw new NullPointerException("Provided a null path to TrigramIndex.");
+		this.filePath = Paths.get(filePath);
+		this.added = new ConcurrentHashMap<>();
+		load();
+	}
+
+	/**
+	 * Opens the index in the cache folder from the runtime arguments.
+	 * 
+	 * @return
+	 * 		The index, or null if the cache was disabled.
+	 */
+	public static TrigramIndex openDefault() {
+		if (!RuntimeArgsContainer.isIndexCacheEnabled())
+			return null;
+		return new TrigramIndex(RuntimeArgsContainer.getIndexCacheLocation() + DEFAULT_FILE_NAME);
+	}
+
+	/**
+	 * Maps the index file if there is a valid one.
+	 */
+	private void load() {
+		this.loadedHashes = LongBuffer.allocate(0);
+		this.loadedRecords = LongBuffer.allocate(0);
+		if (!Files.isRegularFile(this.filePath))
+			return;
+		try (FileChannel channel = FileChannel.open(this.filePath, StandardOpenOption.READ)) {
+			MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			mapping.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapping.capacity() < HEADER_SIZE || mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+				log.log(Level.FINE, "Ignoring search index of another version: " + this.filePath);
+				return;
+			}
+			int count = mapping.getInt(8);
+			if (HEADER_SIZE + (long)count * 8 * (1 + RECORD_LONGS) != mapping.capacity()) {
+				log.log(Level.WARNING, "Ignoring damaged search index: " + this.filePath);
+				return;
+			}
+			mapping.position(HEADER_SIZE);
+			this.loadedHashes = mapping.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			this.loadedHashes.limit(count);
+			mapping.position(HEADER_SIZE + count * 8);
+			this.loadedRecords = mapping.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			log.log(Level.FINE, "Read " + count + " lumps from search index " + this.filePath);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to read search index " + this.filePath, e);
+		}
+	}
+
+	/**
+	 * Finds the record of a lump.
+	 * 
+	 * @param hash
+	 * 		The content hash of the lump.
+	 * 
+	 * @return
+	 * 		The record, or null if the lump is not indexed. The array must not
+	 * 		be modified.
+	 */
+	public long[] get(long hash) {
+		long[] record = this.added.get(hash);
+		if (record != null)
+			return record;
+		LongBuffer hashes = this.loadedHashes;
+		int low = 0;
+		int high = hashes.limit() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long value = hashes.get(middle);
+			if (value < hash) {
+				low = middle + 1;
+			} else if (value > hash) {
+				high = middle - 1;
+			} else {
+				record = new long[RECORD_LONGS];
+				LongBuffer records = this.loadedRecords.duplicate();
+				records.position(middle * RECORD_LONGS);
+				records.get(record);
+				return record;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the record of a lump.
+	 * 
+	 * @param hash
+	 * 		The content hash of the lump.
+	 * 
+	 * @param record
+	 * 		The record from buildRecord().
+	 */
+	public void put(long hash, long[] record) {
+		this.added.put(hash, record);
+	}
+
+	/**
+	 * Checks if there are entries that have not been saved.
+	 * 
+	 * @return
+	 * 		True if save() would write anything.
+	 */
+	public boolean isModified() {
+		return !this.added.isEmpty();
+	}
+
+	/**
+	 * Gets how many lumps are indexed.
+	 * 
+	 * @return
+	 * 		The number of records, counting a hash that was both read and
+	 * 		added again twice.
+	 */
+	public int size() {
+		return this.loadedHashes.limit() + this.added.size();
+	}
+
+	/**
+	 * Builds the record of a lump.
+	 * 
+	 * @param data
+	 * 		The lump data from its position to its limit.
+	 * 
+	 * @param text
+	 * 		If the lump is text. Only text lumps get a signature.
+	 * 
+	 * @param name
+	 * 		The name of the lump, see isRecordOf().
+	 * 
+	 * @return
+	 * 		The record.
+	 */
+	public static long[] buildRecord(ByteBuffer data, boolean text, String name) {
+		long[] record = new long[RECORD_LONGS];
+		record[0] = hashName(name);
+		if (!text)
+			return record;
+		record[0] |= FLAG_TEXT;
+		int start = data.position();
+		int limit = data.limit();
+		int trigram = 0;
+		for (int i = start; i < limit; i++) {
+			trigram = ((trigram << 8) | (ByteFolding.UPPER[data.get(i) & 0xFF] & 0xFF)) & 0xFFFFFF;
+			if (i - start >= 2)
+				setBit(record, trigram);
+		}
+		return record;
+	}
+
+	/**
+	 * Checks if a record was built from a lump with a name. A record found
+	 * for a lump with another name may belong to different data whose hash
+	 * collides, so it must not be used to skip the lump.
+	 * 
+	 * @param record
+	 * 		The record.
+	 * 
+	 * @param name
+	 * 		The name of the lump being searched.
+	 * 
+	 * @return
+	 * 		True if the record was built from a lump with the same name.
+	 */
+	public static boolean isRecordOf(long[] record, String name) {
+		return (record[0] & NAME_MASK) == hashName(name);
+	}
+
+	/**
+	 * Hashes a lump name into the upper half of the first record long.
+	 * 
+	 * @param name
+	 * 		The name.
+	 * 
+	 * @return
+	 * 		The hash, with the lower half clear.
+	 */
+	private static long hashName(String name) {
+		return (long)name.toUpperCase().hashCode() << 32;
+	}
+
+	/**
+	 * Checks if a record is for a text lump.
+	 * 
+	 * @param record
+	 * 		The record.
+	 * 
+	 * @return
+	 * 		True if the lump is text.
+	 */
+	public static boolean isText(long[] record) {
+		return (record[0] & FLAG_TEXT) != 0;
+	}
+
+	/**
+	 * Checks if a text lump may contain a pattern.
+	 * 
+	 * @param record
+	 * 		The record of a text lump.
+	 * 
+	 * @param pattern
+	 * 		The pattern bytes. They are folded here, since the signature
+	 * 		ignores case.
+	 * 
+	 * @return
+	 * 		False if the lump certainly does not contain the pattern.
+	 */
+	public static boolean mayContain(long[] record, byte[] pattern) {
+		if (pattern.length < 3)
+			return true;
+		int trigram = 0;
+		for (int i = 0; i < pattern.length; i++) {
+			trigram = ((trigram << 8) | (ByteFolding.UPPER[pattern[i] & 0xFF] & 0xFF)) & 0xFFFFFF;
+			if (i >= 2 && !isBitSet(record, trigram))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the signature bit of a trigram.
+	 * 
+	 * @param trigram
+	 * 		The three bytes of the trigram.
+	 * 
+	 * @return
+	 * 		The bit index.
+	 */
+	private static int bitOf(int trigram) {
+		return (trigram * 0x9E3779B1) >>> (32 - SIGNATURE_BITS_SHIFT);
+	}
+
+	/**
+	 * Sets the bit of a trigram.
+	 * 
+	 * @param record
+	 * 		The record to change.
+	 * 
+	 * @param trigram
+	 * 		The trigram.
+	 */
+	private static void setBit(long[] record, int trigram) {
+		int bit = bitOf(trigram);
+		record[1 + (bit >>> 6)] |= 1L << bit;
+	}
+
+	/**
+	 * Checks the bit of a trigram.
+	 * 
+	 * @param record
+	 * 		The record.
+	 * 
+	 * @param trigram
+	 * 		The trigram.
+	 * 
+	 * @return
+	 * 		True if the bit is set.
+	 */
+	private static boolean isBitSet(long[] record, int trigram) {
+		int bit = bitOf(trigram);
+		return (record[1 + (bit >>> 6)] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Writes the index with all of the added records, replacing the file
+	 * atomically where the file system allows it, then maps the new file.
+	 * 
+	 * @throws IOException
+	 * 		If the file cannot be written.
+	 */
+	public synchronized void save() throws IOException {
+		if (this.added.isEmpty())
+			return;
+		Map<Long, long[]> pending = new ConcurrentHashMap<>(this.added);
+		int loadedCount = this.loadedHashes.limit();
+		long[] hashes = new long[loadedCount + pending.size()];
+		int count = 0;
+		for (int i = 0; i < loadedCount; i++) {
+			long hash = this.loadedHashes.get(i);
+			if (!pending.containsKey(hash))
+				hashes[count++] = hash;
+		}
+		for (long hash : pending.keySet())
+			hashes[count++] = hash;
+		hashes = Arrays.copyOf(hashes, count);
+		Arrays.sort(hashes);
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * 8 * (1 + RECORD_LONGS)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+		for (long hash : hashes)
+			buffer.putLong(hash);
+		for (long hash : hashes)
+			for (long value : get(hash))
+				buffer.putLong(value);
+		buffer.flip();
+
+		Path directory = this.filePath.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path temporary = Files.createTempFile(directory, "search", ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			try {
+				Files.move(temporary, this.filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, this.filePath, StandardCopyOption.REPLACE_EXISTING);
+			}
+			temporary = null;
+		} finally {
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Unable to delete the temporary search index " + temporary, e);
+				}
+			}
+		}
+		load();
+		this.added.keySet().removeAll(pending.keySet());
+		log.log(Level.FINE, "Wrote " + count + " lumps to search index " + this.filePath);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Decoded PCM sample data with its format. The samples are a view of the
+ * lump data wherever possible, so for wads they are still in the memory
+ * mapping of the file and nothing is copied onto the heap.
+ */
+public class PcmSound {
+
+	/**
+	 * The number of frames per second.
+	 */
+	private final int sampleRate;
+
+	/**
+	 * The number of channels in a frame.
+	 */
+	private final int channels;
+
+	/**
+	 * The size of one sample, 8 (unsigned) or 16 (signed little endian).
+	 */
+	private final int bitsPerSample;
+
+	/**
+	 * The sample data, positioned at zero.
+	 */
+	private final ByteBuffer samples;
+
+	/**
+	 * Creates a sound. Trailing bytes that do not make up a whole frame are
+	 * left out.
+	 * 
+	 * @param sampleRate
+	 * 		The number of frames per second.
+	 * 
+	 * @param channels
+	 * 		The number of channels.
+	 * 
+	 * @param bitsPerSample
+	 * 		8 for unsigned samples or 16 for signed little endian samples.
+	 * 
+	 * @param samples
+	 * 		The sample data from its position to its limit.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the samples are null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the format is not supported.
+	 */
+	public PcmSound(int sampleRate, int channels, int bitsPerSample, ByteBuffer samples) {
+		if (samples == null)
+			throw new NullPointerException("Provided null samples to PcmSound.");
+		if (sampleRate <= 0 || channels <= 0 || (bitsPerSample != 8 && bitsPerSample != 16))
+			throw new IllegalArgumentException("Unsupported PCM format: " + sampleRate + " Hz, " + channels + " channels, " + bitsPerSample + " bits");
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.bitsPerSample = bitsPerSample;
+		ByteBuffer view = samples.slice();
+		view.limit(view.remaining() - view.remaining() % getFrameSize());
+		this.samples = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the number of frames per second.
+	 * 
+	 * @return
+	 * 		The sample rate in Hz.
+	 */
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	/**
+	 * Gets the number of channels.
+	 * 
+	 * @return
+	 * 		1 for mono, 2 for stereo and so on.
+	 */
+	public int getChannels() {
+		return this.channels;
+	}
+
+	/**
+	 * Gets the size of one sample.
+	 * 
+	 * @return
+	 * 		8 or 16.
+	 */
+	public int getBitsPerSample() {
+		return this.bitsPerSample;
+	}
+
+	/**
+	 * Gets the size of one frame, which is a sample for every channel.
+	 * 
+	 * @return
+	 * 		The frame size in bytes.
+	 */
+	public int getFrameSize() {
+		return this.channels * this.bitsPerSample / 8;
+	}
+
+	/**
+	 * Gets the number of frames.
+	 * 
+	 * @return
+	 * 		The length of the sound in frames.
+	 */
+	public int getFrameCount() {
+		return this.samples.capacity() / getFrameSize();
+	}
+
+	/**
+	 * Gets the length of the sound.
+	 * 
+	 * @return
+	 * 		The length in seconds.
+	 */
+	public double getDuration() {
+		return getFrameCount() / (double)this.sampleRate;
+	}
+
+	/**
+	 * Gets the sample data.
+	 * 
+	 * @return
+	 * 		A little endian view of the samples, positioned at zero.
+	 */
+	public ByteBuffer getSamples() {
+		return this.samples.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the format for playing the sound through javax.sound.
+	 * 
+	 * @return
+	 * 		The audio format of the samples.
+	 */
+	public AudioFormat getAudioFormat() {
+		return new AudioFormat(this.sampleRate, this.bitsPerSample, this.channels, this.bitsPerSample == 16, false);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+/**
+ * A fixed size ring of bytes between one thread that writes samples and one
+ * that reads them. Writers block while the ring is full and readers block
+ * while it is empty, so a sound of any length is streamed through the same
+ * small buffer.
+ */
+public class SampleRingBuffer {
+
+	/**
+	 * The ring storage.
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * Where the next byte is read from.
+	 */
+	private int readIndex;
+
+	/**
+	 * The number of bytes that can be read.
+	 */
+	private int count;
+
+	/**
+	 * If the writer has no more data.
+	 */
+	private boolean finished;
+
+	/**
+	 * If the ring was closed, which stops both sides.
+	 */
+	private boolean closed;
+
+	/**
+	 * Creates an empty ring.
+	 * 
+	 * @param capacity
+	 * 		The number of bytes the ring holds.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the capacity is not positive.
+	 */
+	public SampleRingBuffer(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Ring buffer capacity must be positive.");
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * Writes bytes, waiting while the ring is full.
+	 * 
+	 * @param source
+	 * 		The bytes to write.
+	 * 
+	 * @param offset
+	 * 		The first byte to write.
+	 * 
+	 * @param length
+	 * 		The number of bytes to write.
+	 * 
+	 * @return
+	 * 		False if the ring was closed before everything was written.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the writer already finished.
+	 * 
+	 * @throws InterruptedException
+	 * 		If the thread was interrupted while waiting.
+	 */
+	public synchronized boolean write(byte[] source, int offset, int length) throws InterruptedException {
+		if (this.finished)
+			throw new IllegalStateException("Attempted to write to a finished ring buffer.");
+		while (length > 0) {
+			while (this.count == this.buffer.length && !this.closed)
+				wait();
+			if (this.closed)
+				return false;
+			int writeIndex = (this.readIndex + this.count) % this.buffer.length;
+			int part = Math.min(length, Math.min(this.buffer.length - this.count, this.buffer.length - writeIndex));
+			System.arraycopy(source, offset, this.buffer, writeIndex, part);
+			this.count += part;
+			offset += part;
+			length -= part;
+			notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads bytes, waiting until there is at least one or the stream is over.
+	 * 
+	 * @param destination
+	 * 		Where to put the bytes.
+	 * 
+	 * @param offset
+	 * 		The first index to fill.
+	 * 
+	 * @param length
+	 * 		The most bytes to read.
+	 * 
+	 * @return
+	 * 		The number of bytes read, or -1 if the writer finished and
+	 * 		everything was read, or the ring was closed.
+	 * 
+	 * @throws InterruptedException
+	 * 		If the thread was interrupted while waiting.
+	 */
+	public synchronized int read(byte[] destination, int offset, int length) throws InterruptedException {
+		while (this.count == 0 && !this.finished && !this.closed)
+			wait();
+		if (this.closed || this.count == 0)
+			return -1;
+		int read = 0;
+		while (read < length && this.count > 0) {
+			int part = Math.min(length - read, Math.min(this.count, this.buffer.length - this.readIndex));
+			System.arraycopy(this.buffer, this.readIndex, destination, offset + read, part);
+			this.readIndex = (this.readIndex + part) % this.buffer.length;
+			this.count -= part;
+			read += part;
+		}
+		notifyAll();
+		return read;
+	}
+
+	/**
+	 * Tells the reader that no more bytes will be written. What is in the
+	 * ring can still be read.
+	 */
+	public synchronized void finish() {
+		this.finished = true;
+		notifyAll();
+	}
+
+	/**
+	 * Stops both sides. Waiting writes and reads return at once.
+	 */
+	public synchronized void close() {
+		this.closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Checks if the ring was closed.
+	 * 
+	 * @return
+	 * 		True if close() was called.
+	 */
+	public synchronized boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Gets the number of bytes waiting to be read.
+	 * 
+	 * @return
+	 * 		The filled part of the ring.
+	 */
+	public synchronized int available() {
+		return this.count;
+	}
+
+	/**
+	 * Gets the size of the ring.
+	 * 
+	 * @return
+	 * 		The capacity in bytes.
+	 */
+	public int getCapacity() {
+		return this.buffer.length;
+	}
+}
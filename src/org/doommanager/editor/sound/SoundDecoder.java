@@ -0,0 +1,224 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.util.ByteHandler;
+
+/**
+ * Recognizes sound lumps and decodes the ones that hold PCM data, which are
+ * DMX sounds and uncompressed WAV files. OGG and FLAC are recognized so they
+ * can be exported, but are not decoded.
+ */
+public final class SoundDecoder {
+
+	/**
+	 * The format number of a DMX digital sound.
+	 */
+	public static final int DMX_FORMAT = 3;
+
+	/**
+	 * The size of the DMX header.
+	 */
+	public static final int DMX_HEADER_SIZE = 8;
+
+	/**
+	 * The most bytes from the start of a lump that detect() looks at.
+	 */
+	public static final int DETECT_HEADER_SIZE = 12;
+
+	/**
+	 * The number of padding bytes DMX puts before and after the samples.
+	 */
+	public static final int DMX_PADDING = 16;
+
+	/**
+	 * The WAV format number of uncompressed PCM.
+	 */
+	private static final int WAV_FORMAT_PCM = 1;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SoundDecoder.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private SoundDecoder() {
+	}
+
+	/**
+	 * Finds out what kind of sound some data is from its header.
+	 * 
+	 * @param data
+	 * 		The lump data from its position to its limit.
+	 * 
+	 * @return
+	 * 		The sound type, or UNKNOWN if it is not a sound.
+	 */
+	public static SoundType detect(ByteBuffer data) {
+		return detect(data, data.remaining());
+	}
+
+	/**
+	 * Finds out what kind of sound a lump is from the start of its data, so
+	 * the rest of it does not have to be read.
+	 * 
+	 * @param header
+	 * 		The first bytes of the lump from its position to its limit. At
+	 * 		least DETECT_HEADER_SIZE bytes are needed unless the lump is
+	 * 		smaller.
+	 * 
+	 * @param size
+	 * 		The size of the whole lump.
+	 * 
+	 * @return
+	 * 		The sound type, or UNKNOWN if it is not a sound.
+	 */
+	public static SoundType detect(ByteBuffer header, int size) {
+		ByteBuffer view = header.slice().order(ByteOrder.LITTLE_ENDIAN);
+		int available = view.remaining();
+		if (available >= 12 && view.getInt(0) == 0x46464952 && view.getInt(8) == 0x45564157)
+			return SoundType.WAV;
+		if (available >= 4 && view.getInt(0) == 0x5367674F)
+			return SoundType.OGG;
+		if (available >= 4 && view.getInt(0) == 0x43614C66)
+			return SoundType.FLAC;
+		if (available >= DMX_HEADER_SIZE && (view.getShort(0) & 0xFFFF) == DMX_FORMAT && (view.getShort(2) & 0xFFFF) != 0) {
+			long sampleCount = view.getInt(4) & 0xFFFFFFFFL;
+			if (sampleCount > 0 && sampleCount <= size - DMX_HEADER_SIZE)
+				return SoundType.DMX;
+		}
+		return SoundType.UNKNOWN;
+	}
+
+	/**
+	 * Decodes a sound into PCM samples without copying them.
+	 * 
+	 * @param data
+	 * 		The lump data from its position to its limit.
+	 * 
+	 * @return
+	 * 		The sound, or null if it is not a DMX or PCM WAV sound.
+	 */
+	public static PcmSound decode(ByteBuffer data) {
+		switch (detect(data)) {
+		case DMX:
+			return decodeDmx(data);
+		case WAV:
+			return decodeWav(data);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes a DMX sound. The padding around the samples is left out, as
+	 * the engine does.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @return
+	 * 		The sound.
+	 */
+	private static PcmSound decodeDmx(ByteBuffer data) {
+		ByteHandler handler = new ByteHandler(data.slice(), ByteOrder.LITTLE_ENDIAN);
+		handler.setMarkerLocation(2);
+		int sampleRate = handler.getShortUnsigned();
+		int sampleCount = (int)handler.getIntUnsigned();
+		int start = DMX_HEADER_SIZE;
+		if (sampleCount >= 2 * DMX_PADDING) {
+			start += DMX_PADDING;
+			sampleCount -= 2 * DMX_PADDING;
+		}
+		return new PcmSound(sampleRate, 1, 8, range(data, start, sampleCount));
+	}
+
+	/**
+	 * Decodes an uncompressed WAV file by walking its chunks for the format
+	 * and the sample data.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @return
+	 * 		The sound, or null if it is not PCM or is damaged.
+	 */
+	private static PcmSound decodeWav(ByteBuffer data) {
+		ByteHandler handler = new ByteHandler(data.slice(), ByteOrder.LITTLE_ENDIAN);
+		int format = -1;
+		int channels = 0;
+		int sampleRate = 0;
+		int bits = 0;
+		int offset = 12;
+		while (offset + 8 <= handler.size()) {
+			handler.setMarkerLocation(offset);
+			String id = handler.getString(4);
+			handler.setMarkerLocation(offset + 4);
+			long length = handler.getIntUnsigned();
+			int body = offset + 8;
+			if (id.equals("fmt ") && length >= 16 && body + 16 <= handler.size()) {
+				format = handler.getShortUnsigned();
+				channels = handler.getShortUnsigned();
+				sampleRate = (int)handler.getIntUnsigned();
+				handler.setMarkerLocation(body + 14);
+				bits = handler.getShortUnsigned();
+			} else if (id.equals("data")) {
+				if (format != WAV_FORMAT_PCM || (bits != 8 && bits != 16) || channels <= 0 || sampleRate <= 0) {
+					log.log(Level.FINE, "WAV is not 8 or 16 bit PCM, format " + format + ", " + bits + " bits");
+					return null;
+				}
+				int available = handler.size() - body;
+				return new PcmSound(sampleRate, channels, bits, range(data, body, (int)Math.min(length, available)));
+			}
+			// Chunks are padded to an even length.
+			offset = (int)Math.min(Integer.MAX_VALUE, body + length + (length & 1));
+		}
+		log.log(Level.FINE, "WAV has no data chunk");
+		return null;
+	}
+
+	/**
+	 * Gets a view of part of a buffer.
+	 * 
+	 * @param data
+	 * 		The buffer from its position.
+	 * 
+	 * @param offset
+	 * 		The start of the range from the position.
+	 * 
+	 * @param length
+	 * 		The length of the range, clipped to the data that is there.
+	 * 
+	 * @return
+	 * 		A view of the range.
+	 */
+	private static ByteBuffer range(ByteBuffer data, int offset, int length) {
+		ByteBuffer view = data.slice();
+		view.position(Math.min(offset, view.limit()));
+		view.limit(Math.min(view.limit(), view.position() + length));
+		return view.slice();
+	}
+}
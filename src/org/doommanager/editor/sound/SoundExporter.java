@@ -0,0 +1,288 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+import org.doommanager.editor.file.PK3Entry;
+import org.doommanager.editor.file.PK3File;
+import org.doommanager.util.BufferLease;
+import org.doommanager.util.BufferPool;
+
+/**
+ * Exports sound lumps to files. DMX sounds are written as WAV files, every
+ * other sound is written as it is stored. Exporting every sound of a file
+ * runs one task per sound on the common fork join pool.
+ */
+public final class SoundExporter {
+
+	/**
+	 * The size of a WAV header with only a format and a data chunk.
+	 */
+	public static final int WAV_HEADER_SIZE = 44;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SoundExporter.class.getName());
+
+	/**
+	 * This class only has static methods.
+	 */
+	private SoundExporter() {
+	}
+
+	/**
+	 * Finds every sound lump in a file by checking the header of each lump.
+	 * Deflated PK3 entries are only inflated as far as the header.
+	 * 
+	 * @param file
+	 * 		The file to look in.
+	 * 
+	 * @return
+	 * 		The sound lumps in directory order.
+	 */
+	public static List<Lump> findSounds(DoomFile file) {
+		return findSounds(file, new ArrayList<>());
+	}
+
+	/**
+	 * Finds every sound lump in a file and keeps the type of each.
+	 * 
+	 * @param file
+	 * 		The file to look in.
+	 * 
+	 * @param types
+	 * 		Where the type of each sound goes, in the same order.
+	 * 
+	 * @return
+	 * 		The sound lumps in directory order.
+	 */
+	private static List<Lump> findSounds(DoomFile file, List<SoundType> types) {
+		List<Lump> sounds = new ArrayList<>();
+		for (Lump lump : file.getLumps()) {
+			if (lump.getSize() == 0)
+				continue;
+			SoundType type = SoundDecoder.detect(getHeader(file, lump), lump.getSize());
+			if (type != SoundType.UNKNOWN) {
+				sounds.add(lump);
+				types.add(type);
+			}
+		}
+		return sounds;
+	}
+
+	/**
+	 * Gets enough of the start of a lump to detect its type.
+	 * 
+	 * @param file
+	 * 		The file that owns the lump.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		At least SoundDecoder.DETECT_HEADER_SIZE bytes unless the lump is
+	 * 		smaller.
+	 */
+	private static ByteBuffer getHeader(DoomFile file, Lump lump) {
+		if (file instanceof PK3File)
+			return ((PK3File)file).getLumpStart((PK3Entry)lump, SoundDecoder.DETECT_HEADER_SIZE);
+		return file.getLumpData(lump);
+	}
+
+	/**
+	 * Exports every sound of a file into a folder, in parallel. Lumps that
+	 * would get the same file name get a number added.
+	 * 
+	 * @param file
+	 * 		The file with the sounds.
+	 * 
+	 * @param directory
+	 * 		The folder to export to, which is created if needed.
+	 * 
+	 * @return
+	 * 		The number of sounds exported. Sounds that fail are logged and
+	 * 		skipped.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If the folder cannot be created.
+	 */
+	public static int exportAll(DoomFile file, String directory) throws IOException {
+		if (file == null || directory == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to SoundExporter.");
+			log.log(Level.SEVERE, "SoundExporter argument is null", e);
+			throw e;
+		}
+		Path folder = Files.createDirectories(Paths.get(directory));
+		List<SoundType> types = new ArrayList<>();
+		List<Lump> sounds = findSounds(file, types);
+
+		// Names are picked up front so the parallel tasks never race for one.
+		Set<String> used = new HashSet<>();
+		List<Path> targets = new ArrayList<>(sounds.size());
+		for (int i = 0; i < sounds.size(); i++) {
+			String base = baseName(sounds.get(i));
+			String extension = types.get(i).getExtension();
+			String name = base + "." + extension;
+			for (int n = 1; !used.add(name.toLowerCase(Locale.ROOT)); n++)
+				name = base + "_" + n + "." + extension;
+			targets.add(folder.resolve(name));
+		}
+
+		AtomicInteger exported = new AtomicInteger();
+		long start = System.nanoTime();
+		IntStream.range(0, sounds.size()).parallel().forEach(i -> {
+			BufferLease data = null;
+			try {
+				data = file.getLumpData(sounds.get(i), BufferPool.getShared());
+				export(data.getBuffer(), types.get(i), targets.get(i));
+				exported.incrementAndGet();
+			} catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Unable to export " + sounds.get(i).getName() + " to " + targets.get(i), e);
+			} finally {
+				if (data != null)
+					data.dispose();
+			}
+		});
+		log.log(Level.INFO, String.format("Exported %d of %d sounds to %s in %.2fs", exported.get(), sounds.size(), folder,
+				(System.nanoTime() - start) / 1e9));
+		return exported.get();
+	}
+
+	/**
+	 * Exports one sound. DMX sounds are converted to WAV, anything else is
+	 * copied as is.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @param target
+	 * 		The file to write.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	public static void export(ByteBuffer data, Path target) throws IOException {
+		export(data, SoundDecoder.detect(data), target);
+	}
+
+	/**
+	 * Exports one sound whose type is already known.
+	 * 
+	 * @param data
+	 * 		The lump data.
+	 * 
+	 * @param type
+	 * 		The type of the sound.
+	 * 
+	 * @param target
+	 * 		The file to write.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	private static void export(ByteBuffer data, SoundType type, Path target) throws IOException {
+		if (type == SoundType.DMX) {
+			writeWav(SoundDecoder.decode(data), target);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer view = data.duplicate();
+			while (view.hasRemaining())
+				channel.write(view);
+		}
+	}
+
+	/**
+	 * Writes a sound as a WAV file. The samples are written straight from
+	 * where they are, after a small header.
+	 * 
+	 * @param sound
+	 * 		The sound.
+	 * 
+	 * @param target
+	 * 		The file to write.
+	 * 
+	 * @throws IOException
+	 * 		If writing fails.
+	 */
+	public static void writeWav(PcmSound sound, Path target) throws IOException {
+		ByteBuffer samples = sound.getSamples();
+		int dataSize = samples.remaining();
+		ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(WAV_HEADER_SIZE - 8 + dataSize + (dataSize & 1));
+		header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+		header.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16);
+		header.putShort((short)1).putShort((short)sound.getChannels()).putInt(sound.getSampleRate());
+		header.putInt(sound.getSampleRate() * sound.getFrameSize()).putShort((short)sound.getFrameSize());
+		header.putShort((short)sound.getBitsPerSample());
+		header.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(dataSize);
+		header.flip();
+		ByteBuffer padding = ByteBuffer.allocate(dataSize & 1);
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer[] parts = { header, samples, padding };
+			while (padding.hasRemaining() || samples.hasRemaining() || header.hasRemaining())
+				channel.write(parts);
+		}
+	}
+
+	/**
+	 * Makes a file name out of a lump name, dropping the folders and the
+	 * extension of PK3 entries and anything a file system might not take.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @return
+	 * 		The name without an extension.
+	 */
+	private static String baseName(Lump lump) {
+		String name = lump instanceof PK3Entry ? ((PK3Entry)lump).getFileName() : lump.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		name = name.replaceAll("[^A-Za-z0-9_\\-]", "_");
+		return name.isEmpty() ? "_" : name;
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import org.doommanager.editor.Disposable;
+
+/**
+ * Plays one sound at a time. The samples are streamed from the lump data
+ * into a small SampleRingBuffer by one thread, and from the ring to the sound
+ * card by another, so only the ring is on the heap no matter how long the
+ * sound is.
+ */
+public class SoundPlayer implements Disposable {
+
+	/**
+	 * The size of the ring between the two threads.
+	 */
+	public static final int RING_SIZE = 64 * 1024;
+
+	/**
+	 * The most bytes moved at a time.
+	 */
+	private static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * The ring of the sound that is playing, or null.
+	 */
+	private SampleRingBuffer ring;
+
+	/**
+	 * The line of the sound that is playing, or null.
+	 */
+	private SourceDataLine line;
+
+	/**
+	 * Run when a sound stops, whether it ended or was stopped.
+	 */
+	private volatile Runnable onFinished;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(SoundPlayer.class.getName());
+
+	/**
+	 * Sets what to do when a sound stops. It is run on a player thread.
+	 * 
+	 * @param onFinished
+	 * 		The action, or null for none.
+	 */
+	public void setOnFinished(Runnable onFinished) {
+		this.onFinished = onFinished;
+	}
+
+	/**
+	 * Starts playing a sound, stopping the one that is playing.
+	 * 
+	 * @param sound
+	 * 		The sound to play.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the sound is null.
+	 * 
+	 * @throws LineUnavailableException
+	 * 		If there is no sound output for the format of the sound.
+	 */
+	public synchronized void play(PcmSound sound) throws LineUnavailableException {
+		if (sound == null) {
+			NullPointerException e = new NullPointerException("Provided a null sound to SoundPlayer.");
+			log.log(Level.SEVERE, "SoundPlayer sound is null", e);
+			throw e;
+		}
+		stop();
+		SourceDataLine newLine = AudioSystem.getSourceDataLine(sound.getAudioFormat());
+		newLine.open(sound.getAudioFormat());
+		newLine.start();
+		SampleRingBuffer newRing = new SampleRingBuffer(RING_SIZE - RING_SIZE % sound.getFrameSize());
+		this.line = newLine;
+		this.ring = newRing;
+
+		Thread producer = new Thread(() -> stream(sound.getSamples(), newRing), "SoundPlayer stream");
+		Thread consumer = new Thread(() -> output(newRing, newLine, sound.getFrameSize()), "SoundPlayer output");
+		producer.setDaemon(true);
+		consumer.setDaemon(true);
+		producer.start();
+		consumer.start();
+	}
+
+	/**
+	 * Copies samples into a ring block by block until they run out or the
+	 * ring is closed.
+	 * 
+	 * @param samples
+	 * 		The samples from their position to their limit.
+	 * 
+	 * @param ring
+	 * 		The ring to fill.
+	 */
+	public static void stream(ByteBuffer samples, SampleRingBuffer ring) {
+		byte[] block = new byte[BLOCK_SIZE];
+		try {
+			while (samples.hasRemaining()) {
+				int length = Math.min(block.length, samples.remaining());
+				samples.get(block, 0, length);
+				if (!ring.write(block, 0, length))
+					return;
+			}
+			ring.finish();
+		} catch (InterruptedException e) {
+			ring.close();
+		}
+	}
+
+	/**
+	 * Moves whole frames from a ring to a line until the ring runs out, then
+	 * lets the line play to the end.
+	 * 
+	 * @param ring
+	 * 		The ring to empty.
+	 * 
+	 * @param line
+	 * 		The line to play on.
+	 * 
+	 * @param frameSize
+	 * 		The size of a frame, since lines only take whole frames.
+	 */
+	private void output(SampleRingBuffer ring, SourceDataLine line, int frameSize) {
+		byte[] block = new byte[BLOCK_SIZE - BLOCK_SIZE % frameSize];
+		try {
+			int filled = 0;
+			int read;
+			while ((read = ring.read(block, filled, block.length - filled)) >= 0) {
+				filled += read;
+				int whole = filled - filled % frameSize;
+				line.write(block, 0, whole);
+				System.arraycopy(block, whole, block, 0, filled - whole);
+				filled -= whole;
+			}
+			// A stopped line was flushed and would never drain.
+			if (!ring.isClosed())
+				line.drain();
+		} catch (InterruptedException e) {
+			ring.close();
+		} finally {
+			line.close();
+			synchronized (this) {
+				if (this.ring == ring) {
+					this.ring = null;
+					this.line = null;
+				}
+			}
+			Runnable action = this.onFinished;
+			if (action != null)
+				action.run();
+		}
+	}
+
+	/**
+	 * Stops the sound that is playing, if any.
+	 */
+	public synchronized void stop() {
+		if (this.ring == null)
+			return;
+		this.ring.close();
+		this.line.stop();
+		this.line.flush();
+		this.ring = null;
+		this.line = null;
+	}
+
+	/**
+	 * Checks if a sound is playing.
+	 * 
+	 * @return
+	 * 		True while a sound is playing.
+	 */
+	public synchronized boolean isPlaying() {
+		return this.ring != null;
+	}
+
+	/**
+	 * Gets how far the playing sound is.
+	 * 
+	 * @return
+	 * 		The number of frames played, or zero if nothing is playing.
+	 */
+	public synchronized long getFramePosition() {
+		return this.line != null ? this.line.getLongFramePosition() : 0;
+	}
+
+	@Override
+	public void dispose() {
+		stop();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+/**
+ * Encapsulation of the kinds of sound lumps found in wads and PK3s.
+ */
+public enum SoundType {
+	DMX("wav"),
+	WAV("wav"),
+	OGG("ogg"),
+	FLAC("flac"),
+	UNKNOWN("lmp");
+	
+	/**
+	 * The extension a sound of this type is exported with.
+	 */
+	private String extension;
+	
+	/**
+	 * Creates a sound type.
+	 * 
+	 * @param extension
+	 * 		The export extension.
+	 */
+	private SoundType(String extension) {
+		this.extension = extension;
+	}
+	
+	/**
+	 * Gets the file extension used when a sound of this type is exported.
+	 * DMX sounds are exported as WAV files.
+	 * 
+	 * @return
+	 * 		The extension without a period.
+	 */
+	public String getExtension() {
+		return extension;
+	}
+}
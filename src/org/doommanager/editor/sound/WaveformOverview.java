@@ -0,0 +1,149 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.sound;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The smallest and largest sample in each column of a waveform preview. It
+ * is computed in a single pass over the samples, reading each one once.
+ */
+public class WaveformOverview {
+
+	/**
+	 * The smallest sample of each column, from -1 to 1.
+	 */
+	private final float[] minimums;
+
+	/**
+	 * The largest sample of each column, from -1 to 1.
+	 */
+	private final float[] maximums;
+
+	/**
+	 * Creates an overview from computed columns.
+	 * 
+	 * @param minimums
+	 * 		The smallest sample of each column.
+	 * 
+	 * @param maximums
+	 * 		The largest sample of each column.
+	 */
+	private WaveformOverview(float[] minimums, float[] maximums) {
+		this.minimums = minimums;
+		this.maximums = maximums;
+	}
+
+	/**
+	 * Computes the overview of a sound. Every channel goes into the same
+	 * columns. When there are fewer frames than columns, some columns are
+	 * left empty at zero.
+	 * 
+	 * @param sound
+	 * 		The sound.
+	 * 
+	 * @param columns
+	 * 		The number of columns, usually the width of the preview in pixels.
+	 * 
+	 * @return
+	 * 		The overview.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the sound is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the column count is not positive.
+	 */
+	public static WaveformOverview compute(PcmSound sound, int columns) {
+		if (sound == null)
+			throw new NullPointerException("Provided a null sound to WaveformOverview.");
+		if (columns <= 0)
+			throw new IllegalArgumentException("The column count must be positive.");
+		float[] minimums = new float[columns];
+		float[] maximums = new float[columns];
+		ByteBuffer samples = sound.getSamples();
+		int frames = sound.getFrameCount();
+		int channels = sound.getChannels();
+		boolean wide = sound.getBitsPerSample() == 16;
+		int index = 0;
+		for (int column = 0; column < columns; column++) {
+			// Frames up to the end of this column, without overflowing on long sounds.
+			int end = (int)((long)frames * (column + 1) / columns);
+			int samplesEnd = end * channels;
+			if (index >= samplesEnd)
+				continue;
+			int minimum = Integer.MAX_VALUE;
+			int maximum = Integer.MIN_VALUE;
+			if (wide) {
+				for (; index < samplesEnd; index++) {
+					int value = samples.getShort(index << 1);
+					minimum = Math.min(minimum, value);
+					maximum = Math.max(maximum, value);
+				}
+				minimums[column] = minimum / 32768f;
+				maximums[column] = maximum / 32768f;
+			} else {
+				for (; index < samplesEnd; index++) {
+					int value = (samples.get(index) & 0xFF) - 128;
+					minimum = Math.min(minimum, value);
+					maximum = Math.max(maximum, value);
+				}
+				minimums[column] = minimum / 128f;
+				maximums[column] = maximum / 128f;
+			}
+		}
+		return new WaveformOverview(minimums, maximums);
+	}
+
+	/**
+	 * Gets the number of columns.
+	 * 
+	 * @return
+	 * 		The column count.
+	 */
+	public int getColumnCount() {
+		return this.minimums.length;
+	}
+
+	/**
+	 * Gets the smallest sample of a column.
+	 * 
+	 * @param column
+	 * 		The column.
+	 * 
+	 * @return
+	 * 		The sample from -1 to 1.
+	 */
+	public float getMinimum(int column) {
+		return this.minimums[column];
+	}
+
+	/**
+	 * Gets the largest sample of a column.
+	 * 
+	 * @param column
+	 * 		The column.
+	 * 
+	 * @return
+	 * 		The sample from -1 to 1.
+	 */
+	public float getMaximum(int column) {
+		return this.maximums[column];
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.convert.Namespace;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.Lump;
+
+/**
+ * Follows the includes of text lumps through a file. Nothing is lexed until
+ * it is asked for, and a lump is lexed once no matter how many lumps
+ * include it.
+ * 
+ * Both the #include directive of DECORATE and ZScript and the bare include
+ * keyword of MAPINFO and friends are understood. An include path is looked
+ * up as a full lump name first, which is how PK3 paths work, and then as a
+ * wad lump name made from the file name in the path.
+ */
+public class IncludeResolver {
+
+	/**
+	 * The file the lumps are in.
+	 */
+	private final DoomFile file;
+
+	/**
+	 * The lexers made so far.
+	 */
+	private final Map<Lump, TextLexer> lexers;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(IncludeResolver.class.getName());
+
+	/**
+	 * Creates a resolver for a file.
+	 * 
+	 * @param file
+	 * 		The file to resolve includes in.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the file is null.
+	 */
+	public IncludeResolver(DoomFile file) {
+		if (file == null)
+			throw new NullPointerException("Provided a null file to IncludeResolver.");
+		this.file = file;
+		this.lexers = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Gets the lexer of a lump, lexing it the first time.
+	 * 
+	 * @param lump
+	 * 		A lump of the file.
+	 * 
+	 * @return
+	 * 		The lexer. Edits made to it are seen by later lookups.
+	 */
+	public TextLexer getLexer(Lump lump) {
+		return this.lexers.computeIfAbsent(lump, l -> new TextLexer(this.file.getLumpData(l)));
+	}
+
+	/**
+	 * Forgets the lexer of a lump, for example after it was reloaded.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 */
+	public void invalidate(Lump lump) {
+		this.lexers.remove(lump);
+	}
+
+	/**
+	 * Finds the lump an include path refers to.
+	 * 
+	 * @param path
+	 * 		The path as written in the include.
+	 * 
+	 * @return
+	 * 		The lump, or null if there is none.
+	 */
+	public Lump resolve(String path) {
+		String normalized = path.replace('\\', '/');
+		while (normalized.startsWith("/"))
+			normalized = normalized.substring(1);
+		Lump lump = this.file.getLump(normalized);
+		if (lump == null)
+			lump = this.file.getLump(Namespace.toLumpName(normalized));
+		return lump;
+	}
+
+	/**
+	 * Gets the lumps that a lump includes directly.
+	 * 
+	 * @param lump
+	 * 		The including lump.
+	 * 
+	 * @return
+	 * 		The included lumps in the order they are included. Paths that do
+	 * 		not resolve are logged and left out.
+	 */
+	public List<Lump> getIncludes(Lump lump) {
+		TextLexer lexer = getLexer(lump);
+		List<Lump> includes = new ArrayList<>();
+		for (int i = 0; i + 1 < lexer.getTokenCount(); i++) {
+			boolean directive = lexer.getTokenType(i) == TokenType.DIRECTIVE && lexer.tokenEquals(i, "#include", true);
+			boolean keyword = lexer.getTokenType(i) == TokenType.IDENTIFIER && lexer.tokenEquals(i, "include", true);
+			if ((!directive && !keyword) || lexer.getTokenType(i + 1) != TokenType.STRING)
+				continue;
+			String path = lexer.getTokenContent(i + 1);
+			Lump included = resolve(path);
+			if (included == null)
+				log.log(Level.FINE, lump.getName() + " includes missing lump " + path + " in " + this.file.getFilePath());
+			else
+				includes.add(included);
+			i++;
+		}
+		return includes;
+	}
+
+	/**
+	 * Gets a lump and everything it includes, directly or not, in the order
+	 * the engine would read them. Each lump is listed once, so include cycles
+	 * are cut off.
+	 * 
+	 * @param root
+	 * 		The lump to start from, like DECORATE or ZSCRIPT.
+	 * 
+	 * @return
+	 * 		The root followed by its includes, depth first.
+	 */
+	public List<Lump> getIncludeOrder(Lump root) {
+		Set<Lump> visited = new LinkedHashSet<>();
+		visit(root, visited);
+		return Collections.unmodifiableList(new ArrayList<>(visited));
+	}
+
+	/**
+	 * Visits a lump and its includes depth first.
+	 * 
+	 * @param lump
+	 * 		The lump.
+	 * 
+	 * @param visited
+	 * 		The lumps visited so far, in order.
+	 */
+	private void visit(Lump lump, Set<Lump> visited) {
+		if (!visited.add(lump))
+			return;
+		for (Lump included : getIncludes(lump))
+			visit(included, visited);
+	}
+}
@@ -0,0 +1,738 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.text;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An incremental lexer for text lumps. The text is kept as bytes and every
+ * token is just a start, an end and a type in parallel arrays, so lexing a
+ * large lump allocates no objects per token. Strings are only made when a
+ * caller asks for the text of a token.
+ * 
+ * A table of line starts is kept next to the tokens. When the text is
+ * edited, lexing restarts a token before the edit and stops as soon as a new
+ * token lines up with an old one past the edit, since from there on the
+ * tokens can only be the old ones shifted by the change in length. An edit
+ * therefore costs about the size of the edit rather than the size of the
+ * lump, unless it opens a comment or string that swallows the rest.
+ */
+public class TextLexer {
+
+	/**
+	 * The operators that are longer than one byte, longest first.
+	 */
+	private static final byte[][] OPERATORS = toBytes(">>>=", ">>>", ">>=", "<<=", "...", "~==", "<>=", "::", "->",
+			"==", "!=", "<=", ">=", "&&", "||", "++", "--", "<<", ">>", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=",
+			"**", "..");
+
+	/**
+	 * The text, of which only the first textLength bytes are used.
+	 */
+	private byte[] text;
+
+	/**
+	 * The length of the text.
+	 */
+	private int textLength;
+
+	/**
+	 * Where each token starts.
+	 */
+	private int[] tokenStarts;
+
+	/**
+	 * Where each token ends, exclusive.
+	 */
+	private int[] tokenEnds;
+
+	/**
+	 * The TokenType ordinal of each token.
+	 */
+	private byte[] tokenTypes;
+
+	/**
+	 * The number of tokens.
+	 */
+	private int tokenCount;
+
+	/**
+	 * Where each line starts. The first line always starts at zero.
+	 */
+	private int[] lineStarts;
+
+	/**
+	 * The number of lines.
+	 */
+	private int lineCount;
+
+	/**
+	 * The end of the token that lexToken() read last.
+	 */
+	private int lexedEnd;
+
+	/**
+	 * The type of the token that lexToken() read last.
+	 */
+	private TokenType lexedType;
+
+	/**
+	 * Copies and lexes text.
+	 * 
+	 * @param data
+	 * 		The text from its position to its limit, usually lump data. The
+	 * 		bytes are copied so the text can be edited.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the data is null.
+	 */
+	public TextLexer(ByteBuffer data) {
+		if (data == null)
+			throw new NullPointerException("Provided null data to TextLexer.");
+		this.textLength = data.remaining();
+		this.text = new byte[Math.max(16, this.textLength)];
+		data.duplicate().get(this.text, 0, this.textLength);
+		this.tokenStarts = new int[16];
+		this.tokenEnds = new int[16];
+		this.tokenTypes = new byte[16];
+		this.lineStarts = new int[16];
+		relexAll();
+	}
+
+	/**
+	 * Converts strings to ASCII bytes.
+	 * 
+	 * @param values
+	 * 		The strings.
+	 * 
+	 * @return
+	 * 		The bytes of each string.
+	 */
+	private static byte[][] toBytes(String... values) {
+		byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			bytes[i] = values[i].getBytes(StandardCharsets.US_ASCII);
+		return bytes;
+	}
+
+	/**
+	 * Lexes the whole text and builds the line table.
+	 */
+	private void relexAll() {
+		this.tokenCount = 0;
+		int position = skipWhitespace(0);
+		while (position < this.textLength) {
+			lexToken(position);
+			addToken(position, this.lexedEnd, this.lexedType);
+			position = skipWhitespace(this.lexedEnd);
+		}
+		this.lineCount = 1;
+		this.lineStarts[0] = 0;
+		for (int i = 0; i < this.textLength; i++)
+			if (this.text[i] == '\n')
+				addLine(i + 1);
+	}
+
+	/**
+	 * Appends a token.
+	 * 
+	 * @param start
+	 * 		The start of the token.
+	 * 
+	 * @param end
+	 * 		The end of the token.
+	 * 
+	 * @param type
+	 * 		The type of the token.
+	 */
+	private void addToken(int start, int end, TokenType type) {
+		if (this.tokenCount == this.tokenStarts.length) {
+			int capacity = this.tokenCount * 2;
+			this.tokenStarts = Arrays.copyOf(this.tokenStarts, capacity);
+			this.tokenEnds = Arrays.copyOf(this.tokenEnds, capacity);
+			this.tokenTypes = Arrays.copyOf(this.tokenTypes, capacity);
+		}
+		this.tokenStarts[this.tokenCount] = start;
+		this.tokenEnds[this.tokenCount] = end;
+		this.tokenTypes[this.tokenCount] = (byte)type.ordinal();
+		this.tokenCount++;
+	}
+
+	/**
+	 * Appends a line start.
+	 * 
+	 * @param start
+	 * 		The offset of the line.
+	 */
+	private void addLine(int start) {
+		if (this.lineCount == this.lineStarts.length)
+			this.lineStarts = Arrays.copyOf(this.lineStarts, this.lineCount * 2);
+		this.lineStarts[this.lineCount++] = start;
+	}
+
+	/**
+	 * Skips whitespace.
+	 * 
+	 * @param position
+	 * 		Where to start.
+	 * 
+	 * @return
+	 * 		The first byte that is not whitespace, or the text length.
+	 */
+	private int skipWhitespace(int position) {
+		while (position < this.textLength && (this.text[position] & 0xFF) <= ' ')
+			position++;
+		return position;
+	}
+
+	/**
+	 * Gets a byte of the text, or zero past the end.
+	 * 
+	 * @param position
+	 * 		The offset.
+	 * 
+	 * @return
+	 * 		The byte.
+	 */
+	private byte at(int position) {
+		return position < this.textLength ? this.text[position] : 0;
+	}
+
+	/**
+	 * Reads one token and stores its end and type in lexedEnd and lexedType.
+	 * 
+	 * @param start
+	 * 		The first byte of the token, which is not whitespace.
+	 */
+	private void lexToken(int start) {
+		byte c = this.text[start];
+		byte next = at(start + 1);
+		int position = start + 1;
+
+		if (c == '/' && next == '/') {
+			while (position < this.textLength && this.text[position] != '\n')
+				position++;
+			this.lexedType = TokenType.COMMENT;
+		} else if (c == '/' && next == '*') {
+			position = start + 2;
+			while (position < this.textLength && !(this.text[position - 1] == '*' && this.text[position] == '/' && position - 1 > start + 1))
+				position++;
+			if (position < this.textLength) {
+				position++;
+				this.lexedType = TokenType.COMMENT;
+			} else {
+				this.lexedType = TokenType.UNTERMINATED;
+			}
+		} else if (c == '"' || c == '\'') {
+			while (position < this.textLength && this.text[position] != c)
+				position += this.text[position] == '\\' ? 2 : 1;
+			if (position < this.textLength) {
+				position++;
+				this.lexedType = c == '"' ? TokenType.STRING : TokenType.NAME;
+			} else {
+				position = this.textLength;
+				this.lexedType = TokenType.UNTERMINATED;
+			}
+		} else if (isDigit(c) || (c == '.' && isDigit(next))) {
+			if (c == '0' && (next == 'x' || next == 'X')) {
+				position = start + 2;
+				while (position < this.textLength && isHexDigit(this.text[position]))
+					position++;
+			} else {
+				while (position < this.textLength && (isDigit(this.text[position]) || this.text[position] == '.'))
+					position++;
+				if (position < this.textLength && (this.text[position] == 'e' || this.text[position] == 'E')) {
+					int exponent = position + 1;
+					if (at(exponent) == '+' || at(exponent) == '-')
+						exponent++;
+					if (isDigit(at(exponent))) {
+						position = exponent;
+						while (position < this.textLength && isDigit(this.text[position]))
+							position++;
+					}
+				}
+			}
+			while (position < this.textLength && isIdentifierPart(this.text[position]))
+				position++;
+			this.lexedType = TokenType.NUMBER;
+		} else if (isIdentifierStart(c) || (c == '#' && isIdentifierStart(next))) {
+			while (position < this.textLength && isIdentifierPart(this.text[position]))
+				position++;
+			this.lexedType = c == '#' ? TokenType.DIRECTIVE : TokenType.IDENTIFIER;
+		} else {
+			for (byte[] operator : OPERATORS) {
+				if (matchesAt(start, operator)) {
+					position = start + operator.length;
+					break;
+				}
+			}
+			this.lexedType = TokenType.PUNCTUATION;
+		}
+		this.lexedEnd = position;
+	}
+
+	/**
+	 * Checks if bytes appear at an offset.
+	 * 
+	 * @param position
+	 * 		The offset.
+	 * 
+	 * @param bytes
+	 * 		The bytes.
+	 * 
+	 * @return
+	 * 		True if they all match.
+	 */
+	private boolean matchesAt(int position, byte[] bytes) {
+		if (position + bytes.length > this.textLength)
+			return false;
+		for (int i = 0; i < bytes.length; i++)
+			if (this.text[position + i] != bytes[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Checks for a decimal digit.
+	 * 
+	 * @param c
+	 * 		The byte.
+	 * 
+	 * @return
+	 * 		True for 0 to 9.
+	 */
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Checks for a hexadecimal digit.
+	 * 
+	 * @param c
+	 * 		The byte.
+	 * 
+	 * @return
+	 * 		True for 0 to 9 and A to F in either case.
+	 */
+	private static boolean isHexDigit(byte c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/**
+	 * Checks if a byte can start an identifier.
+	 * 
+	 * @param c
+	 * 		The byte.
+	 * 
+	 * @return
+	 * 		True for letters and underscores.
+	 */
+	private static boolean isIdentifierStart(byte c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	/**
+	 * Checks if a byte can be in an identifier.
+	 * 
+	 * @param c
+	 * 		The byte.
+	 * 
+	 * @return
+	 * 		True for letters, digits and underscores.
+	 */
+	private static boolean isIdentifierPart(byte c) {
+		return isIdentifierStart(c) || isDigit(c);
+	}
+
+	/**
+	 * Replaces part of the text and lexes again only what the edit can
+	 * affect.
+	 * 
+	 * @param offset
+	 * 		Where the edit starts.
+	 * 
+	 * @param removeLength
+	 * 		How many bytes are removed.
+	 * 
+	 * @param insert
+	 * 		The bytes to insert in their place.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the inserted bytes are null.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the removed range is not within the text.
+	 */
+	public void replace(int offset, int removeLength, byte[] insert) {
+		if (insert == null)
+			throw new NullPointerException("Provided null bytes to insert to TextLexer.");
+		if (offset < 0 || removeLength < 0 || offset + removeLength > this.textLength)
+			throw new IndexOutOfBoundsException("TextLexer edit is outside of the text.");
+		int oldEditEnd = offset + removeLength;
+		int newEditEnd = offset + insert.length;
+		int delta = insert.length - removeLength;
+
+		// The text.
+		int newLength = this.textLength + delta;
+		if (newLength > this.text.length)
+			this.text = Arrays.copyOf(this.text, Math.max(newLength, this.text.length * 2));
+		System.arraycopy(this.text, oldEditEnd, this.text, newEditEnd, this.textLength - oldEditEnd);
+		System.arraycopy(insert, 0, this.text, offset, insert.length);
+		this.textLength = newLength;
+
+		updateLines(offset, oldEditEnd, insert, delta);
+
+		// The tokens. Restart a token early, since the edit may join the token
+		// before it with the one it touches.
+		int before = findTokenBefore(offset);
+		int restart = Math.max(0, before - 1);
+		int position = before >= 0 ? this.tokenStarts[restart] : 0;
+		int old = restart;
+		while (old < this.tokenCount && this.tokenStarts[old] < oldEditEnd)
+			old++;
+
+		int[] newStarts = new int[16];
+		int[] newEnds = new int[16];
+		byte[] newTypes = new byte[16];
+		int newCount = 0;
+		position = skipWhitespace(position);
+		while (position < this.textLength) {
+			if (position >= newEditEnd) {
+				while (old < this.tokenCount && this.tokenStarts[old] + delta < position)
+					old++;
+				if (old < this.tokenCount && this.tokenStarts[old] + delta == position)
+					break;
+			}
+			lexToken(position);
+			if (newCount == newStarts.length) {
+				newStarts = Arrays.copyOf(newStarts, newCount * 2);
+				newEnds = Arrays.copyOf(newEnds, newCount * 2);
+				newTypes = Arrays.copyOf(newTypes, newCount * 2);
+			}
+			newStarts[newCount] = position;
+			newEnds[newCount] = this.lexedEnd;
+			newTypes[newCount] = (byte)this.lexedType.ordinal();
+			newCount++;
+			position = skipWhitespace(this.lexedEnd);
+		}
+		if (position >= this.textLength)
+			old = this.tokenCount;
+
+		// Splice the new tokens in place of restart..old and shift the rest.
+		int tail = this.tokenCount - old;
+		int total = restart + newCount + tail;
+		if (total > this.tokenStarts.length) {
+			int capacity = Math.max(total, this.tokenStarts.length * 2);
+			this.tokenStarts = Arrays.copyOf(this.tokenStarts, capacity);
+			this.tokenEnds = Arrays.copyOf(this.tokenEnds, capacity);
+			this.tokenTypes = Arrays.copyOf(this.tokenTypes, capacity);
+		}
+		System.arraycopy(this.tokenStarts, old, this.tokenStarts, restart + newCount, tail);
+		System.arraycopy(this.tokenEnds, old, this.tokenEnds, restart + newCount, tail);
+		System.arraycopy(this.tokenTypes, old, this.tokenTypes, restart + newCount, tail);
+		System.arraycopy(newStarts, 0, this.tokenStarts, restart, newCount);
+		System.arraycopy(newEnds, 0, this.tokenEnds, restart, newCount);
+		System.arraycopy(newTypes, 0, this.tokenTypes, restart, newCount);
+		if (delta != 0) {
+			for (int i = restart + newCount; i < total; i++) {
+				this.tokenStarts[i] += delta;
+				this.tokenEnds[i] += delta;
+			}
+		}
+		this.tokenCount = total;
+	}
+
+	/**
+	 * Updates the line table after the text was edited.
+	 * 
+	 * @param offset
+	 * 		Where the edit starts.
+	 * 
+	 * @param oldEditEnd
+	 * 		Where the removed range ended before the edit.
+	 * 
+	 * @param insert
+	 * 		The inserted bytes.
+	 * 
+	 * @param delta
+	 * 		The change in text length.
+	 */
+	private void updateLines(int offset, int oldEditEnd, byte[] insert, int delta) {
+		// Lines that started inside the removed range are gone.
+		int first = getLineOf(offset) + 1;
+		int removedEnd = first;
+		while (removedEnd < this.lineCount && this.lineStarts[removedEnd] <= oldEditEnd)
+			removedEnd++;
+
+		int inserted = 0;
+		for (byte b : insert)
+			if (b == '\n')
+				inserted++;
+		int tail = this.lineCount - removedEnd;
+		int total = first + inserted + tail;
+		if (total > this.lineStarts.length)
+			this.lineStarts = Arrays.copyOf(this.lineStarts, Math.max(total, this.lineStarts.length * 2));
+		System.arraycopy(this.lineStarts, removedEnd, this.lineStarts, first + inserted, tail);
+		int line = first;
+		for (int i = 0; i < insert.length; i++)
+			if (insert[i] == '\n')
+				this.lineStarts[line++] = offset + i + 1;
+		for (int i = first + inserted; i < total; i++)
+			this.lineStarts[i] += delta;
+		this.lineCount = total;
+	}
+
+	/**
+	 * Finds the last token that starts before an offset.
+	 * 
+	 * @param offset
+	 * 		The offset.
+	 * 
+	 * @return
+	 * 		The token index, or -1 if no token starts before it.
+	 */
+	private int findTokenBefore(int offset) {
+		int low = 0;
+		int high = this.tokenCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (this.tokenStarts[middle] < offset)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return high;
+	}
+
+	/**
+	 * Finds the token that covers an offset.
+	 * 
+	 * @param offset
+	 * 		The offset in the text.
+	 * 
+	 * @return
+	 * 		The token index, or -1 if the offset is whitespace or out of range.
+	 */
+	public int findToken(int offset) {
+		int token = findTokenBefore(offset + 1);
+		return token >= 0 && offset < this.tokenEnds[token] ? token : -1;
+	}
+
+	/**
+	 * Gets the line an offset is on.
+	 * 
+	 * @param offset
+	 * 		The offset in the text.
+	 * 
+	 * @return
+	 * 		The line index, from zero.
+	 */
+	public int getLineOf(int offset) {
+		int low = 0;
+		int high = this.lineCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (this.lineStarts[middle] <= offset)
+				low = middle + 1;
+			else
+				high = middle - 1;
+		}
+		return Math.max(0, high);
+	}
+
+	/**
+	 * Gets the number of lines.
+	 * 
+	 * @return
+	 * 		The line count, which is at least one.
+	 */
+	public int getLineCount() {
+		return this.lineCount;
+	}
+
+	/**
+	 * Gets where a line starts.
+	 * 
+	 * @param line
+	 * 		The line index, from zero.
+	 * 
+	 * @return
+	 * 		The offset of the first byte of the line.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If there is no such line.
+	 */
+	public int getLineStart(int line) {
+		if (line < 0 || line >= this.lineCount)
+			throw new IndexOutOfBoundsException("TextLexer has no line " + line);
+		return this.lineStarts[line];
+	}
+
+	/**
+	 * Gets the number of tokens.
+	 * 
+	 * @return
+	 * 		The token count.
+	 */
+	public int getTokenCount() {
+		return this.tokenCount;
+	}
+
+	/**
+	 * Checks a token index.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If there is no such token.
+	 */
+	private void checkToken(int token) {
+		if (token < 0 || token >= this.tokenCount)
+			throw new IndexOutOfBoundsException("TextLexer has no token " + token);
+	}
+
+	/**
+	 * Gets the type of a token.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @return
+	 * 		The type.
+	 */
+	public TokenType getTokenType(int token) {
+		checkToken(token);
+		return TokenType.fromOrdinal(this.tokenTypes[token]);
+	}
+
+	/**
+	 * Gets where a token starts.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @return
+	 * 		The offset of its first byte.
+	 */
+	public int getTokenStart(int token) {
+		checkToken(token);
+		return this.tokenStarts[token];
+	}
+
+	/**
+	 * Gets where a token ends.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @return
+	 * 		The offset after its last byte.
+	 */
+	public int getTokenEnd(int token) {
+		checkToken(token);
+		return this.tokenEnds[token];
+	}
+
+	/**
+	 * Gets the text of a token. This makes a new String, so compare with
+	 * tokenEquals() where possible.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @return
+	 * 		The token exactly as it is in the text.
+	 */
+	public String getTokenText(int token) {
+		checkToken(token);
+		return new String(this.text, this.tokenStarts[token], this.tokenEnds[token] - this.tokenStarts[token], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the contents of a string or name token without its quotes. Escape
+	 * sequences are left as they are.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @return
+	 * 		The contents for strings and names, or the token text for any other
+	 * 		type.
+	 */
+	public String getTokenContent(int token) {
+		TokenType type = getTokenType(token);
+		if (type != TokenType.STRING && type != TokenType.NAME)
+			return getTokenText(token);
+		int start = this.tokenStarts[token] + 1;
+		return new String(this.text, start, this.tokenEnds[token] - 1 - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares a token to a string without making a String of the token.
+	 * 
+	 * @param token
+	 * 		The token index.
+	 * 
+	 * @param value
+	 * 		The ASCII string to compare with.
+	 * 
+	 * @param ignoreCase
+	 * 		If ASCII letters should match in either case, as most of these
+	 * 		languages do for keywords and actor names.
+	 * 
+	 * @return
+	 * 		True if the token is the string.
+	 */
+	public boolean tokenEquals(int token, String value, boolean ignoreCase) {
+		checkToken(token);
+		int start = this.tokenStarts[token];
+		if (this.tokenEnds[token] - start != value.length())
+			return false;
+		for (int i = 0; i < value.length(); i++) {
+			int a = this.text[start + i];
+			int b = value.charAt(i);
+			if (a != b && !(ignoreCase && a >= 'A' && (a | 0x20) == (b | 0x20) && (a | 0x20) >= 'a' && (a | 0x20) <= 'z'))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the length of the text.
+	 * 
+	 * @return
+	 * 		The number of bytes.
+	 */
+	public int getLength() {
+		return this.textLength;
+	}
+
+	/**
+	 * Gets a copy of the text.
+	 * 
+	 * @return
+	 * 		A buffer with the current text, for example to save the lump.
+	 */
+	public ByteBuffer getText() {
+		return ByteBuffer.wrap(Arrays.copyOf(this.text, this.textLength));
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.text;
+
+/**
+ * The kinds of tokens in DECORATE, ZScript, MAPINFO and the other text
+ * lumps that share their C like syntax.
+ */
+public enum TokenType {
+	IDENTIFIER,
+	NUMBER,
+	STRING,
+	NAME,
+	PUNCTUATION,
+	COMMENT,
+	DIRECTIVE,
+	UNTERMINATED;
+
+	/**
+	 * The values by ordinal, so a type can be stored as a byte.
+	 */
+	private static final TokenType[] VALUES = values();
+
+	/**
+	 * Gets a type from its ordinal.
+	 * 
+	 * @param ordinal
+	 * 		The ordinal.
+	 * 
+	 * @return
+	 * 		The type.
+	 */
+	static TokenType fromOrdinal(int ordinal) {
+		return VALUES[ordinal];
+	}
+}
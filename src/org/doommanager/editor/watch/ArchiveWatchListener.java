@@ -0,0 +1,71 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.watch;
+
+import java.io.IOException;
+
+import org.doommanager.editor.diff.ArchiveDiff;
+import org.doommanager.editor.file.MappedFile;
+
+/**
+ * Is told when a watched file changes on disk. The methods are called from
+ * the watcher thread, so implementations that touch the GUI must hand the
+ * work over to it.
+ */
+public interface ArchiveWatchListener {
+
+	/**
+	 * Called once a burst of changes to a file is over and the file was read
+	 * again. The old file must not be read from any more, since its mapping
+	 * already shows the new contents, but it is not disposed by the watcher
+	 * so that views can switch over to the new file first.
+	 * 
+	 * @param oldFile
+	 * 		The file that was open before the change.
+	 * 
+	 * @param newFile
+	 * 		The file read again from disk, which is now the one watched.
+	 * 
+	 * @param diff
+	 * 		The lumps that were added, removed, moved or modified. Unchanged
+	 * 		lumps can be taken over from the old file by index.
+	 */
+	void archiveReloaded(MappedFile oldFile, MappedFile newFile, ArchiveDiff diff);
+
+	/**
+	 * Called when a watched file was deleted or moved away. The file is no
+	 * longer watched after this.
+	 * 
+	 * @param file
+	 * 		The file that is gone.
+	 */
+	void archiveRemoved(MappedFile file);
+
+	/**
+	 * Called when a changed file could not be read again. The file stays
+	 * watched, so the next change tries again.
+	 * 
+	 * @param file
+	 * 		The file that is still open.
+	 * 
+	 * @param e
+	 * 		Why the file could not be read.
+	 */
+	void reloadFailed(MappedFile file, IOException e);
+}
@@ -0,0 +1,539 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.editor.watch;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.doommanager.editor.Disposable;
+import org.doommanager.editor.diff.ArchiveDiff;
+import org.doommanager.editor.file.DoomFiles;
+import org.doommanager.editor.file.LumpHasher;
+import org.doommanager.editor.file.MappedFile;
+
+/**
+ * Watches open files for changes made by other programs, like a map editor
+ * saving the wad that is open here. One WatchService is shared by every
+ * watched file, with a key per folder.
+ * 
+ * Tools often write a file in many small pieces, so every event only pushes
+ * the reload back until the file has been quiet for a while, which turns a
+ * burst of events into a single reload. A reload maps the file again, which
+ * only parses the directory, and diffs it against the directory and hashes of
+ * the file that was open, so the listener is told exactly which lumps to
+ * reload. Since the old mapping already shows the new contents at that point,
+ * the hashes of the old file are taken when it starts being watched. Every
+ * lump is hashed again on a reload, since a tool may write new data of the
+ * same size in the same place and nothing else shows that it changed.
+ */
+public class ArchiveWatcher implements Disposable {
+
+	/**
+	 * How long a file has to be left alone before it is reloaded, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_QUIET_PERIOD = 300;
+
+	/**
+	 * The service that reports changes in the watched folders.
+	 */
+	private final WatchService watchService;
+
+	/**
+	 * The watched files by absolute normalized path.
+	 */
+	private final Map<Path, WatchedArchive> archives;
+
+	/**
+	 * The watch keys of the folders with watched files in them.
+	 */
+	private final Map<Path, WatchKey> directories;
+
+	/**
+	 * The thread that runs the delayed reloads one at a time.
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * The thread that waits for events from the watch service.
+	 */
+	private final Thread eventThread;
+
+	/**
+	 * How long a file has to be quiet before it is reloaded.
+	 */
+	private volatile long quietPeriod;
+
+	/**
+	 * If the watcher was disposed.
+	 */
+	private volatile boolean disposed;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(ArchiveWatcher.class.getName());
+
+	/**
+	 * The watcher shared by the views, created when it is first needed.
+	 */
+	private static ArchiveWatcher defaultWatcher;
+
+	/**
+	 * Creates a watcher and starts its threads. Both are daemon threads.
+	 * 
+	 * @throws IOException
+	 * 		If the file system cannot watch for changes.
+	 */
+	public ArchiveWatcher() throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.archives = new ConcurrentHashMap<>();
+		this.directories = new HashMap<>();
+		this.quietPeriod = DEFAULT_QUIET_PERIOD;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ArchiveWatcher reload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.eventThread = new Thread(this::processEvents, "ArchiveWatcher events");
+		this.eventThread.setDaemon(true);
+		this.eventThread.start();
+	}
+
+	/**
+	 * Gets the watcher shared by the views.
+	 * 
+	 * @return
+	 * 		The shared watcher.
+	 * 
+	 * @throws IOException
+	 * 		If the file system cannot watch for changes.
+	 */
+	public static synchronized ArchiveWatcher getDefault() throws IOException {
+		if (defaultWatcher == null)
+			defaultWatcher = new ArchiveWatcher();
+		return defaultWatcher;
+	}
+
+	/**
+	 * Sets how long a file has to be left alone after its last change before
+	 * it is reloaded.
+	 * 
+	 * @param quietPeriod
+	 * 		The time in milliseconds.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the time is negative.
+	 */
+	public void setQuietPeriod(long quietPeriod) {
+		if (quietPeriod < 0)
+			throw new IllegalArgumentException("The quiet period cannot be negative.");
+		this.quietPeriod = quietPeriod;
+	}
+
+	/**
+	 * Starts watching a file. Every lump is hashed first, so this should be
+	 * called off the GUI thread for large wads.
+	 * 
+	 * @param file
+	 * 		The open file to watch.
+	 * 
+	 * @param listener
+	 * 		Where changes to the file are reported.
+	 * 
+	 * @throws NullPointerException
+	 * 		If either argument is null.
+	 * 
+	 * @throws IOException
+	 * 		If the folder of the file cannot be watched.
+	 */
+	public void watch(MappedFile file, ArchiveWatchListener listener) throws IOException {
+		if (file == null || listener == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to ArchiveWatcher watch.");
+			log.log(Level.SEVERE, "ArchiveWatcher argument is null", e);
+			throw e;
+		}
+		watch(file, LumpHasher.hashAll(file), listener);
+	}
+
+	/**
+	 * Starts watching a file with hashes that are already known, for example
+	 * from the index cache.
+	 * 
+	 * @param file
+	 * 		The open file to watch.
+	 * 
+	 * @param hashes
+	 * 		The content hashes of every lump of the file.
+	 * 
+	 * @param listener
+	 * 		Where changes to the file are reported.
+	 * 
+	 * @throws NullPointerException
+	 * 		If any argument is null.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the hashes do not cover every lump.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the watcher was disposed.
+	 * 
+	 * @throws IOException
+	 * 		If the folder of the file cannot be watched.
+	 */
+	public void watch(MappedFile file, long[] hashes, ArchiveWatchListener listener) throws IOException {
+		if (file == null || hashes == null || listener == null) {
+			NullPointerException e = new NullPointerException("Provided a null argument to ArchiveWatcher watch.");
+			log.log(Level.SEVERE, "ArchiveWatcher argument is null", e);
+			throw e;
+		}
+		if (hashes.length != file.getLumps().size())
+			throw new IllegalArgumentException("The hashes do not match the lumps of " + file.getFilePath());
+		if (this.disposed)
+			throw new IllegalStateException("Attempted to watch a file with a disposed ArchiveWatcher.");
+
+		Path path = Paths.get(file.getFilePath()).toAbsolutePath().normalize();
+		WatchedArchive archive = new WatchedArchive(path, file, hashes, listener);
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		archive.size = archive.eventSize = attributes.size();
+		archive.modified = archive.eventModified = attributes.lastModifiedTime();
+		synchronized (this) {
+			Path directory = path.getParent();
+			if (!this.directories.containsKey(directory))
+				this.directories.put(directory, directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+			WatchedArchive previous = this.archives.put(path, archive);
+			if (previous != null)
+				previous.cancel();
+		}
+		log.log(Level.FINE, "Watching " + path);
+	}
+
+	/**
+	 * Stops watching a file. Nothing happens if it is not watched.
+	 * 
+	 * @param file
+	 * 		The file to stop watching.
+	 */
+	public void unwatch(MappedFile file) {
+		if (file == null)
+			return;
+		Path path = Paths.get(file.getFilePath()).toAbsolutePath().normalize();
+		WatchedArchive archive = this.archives.get(path);
+		if (archive != null && archive.file == file)
+			remove(archive);
+	}
+
+	/**
+	 * Checks if a file is watched.
+	 * 
+	 * @param file
+	 * 		The file to check.
+	 * 
+	 * @return
+	 * 		True if changes to the file are reported.
+	 */
+	public boolean isWatched(MappedFile file) {
+		if (file == null)
+			return false;
+		WatchedArchive archive = this.archives.get(Paths.get(file.getFilePath()).toAbsolutePath().normalize());
+		return archive != null && archive.file == file;
+	}
+
+	/**
+	 * Removes a watched file, and the key of its folder if it was the last
+	 * file watched there.
+	 * 
+	 * @param archive
+	 * 		The file to remove.
+	 */
+	private synchronized void remove(WatchedArchive archive) {
+		if (!this.archives.remove(archive.path, archive))
+			return;
+		archive.cancel();
+		Path directory = archive.path.getParent();
+		for (Path path : this.archives.keySet())
+			if (path.getParent().equals(directory))
+				return;
+		WatchKey key = this.directories.remove(directory);
+		if (key != null)
+			key.cancel();
+	}
+
+	/**
+	 * Waits for events and pushes back the reload of every file they are for.
+	 * This runs until the watch service is closed.
+	 */
+	private void processEvents() {
+		while (!this.disposed) {
+			WatchKey key;
+			try {
+				key = this.watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path directory = (Path)key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// Events were lost, so anything in the folder may have changed.
+					for (WatchedArchive archive : this.archives.values())
+						if (archive.path.getParent().equals(directory))
+							changed(archive);
+				} else {
+					WatchedArchive archive = this.archives.get(directory.resolve((Path)event.context()));
+					if (archive != null)
+						changed(archive);
+				}
+			}
+			if (!key.reset()) {
+				// The folder itself is gone, the reloads will find that the files are too.
+				synchronized (this) {
+					this.directories.remove(directory, key);
+				}
+				for (WatchedArchive archive : this.archives.values())
+					if (archive.path.getParent().equals(directory))
+						changed(archive);
+			}
+		}
+	}
+
+	/**
+	 * Notes that a file changed and pushes its reload back by the quiet
+	 * period.
+	 * 
+	 * @param archive
+	 * 		The file that changed.
+	 */
+	private void changed(WatchedArchive archive) {
+		synchronized (archive) {
+			if (archive.pending != null)
+				archive.pending.cancel(false);
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(archive.path, BasicFileAttributes.class);
+				archive.eventSize = attributes.size();
+				archive.eventModified = attributes.lastModifiedTime();
+			} catch (IOException e) {
+				archive.eventSize = -1;
+				archive.eventModified = null;
+			}
+			try {
+				archive.pending = this.scheduler.schedule(() -> reload(archive), this.quietPeriod, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				archive.pending = null;
+			}
+		}
+	}
+
+	/**
+	 * Reloads a file once it has been quiet. If it changed again without an
+	 * event or is cut short while it is read, it is treated as still being
+	 * written and the reload is pushed back again.
+	 * 
+	 * @param archive
+	 * 		The file to reload.
+	 */
+	private void reload(WatchedArchive archive) {
+		if (this.disposed || this.archives.get(archive.path) != archive)
+			return;
+		MappedFile oldFile = archive.file;
+		try {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(archive.path, BasicFileAttributes.class);
+			} catch (NoSuchFileException e) {
+				removed(archive);
+				return;
+			}
+			long size = attributes.size();
+			FileTime modified = attributes.lastModifiedTime();
+			synchronized (archive) {
+				if (size != archive.eventSize || !modified.equals(archive.eventModified)) {
+					changed(archive);
+					return;
+				}
+			}
+			if (size == archive.size && modified.equals(archive.modified))
+				return;
+
+			MappedFile newFile;
+			try {
+				newFile = DoomFiles.open(oldFile.getFilePath());
+			} catch (NoSuchFileException e) {
+				removed(archive);
+				return;
+			}
+			long[] hashes;
+			try {
+				hashes = LumpHasher.hashAll(newFile);
+			} catch (InternalError e) {
+				// The file was truncated under the mapping while it was hashed.
+				newFile.dispose();
+				changed(archive);
+				return;
+			}
+			ArchiveDiff diff = ArchiveDiff.compareDirectories(oldFile, archive.hashes, newFile, hashes);
+			archive.file = newFile;
+			archive.hashes = hashes;
+			archive.size = size;
+			archive.modified = modified;
+			log.log(Level.INFO, "Reloaded " + archive.path + ": " + diff.getChanges().size() + " changed lumps");
+			archive.listener.archiveReloaded(oldFile, newFile, diff);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to reload " + archive.path, e);
+			archive.listener.reloadFailed(oldFile, e);
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "Reloading " + archive.path + " failed", e);
+		}
+	}
+
+	/**
+	 * Stops watching a file that is gone and tells its listener.
+	 * 
+	 * @param archive
+	 * 		The file that was removed.
+	 */
+	private void removed(WatchedArchive archive) {
+		remove(archive);
+		log.log(Level.INFO, archive.path + " was removed");
+		archive.listener.archiveRemoved(archive.file);
+	}
+
+	/**
+	 * Stops both threads and every watch. The watched files are not disposed.
+	 */
+	@Override
+	public void dispose() {
+		this.disposed = true;
+		this.scheduler.shutdownNow();
+		try {
+			this.watchService.close();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to close the watch service", e);
+		}
+		synchronized (this) {
+			this.archives.clear();
+			this.directories.clear();
+		}
+	}
+
+	/**
+	 * The state of a watched file.
+	 */
+	private static class WatchedArchive {
+
+		/**
+		 * The absolute normalized path of the file.
+		 */
+		private final Path path;
+
+		/**
+		 * The listener that is told about changes.
+		 */
+		private final ArchiveWatchListener listener;
+
+		/**
+		 * The file that is currently open.
+		 */
+		private volatile MappedFile file;
+
+		/**
+		 * The content hashes of the open file, taken while it was unchanged.
+		 */
+		private long[] hashes;
+
+		/**
+		 * The size of the file when it was read.
+		 */
+		private long size;
+
+		/**
+		 * The modification time of the file when it was read.
+		 */
+		private FileTime modified;
+
+		/**
+		 * The size of the file at the last event, or -1 if it could not be
+		 * read.
+		 */
+		private long eventSize;
+
+		/**
+		 * The modification time of the file at the last event, or null if it
+		 * could not be read.
+		 */
+		private FileTime eventModified;
+
+		/**
+		 * The reload waiting for the file to be quiet, if any.
+		 */
+		private ScheduledFuture<?> pending;
+
+		/**
+		 * Creates the state of a newly watched file.
+		 * 
+		 * @param path
+		 * 		The absolute normalized path.
+		 * 
+		 * @param file
+		 * 		The open file.
+		 * 
+		 * @param hashes
+		 * 		The content hashes of the open file.
+		 * 
+		 * @param listener
+		 * 		The listener for changes.
+		 */
+		private WatchedArchive(Path path, MappedFile file, long[] hashes, ArchiveWatchListener listener) {
+			this.path = path;
+			this.file = file;
+			this.hashes = hashes;
+			this.listener = listener;
+		}
+
+		/**
+		 * Cancels the waiting reload, if any.
+		 */
+		private synchronized void cancel() {
+			if (this.pending != null)
+				this.pending.cancel(false);
+			this.pending = null;
+		}
+	}
+}
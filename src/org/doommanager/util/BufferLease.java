@@ -0,0 +1,131 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.util;
+
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+
+import org.doommanager.editor.Disposable;
+
+/**
+ * A direct buffer borrowed from a BufferPool. The buffer goes back to the
+ * pool when the lease is disposed, so it must not be used after that. A
+ * lease can also wrap a buffer that is not from a pool, such as a view of a
+ * mapped file, so code that reads lumps can dispose every lease the same way.
+ */
+public class BufferLease implements Disposable {
+
+	/**
+	 * The pool the buffer came from, or null if it is not pooled.
+	 */
+	private final BufferPool pool;
+
+	/**
+	 * The leased buffer, or null once disposed.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * The leak tracker when leak detection is on.
+	 */
+	private Reference<BufferLease> tracker;
+
+	/**
+	 * Creates a lease.
+	 * 
+	 * @param pool
+	 * 		The pool the buffer came from.
+	 * 
+	 * @param buffer
+	 * 		The leased buffer.
+	 */
+	BufferLease(BufferPool pool, ByteBuffer buffer) {
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Wraps a buffer that is not from a pool. Disposing the lease only lets
+	 * go of the buffer.
+	 * 
+	 * @param buffer
+	 * 		The buffer.
+	 * 
+	 * @return
+	 * 		A lease of the buffer.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the buffer is null.
+	 */
+	public static BufferLease wrap(ByteBuffer buffer) {
+		if (buffer == null)
+			throw new NullPointerException("Provided a null buffer to BufferLease.");
+		return new BufferLease(null, buffer);
+	}
+
+	/**
+	 * Sets the leak tracker of the lease.
+	 * 
+	 * @param tracker
+	 * 		The tracker.
+	 */
+	void setTracker(Reference<BufferLease> tracker) {
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Gets the leased buffer.
+	 * 
+	 * @return
+	 * 		The buffer, which is direct and little endian.
+	 * 
+	 * @throws IllegalStateException
+	 * 		If the lease was disposed.
+	 */
+	public ByteBuffer getBuffer() {
+		if (this.buffer == null)
+			throw new IllegalStateException("Attempted to use a disposed buffer lease.");
+		return this.buffer;
+	}
+
+	/**
+	 * Checks if the buffer was given back.
+	 * 
+	 * @return
+	 * 		True if the lease was disposed.
+	 */
+	public boolean isDisposed() {
+		return this.buffer == null;
+	}
+
+	/**
+	 * Gives the buffer back to the pool. Disposing more than once does
+	 * nothing.
+	 */
+	@Override
+	public void dispose() {
+		if (this.buffer == null)
+			return;
+		ByteBuffer released = this.buffer;
+		this.buffer = null;
+		if (this.pool != null)
+			this.pool.release(released, this.tracker);
+		this.tracker = null;
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.util;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of direct buffers for short lived lump data. Buffers are grouped in
+ * power of two size classes, and each thread keeps a few buffers of the small
+ * classes to itself so that most leases never touch shared state. Larger
+ * buffers only go through the shared queues, so every thread, including each
+ * fork join worker, parks well under a megabyte of direct memory. A buffer
+ * is borrowed with lease() and given back by disposing the lease.
+ * 
+ * With leak detection on, every lease remembers where it was made, and a
+ * lease that is garbage collected without being disposed is logged with that
+ * stack trace.
+ */
+public class BufferPool {
+
+	/**
+	 * The smallest size class, as a power of two.
+	 */
+	public static final int MIN_SIZE_SHIFT = 8;
+
+	/**
+	 * The largest size class, as a power of two. Larger leases get a buffer
+	 * that is not pooled.
+	 */
+	public static final int MAX_SIZE_SHIFT = 24;
+
+	/**
+	 * How many buffers of each class a thread keeps for itself.
+	 */
+	private static final int THREAD_CACHE_SIZE = 4;
+
+	/**
+	 * The largest size class a thread keeps buffers of, as a power of two.
+	 * With THREAD_CACHE_SIZE this caps a thread cache at about 512 KB.
+	 */
+	private static final int THREAD_CACHE_MAX_SHIFT = 16;
+
+	/**
+	 * How many bytes of each class the shared pool holds on to at most.
+	 */
+	private static final int SHARED_BYTES_PER_CLASS = 1 << 26;
+
+	/**
+	 * The pool that is used when none is given, with leak detection set from
+	 * the runtime args.
+	 */
+	private static BufferPool sharedPool;
+
+	/**
+	 * The buffers of each size class that any thread can take.
+	 */
+	private final ConcurrentLinkedQueue<ByteBuffer>[] shared;
+
+	/**
+	 * How many buffers each shared queue holds.
+	 */
+	private final AtomicInteger[] sharedCounts;
+
+	/**
+	 * The buffers of each size class kept by the current thread.
+	 */
+	private final ThreadLocal<ThreadCache> threadCache;
+
+	/**
+	 * If leases are tracked to find ones that are never disposed.
+	 */
+	private final boolean leakDetection;
+
+	/**
+	 * The trackers of the leases that are still out, so they stay reachable.
+	 */
+	private final Set<LeakTracker> trackers;
+
+	/**
+	 * Where the trackers of collected leases end up.
+	 */
+	private final ReferenceQueue<BufferLease> collectedLeases;
+
+	/**
+	 * How many leases have not been disposed.
+	 */
+	private final AtomicInteger outstanding;
+
+	/**
+	 * How many buffers were newly allocated.
+	 */
+	private final AtomicLong allocations;
+
+	/**
+	 * How many leases were served by a pooled buffer.
+	 */
+	private final AtomicLong reuses;
+
+	/**
+	 * How many leases were found to be leaked.
+	 */
+	private final AtomicLong leaks;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(BufferPool.class.getName());
+
+	/**
+	 * Creates an empty pool.
+	 * 
+	 * @param leakDetection
+	 * 		If leases should be tracked to find ones that are never disposed.
+	 * 		This records a stack trace per lease, so it is meant for debugging.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(boolean leakDetection) {
+		int classCount = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+		this.shared = new ConcurrentLinkedQueue[classCount];
+		this.sharedCounts = new AtomicInteger[classCount];
+		for (int i = 0; i < classCount; i++) {
+			this.shared[i] = new ConcurrentLinkedQueue<>();
+			this.sharedCounts[i] = new AtomicInteger();
+		}
+		this.threadCache = ThreadLocal.withInitial(() -> new ThreadCache(THREAD_CACHE_MAX_SHIFT - MIN_SIZE_SHIFT + 1));
+		this.leakDetection = leakDetection;
+		this.trackers = ConcurrentHashMap.newKeySet();
+		this.collectedLeases = new ReferenceQueue<>();
+		this.outstanding = new AtomicInteger();
+		this.allocations = new AtomicLong();
+		this.reuses = new AtomicLong();
+		this.leaks = new AtomicLong();
+	}
+
+	/**
+	 * Gets the pool that is shared by the whole program. Leak detection is on
+	 * if the -debugbuffers argument was given.
+	 * 
+	 * @return
+	 * 		The shared pool.
+	 */
+	public static synchronized BufferPool getShared() {
+		if (sharedPool == null)
+			sharedPool = new BufferPool(RuntimeArgsContainer.isBufferLeakDetectionEnabled());
+		return sharedPool;
+	}
+
+	/**
+	 * Finds the size class of a length.
+	 * 
+	 * @param length
+	 * 		The length in bytes.
+	 * 
+	 * @return
+	 * 		The index of the smallest class that fits the length, or -1 if it
+	 * 		is too large to be pooled.
+	 */
+	private static int sizeClass(int length) {
+		if (length > 1 << MAX_SIZE_SHIFT)
+			return -1;
+		int shift = Math.max(MIN_SIZE_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1));
+		return shift - MIN_SIZE_SHIFT;
+	}
+
+	/**
+	 * Borrows a buffer. The contents are whatever the last user left in it.
+	 * 
+	 * @param length
+	 * 		The number of bytes needed.
+	 * 
+	 * @return
+	 * 		A lease of a little endian direct buffer positioned at zero and
+	 * 		limited to the length.
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the length is negative.
+	 */
+	public BufferLease lease(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("Attempted to lease a buffer of negative length: " + length);
+		if (this.leakDetection)
+			reportLeaks();
+
+		int sizeClass = sizeClass(length);
+		ByteBuffer buffer = null;
+		if (sizeClass >= 0) {
+			buffer = this.threadCache.get().take(sizeClass);
+			if (buffer == null) {
+				buffer = this.shared[sizeClass].poll();
+				if (buffer != null)
+					this.sharedCounts[sizeClass].decrementAndGet();
+			}
+		}
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? 1 << (sizeClass + MIN_SIZE_SHIFT) : length);
+			this.allocations.incrementAndGet();
+		} else {
+			this.reuses.incrementAndGet();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.limit(length);
+		this.outstanding.incrementAndGet();
+
+		BufferLease lease = new BufferLease(this, buffer);
+		if (this.leakDetection) {
+			LeakTracker tracker = new LeakTracker(lease, this.collectedLeases);
+			this.trackers.add(tracker);
+			lease.setTracker(tracker);
+		}
+		return lease;
+	}
+
+	/**
+	 * Takes a buffer back from a disposed lease.
+	 * 
+	 * @param buffer
+	 * 		The buffer of the lease.
+	 * 
+	 * @param tracker
+	 * 		The leak tracker of the lease, or null if there is none.
+	 */
+	void release(ByteBuffer buffer, Reference<BufferLease> tracker) {
+		if (tracker != null) {
+			this.trackers.remove(tracker);
+			tracker.clear();
+		}
+		this.outstanding.decrementAndGet();
+
+		int capacity = buffer.capacity();
+		if (Integer.bitCount(capacity) != 1 || capacity < 1 << MIN_SIZE_SHIFT || capacity > 1 << MAX_SIZE_SHIFT)
+			return;
+		int sizeClass = Integer.numberOfTrailingZeros(capacity) - MIN_SIZE_SHIFT;
+		buffer.clear();
+		if (this.threadCache.get().give(sizeClass, buffer))
+			return;
+		if (this.sharedCounts[sizeClass].incrementAndGet() <= Math.max(2, SHARED_BYTES_PER_CLASS / capacity))
+			this.shared[sizeClass].offer(buffer);
+		else
+			this.sharedCounts[sizeClass].decrementAndGet();
+	}
+
+	/**
+	 * Logs every lease that was collected without being disposed since the
+	 * last check. This is done on every lease when leak detection is on.
+	 * 
+	 * @return
+	 * 		The number of leaks found.
+	 */
+	public int reportLeaks() {
+		int found = 0;
+		Reference<? extends BufferLease> collected;
+		while ((collected = this.collectedLeases.poll()) != null) {
+			LeakTracker tracker = (LeakTracker)collected;
+			if (this.trackers.remove(tracker)) {
+				this.outstanding.decrementAndGet();
+				this.leaks.incrementAndGet();
+				found++;
+				log.log(Level.WARNING, "A buffer lease was never disposed", tracker.allocation);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets how many leases are out. Leases that were leaked only stop
+	 * counting once they are found by reportLeaks().
+	 * 
+	 * @return
+	 * 		The number of leases that were not disposed.
+	 */
+	public int getOutstandingLeases() {
+		return this.outstanding.get();
+	}
+
+	/**
+	 * Gets how many buffers the pool had to allocate.
+	 * 
+	 * @return
+	 * 		The number of direct buffers created.
+	 */
+	public long getAllocationCount() {
+		return this.allocations.get();
+	}
+
+	/**
+	 * Gets how many leases were served without allocating.
+	 * 
+	 * @return
+	 * 		The number of leases that reused a pooled buffer.
+	 */
+	public long getReuseCount() {
+		return this.reuses.get();
+	}
+
+	/**
+	 * Gets how many leaks have been found.
+	 * 
+	 * @return
+	 * 		The number of leases collected without being disposed.
+	 */
+	public long getLeakCount() {
+		return this.leaks.get();
+	}
+
+	/**
+	 * The buffers that one thread keeps for itself, as a small stack per size
+	 * class.
+	 */
+	private static class ThreadCache {
+
+		/**
+		 * The cached buffers by size class.
+		 */
+		private final ByteBuffer[][] buffers;
+
+		/**
+		 * How many buffers of each class are cached.
+		 */
+		private final int[] counts;
+
+		/**
+		 * Creates an empty cache.
+		 * 
+		 * @param classCount
+		 * 		The number of size classes to cache, from the smallest up.
+		 */
+		private ThreadCache(int classCount) {
+			this.buffers = new ByteBuffer[classCount][THREAD_CACHE_SIZE];
+			this.counts = new int[classCount];
+		}
+
+		/**
+		 * Takes a cached buffer.
+		 * 
+		 * @param sizeClass
+		 * 		The size class.
+		 * 
+		 * @return
+		 * 		A buffer, or null if none of the class are cached.
+		 */
+		private ByteBuffer take(int sizeClass) {
+			if (sizeClass >= this.counts.length || this.counts[sizeClass] == 0)
+				return null;
+			int index = --this.counts[sizeClass];
+			ByteBuffer buffer = this.buffers[sizeClass][index];
+			this.buffers[sizeClass][index] = null;
+			return buffer;
+		}
+
+		/**
+		 * Caches a buffer if there is room.
+		 * 
+		 * @param sizeClass
+		 * 		The size class.
+		 * 
+		 * @param buffer
+		 * 		The buffer to cache.
+		 * 
+		 * @return
+		 * 		True if it was cached, false if the cache for the class is full
+		 * 		or the class is too large to be cached per thread.
+		 */
+		private boolean give(int sizeClass, ByteBuffer buffer) {
+			if (sizeClass >= this.counts.length || this.counts[sizeClass] == THREAD_CACHE_SIZE)
+				return false;
+			this.buffers[sizeClass][this.counts[sizeClass]++] = buffer;
+			return true;
+		}
+	}
+
+	/**
+	 * Notices when a lease is collected. The tracker is removed and cleared
+	 * when the lease is disposed, so any tracker that is still registered when
+	 * it comes out of the reference queue belongs to a leaked lease.
+	 */
+	static class LeakTracker extends PhantomReference<BufferLease> {
+
+		/**
+		 * Where the lease was made.
+		 */
+		private final Throwable allocation;
+
+		/**
+		 * Creates a tracker for a new lease.
+		 * 
+		 * @param lease
+		 * 		The lease to track.
+		 * 
+		 * @param queue
+		 * 		The queue the tracker is put on once the lease is collected.
+		 */
+		private LeakTracker(BufferLease lease, ReferenceQueue<BufferLease> queue) {
+			super(lease, queue);
+			this.allocation = new Throwable("Buffer lease made here");
+		}
+	}
+}
@@ -18,7 +18,9 @@
 
 package org.doommanager.util;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,13 +29,22 @@ import java.util.logging.Logger;
  * primitive types from the data in a simple manner. Supports all the basic
  * signed/unsigned primitives, and String/null-terminated String reading. This
  * class throws runtime exceptions through various methods.
+ * 
+ * The data can be an array or any ByteBuffer, such as a view into a memory
+ * mapped file. A slice of a ByteHandler shares the same data without copying
+ * it, but has its own marker and order.
+ * 
+ * Data that is writable, like an array, can also be filled in with the put
+ * methods, which write at the marker and advance it the same way the read
+ * methods do.
  */
 public class ByteHandler {
 	
 	/**
-	 * The raw data that makes up this ByteHandler.
+	 * The raw data that makes up this ByteHandler. Index zero is the start of
+	 * the data and the limit is its length.
 	 */
-	private byte[] data;
+	private final ByteBuffer data;
 	
 	/**
 	 * The order of the data.
@@ -77,17 +88,73 @@ public class ByteHandler {
 		}
 		this.marker = 0;
 		this.order = order;
-		this.data = data;
+		this.data = ByteBuffer.wrap(data).order(order);
+	}
+	
+	/**
+	 * Constructs a ByteHandler that reads the data of a buffer from its
+	 * position to its limit. This does not copy any data, and changes to the
+	 * position or order of the provided buffer do not affect this object.
+	 * 
+	 * @param data
+	 * 		The data to allow operations on.
+	 * 
+	 * @param order
+	 * 		The byte order of the data.
+	 * 
+	 * @throws NullPointerException
+	 * 		If an argument provided is null.
+	 */
+	public ByteHandler(ByteBuffer data, ByteOrder order) {
+		if (data == null) {
+			NullPointerException e = new NullPointerException("Provided a null byte buffer to ByteHandler.");
+			log.log(Level.SEVERE, "ByteHandler data is null", e);
+			throw e;
+		}
+		if (order == null) {
+			NullPointerException e = new NullPointerException("Provided a null byte order type to ByteHandler.");
+			log.log(Level.SEVERE, "ByteHandler order is null", e);
+			throw e;
+		}
+		this.marker = 0;
+		this.order = order;
+		this.data = data.slice().order(order);
+	}
+	
+	/**
+	 * Creates a view of part of the data. The view shares the data with this
+	 * object, so nothing is copied. It starts with its marker at zero and the
+	 * same order as this object, but both can be changed independently.
+	 * 
+	 * @param offset
+	 * 		The index in this object where the view begins.
+	 * 
+	 * @param length
+	 * 		The number of bytes in the view.
+	 * 
+	 * @return
+	 * 		A ByteHandler over the range.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the range is not within the data.
+	 */
+	public ByteHandler slice(int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > this.data.limit())
+			throw new IndexOutOfBoundsException("Attempted to slice a ByteHandler past its data length or with a negative range.");
+		ByteBuffer view = this.data.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return new ByteHandler(view, this.order);
 	}
 	
 	/**
 	 * Gets how many bytes in length the data is.
 	 *  
 	 * @return
-	 * 		The number of bytes in the data array.
+	 * 		The number of bytes in the data.
 	 */
 	public int size() {
-		return this.data.length;
+		return this.data.limit();
 	}
 	
 	/**
@@ -103,6 +170,7 @@ public class ByteHandler {
 		if (order == null)
 			throw new NullPointerException("Attempted to change ByteHandler order to null.");
 		this.order = order;
+		this.data.order(order);
 	}
 	
 	/**
@@ -124,13 +192,13 @@ public class ByteHandler {
 	 * 		the array size. If the value is greater than the array size, an
 	 * 		exception will be thrown. Negative values are not allowed.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the index is greater than the size of the byte array or 
 	 * 		negative.
 	 */
 	public void setMarkerLocation(int index) {
-		if (index > this.data.length || index < 0)
-			throw new ArrayIndexOutOfBoundsException("Attempted to set location on ByteHandler past the array length or negative.");
+		if (index > this.data.limit() || index < 0)
+			throw new IndexOutOfBoundsException("Attempted to set location on ByteHandler past the data length or negative.");
 		this.marker = index;
 	}
 	
@@ -147,11 +215,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The byte next in line from the marker.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the marker is past the length of the array.
 	 */
 	public byte getByte() {
-		byte b = this.data[this.marker];
+		byte b = this.data.get(this.marker);
 		this.marker++;
 		return b;
 	}
@@ -165,11 +233,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The byte at the specified index.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the index is invalid (too large or negative).
 	 */
 	public byte getByte(int index) {
-		return this.data[index];
+		return this.data.get(index);
 	}
 	
 	/**
@@ -179,11 +247,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The unsigned byte next in line from the marker.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the marker is past the length of the array.
 	 */
 	public short getByteUnsigned() {
-		short b = (short)(this.data[this.marker] & 0x00FF);
+		short b = (short)(this.data.get(this.marker) & 0x00FF);
 		this.marker++;
 		return b;
 	}
@@ -198,11 +266,11 @@ public class ByteHandler {
 	 * 		The short at the specified index as a short to encompass the full
 	 * 		range of an unsigned byte.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the index is invalid (too large or negative).
 	 */
 	public short getByteUnsigned(int index) {
-		return (short)(this.data[index] & 0x00FF);
+		return (short)(this.data.get(index) & 0x00FF);
 	}
 	
 	/**
@@ -220,14 +288,18 @@ public class ByteHandler {
 	 */
 	public byte[] getBytes(int length) {
 		byte[] newData = new byte[length];
-		System.arraycopy(this.data, this.marker, newData, 0, length);
+		copyBytes(this.marker, newData);
 		this.marker += length;
 		return newData;
 	}
 	
 	/**
-	 * Creates a copy of the bytes of the specified length and returns that new
-	 * copy.
+	 * Creates a copy of the bytes of the specified length at the index and
+	 * returns that new copy. This does not advance the marker. Use slice() to
+	 * read a range without copying it.
+	 * 
+	 * @param index
+	 * 		The index to copy from.
 	 * 
 	 * @param length
 	 * 		The length of bytes to copy into a new array.
@@ -236,30 +308,83 @@ public class ByteHandler {
 	 * 		A fully copied array.
 	 * 
 	 * @throws IndexOutOfBoundsException
-	 * 		If the length overshoots the array size.
+	 * 		If the index and length overshoot the data size.
 	 */
 	public byte[] getBytes(int index, int length) {
-		if (index + length > this.data.length)
+		if (index < 0 || length < 0 || index + length > this.data.limit())
 			throw new IndexOutOfBoundsException("ByteHandler getBytes was passed an index and length that would go out of bounds.");
 		byte[] newData = new byte[length];
-		System.arraycopy(this.data, this.marker, newData, 0, length);
-		this.marker += length;
+		copyBytes(index, newData);
 		return newData;
 	}
 	
+	/**
+	 * Copies bytes from the data into an array.
+	 * 
+	 * @param index
+	 * 		The index to copy from.
+	 * 
+	 * @param destination
+	 * 		The array to fill completely.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the range overshoots the data.
+	 */
+	private void copyBytes(int index, byte[] destination) {
+		ByteBuffer source = this.data.duplicate();
+		source.position(index);
+		source.get(destination);
+	}
+	
+	/**
+	 * Copies the bytes of the specified length into a pooled buffer instead
+	 * of a new array. The lease must be disposed once the data is no longer
+	 * needed.
+	 * 
+	 * @param pool
+	 * 		The pool to lease the buffer from.
+	 * 
+	 * @param length
+	 * 		The length of bytes to copy.
+	 * 
+	 * @return
+	 * 		A lease of a buffer holding the bytes, positioned at zero and
+	 * 		using the order of this ByteHandler.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the pool is null.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the length overshoots the array size.
+	 */
+	public BufferLease getBytes(BufferPool pool, int length) {
+		if (pool == null)
+			throw new NullPointerException("Provided a null pool to ByteHandler getBytes.");
+		if (length < 0 || this.marker + length > this.data.limit())
+			throw new IndexOutOfBoundsException("ByteHandler getBytes was passed a length that would go out of bounds.");
+		BufferLease lease = pool.lease(length);
+		ByteBuffer buffer = lease.getBuffer();
+		ByteBuffer source = this.data.duplicate();
+		source.position(this.marker);
+		source.limit(this.marker + length);
+		buffer.put(source);
+		buffer.flip();
+		buffer.order(this.order);
+		this.marker += length;
+		return lease;
+	}
+	
 	/**
 	 * Reads a short at the marker.
 	 * 
 	 * @return
 	 * 		The short next in line from the marker.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the marker is past the length of the array.
 	 */
 	public short getShort() {
-		short s = (short)(this.order == ByteOrder.BIG_ENDIAN ? 
-					(((this.data[this.marker] & 0xFF) << 8) + (this.data[this.marker + 1] & 0xFF)) : 
-					(((this.data[this.marker] & 0xFF) + ((this.data[this.marker + 1] & 0xFF) << 8))));
+		short s = this.data.getShort(this.marker);
 		this.marker += 2;
 		return s;
 	}
@@ -273,13 +398,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The short at the specified index.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the index is invalid (too large or negative).
 	 */
 	public short getShort(int index) {
-		return (short)(this.order == ByteOrder.BIG_ENDIAN ? 
-				(((this.data[index] & 0xFF) << 8) + (this.data[index + 1] & 0xFF)) : 
-				(((this.data[index] & 0xFF) + ((this.data[index + 1] & 0xFF) << 8))));
+		return this.data.getShort(index);
 	}
 	
 	/**
@@ -289,13 +412,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The unsigned short next in line from the marker.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the marker is past the length of the array.
 	 */
 	public int getShortUnsigned() {
-		int i = (this.order == ByteOrder.BIG_ENDIAN ? 
-				(((this.data[this.marker] & 0xFF) << 8) + (this.data[this.marker + 1] & 0xFF)) : 
-				(((this.data[this.marker] & 0xFF) + ((this.data[this.marker + 1] & 0xFF) << 8))));
+		int i = this.data.getShort(this.marker) & 0xFFFF;
 		this.marker += 2;
 		return i;
 	}
@@ -310,13 +431,11 @@ public class ByteHandler {
 	 * 		The short at the specified index as a short to encompass the full
 	 * 		range of an unsigned byte.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the index is invalid (too large or negative).
 	 */
 	public int getShortUnsigned(int index) {
-		return (this.order == ByteOrder.BIG_ENDIAN ? 
-				(((this.data[this.marker] & 0xFF) << 8) + (this.data[this.marker + 1] & 0xFF)) : 
-				(((this.data[this.marker] & 0xFF) + ((this.data[this.marker + 1] & 0xFF) << 8))));
+		return this.data.getShort(index) & 0xFFFF;
 	}
 	
 	/**
@@ -325,13 +444,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The int next in line from the marker.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the marker is past the length of the array.
 	 */
 	public int getInt() {
-		int i = (this.order == ByteOrder.BIG_ENDIAN ? 
-					(((this.data[this.marker] & 0xFF) << 24) + ((this.data[this.marker + 1] & 0xFF) << 16) + ((this.data[this.marker + 2] & 0xFF) << 8) + (this.data[this.marker + 3] & 0xFF)) : 
-					((this.data[this.marker] & 0xFF) + ((this.data[this.marker + 1] & 0xFF) << 8) + ((this.data[this.marker + 2] & 0xFF) << 16) + (((this.data[this.marker + 3] & 0xFF) << 24))));
+		int i = this.data.getInt(this.marker);
 		this.marker += 4;
 		return i;
 	}
@@ -343,13 +460,11 @@ public class ByteHandler {
 	 * @return
 	 * 		The unsigned int next in line from the marker.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the marker is past the length of the array.
 	 */
 	public long getIntUnsigned() {
-		long l = (long)(this.order == ByteOrder.BIG_ENDIAN ? 
-						(((this.data[this.marker] & 0xFFL) << 24) + ((this.data[this.marker + 1] & 0xFFL) << 16) + ((this.data[this.marker + 2] & 0xFFL) << 8) + (this.data[this.marker + 3] & 0xFFL)) : 
-						((this.data[this.marker] & 0xFFL) + ((this.data[this.marker + 1] & 0xFFL) << 8) + ((this.data[this.marker + 2] & 0xFFL) << 16) + (((this.data[this.marker + 3] & 0xFFL) << 24))));
+		long l = this.data.getInt(this.marker) & 0xFFFFFFFFL;
 		this.marker += 4;
 		return l;
 	}
@@ -364,13 +479,11 @@ public class ByteHandler {
 	 * 		The int at the specified index as a short to encompass the full
 	 * 		range of an unsigned byte.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the index is invalid (too large or negative).
 	 */
 	public long getIntUnsigned(int index) {
-		return (long)(this.order == ByteOrder.BIG_ENDIAN ? 
-						(((this.data[this.marker] & 0xFFL) << 24) + ((this.data[this.marker + 1] & 0xFFL) << 16) + ((this.data[this.marker + 2] & 0xFFL) << 8) + (this.data[this.marker + 3] & 0xFFL)) : 
-						((this.data[this.marker] & 0xFFL) + ((this.data[this.marker + 1] & 0xFFL) << 8) + ((this.data[this.marker + 2] & 0xFFL) << 16) + (((this.data[this.marker + 3] & 0xFFL) << 24))));
+		return this.data.getInt(index) & 0xFFFFFFFFL;
 	}
 	
 	/**
@@ -382,16 +495,16 @@ public class ByteHandler {
 	 * @return
 	 * 		The string from the marker to the length.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the length would overshoot the data bounds.
 	 */
 	public String getString(int length) {
-		if (this.marker + length > this.data.length)
-			throw new ArrayIndexOutOfBoundsException("Attempted to get a String length that runs past the array end.");
-		String returnStr = "";
+		if (this.marker + length > this.data.limit())
+			throw new IndexOutOfBoundsException("Attempted to get a String length that runs past the data end.");
+		StringBuilder builder = new StringBuilder(length);
 		for (int i = this.marker; i < this.marker + length; i++)
-			returnStr += (char)this.data[i];
-		return returnStr;
+			builder.append((char)this.data.get(i));
+		return builder.toString();
 	}
 	
 	/**
@@ -401,18 +514,18 @@ public class ByteHandler {
 	 * @return
 	 * 		A string of characters without the null.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If there was no null terminator and the reader goes out of bounds.
 	 */
 	public String getStringNullTerminated() {
 		int index = this.marker;
-		String returnStr = "";
-		while (this.data[index] != 0) {
-			returnStr += (char)this.data[index];
+		StringBuilder builder = new StringBuilder();
+		while (this.data.get(index) != 0) {
+			builder.append((char)this.data.get(index));
 			index++;
 		}
-		this.marker += index + 1;
-		return returnStr;
+		this.marker = index + 1;
+		return builder.toString();
 	}
 	
 	/**
@@ -427,13 +540,159 @@ public class ByteHandler {
 	 * @return
 	 * 		The String with no null characters.
 	 * 
-	 * @throws ArrayIndexOutOfBoundsException
+	 * @throws IndexOutOfBoundsException
 	 * 		If the length is invalid.
 	 */
 	public String getStringWithNoNull(int length) {
-		String returnStr = "";
-		for (int i = this.marker; i < this.marker + length && this.data[i] != 0; i++)
-			returnStr += (char)this.data[i];
-		return returnStr;
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = this.marker; i < this.marker + length && this.data.get(i) != 0; i++)
+			builder.append((char)this.data.get(i));
+		return builder.toString();
+	}
+	
+	/**
+	 * Writes a byte at the marker.
+	 * 
+	 * @param value
+	 * 		The byte to write. Only the low 8 bits are used.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the marker is past the length of the array.
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putByte(int value) {
+		this.data.put(this.marker, (byte)value);
+		this.marker++;
+	}
+	
+	/**
+	 * Writes bytes at the marker.
+	 * 
+	 * @param values
+	 * 		The bytes to write.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the bytes would overshoot the data size.
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putBytes(byte[] values) {
+		putBytes(values, 0, values.length);
+	}
+	
+	/**
+	 * Writes part of an array at the marker.
+	 * 
+	 * @param values
+	 * 		The array to write from.
+	 * 
+	 * @param offset
+	 * 		The first byte of the array to write.
+	 * 
+	 * @param length
+	 * 		The number of bytes to write.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the range is not within the array or would overshoot the data
+	 * 		size.
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putBytes(byte[] values, int offset, int length) {
+		if (length < 0 || this.marker + length > this.data.limit())
+			throw new IndexOutOfBoundsException("ByteHandler putBytes was passed a length that would go out of bounds.");
+		ByteBuffer target = this.data.duplicate();
+		target.position(this.marker);
+		target.put(values, offset, length);
+		this.marker += length;
+	}
+	
+	/**
+	 * Writes a short at the marker.
+	 * 
+	 * @param value
+	 * 		The short to write. Only the low 16 bits are used, so unsigned
+	 * 		values can be passed as well.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the marker is past the length of the array.
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putShort(int value) {
+		this.data.putShort(this.marker, (short)value);
+		this.marker += 2;
+	}
+	
+	/**
+	 * Writes a short at the index. This does not advance the marker.
+	 * 
+	 * @param index
+	 * 		The index to write the data to.
+	 * 
+	 * @param value
+	 * 		The short to write. Only the low 16 bits are used.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the index is invalid (too large or negative).
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putShort(int index, int value) {
+		this.data.putShort(index, (short)value);
+	}
+	
+	/**
+	 * Writes an int at the marker.
+	 * 
+	 * @param value
+	 * 		The int to write.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the marker is past the length of the array.
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putInt(int value) {
+		this.data.putInt(this.marker, value);
+		this.marker += 4;
+	}
+	
+	/**
+	 * Writes an int at the index. This does not advance the marker.
+	 * 
+	 * @param index
+	 * 		The index to write the data to.
+	 * 
+	 * @param value
+	 * 		The int to write.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 * 		If the index is invalid (too large or negative).
+	 * 
+	 * @throws ReadOnlyBufferException
+	 * 		If the data is read-only.
+	 */
+	public void putInt(int index, int value) {
+		this.data.putInt(index, value);
+	}
+	
+	/**
+	 * Gets a view of all the data. Writes through this object show up in
+	 * the view.
+	 * 
+	 * @return
+	 * 		A buffer over the data, positioned at zero and using the order of
+	 * 		this object.
+	 */
+	public ByteBuffer getBuffer() {
+		return this.data.duplicate().order(this.order);
 	}
 }
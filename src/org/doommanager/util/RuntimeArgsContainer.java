@@ -18,6 +18,7 @@
 
 package org.doommanager.util;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -54,6 +55,29 @@ public class RuntimeArgsContainer {
 	 */
 	private static boolean errorOutIfLogGenerationFailure = false;
 	
+	/**
+	 * The folder where the index cache of opened files is kept. By default it
+	 * is in the .doommanager folder of the user home directory.
+	 */
+	private static String indexCacheLocation = System.getProperty("user.home") + File.separator + ".doommanager" + File.separator + "cache" + File.separator;
+	
+	/**
+	 * The folder where markers of saves in progress are kept, so that saves
+	 * cut off by a crash can be cleaned up on the next start.
+	 */
+	private static String saveJournalLocation = System.getProperty("user.home") + File.separator + ".doommanager" + File.separator + "saves" + File.separator;
+	
+	/**
+	 * Signifies that the index cache should be used when opening files.
+	 */
+	private static boolean indexCacheEnabled = true;
+	
+	/**
+	 * Signifies that pooled buffers should be checked for leases that are
+	 * never given back.
+	 */
+	private static boolean bufferLeakDetectionEnabled = false;
+	
 	/**
 	 * The logger for this class.
 	 */
@@ -139,6 +163,33 @@ public class RuntimeArgsContainer {
 					log.log(Level.INFO, "Set exit instruction if log file cannot be written to");
 					break;
 				
+				case "indexcache":
+					// Prevent overshooting into an invalid index, or any argument that most likely is a switch argument.
+					if (i + 1 >= arguments.size()) {
+						log.log(Level.WARNING, "Missing argument after " + arguments.get(i));
+						return;
+					} else if (arguments.get(i + 1).startsWith("-")) {
+						log.log(Level.WARNING, "Missing argument after " + arguments.get(i) + ", found command instead");
+						break;
+					}
+					String cachePath = arguments.get(i + 1);
+					if (!cachePath.endsWith("\\") && !cachePath.endsWith("/"))
+						cachePath += File.separator;
+					log.log(Level.INFO, "Set index cache path to: " + cachePath);
+					indexCacheLocation = cachePath;
+					i++; // Move past the processed argument, since we've already read ahead.
+					break;
+				
+				case "noindexcache":
+					indexCacheEnabled = false;
+					log.log(Level.INFO, "Disabled the index cache");
+					break;
+				
+				case "debugbuffers":
+					bufferLeakDetectionEnabled = true;
+					log.log(Level.INFO, "Enabled buffer leak detection");
+					break;
+				
 				default:
 					log.log(Level.WARNING, "Unexpected parameter: " + arguments.get(i));
 					break;
@@ -211,4 +262,44 @@ public class RuntimeArgsContainer {
 	public static boolean exitIfLogGenerationFails() {
 		return errorOutIfLogGenerationFailure;
 	}
+	
+	/**
+	 * Gets the folder of the index cache.
+	 * 
+	 * @return
+	 * 		The path of the cache folder, ending with a separator.
+	 */
+	public static String getIndexCacheLocation() {
+		return indexCacheLocation;
+	}
+	
+	/**
+	 * Gets the folder of the save journal.
+	 * 
+	 * @return
+	 * 		The path of the journal folder, ending with a separator.
+	 */
+	public static String getSaveJournalLocation() {
+		return saveJournalLocation;
+	}
+	
+	/**
+	 * Checks if the index cache should be used.
+	 * 
+	 * @return
+	 * 		True if it should be used (default), false if it was disabled.
+	 */
+	public static boolean isIndexCacheEnabled() {
+		return indexCacheEnabled;
+	}
+	
+	/**
+	 * Checks if pooled buffer leases should be tracked for leaks.
+	 * 
+	 * @return
+	 * 		True if leak detection was enabled, false if not (default).
+	 */
+	public static boolean isBufferLeakDetectionEnabled() {
+		return bufferLeakDetectionEnabled;
+	}
 }
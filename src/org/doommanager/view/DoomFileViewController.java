@@ -18,6 +18,343 @@
 
 package org.doommanager.view;
 
-public class DoomFileViewController {
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.doommanager.editor.diff.ArchiveDiff;
+import org.doommanager.editor.file.DoomFile;
+import org.doommanager.editor.file.MappedFile;
+import org.doommanager.editor.graphics.ImageCache;
+import org.doommanager.editor.graphics.Palette;
+import org.doommanager.editor.graphics.SpriteAnimation;
+import org.doommanager.editor.graphics.SpriteIndex;
+import org.doommanager.editor.map.MapGeometry;
+import org.doommanager.editor.map.MapReference;
+import org.doommanager.editor.map.MapSpatialIndex;
+import org.doommanager.editor.search.SearchEngine;
+import org.doommanager.editor.search.SearchQuery;
+import org.doommanager.editor.search.SearchResult;
+import org.doommanager.editor.search.TrigramIndex;
+import org.doommanager.editor.watch.ArchiveWatchListener;
+import org.doommanager.editor.watch.ArchiveWatcher;
+
+import javafx.application.Platform;
+import javafx.fxml.FXML;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.AnchorPane;
+
+public class DoomFileViewController implements ArchiveWatchListener {
+
+	@FXML
+	private ListView<MapReference> mapList;
+	
+	@FXML
+	private ListView<String> spriteList;
+	
+	@FXML
+	private TabPane listTabs;
+	
+	@FXML
+	private TextField searchField;
+	
+	@FXML
+	private ListView<SearchResult> searchResults;
+	
+	@FXML
+	private AnchorPane mapContainer;
+	
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger log = Logger.getLogger(DoomFileViewController.class.getName());
+	
+	/**
+	 * Draws the selected map.
+	 */
+	private MapCanvas mapCanvas;
+	
+	/**
+	 * Plays the selected sprite.
+	 */
+	private SpriteCanvas spriteCanvas;
+	
+	/**
+	 * The sprites of the file, or null until they are indexed.
+	 */
+	private SpriteIndex spriteIndex;
+	
+	/**
+	 * The palette of the file, or null if it has none.
+	 */
+	private Palette palette;
+	
+	/**
+	 * The file this view shows, or null until it is set.
+	 */
+	private DoomFile doomFile;
+	
+	/**
+	 * Searches the file, skipping lumps through the search index when the
+	 * index cache is enabled.
+	 */
+	private SearchEngine searchEngine;
+	
+	/**
+	 * Runs one search at a time, so a new search starts once the cancelled
+	 * one is over.
+	 */
+	private ExecutorService searchExecutor;
+	
+	/**
+	 * Counts the searches started, so results of a cancelled search that
+	 * arrive late are dropped.
+	 */
+	private final AtomicInteger searchCount = new AtomicInteger();
+	
+	/**
+	 * Initializes the object from FXML's loading.
+	 */
+	public void initialize() {
+		this.mapCanvas = new MapCanvas();
+		this.mapCanvas.widthProperty().bind(this.mapContainer.widthProperty());
+		this.mapCanvas.heightProperty().bind(this.mapContainer.heightProperty());
+		this.spriteCanvas = new SpriteCanvas();
+		this.spriteCanvas.widthProperty().bind(this.mapContainer.widthProperty());
+		this.spriteCanvas.heightProperty().bind(this.mapContainer.heightProperty());
+		this.spriteCanvas.setVisible(false);
+		this.mapContainer.getChildren().addAll(this.mapCanvas, this.spriteCanvas);
+		this.mapList.getSelectionModel().selectedItemProperty().addListener((observable, oldMap, newMap) -> showMap(newMap));
+		this.spriteList.getSelectionModel().selectedItemProperty().addListener((observable, oldSprite, newSprite) -> showSprite(newSprite));
+		this.listTabs.getSelectionModel().selectedIndexProperty().addListener((observable, oldTab, newTab) -> showTab(newTab.intValue()));
+		this.searchEngine = new SearchEngine();
+		this.searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Search");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.searchExecutor.execute(() -> this.searchEngine.setIndex(TrigramIndex.openDefault()));
+	}
+	
+	/**
+	 * Sets the file this view shows and lists its maps. The file is watched
+	 * for changes made by other programs while it is shown.
+	 * 
+	 * @param file
+	 * 		The file.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the file is null.
+	 */
+	public void setDoomFile(DoomFile file) {
+		if (file == null) {
+			NullPointerException npe = new NullPointerException("Tried setting a null DoomFile on the DoomFileViewController.");
+			log.log(Level.SEVERE, "Tried setting a null DoomFile on the DoomFileViewController", npe);
+			throw npe;
+		}
+		DoomFile previous = this.doomFile;
+		this.doomFile = file;
+		this.mapList.getItems().setAll(MapReference.findMaps(file));
+		this.searchEngine.cancel();
+		this.searchResults.getItems().clear();
+		this.spriteList.getItems().clear();
+		this.spriteIndex = null;
+		loadSprites(file);
+		watch(previous, file);
+	}
+	
+	/**
+	 * Stops watching the file that was shown and starts watching the new
+	 * one. Starting hashes every lump, so it is done on a background thread.
+	 * 
+	 * @param previous
+	 * 		The file that was shown, or null.
+	 * 
+	 * @param file
+	 * 		The file that is shown now.
+	 */
+	private void watch(DoomFile previous, DoomFile file) {
+		ArchiveWatcher watcher;
+		try {
+			watcher = ArchiveWatcher.getDefault();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Unable to watch files for changes", e);
+			return;
+		}
+		if (previous instanceof MappedFile && previous != file)
+			watcher.unwatch((MappedFile)previous);
+		if (!(file instanceof MappedFile) || watcher.isWatched((MappedFile)file))
+			return;
+		MappedFile mappedFile = (MappedFile)file;
+		Thread starter = new Thread(() -> {
+			try {
+				watcher.watch(mappedFile, this);
+			} catch (IOException | RuntimeException e) {
+				log.log(Level.WARNING, "Unable to watch " + mappedFile.getFilePath(), e);
+				return;
+			}
+			Platform.runLater(() -> {
+				if (this.doomFile != mappedFile)
+					watcher.unwatch(mappedFile);
+			});
+		}, "Watch starter");
+		starter.setDaemon(true);
+		starter.start();
+	}
+	
+	@Override
+	public void archiveReloaded(MappedFile oldFile, MappedFile newFile, ArchiveDiff diff) {
+		Platform.runLater(() -> {
+			if (this.doomFile == oldFile) {
+				setDoomFile(newFile);
+			} else {
+				try {
+					ArchiveWatcher.getDefault().unwatch(newFile);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Unable to stop watching " + newFile.getFilePath(), e);
+				}
+				newFile.dispose();
+			}
+			oldFile.dispose();
+		});
+	}
+	
+	@Override
+	public void archiveRemoved(MappedFile file) {
+		log.log(Level.INFO, file.getFilePath() + " was removed, the view keeps showing what was read");
+	}
+	
+	@Override
+	public void reloadFailed(MappedFile file, IOException e) {
+		log.log(Level.WARNING, "Unable to show the changes to " + file.getFilePath(), e);
+	}
+	
+	/**
+	 * Indexes the sprites of a file and reads its palette on a background
+	 * thread, then lists the sprites.
+	 * 
+	 * @param file
+	 * 		The file.
+	 */
+	private void loadSprites(DoomFile file) {
+		Thread loader = new Thread(() -> {
+			try {
+				SpriteIndex index = new SpriteIndex(Collections.singletonList(file));
+				Palette filePalette = null;
+				try {
+					filePalette = Palette.fromFile(file);
+				} catch (IllegalArgumentException e) {
+					log.log(Level.WARNING, "Unable to read the palette of " + file.getFilePath(), e);
+				}
+				Palette readPalette = filePalette;
+				Platform.runLater(() -> {
+					this.spriteIndex = index;
+					this.palette = readPalette;
+					this.spriteList.getItems().setAll(index.getSpriteNames());
+				});
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Unable to index the sprites of " + file.getFilePath(), e);
+			}
+		}, "Sprite loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
+	
+	/**
+	 * Searches the file for the text in the search field. A search that is
+	 * still running is cancelled, and results are listed as they are found.
+	 */
+	@FXML
+	private void search() {
+		String text = this.searchField.getText();
+		this.searchEngine.cancel();
+		this.searchResults.getItems().clear();
+		if (this.doomFile == null || text == null || text.isEmpty())
+			return;
+		DoomFile file = this.doomFile;
+		SearchQuery query = new SearchQuery(text);
+		int searchNumber = this.searchCount.incrementAndGet();
+		FXSearchListener listener = new FXSearchListener(results -> {
+			if (this.searchCount.get() == searchNumber)
+				this.searchResults.getItems().addAll(results);
+		}, null);
+		Runnable fileSearch = this.searchEngine.createSearch(Collections.singletonList(file), query, listener);
+		this.searchExecutor.execute(() -> {
+			if (this.searchCount.get() != searchNumber)
+				return;
+			try {
+				fileSearch.run();
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Unable to search " + file.getFilePath(), e);
+			}
+		});
+	}
+	
+	/**
+	 * Shows the canvas that belongs to a tab of the list.
+	 * 
+	 * @param tab
+	 * 		The index of the tab, 0 for maps, 1 for sprites and 2 for search
+	 * 		results, which keeps the map canvas.
+	 */
+	private void showTab(int tab) {
+		boolean sprites = tab == 1;
+		this.mapCanvas.setVisible(!sprites);
+		this.spriteCanvas.setVisible(sprites);
+		if (!sprites)
+			this.spriteCanvas.setAnimation(null, null);
+		else
+			showSprite(this.spriteList.getSelectionModel().getSelectedItem());
+	}
+	
+	/**
+	 * Plays a sprite. Its frames are decoded in the background through the
+	 * shared image cache as they come up.
+	 * 
+	 * @param sprite
+	 * 		The sprite name, or null to show nothing.
+	 */
+	private void showSprite(String sprite) {
+		if (sprite == null || this.spriteIndex == null) {
+			this.spriteCanvas.setAnimation(null, null);
+			return;
+		}
+		this.spriteCanvas.setAnimation(new SpriteAnimation(this.spriteIndex, sprite, ImageCache.getShared()), this.palette);
+	}
+	
+	/**
+	 * Shows a map. The map is read and indexed on a background thread so a
+	 * large map does not stall the interface, and is only shown if it is
+	 * still selected by then.
+	 * 
+	 * @param map
+	 * 		The map, or null to show nothing.
+	 */
+	private void showMap(MapReference map) {
+		if (map == null) {
+			this.mapCanvas.setMap(null);
+			return;
+		}
+		Thread loader = new Thread(() -> {
+			try {
+				long start = System.nanoTime();
+				MapSpatialIndex index = new MapSpatialIndex(MapGeometry.read(map));
+				log.log(Level.FINE, String.format("Indexed %s in %.1fms", map.getName(), (System.nanoTime() - start) / 1e6));
+				Platform.runLater(() -> {
+					if (this.mapList.getSelectionModel().getSelectedItem() == map)
+						this.mapCanvas.setMap(index);
+				});
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Unable to read map " + map.getName(), e);
+			}
+		}, "Map loader");
+		loader.setDaemon(true);
+		loader.start();
+	}
 }
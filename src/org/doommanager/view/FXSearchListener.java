@@ -0,0 +1,110 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.doommanager.editor.search.SearchListener;
+import org.doommanager.editor.search.SearchResult;
+
+import javafx.application.Platform;
+
+/**
+ * Passes search results from the search threads to the JavaFX application
+ * thread. Results are queued and handed over in batches, so a search that
+ * finds thousands of results does not flood the event queue with one
+ * runnable per result.
+ */
+public class FXSearchListener implements SearchListener {
+
+	/**
+	 * The results that have not been handed over yet.
+	 */
+	private final ConcurrentLinkedQueue<SearchResult> pending;
+
+	/**
+	 * If a hand over is already queued on the application thread.
+	 */
+	private final AtomicBoolean scheduled;
+
+	/**
+	 * Receives each batch of results on the application thread.
+	 */
+	private final Consumer<List<SearchResult>> resultConsumer;
+
+	/**
+	 * Runs on the application thread once the search is over.
+	 */
+	private final Runnable finishedAction;
+
+	/**
+	 * Creates a listener.
+	 * 
+	 * @param resultConsumer
+	 * 		Receives batches of results on the application thread, in the
+	 * 		order they were found.
+	 * 
+	 * @param finishedAction
+	 * 		Runs on the application thread after the last batch, or null.
+	 * 
+	 * @throws NullPointerException
+	 * 		If the consumer is null.
+	 */
+	public FXSearchListener(Consumer<List<SearchResult>> resultConsumer, Runnable finishedAction) {
+		if (resultConsumer == null)
+			throw new NullPointerException("Provided a null result consumer to FXSearchListener.");
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.scheduled = new AtomicBoolean();
+		this.resultConsumer = resultConsumer;
+		this.finishedAction = finishedAction;
+	}
+
+	@Override
+	public void resultFound(SearchResult result) {
+		this.pending.add(result);
+		if (this.scheduled.compareAndSet(false, true))
+			Platform.runLater(this::deliver);
+	}
+
+	@Override
+	public void searchFinished(int resultCount, boolean cancelled) {
+		Platform.runLater(() -> {
+			deliver();
+			if (this.finishedAction != null)
+				this.finishedAction.run();
+		});
+	}
+
+	/**
+	 * Hands every queued result to the consumer. This runs on the application
+	 * thread.
+	 */
+	private void deliver() {
+		this.scheduled.set(false);
+		List<SearchResult> batch = new ArrayList<>();
+		for (SearchResult result = this.pending.poll(); result != null; result = this.pending.poll())
+			batch.add(result);
+		if (!batch.isEmpty())
+			this.resultConsumer.accept(batch);
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.view;
+
+import java.util.Arrays;
+
+import org.doommanager.editor.map.MapGeometry;
+import org.doommanager.editor.map.MapSpatialIndex;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a map from above. Only the linedefs and things that are in view are
+ * looked up through the spatial index of the map, and linedefs shorter than
+ * a pixel are left out, so panning around a large map only costs as much as
+ * what is on screen. The map is panned by dragging and zoomed with the mouse
+ * wheel, and the linedef under the mouse is highlighted.
+ */
+public class MapCanvas extends Canvas {
+
+	/**
+	 * The background color.
+	 */
+	private static final Color BACKGROUND_COLOR = Color.rgb(16, 16, 16);
+
+	/**
+	 * The color of linedefs with one side.
+	 */
+	private static final Color ONE_SIDED_COLOR = Color.rgb(220, 220, 220);
+
+	/**
+	 * The color of linedefs with two sides.
+	 */
+	private static final Color TWO_SIDED_COLOR = Color.rgb(110, 110, 110);
+
+	/**
+	 * The color of linedefs with a special.
+	 */
+	private static final Color SPECIAL_COLOR = Color.rgb(90, 160, 255);
+
+	/**
+	 * The color of the linedef under the mouse.
+	 */
+	private static final Color HIGHLIGHT_COLOR = Color.rgb(255, 170, 0);
+
+	/**
+	 * The color of things.
+	 */
+	private static final Color THING_COLOR = Color.rgb(80, 200, 80);
+
+	/**
+	 * The size of a thing in map units.
+	 */
+	private static final double THING_SIZE = 32;
+
+	/**
+	 * Things are only drawn when they are at least this many pixels wide.
+	 */
+	private static final double MIN_THING_PIXELS = 3;
+
+	/**
+	 * How close to the mouse a linedef has to be to be picked, in pixels.
+	 */
+	private static final double PICK_PIXELS = 5;
+
+	/**
+	 * How much one step of the mouse wheel zooms.
+	 */
+	private static final double ZOOM_STEP = 1.2;
+
+	/**
+	 * The index of the map being shown, or null.
+	 */
+	private MapSpatialIndex index;
+
+	/**
+	 * The map x at the middle of the canvas.
+	 */
+	private double centerX;
+
+	/**
+	 * The map y at the middle of the canvas.
+	 */
+	private double centerY;
+
+	/**
+	 * The number of pixels per map unit.
+	 */
+	private double scale;
+
+	/**
+	 * The linedef under the mouse, or -1.
+	 */
+	private int highlightedLine;
+
+	/**
+	 * The screen x where the last drag event was.
+	 */
+	private double dragX;
+
+	/**
+	 * The screen y where the last drag event was.
+	 */
+	private double dragY;
+
+	/**
+	 * The linedefs found by the last query, reused between draws.
+	 */
+	private int[] visibleLines;
+
+	/**
+	 * The number of linedefs found by the last query.
+	 */
+	private int visibleCount;
+
+	/**
+	 * Creates an empty map canvas.
+	 */
+	public MapCanvas() {
+		this.scale = 1;
+		this.highlightedLine = -1;
+		this.visibleLines = new int[1024];
+		widthProperty().addListener(observable -> draw());
+		heightProperty().addListener(observable -> draw());
+		setOnMousePressed(this::mousePressed);
+		setOnMouseDragged(this::mouseDragged);
+		setOnMouseMoved(this::mouseMoved);
+		setOnScroll(this::scrolled);
+	}
+
+	/**
+	 * Shows a map, zoomed to fit the canvas.
+	 * 
+	 * @param index
+	 * 		The index of the map, or null to show nothing.
+	 */
+	public void setMap(MapSpatialIndex index) {
+		this.index = index;
+		this.highlightedLine = -1;
+		fitToMap();
+	}
+
+	/**
+	 * Centers the map and zooms so all of it is in view.
+	 */
+	public void fitToMap() {
+		if (this.index != null) {
+			MapGeometry geometry = this.index.getGeometry();
+			this.centerX = (geometry.getMinX() + geometry.getMaxX()) / 2;
+			this.centerY = (geometry.getMinY() + geometry.getMaxY()) / 2;
+			double width = Math.max(geometry.getMaxX() - geometry.getMinX(), 1);
+			double height = Math.max(geometry.getMaxY() - geometry.getMinY(), 1);
+			this.scale = Math.min(getWidth() / width, getHeight() / height) * 0.95;
+			if (this.scale <= 0)
+				this.scale = 1;
+		}
+		draw();
+	}
+
+	/**
+	 * Gets the linedef under the mouse.
+	 * 
+	 * @return
+	 * 		The linedef index, or -1 if there is none.
+	 */
+	public int getHighlightedLine() {
+		return this.highlightedLine;
+	}
+
+	/**
+	 * Turns a screen x into a map x.
+	 * 
+	 * @param screenX
+	 * 		The x on the canvas.
+	 * 
+	 * @return
+	 * 		The map x.
+	 */
+	private double toMapX(double screenX) {
+		return this.centerX + (screenX - getWidth() / 2) / this.scale;
+	}
+
+	/**
+	 * Turns a screen y into a map y. Map y grows upwards.
+	 * 
+	 * @param screenY
+	 * 		The y on the canvas.
+	 * 
+	 * @return
+	 * 		The map y.
+	 */
+	private double toMapY(double screenY) {
+		return this.centerY - (screenY - getHeight() / 2) / this.scale;
+	}
+
+	/**
+	 * Redraws the canvas.
+	 */
+	private void draw() {
+		GraphicsContext gc = getGraphicsContext2D();
+		double width = getWidth();
+		double height = getHeight();
+		gc.setFill(BACKGROUND_COLOR);
+		gc.fillRect(0, 0, width, height);
+		if (this.index == null)
+			return;
+
+		MapGeometry geometry = this.index.getGeometry();
+		double minX = toMapX(0);
+		double maxX = toMapX(width);
+		double minY = toMapY(height);
+		double maxY = toMapY(0);
+		this.visibleCount = 0;
+		this.index.queryLines(minX, minY, maxX, maxY, 1 / this.scale, line -> {
+			if (this.visibleCount == this.visibleLines.length)
+				this.visibleLines = Arrays.copyOf(this.visibleLines, this.visibleCount * 2);
+			this.visibleLines[this.visibleCount++] = line;
+		});
+
+		// One path per color is much cheaper than stroking every linedef on its own.
+		gc.setLineWidth(1);
+		strokeLines(gc, geometry, TWO_SIDED_COLOR, 0);
+		strokeLines(gc, geometry, ONE_SIDED_COLOR, 1);
+		strokeLines(gc, geometry, SPECIAL_COLOR, 2);
+
+		if (THING_SIZE * this.scale >= MIN_THING_PIXELS) {
+			double thingPixels = THING_SIZE * this.scale;
+			gc.setFill(THING_COLOR);
+			this.index.queryThings(minX - THING_SIZE, minY - THING_SIZE, maxX + THING_SIZE, maxY + THING_SIZE,
+					thing -> gc.fillRect(toScreenX(geometry.getThingX(thing)) - thingPixels / 2, toScreenY(geometry.getThingY(thing)) - thingPixels / 2,
+							thingPixels, thingPixels));
+		}
+
+		if (this.highlightedLine >= 0) {
+			gc.setStroke(HIGHLIGHT_COLOR);
+			gc.setLineWidth(3);
+			int start = geometry.getLineStart(this.highlightedLine);
+			int end = geometry.getLineEnd(this.highlightedLine);
+			gc.strokeLine(toScreenX(geometry.getVertexX(start)), toScreenY(geometry.getVertexY(start)), toScreenX(geometry.getVertexX(end)),
+					toScreenY(geometry.getVertexY(end)));
+		}
+	}
+
+	/**
+	 * Strokes the visible linedefs of one kind as a single path.
+	 * 
+	 * @param gc
+	 * 		The graphics context.
+	 * 
+	 * @param geometry
+	 * 		The map geometry.
+	 * 
+	 * @param color
+	 * 		The color to stroke with.
+	 * 
+	 * @param kind
+	 * 		0 for two sided linedefs, 1 for one sided linedefs and 2 for
+	 * 		linedefs with a special.
+	 */
+	private void strokeLines(GraphicsContext gc, MapGeometry geometry, Color color, int kind) {
+		gc.setStroke(color);
+		gc.beginPath();
+		for (int i = 0; i < this.visibleCount; i++) {
+			int line = this.visibleLines[i];
+			int lineKind = geometry.getLineSpecial(line) != 0 ? 2 : geometry.isTwoSided(line) ? 0 : 1;
+			if (lineKind != kind)
+				continue;
+			int start = geometry.getLineStart(line);
+			int end = geometry.getLineEnd(line);
+			// Half pixel offsets keep one pixel wide lines sharp.
+			gc.moveTo(Math.floor(toScreenX(geometry.getVertexX(start))) + 0.5, Math.floor(toScreenY(geometry.getVertexY(start))) + 0.5);
+			gc.lineTo(Math.floor(toScreenX(geometry.getVertexX(end))) + 0.5, Math.floor(toScreenY(geometry.getVertexY(end))) + 0.5);
+		}
+		gc.stroke();
+	}
+
+	/**
+	 * Turns a map x into a screen x.
+	 * 
+	 * @param mapX
+	 * 		The map x.
+	 * 
+	 * @return
+	 * 		The x on the canvas.
+	 */
+	private double toScreenX(double mapX) {
+		return (mapX - this.centerX) * this.scale + getWidth() / 2;
+	}
+
+	/**
+	 * Turns a map y into a screen y.
+	 * 
+	 * @param mapY
+	 * 		The map y.
+	 * 
+	 * @return
+	 * 		The y on the canvas.
+	 */
+	private double toScreenY(double mapY) {
+		return getHeight() / 2 - (mapY - this.centerY) * this.scale;
+	}
+
+	/**
+	 * Starts a drag.
+	 * 
+	 * @param event
+	 * 		The mouse event.
+	 */
+	private void mousePressed(MouseEvent event) {
+		this.dragX = event.getX();
+		this.dragY = event.getY();
+		if (event.getButton() == MouseButton.SECONDARY)
+			fitToMap();
+	}
+
+	/**
+	 * Pans the map with the mouse.
+	 * 
+	 * @param event
+	 * 		The mouse event.
+	 */
+	private void mouseDragged(MouseEvent event) {
+		this.centerX -= (event.getX() - this.dragX) / this.scale;
+		this.centerY += (event.getY() - this.dragY) / this.scale;
+		this.dragX = event.getX();
+		this.dragY = event.getY();
+		draw();
+	}
+
+	/**
+	 * Highlights the linedef under the mouse.
+	 * 
+	 * @param event
+	 * 		The mouse event.
+	 */
+	private void mouseMoved(MouseEvent event) {
+		if (this.index == null)
+			return;
+		int line = this.index.pickLine(toMapX(event.getX()), toMapY(event.getY()), PICK_PIXELS / this.scale);
+		if (line != this.highlightedLine) {
+			this.highlightedLine = line;
+			draw();
+		}
+	}
+
+	/**
+	 * Zooms around the mouse.
+	 * 
+	 * @param event
+	 * 		The scroll event.
+	 */
+	private void scrolled(ScrollEvent event) {
+		if (event.getDeltaY() == 0)
+			return;
+		double mapX = toMapX(event.getX());
+		double mapY = toMapY(event.getY());
+		this.scale *= event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP;
+		// Keep the point under the mouse where it is.
+		this.centerX = mapX - (event.getX() - getWidth() / 2) / this.scale;
+		this.centerY = mapY + (event.getY() - getHeight() / 2) / this.scale;
+		draw();
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * DoomManager
+ * Copyright (C) 2014  Chris K
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.doommanager.view;
+
+import org.doommanager.editor.graphics.IndexedImage;
+import org.doommanager.editor.graphics.Palette;
+import org.doommanager.editor.graphics.PictureBounds;
+import org.doommanager.editor.graphics.SpriteAnimation;
+import org.doommanager.editor.graphics.SpriteFrame;
+import org.doommanager.editor.graphics.SpriteIndex;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+
+/**
+ * Plays a sprite animation. Every frame is placed by its offsets inside the
+ * box that all frames of the sprite fit in, so the sprite stands still
+ * while it animates, and is scaled up by a whole number so the pixels stay
+ * sharp. The canvas is only redrawn when the frame changes. Clicking turns
+ * the sprite to the next rotation, right clicking to the one before.
+ */
+public class SpriteCanvas extends Canvas {
+
+	/**
+	 * The background color.
+	 */
+	private static final Color BACKGROUND_COLOR = Color.rgb(16, 16, 16);
+
+	/**
+	 * The color of the line the sprite stands on.
+	 */
+	private static final Color FLOOR_COLOR = Color.rgb(70, 70, 70);
+
+	/**
+	 * The color of the rotation text.
+	 */
+	private static final Color TEXT_COLOR = Color.rgb(160, 160, 160);
+
+	/**
+	 * How much of the canvas the sprite may fill.
+	 */
+	private static final double FILL = 0.9;
+
+	/**
+	 * The animation being played, or null.
+	 */
+	private SpriteAnimation animation;
+
+	/**
+	 * The palette to draw with, or null for gray.
+	 */
+	private Palette palette;
+
+	/**
+	 * Calls for the image that is due on every pulse.
+	 */
+	private final AnimationTimer timer;
+
+	/**
+	 * The pulse time the animation started at, or -1 if it has not yet.
+	 */
+	private long startTime;
+
+	/**
+	 * The image on the canvas, or null.
+	 */
+	private IndexedImage drawnImage;
+
+	/**
+	 * The frame of the image on the canvas, or null.
+	 */
+	private SpriteFrame drawnFrame;
+
+	/**
+	 * The image on the canvas in color, scaled and mirrored.
+	 */
+	private WritableImage frameImage;
+
+	/**
+	 * The scale the frame image was made at.
+	 */
+	private int frameScale;
+
+	/**
+	 * Creates an empty sprite canvas.
+	 */
+	public SpriteCanvas() {
+		this.timer = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				pulse(now);
+			}
+		};
+		widthProperty().addListener(observable -> draw());
+		heightProperty().addListener(observable -> draw());
+		setOnMouseClicked(this::mouseClicked);
+	}
+
+	/**
+	 * Plays an animation, or stops playing.
+	 * 
+	 * @param animation
+	 * 		The animation, or null to show nothing.
+	 * 
+	 * @param palette
+	 * 		The palette to draw with, or null for gray.
+	 */
+	public void setAnimation(SpriteAnimation animation, Palette palette) {
+		this.animation = animation;
+		this.palette = palette;
+		this.drawnImage = null;
+		this.drawnFrame = null;
+		this.frameImage = null;
+		this.startTime = -1;
+		if (animation == null)
+			this.timer.stop();
+		else
+			this.timer.start();
+		draw();
+	}
+
+	/**
+	 * Checks for a new frame on a pulse.
+	 * 
+	 * @param now
+	 * 		The time of the pulse in nanoseconds.
+	 */
+	private void pulse(long now) {
+		if (this.animation == null)
+			return;
+		if (this.startTime < 0)
+			this.startTime = now;
+		IndexedImage image = this.animation.getImage(now - this.startTime);
+		SpriteFrame frame = this.animation.getShownFrame();
+		if (image != this.drawnImage || frame != this.drawnFrame) {
+			this.drawnImage = image;
+			this.drawnFrame = frame;
+			this.frameImage = null;
+			draw();
+		}
+	}
+
+	/**
+	 * Works out the scale that fits the sprite in the canvas.
+	 * 
+	 * @param bounds
+	 * 		The box every frame fits in.
+	 * 
+	 * @return
+	 * 		The scale, at least 1.
+	 */
+	private int scaleFor(PictureBounds bounds) {
+		double scale = Math.min(getWidth() / bounds.getWidth(), getHeight() / bounds.getHeight()) * FILL;
+		return Math.max(1, (int)scale);
+	}
+
+	/**
+	 * Draws the current frame.
+	 */
+	private void draw() {
+		GraphicsContext gc = getGraphicsContext2D();
+		double width = getWidth();
+		double height = getHeight();
+		gc.setFill(BACKGROUND_COLOR);
+		gc.fillRect(0, 0, width, height);
+		if (this.animation == null)
+			return;
+
+		PictureBounds bounds = this.animation.getBounds();
+		int scale = scaleFor(bounds);
+		double originX = Math.floor((width - bounds.getWidth() * scale) / 2) + bounds.getLeftOffset() * scale;
+		double originY = Math.floor((height - bounds.getHeight() * scale) / 2) + bounds.getTopOffset() * scale;
+		gc.setStroke(FLOOR_COLOR);
+		gc.setLineWidth(1);
+		gc.strokeLine(0, originY + 0.5, width, originY + 0.5);
+		gc.setFill(TEXT_COLOR);
+		gc.fillText("Rotation " + this.animation.getRotation(), 8, 16);
+
+		if (this.drawnImage == null)
+			return;
+		if (this.frameImage == null || this.frameScale != scale) {
+			this.frameImage = toFxImage(this.drawnImage, this.drawnFrame.isMirrored(), scale);
+			this.frameScale = scale;
+		}
+		PictureBounds frameBounds = this.drawnFrame.getBounds();
+		gc.drawImage(this.frameImage, originX + frameBounds.getLeft() * scale, originY + frameBounds.getTop() * scale);
+	}
+
+	/**
+	 * Turns an image into color at a scale, copying each pixel into a
+	 * block so nothing is smoothed.
+	 * 
+	 * @param image
+	 * 		The image.
+	 * 
+	 * @param mirrored
+	 * 		True to flip the columns.
+	 * 
+	 * @param scale
+	 * 		The size of the block each pixel becomes.
+	 * 
+	 * @return
+	 * 		The image in color with transparency.
+	 */
+	private WritableImage toFxImage(IndexedImage image, boolean mirrored, int scale) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int scaledWidth = width * scale;
+		int scaledHeight = height * scale;
+		int[] argb = new int[scaledWidth * scaledHeight];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int sourceX = mirrored ? width - 1 - x : x;
+				if (!image.isOpaque(sourceX, y))
+					continue;
+				int index = image.getIndex(sourceX, y);
+				int color = 0xFF000000 | (this.palette == null ? index * 0x010101 : this.palette.getRgb(index));
+				for (int row = y * scale; row < (y + 1) * scale; row++)
+					for (int column = x * scale; column < (x + 1) * scale; column++)
+						argb[row * scaledWidth + column] = color;
+			}
+		}
+		WritableImage result = new WritableImage(scaledWidth, scaledHeight);
+		result.getPixelWriter().setPixels(0, 0, scaledWidth, scaledHeight, PixelFormat.getIntArgbInstance(), argb, 0, scaledWidth);
+		return result;
+	}
+
+	/**
+	 * Turns the sprite to the next or previous rotation.
+	 * 
+	 * @param event
+	 * 		The click.
+	 */
+	private void mouseClicked(MouseEvent event) {
+		if (this.animation == null)
+			return;
+		int step = event.getButton() == MouseButton.SECONDARY ? SpriteIndex.ROTATIONS - 1 : 1;
+		this.animation.setRotation((this.animation.getRotation() - 1 + step) % SpriteIndex.ROTATIONS + 1);
+		draw();
+	}
+}